@@ -2,11 +2,22 @@ plugins {
     id("java")
     id("org.springframework.boot") version "3.3.5"
     id("io.spring.dependency-management") version "1.1.6"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
+// Build with -PjavaVersion=21 to run on a JDK with virtual threads, see the "virtual" profile.
+val javaVersion = (findProperty("javaVersion") as String?)?.toInt() ?: 17
+
 java {
     toolchain {
-        languageVersion = JavaLanguageVersion.of(17)
+        languageVersion = JavaLanguageVersion.of(javaVersion)
+    }
+}
+
+sourceSets {
+    create("loadTest") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
     }
 }
 
@@ -14,6 +25,12 @@ configurations {
     compileOnly {
         extendsFrom(configurations.annotationProcessor.get())
     }
+    named("loadTestImplementation") {
+        extendsFrom(configurations.implementation.get())
+    }
+    named("loadTestRuntimeOnly") {
+        extendsFrom(configurations.runtimeOnly.get())
+    }
 }
 
 group = "org.aknezevic"
@@ -25,9 +42,16 @@ repositories {
 
 dependencies {
     implementation("org.springframework.boot:spring-boot-starter-web")
+    implementation("org.springframework.boot:spring-boot-starter-webflux")
     implementation("org.springframework.boot:spring-boot-starter-data-redis")
     implementation("org.springframework.boot:spring-boot-starter-security")
     implementation("org.springframework.boot:spring-boot-starter-validation")
+    implementation("org.springframework.boot:spring-boot-starter-actuator")
+    implementation("org.springframework.boot:spring-boot-starter-aop")
+    runtimeOnly("io.micrometer:micrometer-registry-prometheus")
+    implementation("com.github.ben-manes.caffeine:caffeine")
+    implementation("org.apache.commons:commons-pool2")
+    implementation("redis.clients:jedis")
 
     compileOnly("org.projectlombok:lombok")
     annotationProcessor("org.springframework.boot:spring-boot-configuration-processor")
@@ -35,9 +59,45 @@ dependencies {
 
     testImplementation("org.springframework.boot:spring-boot-starter-test")
     testImplementation("org.mockito:mockito-core")
+    testImplementation("com.github.codemonstur:embedded-redis:1.4.3")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    jmh("org.springframework:spring-test")
+
+    "loadTestImplementation"("com.github.codemonstur:embedded-redis:1.4.3")
+    "loadTestImplementation"("org.hdrhistogram:HdrHistogram:2.2.2")
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the HTTP load test against a running instance of the API."
+    classpath = sourceSets["loadTest"].runtimeClasspath
+    mainClass = "org.aknezevic.wallet.loadtest.HttpLoadTest"
+    listOf("baseUrl", "apiKey", "concurrency", "duration", "wallets").forEach { name ->
+        findProperty(name)?.let { systemProperty("loadtest.$name", it) }
+    }
+}
+
+tasks.register<JavaExec>("embeddedLoadTest") {
+    group = "verification"
+    description = "Runs the API against an embedded Redis server under load and checks the final balances."
+    classpath = sourceSets["loadTest"].runtimeClasspath
+    mainClass = "org.aknezevic.wallet.loadtest.EmbeddedLoadTest"
+    listOf("concurrency", "duration", "wallets", "reads", "creates", "replays", "zipf", "cache").forEach { name ->
+        findProperty(name)?.let { systemProperty("loadtest.$name", it) }
+    }
+}
+
+// Benchmarks under src/jmh, run with ./gradlew jmh. Pass -PjmhIncludes=<regex> to run a subset.
+jmh {
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+    findProperty("jmhIncludes")?.let { includes = listOf(it as String) }
+}
@@ -0,0 +1,65 @@
+package org.aknezevic.wallet.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures JSON serialization of the request and response bodies with a mapper configured like the
+ * application's, which registers the Java time module for {@link Idempotency#getExpiry()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonSerializationBenchmark {
+    private final ObjectMapper mapper = JsonMapper.builder().findAndAddModules().build();
+
+    private Wallet wallet;
+    private Idempotency idempotency;
+    private String walletJson;
+    private String idempotencyJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        wallet = new Wallet(UUID.randomUUID(), new BigDecimal("1234.56"));
+        idempotency = Idempotency.builder()
+                .key(UUID.randomUUID())
+                .response(wallet)
+                .expiry(Instant.now())
+                .build();
+        walletJson = mapper.writeValueAsString(wallet);
+        idempotencyJson = mapper.writeValueAsString(idempotency);
+    }
+
+    @Benchmark
+    public String writeWallet() throws JsonProcessingException {
+        return mapper.writeValueAsString(wallet);
+    }
+
+    @Benchmark
+    public Wallet readWallet() throws JsonProcessingException {
+        return mapper.readValue(walletJson, Wallet.class);
+    }
+
+    @Benchmark
+    public String writeIdempotency() throws JsonProcessingException {
+        return mapper.writeValueAsString(idempotency);
+    }
+
+    @Benchmark
+    public Idempotency readIdempotency() throws JsonProcessingException {
+        return mapper.readValue(idempotencyJson, Idempotency.class);
+    }
+}
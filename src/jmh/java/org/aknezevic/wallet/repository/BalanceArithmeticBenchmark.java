@@ -0,0 +1,66 @@
+package org.aknezevic.wallet.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a balance update on {@link BigDecimal} values with the same update on minor units, including
+ * the validation that the amount fits the configured scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BalanceArithmeticBenchmark {
+    private static final int SCALE = 2;
+
+    private BalanceCodec balanceCodec;
+    private BigDecimal balance;
+    private BigDecimal amount;
+    private long balanceMinorUnits;
+    private long amountMinorUnits;
+
+    @Setup
+    public void setUp() {
+        balanceCodec = new BalanceCodec();
+        ReflectionTestUtils.setField(balanceCodec, "storage", "minor-units");
+        ReflectionTestUtils.setField(balanceCodec, "scale", SCALE);
+
+        balance = new BigDecimal("1234567.89");
+        amount = new BigDecimal("10.5");
+        balanceMinorUnits = 123456789L;
+        amountMinorUnits = 1050L;
+    }
+
+    @Benchmark
+    public boolean subtractDecimal() {
+        return balance.subtract(amount).signum() >= 0;
+    }
+
+    @Benchmark
+    public BigDecimal subtractDecimalAtScale() {
+        BigDecimal updated = balance.subtract(amount).setScale(SCALE, RoundingMode.UNNECESSARY);
+        return updated.signum() >= 0 ? updated : balance;
+    }
+
+    @Benchmark
+    public boolean subtractMinorUnits() {
+        return balanceMinorUnits - amountMinorUnits >= 0;
+    }
+
+    @Benchmark
+    public BigDecimal validateAndSubtractMinorUnits() {
+        balanceCodec.validate(amount);
+        long updated = balanceMinorUnits - Long.parseLong(balanceCodec.encode(amount));
+        return BigDecimal.valueOf(updated, SCALE);
+    }
+}
@@ -0,0 +1,107 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of wallets and idempotency records to and from the script arguments and hash
+ * fields exchanged with Redis, for both balance storage modes. Packing single responses into their binary
+ * field happens inside the scripts and is not covered here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RedisSerializationBenchmark {
+
+    @Param({"decimal", "minor-units"})
+    private String storage;
+
+    private BalanceCodec balanceCodec;
+    private KeySharding keySharding;
+    private UUID key;
+    private Idempotency idempotency;
+    private Map<String, String> fields;
+    private Idempotency batchIdempotency;
+    private Map<String, String> batchFields;
+    private String encodedBalance;
+
+    @Setup
+    public void setUp() {
+        balanceCodec = new BalanceCodec();
+        ReflectionTestUtils.setField(balanceCodec, "storage", storage);
+        ReflectionTestUtils.setField(balanceCodec, "scale", 2);
+
+        keySharding = new KeySharding();
+        ReflectionTestUtils.setField(keySharding, "shards", 16);
+        ReflectionTestUtils.setField(keySharding, "hashTags", true);
+        ReflectionTestUtils.setField(keySharding, "clusterNodes", List.of());
+
+        key = UUID.randomUUID();
+        idempotency = Idempotency.builder()
+                .key(key)
+                .response(new Wallet(UUID.randomUUID(), new BigDecimal("1234.56")))
+                .expiry(Instant.now())
+                .build();
+        fields = Map.of(
+                IdempotencyRecords.ID_FIELD, idempotency.getResponse().getId().toString(),
+                IdempotencyRecords.BALANCE_FIELD, balanceCodec.encode(idempotency.getResponse().getBalance()),
+                IdempotencyRecords.EXPIRY_FIELD, String.valueOf(idempotency.getExpiry().getEpochSecond()));
+
+        List<WalletResult> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            results.add(new WalletResult(UUID.randomUUID(), WalletResult.Status.CREATED, null));
+        }
+        batchIdempotency = Idempotency.builder().key(key).results(results).expiry(Instant.now()).build();
+        batchFields = IdempotencyRecords.toFields(batchIdempotency);
+
+        encodedBalance = balanceCodec.encode(new BigDecimal("1234.56"));
+    }
+
+    @Benchmark
+    public String encodeBalance() {
+        return balanceCodec.encode(new BigDecimal("1234.56"));
+    }
+
+    @Benchmark
+    public BigDecimal decodeBalance() {
+        return balanceCodec.decode(encodedBalance);
+    }
+
+    @Benchmark
+    public String[] writeIdempotency() {
+        return IdempotencyRecords.storeKeysAndArgs(balanceCodec, keySharding, idempotency);
+    }
+
+    @Benchmark
+    public Idempotency readIdempotency() {
+        return IdempotencyRecords.fromFields(balanceCodec, key, fields);
+    }
+
+    @Benchmark
+    public Map<String, String> writeBatchIdempotency() {
+        return IdempotencyRecords.toFields(batchIdempotency);
+    }
+
+    @Benchmark
+    public Idempotency readBatchIdempotency() {
+        return IdempotencyRecords.fromFields(balanceCodec, key, batchFields);
+    }
+}
@@ -0,0 +1,54 @@
+package org.aknezevic.wallet.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the API key check run by the authentication filter on every request, for a valid key and for
+ * an invalid key, which is rejected with an exception.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthServiceBenchmark {
+    private static final String AUTH_TOKEN = "qwerty123";
+
+    private MockHttpServletRequest validRequest;
+    private MockHttpServletRequest invalidRequest;
+
+    @Setup
+    public void setUp() {
+        ReflectionTestUtils.invokeMethod(new AuthService(), "setToken", AUTH_TOKEN);
+
+        validRequest = new MockHttpServletRequest();
+        validRequest.addHeader("X-API-KEY", AUTH_TOKEN);
+        invalidRequest = new MockHttpServletRequest();
+        invalidRequest.addHeader("X-API-KEY", "invalid");
+    }
+
+    @Benchmark
+    public Authentication validKey() {
+        return AuthService.getAuth(validRequest);
+    }
+
+    @Benchmark
+    public Object invalidKey() {
+        try {
+            return AuthService.getAuth(invalidRequest);
+        }
+        catch (BadCredentialsException ex) {
+            return ex;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.aknezevic.wallet.service;
+
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.BalanceCodec;
+import org.aknezevic.wallet.repository.WalletStore;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Stand-in for the Redis store that keeps encoded balances and idempotency responses in maps, so that
+ * benchmarks measure the service and codec overhead without a network round trip. Balances are decoded,
+ * updated and encoded again on each update, as the update scripts do in Redis, and operations run one at a
+ * time, as scripts do. Only the most recent responses are kept, standing in for their expiry in Redis, and
+ * no ledger is kept, so transaction pages are always empty.
+ */
+public class InMemoryWalletStore implements WalletStore {
+    private static final int MAX_RESPONSES = 100_000;
+
+    private final Map<UUID, StoredWallet> wallets = new HashMap<>();
+    private final Map<UUID, StoredResponse> responses = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, StoredResponse> eldest) {
+            return size() > MAX_RESPONSES;
+        }
+    };
+    private final BalanceCodec balanceCodec;
+
+    public InMemoryWalletStore(BalanceCodec balanceCodec) {
+        this.balanceCodec = balanceCodec;
+    }
+
+    @Override
+    public synchronized Optional<Wallet> findById(UUID id) {
+        return Optional.ofNullable(wallets.get(id)).map(stored -> toWallet(id, stored));
+    }
+
+    @Override
+    public Optional<Wallet> findById(UUID id, Long minVersion) {
+        return findById(id);
+    }
+
+    @Override
+    public synchronized List<Wallet> findAllById(List<UUID> ids) {
+        return ids.stream().map(id -> findById(id).orElse(null)).toList();
+    }
+
+    @Override
+    public synchronized Wallet save(Wallet wallet) {
+        if (wallet.getId() == null) {
+            wallet.setId(UUID.randomUUID());
+        }
+
+        StoredWallet stored = wallets.get(wallet.getId());
+        long version = stored != null ? stored.version() + 1 : 1;
+        wallets.put(wallet.getId(), new StoredWallet(balanceCodec.encode(wallet.getBalance()), version));
+        wallet.setVersion(version);
+
+        return wallet;
+    }
+
+    @Override
+    public synchronized WalletResult updateBalance(UUID id, BigDecimal amount, boolean isAddingFunds) {
+        StoredWallet stored = wallets.get(id);
+        if (stored == null) {
+            return new WalletResult(id, WalletResult.Status.NOT_FOUND, null);
+        }
+
+        BigDecimal balance = balanceCodec.decode(stored.balance());
+        BigDecimal updated = isAddingFunds ? balance.add(amount) : balance.subtract(amount);
+        if (updated.signum() < 0) {
+            return new WalletResult(id, WalletResult.Status.INSUFFICIENT_FUNDS, null);
+        }
+
+        StoredWallet next = new StoredWallet(balanceCodec.encode(updated), stored.version() + 1);
+        wallets.put(id, next);
+
+        return new WalletResult(id, WalletResult.Status.UPDATED, toWallet(id, next));
+    }
+
+    @Override
+    public synchronized WalletResult create(UUID idempotencyKey, Wallet wallet, Instant expiry) {
+        StoredResponse response = responses.get(idempotencyKey);
+        if (response != null) {
+            return new WalletResult(response.wallet().getId(), WalletResult.Status.REPLAYED, response.wallet());
+        }
+        if (wallets.containsKey(wallet.getId())) {
+            return new WalletResult(wallet.getId(), WalletResult.Status.ALREADY_EXISTS, null);
+        }
+
+        Wallet saved = save(new Wallet(wallet.getId(), wallet.getBalance()));
+        responses.put(idempotencyKey, new StoredResponse(new Wallet(saved.getId(), saved.getBalance()), null));
+
+        return new WalletResult(saved.getId(), WalletResult.Status.CREATED, saved);
+    }
+
+    @Override
+    public synchronized WalletResult updateBalance(UUID idempotencyKey, UUID id, BigDecimal amount, boolean isAddingFunds,
+                                                   Instant expiry) {
+        StoredResponse response = responses.get(idempotencyKey);
+        if (response != null) {
+            return new WalletResult(response.wallet().getId(), WalletResult.Status.REPLAYED, response.wallet());
+        }
+
+        WalletResult result = updateBalance(id, amount, isAddingFunds);
+        if (result.getStatus() == WalletResult.Status.UPDATED) {
+            responses.put(idempotencyKey, new StoredResponse(new Wallet(id, result.getWallet().getBalance()), null));
+        }
+
+        return result;
+    }
+
+    @Override
+    public synchronized TransferResult transfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount,
+                                                Instant expiry) {
+        StoredResponse response = responses.get(idempotencyKey);
+        if (response != null) {
+            return new TransferResult(WalletResult.Status.REPLAYED, null, response.wallet(), response.counterparty());
+        }
+        if (!wallets.containsKey(fromId)) {
+            return new TransferResult(WalletResult.Status.NOT_FOUND, fromId, null, null);
+        }
+        if (!wallets.containsKey(toId)) {
+            return new TransferResult(WalletResult.Status.NOT_FOUND, toId, null, null);
+        }
+
+        WalletResult debit = updateBalance(fromId, amount, false);
+        if (debit.getStatus() != WalletResult.Status.UPDATED) {
+            return new TransferResult(debit.getStatus(), fromId, null, null);
+        }
+        WalletResult credit = updateBalance(toId, amount, true);
+
+        responses.put(idempotencyKey, new StoredResponse(new Wallet(fromId, debit.getWallet().getBalance()),
+                new Wallet(toId, credit.getWallet().getBalance())));
+
+        return new TransferResult(WalletResult.Status.UPDATED, null, debit.getWallet(), credit.getWallet());
+    }
+
+    @Override
+    public synchronized List<Boolean> createAll(List<Wallet> wallets) {
+        return wallets.stream().map(wallet -> {
+            if (this.wallets.containsKey(wallet.getId())) {
+                return false;
+            }
+
+            save(wallet);
+            return true;
+        }).toList();
+    }
+
+    @Override
+    public synchronized List<WalletResult> updateBalances(List<BalanceChange> changes, Instant expiry) {
+        return changes.stream()
+                .map(change -> updateBalance(change.getIdempotencyKey(), change.getWalletId(), change.getAmount(),
+                        change.getIsAddingFunds(), expiry))
+                .toList();
+    }
+
+    @Override
+    public synchronized TransactionPage findTransactions(UUID id, Long before, int limit) {
+        return wallets.containsKey(id) ? new TransactionPage(List.of(), null) : null;
+    }
+
+    @Override
+    public List<WalletResult> commitBalanceChanges(UUID id, List<BalanceChange> changes, Instant expiry) {
+        return updateBalances(changes, expiry);
+    }
+
+    private Wallet toWallet(UUID id, StoredWallet stored) {
+        return new Wallet(id, balanceCodec.decode(stored.balance()), stored.version());
+    }
+
+    private record StoredWallet(String balance, long version) {
+    }
+
+    private record StoredResponse(Wallet wallet, Wallet counterparty) {
+    }
+}
@@ -0,0 +1,101 @@
+package org.aknezevic.wallet.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.BalanceCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the service path of idempotent balance updates and transfers, including validation, codec
+ * conversions and the result check, against {@link InMemoryWalletStore}. Each update and transfer uses a new
+ * idempotency key, built from a counter rather than at random so that key generation is not measured, while
+ * the replay reuses the key of an update applied during setup. The wallet cache is disabled so that each call
+ * reaches the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WalletServiceBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"decimal", "minor-units"})
+    private String storage;
+
+    private WalletService walletService;
+    private UUID walletId;
+    private UUID otherWalletId;
+    private UUID replayKey;
+    private long keys;
+
+    @Setup
+    public void setUp() {
+        BalanceCodec balanceCodec = new BalanceCodec();
+        ReflectionTestUtils.setField(balanceCodec, "storage", storage);
+        ReflectionTestUtils.setField(balanceCodec, "scale", 2);
+
+        WalletMetrics walletMetrics = new WalletMetrics();
+        ReflectionTestUtils.setField(walletMetrics, "meterRegistry", new SimpleMeterRegistry());
+        walletMetrics.init();
+
+        InMemoryWalletStore walletStore = new InMemoryWalletStore(balanceCodec);
+        walletId = walletStore.save(new Wallet(null, new BigDecimal("1000000000.00"))).getId();
+        otherWalletId = walletStore.save(new Wallet(null, BigDecimal.ZERO)).getId();
+
+        WalletCache walletCache = new WalletCache();
+        WalletRequests walletRequests = new WalletRequests();
+        ReflectionTestUtils.setField(walletRequests, "balanceCodec", balanceCodec);
+        ReflectionTestUtils.setField(walletRequests, "walletCache", walletCache);
+        ReflectionTestUtils.setField(walletRequests, "walletMetrics", walletMetrics);
+
+        walletService = new WalletService();
+        ReflectionTestUtils.setField(walletService, "walletStore", walletStore);
+        ReflectionTestUtils.setField(walletService, "balanceCodec", balanceCodec);
+        ReflectionTestUtils.setField(walletService, "walletCache", walletCache);
+        ReflectionTestUtils.setField(walletService, "walletMetrics", walletMetrics);
+        ReflectionTestUtils.setField(walletService, "walletRequests", walletRequests);
+        ReflectionTestUtils.setField(walletService, "balanceCoalescer", new BalanceCoalescer());
+        ReflectionTestUtils.setField(walletService, "idempotencyTtl", Duration.ofHours(24));
+
+        replayKey = nextKey();
+        walletService.updateBalance(replayKey, walletId, true, AMOUNT);
+    }
+
+    @Benchmark
+    public WalletResult addFunds() {
+        return walletService.updateBalance(nextKey(), walletId, true, AMOUNT);
+    }
+
+    @Benchmark
+    public WalletResult removeFunds() {
+        return walletService.updateBalance(nextKey(), walletId, false, AMOUNT);
+    }
+
+    @Benchmark
+    public WalletResult replayUpdate() {
+        return walletService.updateBalance(replayKey, walletId, true, AMOUNT);
+    }
+
+    @Benchmark
+    public TransferResult transfer() {
+        return walletService.transfer(nextKey(), walletId, otherWalletId, AMOUNT);
+    }
+
+    private UUID nextKey() {
+        return new UUID(0, ++keys);
+    }
+}
@@ -0,0 +1,428 @@
+package org.aknezevic.wallet.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.aknezevic.wallet.WalletApp;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.repository.WalletStore;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Self-contained load test that starts an embedded Redis server and boots {@link WalletApp} against it in
+ * the same JVM, so that production load shapes can be reproduced without a network or Docker. Clients
+ * drive a mix of GET, POST and PATCH requests, picking wallets from a Zipfian distribution so that a few
+ * hot wallets receive most of the concurrent writes, and resend completed requests with their idempotency
+ * key to exercise replays.
+ *
+ * Every balance change that the API acknowledged is recorded in an in-memory ledger. Once the run ends,
+ * requests with an unknown outcome are resent with the same idempotency key until they complete, and the
+ * balance of each wallet in Redis is compared with the ledger. A lost update or a replay that moved funds
+ * again shows up as a mismatch, which fails the run.
+ *
+ * Configured with the system properties {@code loadtest.concurrency}, {@code loadtest.duration} (seconds),
+ * {@code loadtest.wallets}, {@code loadtest.reads} and {@code loadtest.creates} (shares of GET and POST
+ * requests, the rest being PATCH), {@code loadtest.replays} (share of PATCH requests that are resent),
+ * {@code loadtest.zipf} (exponent of the wallet distribution) and {@code loadtest.cache}.
+ */
+public class EmbeddedLoadTest {
+    private static final String API_KEY = "loadtest";
+    private static final long INITIAL_BALANCE = 100_000_000L;
+    private static final int CREATE_CHUNK_SIZE = 500;
+    private static final int HISTORY_SIZE = 1024;
+    private static final int MAX_RESOLVE_ATTEMPTS = 10;
+
+    private enum Operation { GET, POST, PATCH, REPLAY }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 64);
+        Duration duration = Duration.ofSeconds(Integer.getInteger("loadtest.duration", 30));
+        int walletCount = Integer.getInteger("loadtest.wallets", 1000);
+        double reads = Double.parseDouble(System.getProperty("loadtest.reads", "0.5"));
+        double creates = Double.parseDouble(System.getProperty("loadtest.creates", "0.05"));
+        double replays = Double.parseDouble(System.getProperty("loadtest.replays", "0.05"));
+        double zipfExponent = Double.parseDouble(System.getProperty("loadtest.zipf", "0.99"));
+        String cacheEnabled = System.getProperty("loadtest.cache", "true");
+
+        int redisPort = freePort();
+        RedisServer redisServer = new RedisServer(redisPort);
+        redisServer.start();
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(WalletApp.class)
+                .properties(Map.of(
+                        "server.port", "0",
+                        "spring.data.redis.host", "localhost",
+                        "spring.data.redis.port", String.valueOf(redisPort),
+                        "auth.token", API_KEY,
+                        "wallet.cache.enabled", cacheEnabled,
+                        "logging.level.org.aknezevic.wallet", "warn"))
+                .run();
+        int exitCode = 1;
+
+        try {
+            context.getBean(StringRedisTemplate.class).execute((RedisCallback<Object>) connection -> {
+                connection.serverCommands().setConfig("notify-keyspace-events", "Khg");
+                return null;
+            });
+
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/wallet";
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(Executors.newFixedThreadPool(Math.max(4, concurrency / 8)))
+                    .build();
+
+            Ledger ledger = new Ledger(createWallets(client, baseUrl, walletCount));
+            Zipfian zipfian = new Zipfian(walletCount, zipfExponent);
+            System.out.printf("Created %d wallets, running %d clients for %s%n", walletCount, concurrency, duration);
+
+            ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+            long deadline = System.nanoTime() + duration.toNanos();
+            List<Future<Result>> futures = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(clients.submit(() -> run(client, baseUrl, ledger, zipfian, reads, creates, replays, deadline)));
+            }
+
+            Result total = new Result();
+            for (Future<Result> future : futures) {
+                total.merge(future.get());
+            }
+            clients.shutdown();
+
+            report(total, duration);
+            resolve(client, baseUrl, ledger, total.uncertain);
+            exitCode = verify(context.getBean(WalletStore.class), ledger) ? 0 : 1;
+        }
+        finally {
+            context.close();
+            redisServer.stop();
+        }
+
+        System.exit(exitCode);
+    }
+
+    private static List<UUID> createWallets(HttpClient client, String baseUrl, int count) throws Exception {
+        List<UUID> wallets = new ArrayList<>(count);
+        for (int from = 0; from < count; from += CREATE_CHUNK_SIZE) {
+            StringBuilder body = new StringBuilder("[");
+            for (int i = from; i < Math.min(from + CREATE_CHUNK_SIZE, count); i++) {
+                UUID id = UUID.randomUUID();
+                wallets.add(id);
+                body.append(i > from ? "," : "").append(walletJson(id, INITIAL_BALANCE));
+            }
+
+            HttpRequest request = request(baseUrl + "/batch", UUID.randomUUID())
+                    .POST(HttpRequest.BodyPublishers.ofString(body.append(']').toString()))
+                    .header("Content-Type", "application/json")
+                    .build();
+
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Could not create wallets, received HTTP " + response.statusCode());
+            }
+        }
+
+        return wallets;
+    }
+
+    private static Result run(HttpClient client, String baseUrl, Ledger ledger, Zipfian zipfian, double reads,
+                              double creates, double replays, long deadline) {
+        Result result = new Result();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Patch> history = new ArrayList<>(HISTORY_SIZE);
+
+        while (System.nanoTime() < deadline) {
+            double draw = random.nextDouble();
+
+            if (draw < reads) {
+                UUID id = ledger.wallets.get(zipfian.next(random));
+                HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/" + id)).header("X-API-KEY", API_KEY).GET().build();
+                send(client, request, Operation.GET, result);
+            }
+            else if (draw < reads + creates) {
+                Create create = new Create(UUID.randomUUID(), UUID.randomUUID(), random.nextLong(1, INITIAL_BALANCE));
+                int status = send(client, create.request(baseUrl), Operation.POST, result);
+                if (status == 200 || status == 201) {
+                    ledger.created.put(create.id, create.balance);
+                }
+                else if (status < 0 || status >= 500 || status == 409) {
+                    result.uncertain.add(create);
+                }
+            }
+            else if (!history.isEmpty() && random.nextDouble() < replays) {
+                Patch patch = history.get(random.nextInt(history.size()));
+                int status = send(client, patch.request(baseUrl, ledger), Operation.REPLAY, result);
+                if (status != 200 && status != 409 && status > 0 && status < 500) {
+                    result.replayMismatches++;
+                }
+            }
+            else {
+                long amount = random.nextLong(1, 10_000);
+                Patch patch = new Patch(UUID.randomUUID(), zipfian.next(random), random.nextBoolean() ? amount : -amount);
+                int status = send(client, patch.request(baseUrl, ledger), Operation.PATCH, result);
+                if (status == 200) {
+                    ledger.apply(patch);
+                    if (history.size() < HISTORY_SIZE) {
+                        history.add(patch);
+                    }
+                    else {
+                        history.set(random.nextInt(HISTORY_SIZE), patch);
+                    }
+                }
+                else if (status < 0 || status >= 500 || status == 409) {
+                    result.uncertain.add(patch);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sends a request, recording its latency under the given operation
+     *
+     * @return the HTTP status, or -1 if no response was received
+     */
+    private static int send(HttpClient client, HttpRequest request, Operation operation, Result result) {
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        }
+        catch (Exception ex) {
+            status = -1;
+        }
+
+        result.record(operation, System.nanoTime() - start, status);
+        return status;
+    }
+
+    /**
+     * Resends each request with an unknown outcome under its original idempotency key. The key's stored
+     * response makes this safe whether or not the first attempt was applied, so a success is recorded once.
+     */
+    private static void resolve(HttpClient client, String baseUrl, Ledger ledger, List<Object> uncertain) throws Exception {
+        int unresolved = 0;
+
+        for (Object request : uncertain) {
+            boolean resolved = false;
+
+            for (int attempt = 0; attempt < MAX_RESOLVE_ATTEMPTS && !resolved; attempt++) {
+                HttpRequest httpRequest = request instanceof Patch patch ? patch.request(baseUrl, ledger)
+                        : ((Create) request).request(baseUrl);
+                int status;
+                try {
+                    status = client.send(httpRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+                }
+                catch (Exception ex) {
+                    status = -1;
+                }
+
+                if (status == 200 || status == 201) {
+                    if (request instanceof Patch patch) {
+                        ledger.apply(patch);
+                    }
+                    else {
+                        ledger.created.put(((Create) request).id, ((Create) request).balance);
+                    }
+                    resolved = true;
+                }
+                else if (status > 0 && status < 500 && status != 409) {
+                    resolved = true;
+                }
+                else {
+                    Thread.sleep(100);
+                }
+            }
+
+            if (!resolved) {
+                unresolved++;
+            }
+        }
+
+        System.out.printf("Resolved %d requests with an unknown outcome (%d unresolved)%n", uncertain.size() - unresolved, unresolved);
+    }
+
+    /**
+     * Compares the balance of each wallet stored in Redis with the balance expected from the ledger
+     *
+     * @return true if all balances match
+     */
+    private static boolean verify(WalletStore walletStore, Ledger ledger) {
+        int mismatches = 0;
+
+        for (int i = 0; i < ledger.wallets.size(); i++) {
+            if (!matches(walletStore, ledger.wallets.get(i), ledger.balances.get(i))) {
+                mismatches++;
+            }
+        }
+        for (Map.Entry<UUID, Long> entry : ledger.created.entrySet()) {
+            if (!matches(walletStore, entry.getKey(), entry.getValue())) {
+                mismatches++;
+            }
+        }
+
+        int checked = ledger.wallets.size() + ledger.created.size();
+        System.out.printf("Correctness: %d wallets checked, %d balance mismatches%n", checked, mismatches);
+
+        return mismatches == 0;
+    }
+
+    private static boolean matches(WalletStore walletStore, UUID id, long expected) {
+        Wallet wallet = walletStore.findById(id).orElse(null);
+        long actual = wallet != null ? wallet.getBalance().movePointRight(2).longValueExact() : -1;
+
+        if (actual != expected) {
+            System.out.printf("Wallet %s: expected %s, found %s%n", id, amount(expected),
+                    wallet != null ? wallet.getBalance().toPlainString() : "no wallet");
+            return false;
+        }
+
+        return true;
+    }
+
+    private static void report(Result result, Duration duration) {
+        Histogram total = new Histogram(3);
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %10s%n", "", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        for (Map.Entry<Operation, Histogram> entry : result.latencies.entrySet()) {
+            print(entry.getKey().name(), entry.getValue(), duration);
+            total.add(entry.getValue());
+        }
+        print("TOTAL", total, duration);
+
+        System.out.printf("Errors: %d, replays acknowledged with an unexpected status: %d%n", result.errors, result.replayMismatches);
+    }
+
+    private static void print(String name, Histogram histogram, Duration duration) {
+        System.out.printf("%-8s %10d %10.1f %10.2f %10.2f %10.2f %10.2f%n", name, histogram.getTotalCount(),
+                histogram.getTotalCount() / (double) duration.toSeconds(), histogram.getValueAtPercentile(50.0) / 1e6,
+                histogram.getValueAtPercentile(99.0) / 1e6, histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMaxValue() / 1e6);
+    }
+
+    private static HttpRequest.Builder request(String uri, UUID idempotencyKey) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("X-API-KEY", API_KEY)
+                .header("Idempotency-Key", idempotencyKey.toString());
+    }
+
+    private static String walletJson(UUID id, long balance) {
+        return "{\"id\":\"" + id + "\",\"balance\":" + amount(balance) + "}";
+    }
+
+    private static String amount(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, 2).toPlainString();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Expected balances in minor units, updated only for changes acknowledged by the API
+     */
+    private static class Ledger {
+        private final List<UUID> wallets;
+        private final AtomicLongArray balances;
+        private final Map<UUID, Long> created = new ConcurrentHashMap<>();
+
+        Ledger(List<UUID> wallets) {
+            this.wallets = wallets;
+            this.balances = new AtomicLongArray(wallets.size());
+            for (int i = 0; i < wallets.size(); i++) {
+                balances.set(i, INITIAL_BALANCE);
+            }
+        }
+
+        void apply(Patch patch) {
+            balances.addAndGet(patch.wallet, patch.delta);
+        }
+    }
+
+    private record Patch(UUID idempotencyKey, int wallet, long delta) {
+        HttpRequest request(String baseUrl, Ledger ledger) {
+            String uri = baseUrl + "/" + ledger.wallets.get(wallet) + "?isAddingFunds=" + (delta > 0) + "&amount=" + amount(Math.abs(delta));
+            return EmbeddedLoadTest.request(uri, idempotencyKey).method("PATCH", HttpRequest.BodyPublishers.noBody()).build();
+        }
+    }
+
+    private record Create(UUID idempotencyKey, UUID id, long balance) {
+        HttpRequest request(String baseUrl) {
+            return EmbeddedLoadTest.request(baseUrl, idempotencyKey)
+                    .POST(HttpRequest.BodyPublishers.ofString(walletJson(id, balance)))
+                    .header("Content-Type", "application/json")
+                    .build();
+        }
+    }
+
+    /**
+     * Draws wallet indexes so that the wallet of rank k is picked with a probability proportional to 1 / k^s
+     */
+    private static class Zipfian {
+        private final double[] cumulative;
+
+        Zipfian(int count, double exponent) {
+            cumulative = new double[count];
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < count; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int next(ThreadLocalRandom random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+
+    private static class Result {
+        private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+        private final List<Object> uncertain = new ArrayList<>();
+        private long errors;
+        private long replayMismatches;
+
+        void record(Operation operation, long latencyNanos, int status) {
+            latencies.computeIfAbsent(operation, key -> new Histogram(3)).recordValue(latencyNanos);
+
+            if (status < 0 || status >= 500) {
+                errors++;
+            }
+        }
+
+        void merge(Result other) {
+            other.latencies.forEach((operation, histogram) ->
+                    latencies.computeIfAbsent(operation, key -> new Histogram(3)).add(histogram));
+            uncertain.addAll(other.uncertain);
+            errors += other.errors;
+            replayMismatches += other.replayMismatches;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.aknezevic.wallet.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Closed-loop HTTP load test against a running instance of the API, used to compare throughput and tail
+ * latency between deployment modes, e.g. the default platform threads against the "virtual" or "reactive"
+ * profile. Each client thread repeatedly reads a random wallet or adds funds to it with a new idempotency
+ * key, and the latencies of all requests are reported once the run ends.
+ *
+ * Configured with the system properties {@code loadtest.baseUrl}, {@code loadtest.apiKey},
+ * {@code loadtest.concurrency}, {@code loadtest.duration} (seconds) and {@code loadtest.wallets}.
+ */
+public class HttpLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = System.getProperty("loadtest.baseUrl", "http://localhost:8081") + "/api/wallet";
+        String apiKey = System.getProperty("loadtest.apiKey", "qwerty123");
+        int concurrency = Integer.getInteger("loadtest.concurrency", 200);
+        Duration duration = Duration.ofSeconds(Integer.getInteger("loadtest.duration", 30));
+        int walletCount = Integer.getInteger("loadtest.wallets", 1000);
+
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(Math.max(4, concurrency / 8)))
+                .build();
+
+        List<UUID> wallets = createWallets(client, baseUrl, apiKey, walletCount);
+        System.out.printf("Created %d wallets, running %d clients for %s%n", wallets.size(), concurrency, duration);
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Result>> futures = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            futures.add(clients.submit(() -> run(client, baseUrl, apiKey, wallets, deadline)));
+        }
+
+        Result total = new Result();
+        for (Future<Result> future : futures) {
+            total.merge(future.get());
+        }
+        clients.shutdown();
+
+        report(total, duration);
+        System.exit(0);
+    }
+
+    private static List<UUID> createWallets(HttpClient client, String baseUrl, String apiKey, int count) throws Exception {
+        List<UUID> wallets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            UUID id = UUID.randomUUID();
+            HttpRequest request = request(baseUrl, apiKey)
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"id\":\"" + id + "\",\"balance\":1000.00}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 201) {
+                throw new IllegalStateException("Could not create wallet, received HTTP " + response.statusCode());
+            }
+            wallets.add(id);
+        }
+
+        return wallets;
+    }
+
+    private static Result run(HttpClient client, String baseUrl, String apiKey, List<UUID> wallets, long deadline) {
+        Result result = new Result();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (System.nanoTime() < deadline) {
+            UUID id = wallets.get(random.nextInt(wallets.size()));
+            HttpRequest request = random.nextBoolean()
+                    ? HttpRequest.newBuilder(URI.create(baseUrl + "/" + id)).header("X-API-KEY", apiKey).GET().build()
+                    : request(baseUrl + "/" + id + "?isAddingFunds=true&amount=0.01", apiKey)
+                            .method("PATCH", HttpRequest.BodyPublishers.noBody())
+                            .build();
+
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                result.record(System.nanoTime() - start, response.statusCode() < 400);
+            }
+            catch (Exception ex) {
+                result.record(System.nanoTime() - start, false);
+            }
+        }
+
+        return result;
+    }
+
+    private static HttpRequest.Builder request(String uri, String apiKey) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("X-API-KEY", apiKey)
+                .header("Idempotency-Key", UUID.randomUUID().toString());
+    }
+
+    private static void report(Result result, Duration duration) {
+        long[] latencies = Arrays.copyOf(result.latencies, result.count);
+        Arrays.sort(latencies);
+
+        System.out.printf("Requests:   %d (%d errors)%n", result.count, result.errors);
+        System.out.printf("Throughput: %.1f req/s%n", result.count / (double) duration.toSeconds());
+        System.out.printf("p50:        %.2f ms%n", percentile(latencies, 0.50));
+        System.out.printf("p99:        %.2f ms%n", percentile(latencies, 0.99));
+        System.out.printf("p99.9:      %.2f ms%n", percentile(latencies, 0.999));
+        System.out.printf("max:        %.2f ms%n", latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0.0);
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0.0;
+        }
+
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e6;
+    }
+
+    private static class Result {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        void record(long latencyNanos, boolean success) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+
+            if (!success) {
+                errors++;
+            }
+        }
+
+        void merge(Result other) {
+            for (int i = 0; i < other.count; i++) {
+                record(other.latencies[i], true);
+            }
+            errors += other.errors;
+        }
+    }
+}
@@ -2,15 +2,17 @@ package org.aknezevic.wallet;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.security.reactive.ReactiveSecurityAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.reactive.ReactiveUserDetailsServiceAutoConfiguration;
 import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
 import org.springframework.boot.autoconfigure.security.servlet.UserDetailsServiceAutoConfiguration;
 import org.springframework.context.annotation.ComponentScan;
-import org.springframework.data.redis.repository.configuration.EnableRedisRepositories;
 
-@SpringBootApplication(exclude = {SecurityAutoConfiguration.class, UserDetailsServiceAutoConfiguration.class})
+@SpringBootApplication(exclude = {SecurityAutoConfiguration.class, UserDetailsServiceAutoConfiguration.class,
+        ReactiveSecurityAutoConfiguration.class, ReactiveUserDetailsServiceAutoConfiguration.class})
 @ComponentScan({"org.aknezevic.wallet.controller", "org.aknezevic.wallet.service",
-        "org.aknezevic.wallet.security", "org.aknezevic.wallet.exception"})
-@EnableRedisRepositories("org.aknezevic.wallet.repository")
+        "org.aknezevic.wallet.security", "org.aknezevic.wallet.exception",
+        "org.aknezevic.wallet.repository", "org.aknezevic.wallet.config"})
 public class WalletApp {
     public static void main(String[] args) {
         SpringApplication.run(WalletApp.class, args);
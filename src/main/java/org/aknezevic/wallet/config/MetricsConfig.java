@@ -0,0 +1,20 @@
+package org.aknezevic.wallet.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Request latencies are recorded by Spring Boot as {@code http.server.requests}, with the percentile
+ * histograms configured under {@code management.metrics.distribution.*}. Services annotated with
+ * {@link io.micrometer.core.annotation.Timed} are timed per method through {@link TimedAspect}.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
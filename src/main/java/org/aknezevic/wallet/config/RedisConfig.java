@@ -1,22 +1,36 @@
 package org.aknezevic.wallet.config;
 
+import io.lettuce.core.metrics.MicrometerOptions;
+import io.micrometer.core.instrument.binder.commonspool2.CommonsObjectPool2Metrics;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
-import org.springframework.data.redis.core.RedisTemplate;
 
+/**
+ * The Redis connection factory and templates are auto-configured from the {@code spring.data.redis.*}
+ * properties, which select the Jedis or Lettuce driver and size its connection pool.
+ */
 @Configuration
 public class RedisConfig {
 
+    /**
+     * Publishes the active, idle and waiting connections and the borrow wait times of the Redis connection
+     * pool as {@code commons.pool2.*} metrics
+     */
     @Bean
-    JedisConnectionFactory jedisConnectionFactory() {
-        return new JedisConnectionFactory();
+    public CommonsObjectPool2Metrics redisPoolMetrics() {
+        return new CommonsObjectPool2Metrics();
     }
 
+    /**
+     * Records the latency of each Lettuce command as {@code lettuce.command.completion} and
+     * {@code lettuce.command.firstresponse} timers tagged by command type, with percentile histograms
+     * instead of the client-side percentiles recorded by default. Jedis does not publish command timers.
+     */
     @Bean
-    public RedisTemplate<String, Object> redisTemplate() {
-        RedisTemplate<String, Object> template = new RedisTemplate<>();
-        template.setConnectionFactory(jedisConnectionFactory());
-        return template;
+    public MicrometerOptions lettuceMicrometerOptions() {
+        return MicrometerOptions.builder()
+                .histogram(true)
+                .localDistinction(false)
+                .build();
     }
 }
@@ -0,0 +1,215 @@
+package org.aknezevic.wallet.controller;
+
+import jakarta.validation.Valid;
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.Transfer;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.service.ReactiveWalletService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reactive counterpart of {@link WalletController} with the same API contract, active when the application
+ * runs as a reactive web application.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/wallet")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletController {
+
+    @Autowired
+    ReactiveWalletService walletService;
+
+    /**
+     * Health endpoint to verify server is responding to requests.
+     *
+     * @return String "Pong"
+     */
+    @GetMapping("/health")
+    public Mono<ResponseEntity<?>> ping() {
+        return Mono.just(ResponseEntity.ok("Pong"));
+    }
+
+    /**
+     * GET endpoint for retrieving a wallet
+     *
+     * @param id UUID of the wallet to be retrieved
+     * @param minVersion version returned by an earlier write to the wallet that the response must include
+     *
+     * @return the wallet object tagged with its version, or 304 without a body if it matches If-None-Match
+     */
+    @GetMapping("/{id}")
+    public Mono<ResponseEntity<?>> getById(@PathVariable UUID id,
+                                           @RequestHeader(value = "Min-Version", required = false) Long minVersion) {
+        log.debug("Retrieving wallet of ID {}", id);
+        return walletService.getWalletById(id, minVersion)
+                .<ResponseEntity<?>>map(wallet -> withETag(ResponseEntity.ok(), wallet).cacheControl(CacheControl.noCache()).body(wallet))
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    log.warn("Wallet of ID {} was not found.", id);
+                    return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+                }));
+    }
+
+    /**
+     * GET endpoint for retrieving a wallet's transactions, newest first
+     *
+     * @param id UUID of the wallet
+     * @param before position returned as next by the previous page, omitted for the newest transactions
+     * @param limit maximum number of transactions to return
+     *
+     * @return the transactions with the position of the next page, absent on the last page
+     */
+    @GetMapping("/{id}/transactions")
+    public Mono<ResponseEntity<?>> getTransactions(@PathVariable UUID id, @RequestParam(required = false) Long before,
+                                                   @RequestParam(defaultValue = "20") int limit) {
+        log.debug("Retrieving transactions of wallet of ID {} before {}", id, before);
+        return walletService.getTransactions(id, before, limit)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    log.warn("Wallet of ID {} was not found.", id);
+                    return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+                }));
+    }
+
+    /**
+     * GET endpoint for retrieving several wallets
+     *
+     * @param ids comma separated UUIDs of the wallets to be retrieved
+     *
+     * @return a result for each ID in the order given, with the wallet when found
+     */
+    @GetMapping
+    public Mono<ResponseEntity<?>> getByIds(@RequestParam List<UUID> ids) {
+        log.debug("Retrieving {} wallets", ids.size());
+        return walletService.getWalletsByIds(ids).map(ResponseEntity::ok);
+    }
+
+    /**
+     * POST endpoint for creating a wallet
+     *
+     * @param idempotencyKey header with a UUID value
+     * @param wallet wallet object to be created
+     *
+     * @return the created wallet object
+     */
+    @PostMapping
+    public Mono<ResponseEntity<?>> create(@RequestHeader("Idempotency-Key") UUID idempotencyKey, @Valid @RequestBody Wallet wallet) {
+        log.debug("Creating new wallet of ID {} with idempotency key of ID {}", wallet.getId(), idempotencyKey);
+        return walletService.addWallet(idempotencyKey, wallet).map(result -> {
+            if (result.getStatus() == WalletResult.Status.REPLAYED) {
+                log.info("Returning cached wallet from idempotency hash.");
+                return ResponseEntity.ok(result.getWallet());
+            }
+
+            return withETag(ResponseEntity.status(HttpStatus.CREATED), result.getWallet()).body(result.getWallet());
+        });
+    }
+
+    /**
+     * PATCH endpoint for adding or removing funds from a wallet
+     *
+     * @param idempotencyKey header with a UUID value
+     * @param id UUID of the wallet to be updated
+     * @param isAddingFunds boolean value indicating addition (true) or subtraction (false) of wallet balance
+     * @param amount decimal amount to be added or subtracted from current wallet balance
+     *
+     * @return the updated wallet object
+     */
+    @PatchMapping("/{id}")
+    public Mono<ResponseEntity<?>> updateBalance(@RequestHeader("Idempotency-Key") UUID idempotencyKey, @PathVariable UUID id,
+                                                 @RequestParam Boolean isAddingFunds, @RequestParam BigDecimal amount) {
+        log.debug("Updating balance for wallet of ID {} with idempotency key of ID {}", id, idempotencyKey);
+        return walletService.updateBalance(idempotencyKey, id, isAddingFunds, amount).map(result -> {
+            if (result.getStatus() == WalletResult.Status.NOT_FOUND) {
+                log.warn("Wallet of ID {} was not found.", id);
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+
+            if (result.getStatus() == WalletResult.Status.REPLAYED) {
+                log.info("Returning cached wallet from idempotency hash.");
+            }
+
+            return withETag(ResponseEntity.ok(), result.getWallet()).body(result.getWallet());
+        });
+    }
+
+    /**
+     * PATCH endpoint for updating the balances of several wallets in a single request
+     *
+     * @param changes balance changes, each with its own idempotency key
+     *
+     * @return a result for each change in the order given, with the updated wallet when applied
+     */
+    @PatchMapping("/batch")
+    public Mono<ResponseEntity<?>> updateBalances(@RequestBody List<@Valid BalanceChange> changes) {
+        log.debug("Updating balances for {} wallets", changes.size());
+        return walletService.updateBalances(changes).map(ResponseEntity::ok);
+    }
+
+    /**
+     * POST endpoint for creating several wallets in a single request
+     *
+     * @param idempotencyKey header with a UUID value guarding the whole batch
+     * @param wallets wallet objects to be created
+     *
+     * @return the ID and status of each wallet in the order given
+     */
+    @PostMapping("/batch")
+    public Mono<ResponseEntity<?>> createAll(@RequestHeader("Idempotency-Key") UUID idempotencyKey,
+                                             @RequestBody List<@Valid Wallet> wallets) {
+        log.debug("Creating {} wallets with idempotency key of ID {}", wallets.size(), idempotencyKey);
+        return walletService.addWallets(idempotencyKey, wallets).map(ResponseEntity::ok);
+    }
+
+    /**
+     * POST endpoint for moving funds from one wallet to another
+     *
+     * @param idempotencyKey header with a UUID value
+     * @param transfer source and destination wallet IDs and the amount to move
+     *
+     * @return the source and destination wallets after the transfer
+     */
+    @PostMapping("/transfer")
+    public Mono<ResponseEntity<?>> transfer(@RequestHeader("Idempotency-Key") UUID idempotencyKey, @Valid @RequestBody Transfer transfer) {
+        log.debug("Transferring funds from wallet of ID {} to wallet of ID {} with idempotency key of ID {}",
+                transfer.getFromWalletId(), transfer.getToWalletId(), idempotencyKey);
+        return walletService.transfer(idempotencyKey, transfer.getFromWalletId(), transfer.getToWalletId(), transfer.getAmount())
+                .map(result -> {
+                    if (result.getStatus() == WalletResult.Status.NOT_FOUND) {
+                        log.warn("Wallet of ID {} was not found.", result.getId());
+                        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+                    }
+
+                    if (result.getStatus() == WalletResult.Status.REPLAYED) {
+                        log.info("Returning cached transfer from idempotency hash.");
+                    }
+
+                    return ResponseEntity.ok(result);
+                });
+    }
+
+    /**
+     * Sets the response's entity tag to the wallet's version, or to its balance for wallets written before
+     * versions were kept, which like the version changes whenever the response body does
+     */
+    private ResponseEntity.BodyBuilder withETag(ResponseEntity.BodyBuilder builder, Wallet wallet) {
+        if (wallet != null) {
+            builder.eTag(wallet.getVersion() != null ? String.valueOf(wallet.getVersion())
+                    : "b" + wallet.getBalance().toPlainString());
+        }
+
+        return builder;
+    }
+}
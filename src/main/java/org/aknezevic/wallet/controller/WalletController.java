@@ -2,29 +2,32 @@ package org.aknezevic.wallet.controller;
 
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
-import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.Transfer;
+import org.aknezevic.wallet.model.TransferResult;
 import org.aknezevic.wallet.model.Wallet;
-import org.aknezevic.wallet.service.IdempotencyService;
+import org.aknezevic.wallet.model.WalletResult;
 import org.aknezevic.wallet.service.WalletService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.UUID;
 
 @Slf4j
 @RestController
 @RequestMapping("/api/wallet")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class WalletController {
 
     @Autowired
     WalletService walletService;
-    @Autowired
-    IdempotencyService idempotencyService;
 
     /**
      * Health endpoint to verify server is responding to requests.
@@ -40,21 +43,57 @@ public class WalletController {
      * GET endpoint for retrieving a wallet
      *
      * @param id UUID of the wallet to be retrieved
+     * @param minVersion version returned by an earlier write to the wallet that the response must include
      *
-     * @return the wallet object
+     * @return the wallet object tagged with its version, or 304 without a body if it matches If-None-Match
      */
     @GetMapping("/{id}")
-    public ResponseEntity<?> getById(@PathVariable UUID id) {
+    public ResponseEntity<?> getById(@PathVariable UUID id, @RequestHeader(value = "Min-Version", required = false) Long minVersion) {
         log.debug("Retrieving wallet of ID {}", id);
-        Wallet wallet = walletService.getWalletById(id);
+        Wallet wallet = walletService.getWalletById(id, minVersion);
         if (wallet != null) {
-            return ResponseEntity.ok(walletService.getWalletById(id));
+            return withETag(ResponseEntity.ok(), wallet).cacheControl(CacheControl.noCache()).body(wallet);
+        }
+
+        log.warn("Wallet of ID {} was not found.", id);
+        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+
+    /**
+     * GET endpoint for retrieving a wallet's transactions, newest first
+     *
+     * @param id UUID of the wallet
+     * @param before position returned as next by the previous page, omitted for the newest transactions
+     * @param limit maximum number of transactions to return
+     *
+     * @return the transactions with the position of the next page, absent on the last page
+     */
+    @GetMapping("/{id}/transactions")
+    public ResponseEntity<?> getTransactions(@PathVariable UUID id, @RequestParam(required = false) Long before,
+                                             @RequestParam(defaultValue = "20") int limit) {
+        log.debug("Retrieving transactions of wallet of ID {} before {}", id, before);
+        TransactionPage page = walletService.getTransactions(id, before, limit);
+        if (page != null) {
+            return ResponseEntity.ok(page);
         }
 
         log.warn("Wallet of ID {} was not found.", id);
         return new ResponseEntity<>(HttpStatus.NOT_FOUND);
     }
 
+    /**
+     * GET endpoint for retrieving several wallets
+     *
+     * @param ids comma separated UUIDs of the wallets to be retrieved
+     *
+     * @return a result for each ID in the order given, with the wallet when found
+     */
+    @GetMapping
+    public ResponseEntity<?> getByIds(@RequestParam List<UUID> ids) {
+        log.debug("Retrieving {} wallets", ids.size());
+        return ResponseEntity.ok(walletService.getWalletsByIds(ids));
+    }
+
     /**
      * POST endpoint for creating a wallet
      *
@@ -65,31 +104,15 @@ public class WalletController {
      */
     @PostMapping
     public ResponseEntity<?> create(@RequestHeader("Idempotency-Key") UUID idempotencyKey, @Valid @RequestBody Wallet wallet) {
-        log.debug("Checking for existing idempotency key of ID {}", idempotencyKey);
-        Idempotency currentKey = idempotencyService.getIdempotencyById(idempotencyKey);
-
-        if (currentKey != null) {
-            if (currentKey.getExpiry().isBefore(Instant.now())) {
-                log.warn("Found idempotency of ID {} has passed expiry, deleting hash.", idempotencyKey);
-                idempotencyService.deleteIdempotency(currentKey);
-            }
-            else {
-                log.info("Returning cached wallet from idempotency hash.");
-                return ResponseEntity.ok(currentKey.getResponse());
-            }
+        log.debug("Creating new wallet of ID {} with idempotency key of ID {}", wallet.getId(), idempotencyKey);
+        WalletResult result = walletService.addWallet(idempotencyKey, wallet);
+
+        if (result.getStatus() == WalletResult.Status.REPLAYED) {
+            log.info("Returning cached wallet from idempotency hash.");
+            return ResponseEntity.ok(result.getWallet());
         }
 
-        log.debug("Creating new wallet of ID {}", wallet.getId());
-        Wallet createdWallet = walletService.addWallet(wallet);
-        Idempotency newIdempotency = Idempotency.builder()
-                .key(idempotencyKey)
-                .response(createdWallet)
-                .expiry(Instant.now().plus(24, ChronoUnit.HOURS))
-                .build();
-        log.debug("Creating new idempotency of ID {}", idempotencyKey);
-        idempotencyService.addIdempotency(newIdempotency);
-
-        return new ResponseEntity<>(createdWallet, HttpStatus.CREATED);
+        return withETag(ResponseEntity.status(HttpStatus.CREATED), result.getWallet()).body(result.getWallet());
     }
 
     /**
@@ -105,43 +128,86 @@ public class WalletController {
     @PatchMapping("/{id}")
     public ResponseEntity<?> updateBalance(@RequestHeader("Idempotency-Key") UUID idempotencyKey, @PathVariable UUID id,
                                            @RequestParam Boolean isAddingFunds, @RequestParam BigDecimal amount) {
-        log.debug("Checking for existing idempotency key of ID {}", idempotencyKey);
-        Idempotency currentKey = idempotencyService.getIdempotencyById(idempotencyKey);
-
-        if (currentKey != null) {
-            if (currentKey.getExpiry().isBefore(Instant.now())) {
-                log.warn("Found idempotency of ID {} has passed expiry, deleting hash.", idempotencyKey);
-                idempotencyService.deleteIdempotency(currentKey);
-            }
-            else {
-                log.info("Returning cached wallet from idempotency hash.");
-                return ResponseEntity.ok(currentKey.getResponse());
-            }
-        }
+        log.debug("Updating balance for wallet of ID {} with idempotency key of ID {}", id, idempotencyKey);
+        WalletResult result = walletService.updateBalance(idempotencyKey, id, isAddingFunds, amount);
 
-        log.debug("Updating balance for wallet of ID {}", id);
-        Wallet updatedWallet;
-        if (isAddingFunds) {
-            updatedWallet = walletService.addFundsById(id, amount);
+        if (result.getStatus() == WalletResult.Status.NOT_FOUND) {
+            log.warn("Wallet of ID {} was not found.", id);
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
-        else {
-            updatedWallet = walletService.removeFundsById(id, amount);
+
+        if (result.getStatus() == WalletResult.Status.REPLAYED) {
+            log.info("Returning cached wallet from idempotency hash.");
         }
 
-        if (updatedWallet != null) {
-            Idempotency newIdempotency = Idempotency.builder()
-                    .key(idempotencyKey)
-                    .response(updatedWallet)
-                    .expiry(Instant.now().plus(24, ChronoUnit.HOURS))
-                    .build();
-            log.debug("Creating new idempotency of ID {}", idempotencyKey);
-            idempotencyService.addIdempotency(newIdempotency);
+        return withETag(ResponseEntity.ok(), result.getWallet()).body(result.getWallet());
+    }
+
+    /**
+     * PATCH endpoint for updating the balances of several wallets in a single request
+     *
+     * @param changes balance changes, each with its own idempotency key
+     *
+     * @return a result for each change in the order given, with the updated wallet when applied
+     */
+    @PatchMapping("/batch")
+    public ResponseEntity<?> updateBalances(@RequestBody List<@Valid BalanceChange> changes) {
+        log.debug("Updating balances for {} wallets", changes.size());
+        return ResponseEntity.ok(walletService.updateBalances(changes));
+    }
+
+    /**
+     * POST endpoint for creating several wallets in a single request
+     *
+     * @param idempotencyKey header with a UUID value guarding the whole batch
+     * @param wallets wallet objects to be created
+     *
+     * @return the ID and status of each wallet in the order given
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> createAll(@RequestHeader("Idempotency-Key") UUID idempotencyKey,
+                                       @RequestBody List<@Valid Wallet> wallets) {
+        log.debug("Creating {} wallets with idempotency key of ID {}", wallets.size(), idempotencyKey);
+        return ResponseEntity.ok(walletService.addWallets(idempotencyKey, wallets));
+    }
+
+    /**
+     * POST endpoint for moving funds from one wallet to another
+     *
+     * @param idempotencyKey header with a UUID value
+     * @param transfer source and destination wallet IDs and the amount to move
+     *
+     * @return the source and destination wallets after the transfer
+     */
+    @PostMapping("/transfer")
+    public ResponseEntity<?> transfer(@RequestHeader("Idempotency-Key") UUID idempotencyKey, @Valid @RequestBody Transfer transfer) {
+        log.debug("Transferring funds from wallet of ID {} to wallet of ID {} with idempotency key of ID {}",
+                transfer.getFromWalletId(), transfer.getToWalletId(), idempotencyKey);
+        TransferResult result = walletService.transfer(idempotencyKey, transfer.getFromWalletId(),
+                transfer.getToWalletId(), transfer.getAmount());
+
+        if (result.getStatus() == WalletResult.Status.NOT_FOUND) {
+            log.warn("Wallet of ID {} was not found.", result.getId());
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
 
-            return ResponseEntity.ok(updatedWallet);
+        if (result.getStatus() == WalletResult.Status.REPLAYED) {
+            log.info("Returning cached transfer from idempotency hash.");
         }
 
-        log.warn("Wallet of ID {} was not found.", id);
-        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        return ResponseEntity.ok(result);
     }
 
+    /**
+     * Sets the response's entity tag to the wallet's version, or to its balance for wallets written before
+     * versions were kept, which like the version changes whenever the response body does
+     */
+    private ResponseEntity.BodyBuilder withETag(ResponseEntity.BodyBuilder builder, Wallet wallet) {
+        if (wallet != null) {
+            builder.eTag(wallet.getVersion() != null ? String.valueOf(wallet.getVersion())
+                    : "b" + wallet.getBalance().toPlainString());
+        }
+
+        return builder;
+    }
 }
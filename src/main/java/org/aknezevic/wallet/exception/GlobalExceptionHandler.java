@@ -1,6 +1,14 @@
 package org.aknezevic.wallet.exception;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.MessageSourceResolvable;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.PoolException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
@@ -9,6 +17,7 @@ import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.method.annotation.HandlerMethodValidationException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import java.util.HashMap;
@@ -16,8 +25,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+@Slf4j
 @ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
+    static final String REDIS_FAILURES_METRIC = "wallet.redis.connection.failures";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @Override
     protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException ex, HttpHeaders headers, HttpStatusCode status, WebRequest request) {
@@ -34,6 +49,36 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(body, HttpStatus.BAD_REQUEST);
     }
 
+    @Override
+    protected ResponseEntity<Object> handleHandlerMethodValidationException(HandlerMethodValidationException ex, HttpHeaders headers, HttpStatusCode status, WebRequest request) {
+        Map<String, List<String>> body = new HashMap<>();
+
+        List<String> errors = ex.getAllErrors()
+                .stream()
+                .map(MessageSourceResolvable::getDefaultMessage)
+                .collect(Collectors.toList());
+
+        body.put("errors", errors);
+
+        return new ResponseEntity<>(body, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler({RedisConnectionFailureException.class, PoolException.class})
+    public ResponseEntity<Object> redisUnavailable(RuntimeException ex) {
+        log.error("Could not obtain a Redis connection.", ex);
+        Counter.builder(REDIS_FAILURES_METRIC)
+                .description("Requests that failed because no Redis connection could be obtained")
+                .tag("exception", ex.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+
+        Map<String, String> result = new HashMap<>();
+
+        result.put("errors", "Service temporarily unavailable, retry the request.");
+
+        return new ResponseEntity<>(result, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(WalletException.class)
     public ResponseEntity<Object> walletException(WalletException ex, WebRequest request) {
         Map<String, String> result = new HashMap<>();
@@ -42,4 +87,13 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
 
         return new ResponseEntity<>(result, HttpStatus.BAD_REQUEST);
     }
+
+    @ExceptionHandler(IdempotencyException.class)
+    public ResponseEntity<Object> idempotencyException(IdempotencyException ex, WebRequest request) {
+        Map<String, String> result = new HashMap<>();
+
+        result.put("errors", ex.getMessage());
+
+        return new ResponseEntity<>(result, HttpStatus.CONFLICT);
+    }
 }
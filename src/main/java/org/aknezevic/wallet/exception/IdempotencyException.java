@@ -0,0 +1,11 @@
+package org.aknezevic.wallet.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class IdempotencyException extends RuntimeException {
+    public IdempotencyException(String message) {
+        super(message);
+    }
+}
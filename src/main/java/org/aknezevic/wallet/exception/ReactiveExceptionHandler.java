@@ -0,0 +1,91 @@
+package org.aknezevic.wallet.exception;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.MessageSourceResolvable;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.PoolException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.method.annotation.HandlerMethodValidationException;
+import org.springframework.web.reactive.result.method.annotation.ResponseEntityExceptionHandler;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Reactive counterpart of {@link GlobalExceptionHandler}, returning the same error bodies.
+ */
+@Slf4j
+@ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveExceptionHandler extends ResponseEntityExceptionHandler {
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    protected Mono<ResponseEntity<Object>> handleWebExchangeBindException(WebExchangeBindException ex, HttpHeaders headers, HttpStatusCode status, ServerWebExchange exchange) {
+        return Mono.just(badRequest(ex.getBindingResult().getFieldErrors()));
+    }
+
+    @Override
+    protected Mono<ResponseEntity<Object>> handleHandlerMethodValidationException(HandlerMethodValidationException ex, HttpHeaders headers, HttpStatusCode status, ServerWebExchange exchange) {
+        return Mono.just(badRequest(ex.getAllErrors()));
+    }
+
+    @ExceptionHandler({RedisConnectionFailureException.class, PoolException.class})
+    public ResponseEntity<Object> redisUnavailable(RuntimeException ex) {
+        log.error("Could not obtain a Redis connection.", ex);
+        Counter.builder(GlobalExceptionHandler.REDIS_FAILURES_METRIC)
+                .description("Requests that failed because no Redis connection could be obtained")
+                .tag("exception", ex.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+
+        Map<String, String> result = new HashMap<>();
+
+        result.put("errors", "Service temporarily unavailable, retry the request.");
+
+        return new ResponseEntity<>(result, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @ExceptionHandler(WalletException.class)
+    public ResponseEntity<Object> walletException(WalletException ex) {
+        Map<String, String> result = new HashMap<>();
+
+        result.put("errors", ex.getMessage());
+
+        return new ResponseEntity<>(result, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(IdempotencyException.class)
+    public ResponseEntity<Object> idempotencyException(IdempotencyException ex) {
+        Map<String, String> result = new HashMap<>();
+
+        result.put("errors", ex.getMessage());
+
+        return new ResponseEntity<>(result, HttpStatus.CONFLICT);
+    }
+
+    private ResponseEntity<Object> badRequest(List<? extends MessageSourceResolvable> errors) {
+        Map<String, List<String>> body = new HashMap<>();
+
+        body.put("errors", errors.stream()
+                .map(MessageSourceResolvable::getDefaultMessage)
+                .collect(Collectors.toList()));
+
+        return new ResponseEntity<>(body, HttpStatus.BAD_REQUEST);
+    }
+}
@@ -0,0 +1,23 @@
+package org.aknezevic.wallet.model;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceChange {
+    @NotNull(message = "Idempotency key cannot be null")
+    private UUID idempotencyKey;
+    @NotNull(message = "Wallet ID cannot be null")
+    private UUID walletId;
+    @NotNull(message = "isAddingFunds cannot be null")
+    private Boolean isAddingFunds;
+    @NotNull(message = "Amount cannot be null")
+    private BigDecimal amount;
+}
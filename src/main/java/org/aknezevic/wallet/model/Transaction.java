@@ -0,0 +1,31 @@
+package org.aknezevic.wallet.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Transaction {
+
+    private String id;
+    private Type type;
+    private BigDecimal amount;
+    private BigDecimal balance;
+    private UUID idempotencyKey;
+    private Instant timestamp;
+
+    public enum Type {
+        CREATE,
+        CREDIT,
+        DEBIT,
+        MIGRATE
+    }
+}
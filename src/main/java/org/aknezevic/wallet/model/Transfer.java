@@ -0,0 +1,21 @@
+package org.aknezevic.wallet.model;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Transfer {
+    @NotNull(message = "Source wallet ID cannot be null")
+    private UUID fromWalletId;
+    @NotNull(message = "Destination wallet ID cannot be null")
+    private UUID toWalletId;
+    @NotNull(message = "Amount cannot be null")
+    private BigDecimal amount;
+}
@@ -0,0 +1,20 @@
+package org.aknezevic.wallet.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferResult {
+
+    private WalletResult.Status status;
+    private UUID id;
+    private Wallet from;
+    private Wallet to;
+}
@@ -1,12 +1,12 @@
 package org.aknezevic.wallet.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import org.springframework.data.annotation.Id;
-import org.springframework.data.redis.core.RedisHash;
 
 import java.math.BigDecimal;
 import java.util.UUID;
@@ -14,11 +14,28 @@ import java.util.UUID;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@RedisHash("Wallet")
 public class Wallet {
-    @Id
     private UUID id;
     @NotNull(message = "Balance cannot be null")
     @Min(value = 0, message = "Balance cannot be less than 0")
     private BigDecimal balance;
+    /**
+     * Number of writes applied to the wallet, returned with each write so that a later read can ask for a copy
+     * of the wallet that includes it. Absent from replayed responses.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+
+    public Wallet(UUID id, BigDecimal balance) {
+        this(id, balance, null);
+    }
+
+    /**
+     * Whether this copy of the wallet includes the write that returned the given version, which is always the
+     * case when no version is given
+     */
+    public boolean includesVersion(Long minVersion) {
+        return minVersion == null || version != null && version >= minVersion;
+    }
 }
@@ -0,0 +1,34 @@
+package org.aknezevic.wallet.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WalletResult {
+
+    public enum Status {
+        FOUND,
+        CREATED,
+        UPDATED,
+        REPLAYED,
+        IN_PROGRESS,
+        KEY_REUSED,
+        NOT_FOUND,
+        INSUFFICIENT_FUNDS,
+        INVALID_AMOUNT,
+        DUPLICATE,
+        ALREADY_EXISTS,
+        CONFLICT
+    }
+
+    private UUID id;
+    private Status status;
+    private Wallet wallet;
+}
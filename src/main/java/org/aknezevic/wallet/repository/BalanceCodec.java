@@ -0,0 +1,62 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.exception.WalletException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts wallet balances between their API representation and the representation stored in Redis.
+ * By default balances are stored as plain decimal strings. When {@code wallet.balance.storage} is set
+ * to {@code minor-units}, balances are stored as integers scaled by {@code wallet.balance.scale}, which
+ * lets Redis update them with native integer increments.
+ */
+@Component
+public class BalanceCodec {
+    private static final String MINOR_UNITS = "minor-units";
+
+    @Value("${wallet.balance.storage:decimal}")
+    private String storage;
+    @Value("${wallet.balance.scale:2}")
+    private int scale;
+
+    public boolean isMinorUnits() {
+        return MINOR_UNITS.equals(storage);
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public String encode(BigDecimal value) {
+        return isMinorUnits() ? String.valueOf(toMinorUnits(value)) : value.toPlainString();
+    }
+
+    public BigDecimal decode(String value) {
+        return isMinorUnits() ? BigDecimal.valueOf(Long.parseLong(value), scale) : new BigDecimal(value);
+    }
+
+    /**
+     * Method for checking that a value can be stored without losing precision
+     *
+     * @param value decimal value to be checked
+     *
+     * @throws WalletException if the value has more decimal places than the configured scale
+     */
+    public void validate(BigDecimal value) {
+        if (isMinorUnits()) {
+            toMinorUnits(value);
+        }
+    }
+
+    private long toMinorUnits(BigDecimal value) {
+        try {
+            return value.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        }
+        catch (ArithmeticException ex) {
+            throw new WalletException("Amount cannot have more than " + scale + " decimal places!");
+        }
+    }
+}
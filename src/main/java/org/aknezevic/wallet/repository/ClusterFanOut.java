@@ -0,0 +1,97 @@
+package org.aknezevic.wallet.repository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Splits pipelined operations over many wallets by slot when connected to a Redis Cluster. The items of each
+ * shard hash to a single slot, see {@link KeySharding}, so each part is pipelined to a single node, and the
+ * parts run in parallel on up to {@code wallet.cluster.fan-out-threads} threads. Against a single Redis
+ * instance operations run unchanged as one pipeline.
+ */
+@Component
+public class ClusterFanOut {
+
+    @Autowired
+    private KeySharding keySharding;
+
+    @Value("${wallet.cluster.fan-out-threads:8}")
+    private int threads;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        if (keySharding.isClustered()) {
+            executor = Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Method for running a pipelined operation over items of several wallets, one part per slot in cluster mode
+     *
+     * @param items items to run the operation for
+     * @param walletId the wallet whose slot an item belongs to
+     * @param operation operation returning one result per item, in the order of the given items
+     *
+     * @return the result of each item, in the order of the given items
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> List<R> execute(List<T> items, Function<T, UUID> walletId, Function<List<T>, List<R>> operation) {
+        if (executor == null || items.size() < 2) {
+            return operation.apply(items);
+        }
+
+        Map<Integer, List<Integer>> positionsByShard = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            positionsByShard.computeIfAbsent(keySharding.shard(walletId.apply(items.get(i))), shard -> new ArrayList<>()).add(i);
+        }
+
+        if (positionsByShard.size() == 1) {
+            return operation.apply(items);
+        }
+
+        Object[] results = new Object[items.size()];
+        List<CompletableFuture<Void>> parts = new ArrayList<>(positionsByShard.size());
+        for (List<Integer> positions : positionsByShard.values()) {
+            List<T> part = positions.stream().map(items::get).toList();
+
+            parts.add(CompletableFuture.supplyAsync(() -> operation.apply(part), executor).thenAccept(partResults -> {
+                for (int i = 0; i < positions.size(); i++) {
+                    results[positions.get(i)] = partResults.get(i);
+                }
+            }));
+        }
+
+        try {
+            CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)).join();
+        }
+        catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+        }
+
+        return (List<R>) Arrays.asList(results);
+    }
+}
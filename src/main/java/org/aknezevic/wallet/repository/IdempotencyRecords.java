@@ -0,0 +1,186 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Hash layout of the idempotency records under {@code idempotency:<key>}, shared by the blocking and
+ * reactive stores. Single wallet responses are packed into a binary field by the scripts, see
+ * {@code scripts/lib/wallet.lua}, so they are only read and written through {@link #READ_SCRIPT},
+ * {@link #CLAIM_SCRIPT} and {@link #STORE_SCRIPT}, which expand them into the string fields below, or
+ * unpacked with {@link #unpackResponse(BalanceCodec, byte[])} where scripts cannot be used.
+ */
+@SuppressWarnings("rawtypes")
+final class IdempotencyRecords {
+    static final String ID_FIELD = "id";
+    static final String BALANCE_FIELD = "balance";
+    static final String EXPIRY_FIELD = "expiry";
+    static final String RESULTS_FIELD = "results";
+    static final String PACKED_RESPONSE_FIELD = "r";
+    static final String TRANSFER_TO_FIELD = "transfer_to";
+    static final String TRANSFER_AMOUNT_FIELD = "transfer_amount";
+    static final String OWNER_FIELD = "owner";
+    static final String WALLET_FIELD = "wallet";
+    private static final int PACKED_VERSION = 1;
+    static final RedisScript<List> CLAIM_SCRIPT = RedisScripts.load("claim-idempotency.lua", List.class);
+    static final RedisScript<List> READ_SCRIPT = RedisScripts.load("read-idempotency.lua", List.class);
+    static final RedisScript<List> STORE_SCRIPT = RedisScripts.load("store-idempotency.lua", List.class);
+    static final RedisScript<Long> RENEW_SCRIPT = RedisScripts.load("renew-idempotency.lua", Long.class);
+    static final RedisScript<Long> COMPLETE_SCRIPT = RedisScripts.load("complete-idempotency.lua", Long.class);
+    static final RedisScript<Long> RELEASE_SCRIPT = RedisScripts.load("release-idempotency.lua", Long.class);
+    static final RedisScript<List> RESERVE_SCRIPT = RedisScripts.load("reserve-idempotency.lua", List.class);
+    static final int CLAIM_KEYS = 2;
+    static final int RESERVE_KEYS = 2;
+
+    private IdempotencyRecords() {
+    }
+
+    /**
+     * Builds the hash fields of a record holding batch results
+     */
+    static Map<String, String> toFields(Idempotency idempotency) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put(EXPIRY_FIELD, String.valueOf(idempotency.getExpiry().getEpochSecond()));
+        fields.put(RESULTS_FIELD, encodeResults(idempotency.getResults()));
+
+        return fields;
+    }
+
+    /**
+     * Builds the keys followed by the arguments of claim-idempotency.lua
+     */
+    static String[] claimKeysAndArgs(KeySharding keySharding, UUID key, UUID owner, Instant expiry) {
+        return new String[]{
+                keySharding.idempotency(key),
+                keySharding.idempotencyWallet(key),
+                String.valueOf(expiry.getEpochSecond()),
+                owner.toString()
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of reserve-idempotency.lua
+     */
+    static String[] reserveKeysAndArgs(KeySharding keySharding, UUID key, UUID walletId, Instant expiry) {
+        return new String[]{
+                keySharding.idempotencyWallet(key),
+                keySharding.idempotency(key),
+                walletId.toString(),
+                String.valueOf(expiry.getEpochSecond())
+        };
+    }
+
+    static boolean isReserved(List<?> reply) {
+        return "RESERVED".equals(RedisScripts.asString(reply.get(0)));
+    }
+
+    /**
+     * Builds the key followed by the arguments of complete-idempotency.lua for a record holding batch results
+     */
+    static String[] completeKeysAndArgs(KeySharding keySharding, Idempotency idempotency, UUID owner) {
+        return new String[]{
+                keySharding.idempotency(idempotency.getKey()),
+                owner.toString(),
+                encodeResults(idempotency.getResults()),
+                String.valueOf(idempotency.getExpiry().getEpochSecond())
+        };
+    }
+
+    /**
+     * Builds the key followed by the arguments of store-idempotency.lua for a record holding a single response
+     */
+    static String[] storeKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, Idempotency idempotency) {
+        return new String[]{
+                keySharding.idempotency(idempotency.getKey()),
+                idempotency.getResponse().getId().toString(),
+                balanceCodec.encode(idempotency.getResponse().getBalance()),
+                String.valueOf(idempotency.getExpiry().getEpochSecond())
+        };
+    }
+
+    /**
+     * Converts the fields of a record. A key used by a single wallet request whose record is in another slot is
+     * read as a response of that wallet without a balance, which is enough to tell that the key was used.
+     */
+    static Idempotency fromFields(BalanceCodec balanceCodec, UUID key, Map<String, String> fields) {
+        Wallet response = null;
+        if (fields.containsKey(ID_FIELD)) {
+            response = new Wallet(UUID.fromString(fields.get(ID_FIELD)), balanceCodec.decode(fields.get(BALANCE_FIELD)));
+        }
+        else if (fields.containsKey(WALLET_FIELD)) {
+            response = new Wallet(UUID.fromString(fields.get(WALLET_FIELD)), null);
+        }
+
+        List<WalletResult> results = fields.containsKey(RESULTS_FIELD) ? decodeResults(fields.get(RESULTS_FIELD)) : null;
+
+        return Idempotency.builder()
+                .key(key)
+                .response(response)
+                .results(results)
+                .expiry(Instant.ofEpochSecond(Long.parseLong(fields.get(EXPIRY_FIELD))))
+                .build();
+    }
+
+    /**
+     * Unpacks the single wallet response of the packed field, laid out as version (1 byte), wallet id (16 bytes),
+     * unscaled balance (8 bytes) and scale (1 byte) followed by the expiry (8 bytes), all big-endian
+     */
+    static Wallet unpackResponse(BalanceCodec balanceCodec, byte[] packed) {
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+
+        int version = Byte.toUnsignedInt(buffer.get());
+        if (version != PACKED_VERSION) {
+            throw new IllegalStateException("Unsupported idempotency record version " + version);
+        }
+
+        UUID id = new UUID(buffer.getLong(), buffer.getLong());
+        BigDecimal stored = BigDecimal.valueOf(buffer.getLong(), Byte.toUnsignedInt(buffer.get()));
+
+        return new Wallet(id, balanceCodec.decode(stored.toPlainString()));
+    }
+
+    /**
+     * Converts the flattened field/value list returned by read-idempotency.lua or claim-idempotency.lua for an
+     * existing record
+     */
+    static Idempotency fromReply(BalanceCodec balanceCodec, UUID key, List<?> reply) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i + 1 < reply.size(); i += 2) {
+            fields.put(RedisScripts.asString(reply.get(i)), RedisScripts.asString(reply.get(i + 1)));
+        }
+
+        return fromFields(balanceCodec, key, fields);
+    }
+
+    /**
+     * Encodes batch results compactly as comma separated {@code <id>=<status>} pairs
+     */
+    private static String encodeResults(List<WalletResult> results) {
+        return results.stream()
+                .map(result -> result.getId() + "=" + result.getStatus())
+                .collect(Collectors.joining(","));
+    }
+
+    private static List<WalletResult> decodeResults(String value) {
+        if (value.isEmpty()) {
+            return List.of();
+        }
+
+        return Arrays.stream(value.split(","))
+                .map(entry -> entry.split("="))
+                .map(parts -> new WalletResult(UUID.fromString(parts[0]), WalletResult.Status.valueOf(parts[1]), null))
+                .toList();
+    }
+}
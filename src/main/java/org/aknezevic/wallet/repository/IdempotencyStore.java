@@ -0,0 +1,78 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.Idempotency;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface IdempotencyStore {
+
+    /**
+     * Retrieves an idempotency record by its key
+     *
+     * @param key UUID of the idempotency key
+     *
+     * @return the idempotency record, or empty if it does not exist
+     */
+    Optional<Idempotency> findById(UUID key);
+
+    /**
+     * Atomically claims an idempotency key by creating a pending record if none exists
+     *
+     * @param key UUID of the idempotency key
+     * @param owner token identifying the claiming request
+     * @param expiry instant at which the pending record expires unless its response is saved first
+     *
+     * @return empty if the key was claimed by the caller, otherwise the existing record, whose
+     * response is null while the request holding the claim is still in progress
+     */
+    Optional<Idempotency> claim(UUID key, UUID owner, Instant expiry);
+
+    /**
+     * Extends the lease of a pending record if it is still held by the given owner
+     *
+     * @param key UUID of the idempotency key
+     * @param owner token of the request holding the claim
+     * @param expiry instant at which the pending record expires unless renewed or completed again
+     *
+     * @return true if the lease was extended, false if the claim expired or is held by another request
+     */
+    boolean renew(UUID key, UUID owner, Instant expiry);
+
+    /**
+     * Replaces a pending record with the batch results of the record if it is still held by the given owner
+     *
+     * @param idempotency idempotency record holding the batch results
+     * @param owner token of the request holding the claim
+     *
+     * @return true if the results were stored, false if the claim expired or is held by another request
+     */
+    boolean complete(Idempotency idempotency, UUID owner);
+
+    /**
+     * Deletes a pending record if it is still held by the given owner
+     *
+     * @param key UUID of the idempotency key
+     * @param owner token of the request holding the claim
+     *
+     * @return true if the claim was released, false if it expired or is held by another request
+     */
+    boolean release(UUID key, UUID owner);
+
+    /**
+     * Saves an idempotency record, expiring it at the record's expiry
+     *
+     * @param idempotency idempotency record to be saved
+     *
+     * @return the saved idempotency record
+     */
+    Idempotency save(Idempotency idempotency);
+
+    /**
+     * Deletes an idempotency record
+     *
+     * @param idempotency idempotency record to be deleted
+     */
+    void delete(Idempotency idempotency);
+}
@@ -0,0 +1,130 @@
+package org.aknezevic.wallet.repository;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Assigns each wallet to one of {@code wallet.ledger.shards} shards and builds the Redis keys of the wallet
+ * and its shard. All ledger entries of a wallet go to the stream of its shard, so they are read back in the
+ * order they were written.
+ * <p>
+ * When {@code wallet.store.hash-tags} is enabled, every key of a wallet carries its shard as a hash tag, as
+ * in {@code wallet:{<shard>}:<id>}. The wallet hash, its transaction list, the ledger stream of its shard and
+ * the idempotency records of requests on the wallet then hash to the same Redis Cluster slot, so the scripts
+ * touching them keep working in cluster mode. Idempotency records of batch requests are tagged with the
+ * shard of their own key, and so is the key naming the wallet each single wallet request was for, which lets
+ * a key reused by another request be detected even though their records live in different slots. The number
+ * of shards and the key layout must not change once data has been written.
+ */
+@Component
+public class KeySharding {
+
+    @Value("${wallet.ledger.shards:16}")
+    private int shards;
+    @Value("${wallet.store.hash-tags:false}")
+    private boolean hashTags;
+    @Value("${wallet.store.read-legacy:false}")
+    private boolean readLegacy;
+    @Value("${spring.data.redis.cluster.nodes:}")
+    private List<String> clusterNodes;
+
+    @PostConstruct
+    void checkClusterMode() {
+        if (isClustered() && !hashTags) {
+            throw new IllegalStateException("Redis Cluster requires wallet.store.hash-tags to be enabled, "
+                    + "so that the keys used by each script share a slot");
+        }
+        if (isClustered() && readLegacy) {
+            throw new IllegalStateException("wallet.store.read-legacy is not supported with Redis Cluster, "
+                    + "finish the migration on a single Redis instance first");
+        }
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public boolean hasHashTags() {
+        return hashTags;
+    }
+
+    /**
+     * Whether the application is connected to a Redis Cluster through {@code spring.data.redis.cluster.nodes}
+     */
+    public boolean isClustered() {
+        return clusterNodes.stream().anyMatch(node -> !node.isBlank());
+    }
+
+    public int shard(UUID id) {
+        return Math.floorMod(id.hashCode(), shards);
+    }
+
+    /**
+     * Whether two wallets hash to different slots, so that a script cannot touch both in cluster mode
+     */
+    public boolean isCrossSlot(UUID id, UUID otherId) {
+        return isClustered() && shard(id) != shard(otherId);
+    }
+
+    public String wallet(UUID id) {
+        return hashTags ? RedisKeys.wallet(shard(id), id) : RedisKeys.wallet(id);
+    }
+
+    public String transactions(UUID id) {
+        return hashTags ? RedisKeys.transactions(shard(id), id) : RedisKeys.transactions(id);
+    }
+
+    public String ledger(UUID walletId) {
+        return ledger(shard(walletId));
+    }
+
+    public String ledger(int shard) {
+        return hashTags ? RedisKeys.taggedLedger(shard) : RedisKeys.ledger(shard);
+    }
+
+    /**
+     * Key of the idempotency record of a request on a single wallet, in the slot of the wallet
+     */
+    public String idempotency(UUID walletId, UUID key) {
+        return hashTags ? RedisKeys.idempotency(shard(walletId), key) : RedisKeys.idempotency(key);
+    }
+
+    /**
+     * Key of the idempotency record of a batch request, in the slot of the key itself
+     */
+    public String idempotency(UUID key) {
+        return idempotency(key, key);
+    }
+
+    /**
+     * Key naming the wallet whose single wallet request used an idempotency key, in the slot of the key itself
+     * like the records of batch requests
+     */
+    public String idempotencyWallet(UUID key) {
+        return hashTags ? RedisKeys.idempotencyWallet(shard(key), key) : RedisKeys.idempotencyWallet(key);
+    }
+
+    /**
+     * Key of the record guarding the credit of a transfer between wallets in different slots, in the slot of
+     * the credited wallet
+     */
+    public String transferCredit(UUID toId, UUID key) {
+        return RedisKeys.transferCredit(shard(toId), key);
+    }
+
+    /**
+     * Key of the set of pending transfers between slots debited from wallets of the given wallet's shard, in the
+     * slot of that wallet
+     */
+    public String pendingTransfers(UUID fromId) {
+        return pendingTransfers(shard(fromId));
+    }
+
+    public String pendingTransfers(int shard) {
+        return RedisKeys.pendingTransfers(shard);
+    }
+}
@@ -0,0 +1,139 @@
+package org.aknezevic.wallet.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Rebuilds wallet balances from the ledger streams. Each shard's stream is read from its first entry through
+ * the {@code wallet.ledger.replay-group} consumer group, which is reset on every replay, and the entries of
+ * each wallet are folded into its balance. When {@code wallet.ledger.restore-on-startup} is enabled, the
+ * rebuilt balances are written back to the wallet hashes once the application has started, for example to
+ * recover from a deploy that corrupted balances.
+ */
+@Slf4j
+@Component
+public class LedgerReplayer {
+    private static final String BALANCE_FIELD = "balance";
+    private static final String VERSION_FIELD = "version";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private KeySharding keySharding;
+    @Autowired
+    private ClusterFanOut clusterFanOut;
+
+    @Value("${wallet.ledger.replay-group:replay}")
+    private String group;
+    @Value("${wallet.ledger.replay-batch-size:1000}")
+    private int batchSize;
+    @Value("${wallet.ledger.restore-on-startup:false}")
+    private boolean restoreOnStartup;
+
+    /**
+     * Method for rebuilding the balance of every wallet recorded in the ledger
+     *
+     * @return the balance of each wallet after applying all of its entries in order
+     */
+    public Map<UUID, BigDecimal> rebuildBalances() {
+        Map<UUID, BigDecimal> balances = new HashMap<>();
+        StreamOperations<String, Object, Object> streamOps = redisTemplate.opsForStream();
+        Consumer consumer = Consumer.from(group, "replayer");
+
+        for (int shard = 0; shard < keySharding.getShards(); shard++) {
+            String key = keySharding.ledger(shard);
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(key))) {
+                continue;
+            }
+
+            resetGroup(streamOps, key);
+
+            List<MapRecord<String, Object, Object>> records;
+            while (!(records = streamOps.read(consumer, StreamReadOptions.empty().count(batchSize),
+                    StreamOffset.create(key, ReadOffset.lastConsumed()))).isEmpty()) {
+                records.forEach(record -> apply(balances, record));
+                streamOps.acknowledge(key, group, records.stream().map(MapRecord::getId).toArray(RecordId[]::new));
+            }
+        }
+
+        return balances;
+    }
+
+    /**
+     * Method for overwriting the balance of every wallet recorded in the ledger with its rebuilt balance
+     *
+     * @return the number of wallets restored
+     */
+    public int restoreBalances() {
+        Map<UUID, BigDecimal> balances = rebuildBalances();
+
+        clusterFanOut.execute(new ArrayList<>(balances.keySet()), id -> id, ids ->
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    ids.forEach(id -> {
+                        stringConnection.hSet(keySharding.wallet(id), BALANCE_FIELD, balanceCodec.encode(balances.get(id)));
+                        stringConnection.hIncrBy(keySharding.wallet(id), VERSION_FIELD, 1);
+                    });
+                    return null;
+                }));
+
+        return balances.size();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void restoreOnStartup() {
+        if (restoreOnStartup) {
+            log.info("Restored balances of {} wallets from the ledger.", restoreBalances());
+        }
+    }
+
+    private void resetGroup(StreamOperations<String, Object, Object> streamOps, String key) {
+        if (streamOps.groups(key).stream().anyMatch(info -> group.equals(info.groupName()))) {
+            streamOps.destroyGroup(key, group);
+        }
+
+        streamOps.createGroup(key, ReadOffset.from("0-0"), group);
+    }
+
+    private void apply(Map<UUID, BigDecimal> balances, MapRecord<String, Object, Object> record) {
+        Map<Object, Object> fields = record.getValue();
+        UUID id = UUID.fromString(String.valueOf(fields.get("wallet")));
+        BigDecimal amount = balanceCodec.decode(String.valueOf(fields.get("amount")));
+
+        BigDecimal balance = switch (Transaction.Type.valueOf(String.valueOf(fields.get("type")))) {
+            case CREATE, MIGRATE -> amount;
+            case CREDIT -> balances.getOrDefault(id, BigDecimal.ZERO).add(amount);
+            case DEBIT -> balances.getOrDefault(id, BigDecimal.ZERO).subtract(amount);
+        };
+        balances.put(id, balance);
+
+        BigDecimal recorded = balanceCodec.decode(String.valueOf(fields.get("balance")));
+        if (balance.compareTo(recorded) != 0) {
+            log.warn("Ledger entry {} of wallet of ID {} records balance {} but replaying gives {}.", record.getId(), id, recorded, balance);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.aknezevic.wallet.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies balance updates with optimistic concurrency control instead of scripts, for deployments where
+ * server-side scripting is disallowed. Each attempt watches the wallet hash and the idempotency record, reads
+ * them, computes the new balance and writes it together with the incremented version, the idempotency response
+ * and the ledger entry in a single MULTI/EXEC transaction. When another client writes either key in between,
+ * the transaction is discarded and the update is retried after a random backoff of up to
+ * {@code wallet.store.optimistic.base-backoff} doubled on each attempt, capped at
+ * {@code wallet.store.optimistic.max-backoff}, for at most {@code wallet.store.optimistic.max-attempts}
+ * attempts. The ledger stream of the wallet's shard is watched as well, so that the ID of the ledger entry can be
+ * chosen before the transaction and indexed in the wallet's transaction list within it.
+ */
+@Slf4j
+@Component
+public class OptimisticBalanceUpdater {
+    private static final String BALANCE_FIELD = "balance";
+    private static final String VERSION_FIELD = "version";
+    private static final List<String> WALLET_FIELDS = List.of(BALANCE_FIELD, VERSION_FIELD);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private KeySharding keySharding;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${wallet.store.optimistic.enabled:false}")
+    private boolean enabled;
+    @Value("${wallet.store.optimistic.max-attempts:5}")
+    private int maxAttempts;
+    @Value("${wallet.store.optimistic.base-backoff:1ms}")
+    private Duration baseBackoff;
+    @Value("${wallet.store.optimistic.max-backoff:50ms}")
+    private Duration maxBackoff;
+
+    private Counter conflicts;
+    private Counter retries;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+
+        if (keySharding.isClustered()) {
+            throw new IllegalStateException("wallet.store.optimistic.enabled is not supported with Redis Cluster, "
+                    + "where transactions cannot be run on the cluster connection");
+        }
+
+        conflicts = Counter.builder("wallet.optimistic.conflicts")
+                .description("Balance update attempts discarded because the wallet or idempotency record changed concurrently")
+                .register(meterRegistry);
+        retries = Counter.builder("wallet.optimistic.retries")
+                .description("Balance update attempts retried after a conflict")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method for adding or removing funds from a wallet's balance, retrying when a concurrent write conflicts
+     *
+     * @param idempotencyKey UUID of the idempotency key guarding the update, or null for an unguarded update
+     * @param id UUID of the wallet to be updated
+     * @param amount positive decimal amount to add or remove
+     * @param isAddingFunds true to add funds, false to remove funds
+     * @param expiry instant at which a new idempotency record expires, or null for an unguarded update
+     *
+     * @return the outcome of the update with the same semantics as the update scripts, or CONFLICT if every
+     * attempt conflicted with a concurrent write
+     */
+    public WalletResult updateBalance(UUID idempotencyKey, UUID id, BigDecimal amount, boolean isAddingFunds, Instant expiry) {
+        for (int attempt = 1; ; attempt++) {
+            WalletResult result = attempt(idempotencyKey, id, amount, isAddingFunds, expiry);
+            if (result != null) {
+                return result;
+            }
+
+            conflicts.increment();
+            if (attempt >= maxAttempts || !backOff(attempt)) {
+                log.warn("Balance update of wallet of ID {} conflicted with concurrent writes {} times.", id, attempt);
+                return new WalletResult(id, WalletResult.Status.CONFLICT, null);
+            }
+            retries.increment();
+        }
+    }
+
+    /**
+     * Runs a single attempt of an update, returning null if the transaction was discarded because of a conflict
+     */
+    private WalletResult attempt(UUID idempotencyKey, UUID id, BigDecimal amount, boolean isAddingFunds, Instant expiry) {
+        String walletKey = keySharding.wallet(id);
+        String recordKey = idempotencyKey != null ? keySharding.idempotency(id, idempotencyKey) : null;
+
+        return redisTemplate.execute(new SessionCallback<WalletResult>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> WalletResult execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.watch(recordKey != null ? List.of(walletKey, recordKey) : List.of(walletKey));
+
+                WalletResult stored = recordKey != null ? findResponse(ops, recordKey, id) : null;
+                if (stored != null) {
+                    ops.unwatch();
+                    return stored;
+                }
+
+                HashOperations<String, String, String> hashOps = ops.opsForHash();
+                List<String> fields = hashOps.multiGet(walletKey, WALLET_FIELDS);
+                if (fields.get(0) == null) {
+                    ops.unwatch();
+                    return new WalletResult(id, WalletResult.Status.NOT_FOUND, null);
+                }
+
+                BigDecimal balance = balanceCodec.decode(fields.get(0));
+                BigDecimal updated = isAddingFunds ? balance.add(amount) : balance.subtract(amount);
+                if (updated.signum() < 0) {
+                    ops.unwatch();
+                    return new WalletResult(id, WalletResult.Status.INSUFFICIENT_FUNDS, new Wallet(id, balance));
+                }
+
+                String storedBalance = balanceCodec.encode(updated);
+                String ledgerKey = keySharding.ledger(id);
+                ops.watch(ledgerKey);
+                RecordId entryId = nextEntryId(ops, ledgerKey);
+
+                ops.multi();
+                hashOps.put(walletKey, BALANCE_FIELD, storedBalance);
+                hashOps.increment(walletKey, VERSION_FIELD, 1);
+                if (recordKey != null) {
+                    hashOps.putAll(recordKey, Map.of(
+                            IdempotencyRecords.ID_FIELD, id.toString(),
+                            IdempotencyRecords.BALANCE_FIELD, storedBalance,
+                            IdempotencyRecords.EXPIRY_FIELD, String.valueOf(expiry.getEpochSecond())));
+                    ops.expireAt(recordKey, expiry);
+                }
+                ops.opsForStream().add(StreamRecords.string(ledgerEntry(idempotencyKey, id, isAddingFunds, amount, storedBalance))
+                        .withStreamKey(ledgerKey)
+                        .withId(entryId));
+                ops.opsForList().rightPush(keySharding.transactions(id), entryId.getValue());
+
+                List<Object> replies = ops.exec();
+                if (replies == null || replies.isEmpty()) {
+                    return null;
+                }
+
+                Wallet wallet = new Wallet(id, balanceCodec.decode(storedBalance), ((Number) replies.get(1)).longValue());
+
+                return new WalletResult(id, WalletResult.Status.UPDATED, wallet);
+            }
+        });
+    }
+
+    /**
+     * Reads the idempotency record at key, which may hold a response packed by the scripts, returning REPLAYED
+     * with its response, IN_PROGRESS while it is pending, KEY_REUSED if it holds the results of a batch request,
+     * or null if there is no record
+     */
+    private WalletResult findResponse(RedisOperations<String, String> ops, String key, UUID id) {
+        Map<byte[], byte[]> record = ops.execute((RedisCallback<Map<byte[], byte[]>>) connection ->
+                connection.hashCommands().hGetAll(key.getBytes(StandardCharsets.UTF_8)));
+        if (record == null || record.isEmpty()) {
+            return null;
+        }
+
+        Map<String, byte[]> fields = new HashMap<>();
+        record.forEach((field, value) -> fields.put(new String(field, StandardCharsets.UTF_8), value));
+
+        Wallet response;
+        if (fields.containsKey(IdempotencyRecords.TRANSFER_TO_FIELD)) {
+            return new WalletResult(id, WalletResult.Status.IN_PROGRESS, null);
+        }
+        else if (fields.containsKey(IdempotencyRecords.PACKED_RESPONSE_FIELD)) {
+            response = IdempotencyRecords.unpackResponse(balanceCodec, fields.get(IdempotencyRecords.PACKED_RESPONSE_FIELD));
+        }
+        else if (fields.containsKey(IdempotencyRecords.ID_FIELD)) {
+            response = new Wallet(UUID.fromString(RedisScripts.asString(fields.get(IdempotencyRecords.ID_FIELD))),
+                    balanceCodec.decode(RedisScripts.asString(fields.get(IdempotencyRecords.BALANCE_FIELD))));
+        }
+        else if (fields.containsKey(IdempotencyRecords.RESULTS_FIELD)) {
+            return new WalletResult(id, WalletResult.Status.KEY_REUSED, null);
+        }
+        else if (fields.containsKey(IdempotencyRecords.EXPIRY_FIELD)) {
+            return new WalletResult(id, WalletResult.Status.IN_PROGRESS, null);
+        }
+        else {
+            return null;
+        }
+
+        return new WalletResult(response.getId(), WalletResult.Status.REPLAYED, response);
+    }
+
+    /**
+     * Returns the ID following the last entry of the watched ledger stream at key, using the current time unless
+     * the last entry is from the same millisecond or later, as XADD with an automatic ID would
+     */
+    private RecordId nextEntryId(RedisOperations<String, String> ops, String key) {
+        List<MapRecord<String, Object, Object>> last = ops.opsForStream().reverseRange(key, Range.unbounded(),
+                Limit.limit().count(1));
+        long now = System.currentTimeMillis();
+        if (last == null || last.isEmpty() || last.get(0).getId().getTimestamp() < now) {
+            return RecordId.of(now, 0);
+        }
+
+        RecordId lastId = last.get(0).getId();
+        return RecordId.of(lastId.getTimestamp(), lastId.getSequence() + 1);
+    }
+
+    private Map<String, String> ledgerEntry(UUID idempotencyKey, UUID id, boolean isAddingFunds, BigDecimal amount,
+                                           String storedBalance) {
+        Map<String, String> entry = new LinkedHashMap<>();
+        entry.put("wallet", id.toString());
+        entry.put("type", isAddingFunds ? "CREDIT" : "DEBIT");
+        entry.put("amount", balanceCodec.encode(amount));
+        entry.put("balance", storedBalance);
+        if (idempotencyKey != null) {
+            entry.put("key", idempotencyKey.toString());
+        }
+
+        return entry;
+    }
+
+    /**
+     * Sleeps for a random time of up to the base backoff doubled for each attempt so far, capped at the maximum
+     * backoff, returning false if interrupted
+     */
+    private boolean backOff(int attempt) {
+        long cap = Math.min(maxBackoff.toNanos(), baseBackoff.toNanos() << Math.min(attempt - 1, 20));
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            return true;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
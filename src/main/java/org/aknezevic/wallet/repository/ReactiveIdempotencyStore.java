@@ -0,0 +1,55 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.Idempotency;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Non-blocking counterpart of {@link IdempotencyStore}, with the same semantics for each operation.
+ */
+public interface ReactiveIdempotencyStore {
+
+    /**
+     * @see IdempotencyStore#findById(UUID)
+     */
+    Mono<Idempotency> findById(UUID key);
+
+    /**
+     * Atomically claims an idempotency key by creating a pending record if none exists
+     *
+     * @param key UUID of the idempotency key
+     * @param owner token identifying the claiming request
+     * @param expiry instant at which the pending record expires unless its response is saved first
+     *
+     * @return empty if the key was claimed by the caller, otherwise the existing record, whose
+     * response is null while the request holding the claim is still in progress
+     */
+    Mono<Idempotency> claim(UUID key, UUID owner, Instant expiry);
+
+    /**
+     * @see IdempotencyStore#renew(UUID, UUID, Instant)
+     */
+    Mono<Boolean> renew(UUID key, UUID owner, Instant expiry);
+
+    /**
+     * @see IdempotencyStore#complete(Idempotency, UUID)
+     */
+    Mono<Boolean> complete(Idempotency idempotency, UUID owner);
+
+    /**
+     * @see IdempotencyStore#release(UUID, UUID)
+     */
+    Mono<Boolean> release(UUID key, UUID owner);
+
+    /**
+     * @see IdempotencyStore#save(Idempotency)
+     */
+    Mono<Idempotency> save(Idempotency idempotency);
+
+    /**
+     * @see IdempotencyStore#delete(Idempotency)
+     */
+    Mono<Void> delete(Idempotency idempotency);
+}
@@ -0,0 +1,89 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.Idempotency;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reactive store over the same {@code idempotency:<key>} hashes as {@link RedisIdempotencyStore}, used when
+ * the application runs as a reactive web application.
+ */
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRedisIdempotencyStore implements ReactiveIdempotencyStore {
+
+    @Autowired
+    private ReactiveStringRedisTemplate redisTemplate;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private KeySharding keySharding;
+
+    @Override
+    public Mono<Idempotency> findById(UUID key) {
+        return RedisScripts.execute(redisTemplate, IdempotencyRecords.READ_SCRIPT, 1, new String[]{keySharding.idempotency(key)})
+                .filter(record -> !record.isEmpty())
+                .map(record -> IdempotencyRecords.fromReply(balanceCodec, key, record));
+    }
+
+    @Override
+    public Mono<Idempotency> claim(UUID key, UUID owner, Instant expiry) {
+        return RedisScripts.execute(redisTemplate, IdempotencyRecords.CLAIM_SCRIPT, IdempotencyRecords.CLAIM_KEYS,
+                        IdempotencyRecords.claimKeysAndArgs(keySharding, key, owner, expiry))
+                .filter(record -> !record.isEmpty())
+                .map(record -> IdempotencyRecords.fromReply(balanceCodec, key, record));
+    }
+
+    @Override
+    public Mono<Boolean> renew(UUID key, UUID owner, Instant expiry) {
+        return redisTemplate.execute(IdempotencyRecords.RENEW_SCRIPT, List.of(keySharding.idempotency(key)),
+                        List.of(owner.toString(), String.valueOf(expiry.getEpochSecond())))
+                .next()
+                .map(renewed -> renewed == 1);
+    }
+
+    @Override
+    public Mono<Boolean> complete(Idempotency idempotency, UUID owner) {
+        List<String> keysAndArgs = List.of(IdempotencyRecords.completeKeysAndArgs(keySharding, idempotency, owner));
+
+        return redisTemplate.execute(IdempotencyRecords.COMPLETE_SCRIPT, keysAndArgs.subList(0, 1),
+                        keysAndArgs.subList(1, keysAndArgs.size()))
+                .next()
+                .map(completed -> completed == 1);
+    }
+
+    @Override
+    public Mono<Boolean> release(UUID key, UUID owner) {
+        return redisTemplate.execute(IdempotencyRecords.RELEASE_SCRIPT, List.of(keySharding.idempotency(key)),
+                        List.of(owner.toString()))
+                .next()
+                .map(released -> released == 1);
+    }
+
+    @Override
+    public Mono<Idempotency> save(Idempotency idempotency) {
+        if (idempotency.getResults() == null) {
+            return RedisScripts.execute(redisTemplate, IdempotencyRecords.STORE_SCRIPT, 1,
+                            IdempotencyRecords.storeKeysAndArgs(balanceCodec, keySharding, idempotency))
+                    .thenReturn(idempotency);
+        }
+
+        String key = keySharding.idempotency(idempotency.getKey());
+
+        return redisTemplate.<String, String>opsForHash().putAll(key, IdempotencyRecords.toFields(idempotency))
+                .then(redisTemplate.expireAt(key, idempotency.getExpiry()))
+                .thenReturn(idempotency);
+    }
+
+    @Override
+    public Mono<Void> delete(Idempotency idempotency) {
+        return redisTemplate.delete(keySharding.idempotency(idempotency.getKey())).then();
+    }
+}
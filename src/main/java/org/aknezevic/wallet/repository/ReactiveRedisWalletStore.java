@@ -0,0 +1,206 @@
+package org.aknezevic.wallet.repository;
+
+import jakarta.annotation.PostConstruct;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Reactive store over the same wallet hashes and scripts as {@link RedisWalletStore}, used when
+ * the application runs as a reactive web application. Commands issued concurrently share one connection and
+ * are pipelined by the driver, so the multi-item operations still take a single round trip.
+ */
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveRedisWalletStore implements ReactiveWalletStore {
+    private static final List<String> WALLET_FIELDS = List.of("balance", "version");
+
+    @Autowired
+    private ReactiveStringRedisTemplate redisTemplate;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private KeySharding keySharding;
+    @Autowired
+    private RedisReplicas redisReplicas;
+
+    @Value("${wallet.store.read-legacy:false}")
+    private boolean readLegacy;
+    @Value("${wallet.store.optimistic.enabled:false}")
+    private boolean optimistic;
+
+    @PostConstruct
+    void checkLegacyMode() {
+        if (readLegacy) {
+            throw new IllegalStateException("wallet.store.read-legacy is not supported by the reactive web application, "
+                    + "finish the migration with the servlet web application first");
+        }
+
+        if (optimistic) {
+            throw new IllegalStateException("wallet.store.optimistic.enabled is not supported by the reactive web application, "
+                    + "which applies balance updates with scripts only");
+        }
+    }
+
+    @Override
+    public Mono<Wallet> findById(UUID id) {
+        return findById(redisTemplate, id);
+    }
+
+    @Override
+    public Mono<Wallet> findById(UUID id, Long minVersion) {
+        if (!redisReplicas.isEnabled()) {
+            return findById(id);
+        }
+
+        return findById(redisReplicas.getReactiveRedisTemplate(), id)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(wallet -> redisReplicas.isCurrent(wallet.orElse(null), minVersion) ? Mono.just(wallet.get()) : findById(id));
+    }
+
+    private Mono<Wallet> findById(ReactiveStringRedisTemplate template, UUID id) {
+        return template.<String, String>opsForHash().multiGet(keySharding.wallet(id), WALLET_FIELDS)
+                .filter(fields -> fields.get(0) != null)
+                .map(fields -> new Wallet(id, balanceCodec.decode(fields.get(0)), WalletScripts.toVersion(fields.get(1))));
+    }
+
+    @Override
+    public Mono<Map<UUID, Wallet>> findAllById(List<UUID> ids) {
+        return Flux.fromIterable(ids)
+                .flatMap(this::findById)
+                .collectMap(Wallet::getId);
+    }
+
+    @Override
+    public Mono<WalletResult> create(UUID idempotencyKey, Wallet wallet, Instant expiry) {
+        String[] keysAndArgs = WalletScripts.createKeysAndArgs(balanceCodec, keySharding, idempotencyKey, wallet, expiry);
+
+        return reserveKey(idempotencyKey, wallet.getId(), expiry).flatMap(reserved -> !reserved
+                ? Mono.just(new WalletResult(wallet.getId(), WalletResult.Status.KEY_REUSED, null))
+                : RedisScripts.execute(redisTemplate, WalletScripts.CREATE_WALLET_IDEMPOTENT, WalletScripts.CREATE_IDEMPOTENT_KEYS, keysAndArgs)
+                        .map(reply -> WalletScripts.toResult(balanceCodec, wallet.getId(), reply)));
+    }
+
+    @Override
+    public Mono<WalletResult> updateBalance(UUID idempotencyKey, UUID id, BigDecimal amount, boolean isAddingFunds, Instant expiry) {
+        String[] keysAndArgs = WalletScripts.updateKeysAndArgs(balanceCodec, keySharding, idempotencyKey, id, amount,
+                isAddingFunds, expiry);
+
+        return reserveKey(idempotencyKey, id, expiry).flatMap(reserved -> !reserved
+                ? Mono.just(new WalletResult(id, WalletResult.Status.KEY_REUSED, null))
+                : RedisScripts.execute(redisTemplate, WalletScripts.UPDATE_BALANCE_IDEMPOTENT, WalletScripts.UPDATE_IDEMPOTENT_KEYS, keysAndArgs)
+                        .map(reply -> WalletScripts.toResult(balanceCodec, id, reply)));
+    }
+
+    @Override
+    public Mono<List<WalletResult>> updateBalances(List<BalanceChange> changes, Instant expiry) {
+        return Flux.fromIterable(changes)
+                .flatMapSequential(change -> updateBalance(change.getIdempotencyKey(), change.getWalletId(),
+                        change.getAmount(), change.getIsAddingFunds(), expiry))
+                .collectList();
+    }
+
+    @Override
+    public Mono<TransferResult> transfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount, Instant expiry) {
+        return reserveKey(idempotencyKey, fromId, expiry).flatMap(reserved -> !reserved
+                ? Mono.just(new TransferResult(WalletResult.Status.KEY_REUSED, fromId, null, null))
+                : transferReserved(idempotencyKey, fromId, toId, amount, expiry));
+    }
+
+    private Mono<TransferResult> transferReserved(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount,
+                                                  Instant expiry) {
+        if (keySharding.isCrossSlot(fromId, toId)) {
+            return transferCrossSlot(idempotencyKey, fromId, toId, amount, expiry);
+        }
+
+        String[] keysAndArgs = WalletScripts.transferKeysAndArgs(balanceCodec, keySharding, idempotencyKey, fromId, toId,
+                amount, expiry);
+
+        return RedisScripts.execute(redisTemplate, WalletScripts.TRANSFER_IDEMPOTENT, WalletScripts.TRANSFER_IDEMPOTENT_KEYS, keysAndArgs)
+                .map(reply -> WalletScripts.toTransferResult(balanceCodec, reply));
+    }
+
+    /**
+     * @see RedisWalletStore#transfer(UUID, UUID, UUID, BigDecimal, Instant)
+     */
+    private Mono<TransferResult> transferCrossSlot(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount,
+                                                   Instant expiry) {
+        return RedisScripts.execute(redisTemplate, WalletScripts.TRANSFER_DEBIT, WalletScripts.TRANSFER_DEBIT_KEYS,
+                        WalletScripts.transferDebitKeysAndArgs(balanceCodec, keySharding, idempotencyKey, fromId, toId, amount, expiry))
+                .flatMap(debit -> {
+                    if (!WalletScripts.isDebited(debit)) {
+                        return Mono.just(WalletScripts.toTransferResult(balanceCodec, debit));
+                    }
+
+                    UUID creditedId = WalletScripts.debitedTo(debit);
+                    String[] creditKeysAndArgs = WalletScripts.transferCreditKeysAndArgs(balanceCodec, keySharding, idempotencyKey,
+                            creditedId, WalletScripts.debitedAmount(balanceCodec, debit), expiry);
+
+                    return RedisScripts.execute(redisTemplate, WalletScripts.UPDATE_BALANCE_IDEMPOTENT, WalletScripts.UPDATE_IDEMPOTENT_KEYS,
+                                    creditKeysAndArgs)
+                            .map(reply -> WalletScripts.toResult(balanceCodec, creditedId, reply))
+                            .flatMap(credit -> completeCrossSlot(idempotencyKey, fromId, debit, credit, expiry));
+                });
+    }
+
+    private Mono<TransferResult> completeCrossSlot(UUID idempotencyKey, UUID fromId, List<?> debit, WalletResult credit,
+                                                   Instant expiry) {
+        if (credit.getStatus() != WalletResult.Status.UPDATED && credit.getStatus() != WalletResult.Status.REPLAYED) {
+            return RedisScripts.execute(redisTemplate, WalletScripts.TRANSFER_REFUND, WalletScripts.TRANSFER_REFUND_KEYS,
+                            WalletScripts.transferRefundKeysAndArgs(balanceCodec, keySharding, idempotencyKey, fromId))
+                    .thenReturn(new TransferResult(credit.getStatus(), credit.getId(), null, null));
+        }
+
+        return RedisScripts.execute(redisTemplate, WalletScripts.TRANSFER_COMPLETE, WalletScripts.TRANSFER_COMPLETE_KEYS,
+                        WalletScripts.transferCompleteKeysAndArgs(balanceCodec, keySharding, idempotencyKey, fromId, credit.getWallet(), expiry))
+                .map(reply -> WalletScripts.toCompletedTransferResult(balanceCodec, reply, debit, credit));
+    }
+
+    /**
+     * @see RedisWalletStore#reserveKey(UUID, UUID, Instant)
+     */
+    private Mono<Boolean> reserveKey(UUID idempotencyKey, UUID walletId, Instant expiry) {
+        if (!keySharding.hasHashTags()) {
+            return Mono.just(true);
+        }
+
+        return RedisScripts.execute(redisTemplate, IdempotencyRecords.RESERVE_SCRIPT, IdempotencyRecords.RESERVE_KEYS,
+                        IdempotencyRecords.reserveKeysAndArgs(keySharding, idempotencyKey, walletId, expiry))
+                .map(IdempotencyRecords::isReserved);
+    }
+
+    @Override
+    public Mono<List<Boolean>> createAll(List<Wallet> wallets) {
+        return Flux.fromIterable(wallets)
+                .flatMapSequential(wallet -> RedisScripts.execute(redisTemplate, WalletScripts.CREATE_WALLET, WalletScripts.CREATE_KEYS,
+                        WalletScripts.createKeysAndArgs(balanceCodec, keySharding, wallet, true)))
+                .map(WalletScripts::isCreated)
+                .collectList();
+    }
+
+    @Override
+    public Mono<TransactionPage> findTransactions(UUID id, Long before, int limit) {
+        String[] keysAndArgs = WalletScripts.readTransactionsKeysAndArgs(keySharding, id, before, limit);
+
+        return RedisScripts.execute(redisTemplate, WalletScripts.READ_TRANSACTIONS, WalletScripts.READ_TRANSACTIONS_KEYS, keysAndArgs)
+                .filter(reply -> !reply.isEmpty())
+                .map(reply -> WalletScripts.toTransactionPage(balanceCodec, reply));
+    }
+}
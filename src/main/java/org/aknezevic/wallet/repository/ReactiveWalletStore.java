@@ -0,0 +1,73 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Non-blocking counterpart of {@link WalletStore}, with the same semantics for each operation.
+ */
+public interface ReactiveWalletStore {
+
+    /**
+     * Retrieves a wallet by its ID
+     *
+     * @param id UUID of the wallet
+     *
+     * @return the wallet, or empty if it does not exist
+     */
+    Mono<Wallet> findById(UUID id);
+
+    /**
+     * @see WalletStore#findById(UUID, Long)
+     */
+    Mono<Wallet> findById(UUID id, Long minVersion);
+
+    /**
+     * Retrieves several wallets by their IDs
+     *
+     * @param ids UUIDs of the wallets
+     *
+     * @return the wallets that exist, keyed by their IDs
+     */
+    Mono<Map<UUID, Wallet>> findAllById(List<UUID> ids);
+
+    /**
+     * @see WalletStore#create(UUID, Wallet, Instant)
+     */
+    Mono<WalletResult> create(UUID idempotencyKey, Wallet wallet, Instant expiry);
+
+    /**
+     * @see WalletStore#updateBalance(UUID, UUID, BigDecimal, boolean, Instant)
+     */
+    Mono<WalletResult> updateBalance(UUID idempotencyKey, UUID id, BigDecimal amount, boolean isAddingFunds, Instant expiry);
+
+    /**
+     * @see WalletStore#updateBalances(List, Instant)
+     */
+    Mono<List<WalletResult>> updateBalances(List<BalanceChange> changes, Instant expiry);
+
+    /**
+     * @see WalletStore#transfer(UUID, UUID, UUID, BigDecimal, Instant)
+     */
+    Mono<TransferResult> transfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount, Instant expiry);
+
+    /**
+     * @see WalletStore#createAll(List)
+     */
+    Mono<List<Boolean>> createAll(List<Wallet> wallets);
+
+    /**
+     * @see WalletStore#findTransactions(UUID, Long, int)
+     */
+    Mono<TransactionPage> findTransactions(UUID id, Long before, int limit);
+}
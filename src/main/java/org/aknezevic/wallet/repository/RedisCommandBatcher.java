@@ -0,0 +1,270 @@
+package org.aknezevic.wallet.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Collects the single commands of concurrent requests and sends them to Redis together as one pipeline.
+ * When {@code wallet.redis.batching.enabled} is set, each of {@code wallet.redis.batching.flushers} threads
+ * takes the next queued command, waits up to {@code wallet.redis.batching.max-delay} for more, and flushes
+ * up to {@code wallet.redis.batching.max-size} commands in a single pipeline on one connection. Callers block
+ * until the reply of their own command arrives, or for at most {@code wallet.redis.batching.reply-timeout},
+ * after which a command that was not flushed yet is dropped. A flusher that fails unexpectedly fails its batch
+ * and carries on, and one that dies is replaced. The number of connections used for single commands is then
+ * bounded by the number of flushers. When batching is disabled, commands are sent straight away.
+ */
+@Slf4j
+@Component
+public class RedisCommandBatcher {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${wallet.redis.batching.enabled:false}")
+    private boolean enabled;
+    @Value("${wallet.redis.batching.max-size:64}")
+    private int maxSize;
+    @Value("${wallet.redis.batching.max-delay:500us}")
+    private Duration maxDelay;
+    @Value("${wallet.redis.batching.flushers:2}")
+    private int flushers;
+    @Value("${wallet.redis.batching.reply-timeout:5s}")
+    private Duration replyTimeout;
+
+    private final BlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean closed;
+    private DistributionSummary batchSizes;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+
+        batchSizes = DistributionSummary.builder("wallet.redis.batch.size")
+                .description("Number of commands of concurrent requests flushed in a single pipeline")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        for (int i = 0; i < flushers; i++) {
+            threads.add(null);
+            startFlusher(i);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        closed = true;
+        synchronized (threads) {
+            threads.forEach(Thread::interrupt);
+        }
+
+        List<Command> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        pending.forEach(command -> command.reply().completeExceptionally(new IllegalStateException("Redis command batcher was shut down")));
+    }
+
+    /**
+     * Method for running a script, batched with the commands of concurrent requests when batching is enabled
+     *
+     * @param script script to run
+     * @param numKeys number of keys at the start of keysAndArgs
+     * @param keysAndArgs keys followed by arguments of the call
+     *
+     * @return the reply of the script
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(RedisScript<T> script, int numKeys, String[] keysAndArgs) {
+        if (!enabled) {
+            return redisTemplate.execute(script, Arrays.asList(keysAndArgs).subList(0, numKeys),
+                    (Object[]) Arrays.copyOfRange(keysAndArgs, numKeys, keysAndArgs.length));
+        }
+
+        ReturnType returnType = ReturnType.fromJavaType(script.getResultType());
+        Object reply = submit(script, connection -> connection.evalSha(script.getSha1(), returnType, numKeys, keysAndArgs));
+
+        return (T) (script.getResultType() == String.class ? RedisScripts.asString(reply) : reply);
+    }
+
+    /**
+     * Method for reading several hash fields, batched with the commands of concurrent requests when batching is
+     * enabled
+     *
+     * @param key key of the hash
+     * @param fields fields to read
+     *
+     * @return the value of each field in the order of the given fields, with null for each field that does not exist
+     */
+    public List<String> hMGet(String key, List<String> fields) {
+        if (!enabled) {
+            HashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
+            return hashOps.multiGet(key, fields);
+        }
+
+        List<?> values = (List<?>) submit(null, connection -> connection.hMGet(key, fields.toArray(String[]::new)));
+
+        return values.stream().map(RedisScripts::asString).toList();
+    }
+
+    private Object submit(RedisScript<?> script, Consumer<StringRedisConnection> write) {
+        Command command = new Command(script, write, new CompletableFuture<>());
+        queue.add(command);
+
+        try {
+            return command.reply().orTimeout(replyTimeout.toNanos(), TimeUnit.NANOSECONDS).join();
+        }
+        catch (CompletionException ex) {
+            if (ex.getCause() instanceof TimeoutException) {
+                log.error("Batched Redis command got no reply within {}.", replyTimeout);
+                throw new RedisConnectionFailureException("No reply from Redis within " + replyTimeout, ex.getCause());
+            }
+            throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+        }
+    }
+
+    private void startFlusher(int index) {
+        Thread thread = new Thread(this::run, "redis-batcher-" + index);
+        thread.setDaemon(true);
+        thread.setUncaughtExceptionHandler((dead, ex) -> {
+            log.error("Redis command batcher thread {} died, starting a new one.", dead.getName(), ex);
+            if (!closed) {
+                startFlusher(index);
+            }
+        });
+
+        synchronized (threads) {
+            threads.set(index, thread);
+        }
+        thread.start();
+    }
+
+    private void run() {
+        while (!closed && !Thread.currentThread().isInterrupted()) {
+            List<Command> batch = new ArrayList<>(maxSize);
+
+            try {
+                batch.add(queue.take());
+
+                long deadline = System.nanoTime() + maxDelay.toNanos();
+                while (batch.size() < maxSize) {
+                    Command command = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (command == null) {
+                        break;
+                    }
+                    batch.add(command);
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            // Commands whose caller stopped waiting are not sent.
+            batch.removeIf(command -> command.reply().isDone());
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            try {
+                batchSizes.record(batch.size());
+                flush(batch, true);
+            }
+            catch (Throwable ex) {
+                log.error("Flushing {} batched Redis commands failed unexpectedly.", batch.size(), ex);
+                batch.forEach(command -> command.reply().completeExceptionally(ex));
+            }
+        }
+    }
+
+    /**
+     * Sends a batch as a single pipeline and completes each command with its own reply. Commands whose script
+     * is not cached by Redis were not run, so they are sent again once after loading their scripts.
+     */
+    private void flush(List<Command> batch, boolean retryNoScript) {
+        List<Object> replies;
+        try {
+            replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                batch.forEach(command -> command.write().accept(stringConnection));
+                return null;
+            });
+        }
+        catch (RedisPipelineException ex) {
+            replies = ex.getResults();
+        }
+        catch (RuntimeException ex) {
+            log.error("Pipeline of {} batched Redis commands failed.", batch.size());
+            batch.forEach(command -> command.reply().completeExceptionally(ex));
+            return;
+        }
+
+        List<Command> retries = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Command command = batch.get(i);
+            Object reply = replies.get(i);
+
+            if (reply instanceof Throwable ex) {
+                if (retryNoScript && command.script() != null && RedisScripts.isNoScriptError(ex)) {
+                    retries.add(command);
+                }
+                else {
+                    command.reply().completeExceptionally(ex);
+                }
+            }
+            else {
+                command.reply().complete(reply);
+            }
+        }
+
+        if (!retries.isEmpty()) {
+            Set<RedisScript<?>> scripts = new LinkedHashSet<>();
+            retries.forEach(command -> scripts.add(command.script()));
+
+            try {
+                redisTemplate.execute((RedisCallback<Object>) connection -> {
+                    scripts.forEach(script -> ((StringRedisConnection) connection).scriptLoad(script.getScriptAsString()));
+                    return null;
+                });
+            }
+            catch (RuntimeException ex) {
+                retries.forEach(command -> command.reply().completeExceptionally(ex));
+                return;
+            }
+
+            flush(retries, false);
+        }
+    }
+
+    private record Command(RedisScript<?> script, Consumer<StringRedisConnection> write, CompletableFuture<Object> reply) {
+    }
+}
@@ -0,0 +1,142 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.Wallet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Stores each idempotency record as a single Redis hash under {@code idempotency:<key>}, tagged with the slot
+ * of the key when hash tags are enabled, expiring natively at the record's expiry. Single wallet responses are
+ * packed into a binary field, see {@link IdempotencyRecords}. When {@code wallet.store.read-legacy} is enabled, records missing from this
+ * layout are read from the former {@code Idempotency:<key>} hashes.
+ */
+@Repository
+public class RedisIdempotencyStore implements IdempotencyStore {
+    private static final String LEGACY_ID_FIELD = "response.id";
+    private static final String LEGACY_BALANCE_FIELD = "response.balance";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private KeySharding keySharding;
+    @Autowired
+    private RedisCommandBatcher commandBatcher;
+
+    @Value("${wallet.store.read-legacy:false}")
+    private boolean readLegacy;
+
+    @Override
+    public Optional<Idempotency> findById(UUID key) {
+        List<?> record = commandBatcher.execute(IdempotencyRecords.READ_SCRIPT, 1, new String[]{keySharding.idempotency(key)});
+
+        if (!record.isEmpty()) {
+            return Optional.of(IdempotencyRecords.fromReply(balanceCodec, key, record));
+        }
+
+        return readLegacy ? findLegacy(key) : Optional.empty();
+    }
+
+    @Override
+    public Optional<Idempotency> claim(UUID key, UUID owner, Instant expiry) {
+        if (readLegacy) {
+            Optional<Idempotency> legacy = findLegacy(key);
+            if (legacy.isPresent()) {
+                return legacy;
+            }
+        }
+
+        List<?> record = commandBatcher.execute(IdempotencyRecords.CLAIM_SCRIPT, IdempotencyRecords.CLAIM_KEYS,
+                IdempotencyRecords.claimKeysAndArgs(keySharding, key, owner, expiry));
+
+        if (record.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(IdempotencyRecords.fromReply(balanceCodec, key, record));
+    }
+
+    @Override
+    public boolean renew(UUID key, UUID owner, Instant expiry) {
+        Long renewed = commandBatcher.execute(IdempotencyRecords.RENEW_SCRIPT, 1,
+                new String[]{keySharding.idempotency(key), owner.toString(), String.valueOf(expiry.getEpochSecond())});
+
+        return renewed == 1;
+    }
+
+    @Override
+    public boolean complete(Idempotency idempotency, UUID owner) {
+        Long completed = commandBatcher.execute(IdempotencyRecords.COMPLETE_SCRIPT, 1,
+                IdempotencyRecords.completeKeysAndArgs(keySharding, idempotency, owner));
+
+        return completed == 1;
+    }
+
+    @Override
+    public boolean release(UUID key, UUID owner) {
+        Long released = commandBatcher.execute(IdempotencyRecords.RELEASE_SCRIPT, 1,
+                new String[]{keySharding.idempotency(key), owner.toString()});
+
+        return released == 1;
+    }
+
+    @Override
+    public Idempotency save(Idempotency idempotency) {
+        if (idempotency.getResults() == null) {
+            String[] keysAndArgs = IdempotencyRecords.storeKeysAndArgs(balanceCodec, keySharding, idempotency);
+            commandBatcher.execute(IdempotencyRecords.STORE_SCRIPT, 1, keysAndArgs);
+            return idempotency;
+        }
+
+        String key = keySharding.idempotency(idempotency.getKey());
+        Map<String, String> fields = IdempotencyRecords.toFields(idempotency);
+
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.hMSet(key, fields);
+            stringConnection.expireAt(key, idempotency.getExpiry().getEpochSecond());
+            return null;
+        });
+
+        return idempotency;
+    }
+
+    @Override
+    public void delete(Idempotency idempotency) {
+        if (readLegacy) {
+            redisTemplate.delete(List.of(keySharding.idempotency(idempotency.getKey()), RedisKeys.legacyIdempotency(idempotency.getKey())));
+            redisTemplate.opsForSet().remove(RedisKeys.LEGACY_IDEMPOTENCY_INDEX, idempotency.getKey().toString());
+        }
+        else {
+            redisTemplate.delete(keySharding.idempotency(idempotency.getKey()));
+        }
+    }
+
+    private Optional<Idempotency> findLegacy(UUID key) {
+        HashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
+        Map<String, String> fields = hashOps.entries(RedisKeys.legacyIdempotency(key));
+
+        if (fields.isEmpty() || Instant.parse(fields.get(IdempotencyRecords.EXPIRY_FIELD)).isBefore(Instant.now())) {
+            return Optional.empty();
+        }
+
+        return Optional.of(Idempotency.builder()
+                .key(key)
+                .response(new Wallet(UUID.fromString(fields.get(LEGACY_ID_FIELD)), balanceCodec.decode(fields.get(LEGACY_BALANCE_FIELD))))
+                .expiry(Instant.parse(fields.get(IdempotencyRecords.EXPIRY_FIELD)))
+                .build());
+    }
+}
@@ -0,0 +1,97 @@
+package org.aknezevic.wallet.repository;
+
+import java.util.UUID;
+
+/**
+ * Redis key layout shared by the template based stores and their scripts. The overloads taking a shard place
+ * the shard in a hash tag, see {@link KeySharding}.
+ */
+public final class RedisKeys {
+    static final String LEGACY_WALLET_INDEX = "Wallet";
+    static final String LEGACY_IDEMPOTENCY_INDEX = "Idempotency";
+
+    private RedisKeys() {
+    }
+
+    public static String wallet(UUID id) {
+        return "wallet:" + id;
+    }
+
+    public static String wallet(int shard, UUID id) {
+        return "wallet:" + tag(shard) + ":" + id;
+    }
+
+    public static String idempotency(UUID key) {
+        return "idempotency:" + key;
+    }
+
+    public static String idempotency(int shard, UUID key) {
+        return "idempotency:" + tag(shard) + ":" + key;
+    }
+
+    /**
+     * Key naming the wallet whose single wallet request used an idempotency key
+     */
+    public static String idempotencyWallet(UUID key) {
+        return "idempotency:" + key + ":wallet";
+    }
+
+    public static String idempotencyWallet(int shard, UUID key) {
+        return "idempotency:" + tag(shard) + ":" + key + ":wallet";
+    }
+
+    /**
+     * Key of the record guarding the credit of a transfer whose wallets are in different slots
+     */
+    public static String transferCredit(int shard, UUID key) {
+        return "idempotency:" + tag(shard) + ":" + key + ":credit";
+    }
+
+    /**
+     * Key of the sorted set of transfers between slots whose source wallet in the given shard was debited but
+     * whose transfer is not finished yet, scored by the time of the debit
+     */
+    public static String pendingTransfers(int shard) {
+        return "transfers:" + tag(shard);
+    }
+
+    /**
+     * Key of the ledger stream holding the transactions of all wallets in the given shard
+     */
+    public static String ledger(int shard) {
+        return "ledger:" + shard;
+    }
+
+    public static String taggedLedger(int shard) {
+        return "ledger:" + tag(shard);
+    }
+
+    /**
+     * Key of the list indexing a wallet's entries in its ledger stream, oldest first
+     */
+    public static String transactions(UUID id) {
+        return "transactions:" + id;
+    }
+
+    public static String transactions(int shard, UUID id) {
+        return "transactions:" + tag(shard) + ":" + id;
+    }
+
+    /**
+     * Key of a wallet hash written by the former {@code @RedisHash("Wallet")} repository mapping
+     */
+    static String legacyWallet(UUID id) {
+        return LEGACY_WALLET_INDEX + ":" + id;
+    }
+
+    /**
+     * Key of an idempotency hash written by the former {@code @RedisHash("Idempotency")} repository mapping
+     */
+    static String legacyIdempotency(UUID key) {
+        return LEGACY_IDEMPOTENCY_INDEX + ":" + key;
+    }
+
+    private static String tag(int shard) {
+        return "{" + shard + "}";
+    }
+}
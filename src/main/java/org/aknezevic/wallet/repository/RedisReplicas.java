@@ -0,0 +1,143 @@
+package org.aknezevic.wallet.repository;
+
+import io.lettuce.core.ReadFrom;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.Wallet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisConfiguration;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStaticMasterReplicaConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Connection used to read wallets from Redis replicas. When {@code wallet.replica.enabled} is set, single
+ * wallet reads go to a replica of the node holding the wallet where one is available, and are served from the
+ * primary instead when the replica does not have the wallet or has not yet caught up to the version asked for
+ * by the client. Replicas of a single primary are listed in {@code wallet.replica.nodes}, in cluster mode they
+ * are discovered from the cluster topology. Writes always go to the primary through the auto-configured
+ * connection factory.
+ */
+@Slf4j
+@Component
+public class RedisReplicas {
+
+    @Autowired
+    private RedisProperties redisProperties;
+    @Autowired
+    private KeySharding keySharding;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${wallet.replica.enabled:false}")
+    private boolean enabled;
+    @Value("${wallet.replica.nodes:}")
+    private List<String> nodes;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redisTemplate;
+    private ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private Counter replicaReads;
+    private Counter primaryReads;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder clientConfiguration = LettuceClientConfiguration.builder()
+                .readFrom(ReadFrom.REPLICA_PREFERRED);
+        if (redisProperties.getTimeout() != null) {
+            clientConfiguration.commandTimeout(redisProperties.getTimeout());
+        }
+
+        connectionFactory = new LettuceConnectionFactory(configuration(), clientConfiguration.build());
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        reactiveRedisTemplate = new ReactiveStringRedisTemplate(connectionFactory);
+
+        replicaReads = Counter.builder("wallet.replica.reads")
+                .tag("source", "replica")
+                .description("Wallet reads served from a replica")
+                .register(meterRegistry);
+        primaryReads = Counter.builder("wallet.replica.reads")
+                .tag("source", "primary")
+                .description("Wallet reads served from the primary because the replica was missing the wallet or behind")
+                .register(meterRegistry);
+
+        log.info("Reading wallets from Redis replicas.");
+    }
+
+    @PreDestroy
+    void close() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public StringRedisTemplate getRedisTemplate() {
+        return redisTemplate;
+    }
+
+    public ReactiveStringRedisTemplate getReactiveRedisTemplate() {
+        return reactiveRedisTemplate;
+    }
+
+    /**
+     * Method for checking whether a wallet read from a replica can be returned, counting where the read is served from
+     *
+     * @param wallet wallet read from the replica, or null if the replica does not have it
+     * @param minVersion version the client asked for, or null for any version
+     *
+     * @return true if the replica's copy includes the given version, false if the wallet has to be read from the primary
+     */
+    boolean isCurrent(Wallet wallet, Long minVersion) {
+        boolean current = wallet != null && wallet.includesVersion(minVersion);
+        (current ? replicaReads : primaryReads).increment();
+
+        return current;
+    }
+
+    private RedisConfiguration configuration() {
+        if (keySharding.isClustered()) {
+            RedisClusterConfiguration configuration = new RedisClusterConfiguration(redisProperties.getCluster().getNodes());
+            configuration.setUsername(redisProperties.getUsername());
+            configuration.setPassword(RedisPassword.of(redisProperties.getPassword()));
+            return configuration;
+        }
+
+        if (nodes.stream().allMatch(String::isBlank)) {
+            throw new IllegalStateException("wallet.replica.nodes must list the replicas to read from when not connected to a Redis Cluster");
+        }
+
+        RedisStaticMasterReplicaConfiguration configuration = new RedisStaticMasterReplicaConfiguration(
+                redisProperties.getHost(), redisProperties.getPort());
+        nodes.stream().filter(node -> !node.isBlank()).forEach(node -> {
+            int separator = node.lastIndexOf(':');
+            configuration.addNode(node.substring(0, separator).trim(), Integer.parseInt(node.substring(separator + 1).trim()));
+        });
+        configuration.setUsername(redisProperties.getUsername());
+        configuration.setPassword(RedisPassword.of(redisProperties.getPassword()));
+        configuration.setDatabase(redisProperties.getDatabase());
+
+        return configuration;
+    }
+}
@@ -0,0 +1,130 @@
+package org.aknezevic.wallet.repository;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads the Lua scripts under {@code scripts/}, prepending the shared helpers in {@code scripts/lib/wallet.lua},
+ * and runs them in pipelines or on the reactive template.
+ */
+final class RedisScripts {
+    private static final String LIBRARY = "scripts/lib/wallet.lua";
+
+    private RedisScripts() {
+    }
+
+    static <T> RedisScript<T> load(String name, Class<T> resultType) {
+        return new DefaultRedisScript<>(read(LIBRARY) + "\n" + read("scripts/" + name), resultType);
+    }
+
+    /**
+     * Runs a script once for each call in a single pipeline. If Redis does not have the script cached, it is
+     * loaded and the whole pipeline is sent again, so each call must be safe to repeat.
+     *
+     * @param redisTemplate template to run the pipeline with
+     * @param script script returning a multi bulk reply
+     * @param numKeys number of keys at the start of each call
+     * @param calls keys followed by arguments of each call
+     *
+     * @return the reply of each call, in the order of the calls
+     */
+    static List<Object> executePipelined(StringRedisTemplate redisTemplate, RedisScript<?> script, int numKeys,
+                                         List<String[]> calls) {
+        try {
+            return evalShaPipelined(redisTemplate, script, numKeys, calls);
+        }
+        catch (RuntimeException ex) {
+            if (!isNoScriptError(ex)) {
+                throw ex;
+            }
+
+            redisTemplate.execute((RedisCallback<String>) connection ->
+                    ((StringRedisConnection) connection).scriptLoad(script.getScriptAsString()));
+
+            return evalShaPipelined(redisTemplate, script, numKeys, calls);
+        }
+    }
+
+    /**
+     * Runs a script returning a multi bulk reply on the reactive template
+     *
+     * @param redisTemplate reactive template to run the script with
+     * @param script script returning a multi bulk reply
+     * @param numKeys number of keys at the start of keysAndArgs
+     * @param keysAndArgs keys followed by arguments of the call
+     *
+     * @return the reply collected into a list
+     */
+    static Mono<List<Object>> execute(ReactiveStringRedisTemplate redisTemplate, RedisScript<?> script, int numKeys,
+                                      String[] keysAndArgs) {
+        List<String> values = Arrays.asList(keysAndArgs);
+
+        return redisTemplate.execute(script, values.subList(0, numKeys), values.subList(numKeys, values.size()))
+                .cast(Object.class)
+                .collectList()
+                .map(RedisScripts::flatten);
+    }
+
+    static String asString(Object value) {
+        if (value instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return value != null ? String.valueOf(value) : null;
+    }
+
+    private static List<Object> evalShaPipelined(StringRedisTemplate redisTemplate, RedisScript<?> script, int numKeys,
+                                                 List<String[]> calls) {
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            calls.forEach(keysAndArgs -> stringConnection.evalSha(script.getSha1(), ReturnType.MULTI, numKeys, keysAndArgs));
+            return null;
+        });
+    }
+
+    /**
+     * The reactive driver emits the elements of a multi bulk reply one by one, but nested replies may
+     * still arrive as a single list
+     */
+    private static List<Object> flatten(List<Object> reply) {
+        if (reply.size() == 1 && reply.get(0) instanceof List<?> nested) {
+            return new ArrayList<>(nested);
+        }
+
+        return reply;
+    }
+
+    static boolean isNoScriptError(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String read(String path) {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Could not read Redis script " + path, ex);
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package org.aknezevic.wallet.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Stores each wallet as a single Redis hash under {@code wallet:<id>}, or {@code wallet:{<shard>}:<id>} when
+ * hash tags are enabled for Redis Cluster, without the secondary index sets maintained by the Spring Data
+ * repository mapping. Every change to a balance is appended to the ledger stream of the wallet's shard by the
+ * same script that applies it. In cluster mode, multi-wallet pipelines are split by slot, see
+ * {@link ClusterFanOut}, and transfers between slots run as a saga. Each write increments the wallet's
+ * version, which lets single wallet reads be served from a replica, see {@link RedisReplicas}. When
+ * {@code wallet.store.optimistic.enabled} is set, balance updates run as WATCH/MULTI transactions instead of
+ * scripts, see {@link OptimisticBalanceUpdater}. With hash tags, the idempotency key of each single wallet
+ * request is first reserved for its wallet in the slot of the key, so that a key reused for another wallet or
+ * by a batch request is reported as KEY_REUSED. When
+ * {@code wallet.store.read-legacy} is enabled, wallets missing from this layout are moved over from the
+ * former {@code Wallet:<id>} hashes on first access.
+ */
+@Slf4j
+@Repository
+@SuppressWarnings("rawtypes")
+public class RedisWalletStore implements WalletStore {
+    private static final String BALANCE_FIELD = "balance";
+    private static final String VERSION_FIELD = "version";
+    private static final List<String> WALLET_FIELDS = List.of(BALANCE_FIELD, VERSION_FIELD);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private KeySharding keySharding;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+    @Autowired
+    private RedisCommandBatcher commandBatcher;
+    @Autowired
+    private ClusterFanOut clusterFanOut;
+    @Autowired
+    private RedisReplicas redisReplicas;
+    @Autowired
+    private OptimisticBalanceUpdater optimisticBalanceUpdater;
+
+    @Value("${wallet.store.read-legacy:false}")
+    private boolean readLegacy;
+
+    @Override
+    public Optional<Wallet> findById(UUID id) {
+        List<String> fields = commandBatcher.hMGet(keySharding.wallet(id), WALLET_FIELDS);
+
+        if (fields.get(0) == null && readLegacy && migrate(id) != null) {
+            fields = commandBatcher.hMGet(keySharding.wallet(id), WALLET_FIELDS);
+        }
+
+        return Optional.ofNullable(toWallet(id, fields));
+    }
+
+    @Override
+    public Optional<Wallet> findById(UUID id, Long minVersion) {
+        if (!redisReplicas.isEnabled()) {
+            return findById(id);
+        }
+
+        HashOperations<String, String, String> hashOps = redisReplicas.getRedisTemplate().opsForHash();
+        Wallet wallet = toWallet(id, hashOps.multiGet(keySharding.wallet(id), WALLET_FIELDS));
+
+        return redisReplicas.isCurrent(wallet, minVersion) ? Optional.of(wallet) : findById(id);
+    }
+
+    @Override
+    public List<Wallet> findAllById(List<UUID> ids) {
+        List<Object> replies = clusterFanOut.execute(ids, id -> id, part ->
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    part.forEach(id -> stringConnection.hMGet(keySharding.wallet(id), BALANCE_FIELD, VERSION_FIELD));
+                    return null;
+                }));
+
+        List<Wallet> wallets = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            UUID id = ids.get(i);
+            List<String> fields = ((List<?>) replies.get(i)).stream().map(RedisScripts::asString).toList();
+
+            if (fields.get(0) == null && readLegacy && migrate(id) != null) {
+                fields = commandBatcher.hMGet(keySharding.wallet(id), WALLET_FIELDS);
+            }
+
+            wallets.add(toWallet(id, fields));
+        }
+
+        return wallets;
+    }
+
+    @Override
+    public Wallet save(Wallet wallet) {
+        if (wallet.getId() == null) {
+            wallet.setId(UUID.randomUUID());
+        }
+
+        List<?> reply = execute(WalletScripts.CREATE_WALLET, WalletScripts.CREATE_KEYS,
+                WalletScripts.createKeysAndArgs(balanceCodec, keySharding, wallet, false));
+        wallet.setVersion(WalletScripts.createdVersion(reply));
+
+        return wallet;
+    }
+
+    @Override
+    public TransferResult transfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount, Instant expiry) {
+        if (!reserveKey(idempotencyKey, fromId, expiry)) {
+            return new TransferResult(WalletResult.Status.KEY_REUSED, fromId, null, null);
+        }
+
+        return executeReservedTransfer(idempotencyKey, fromId, toId, amount, expiry);
+    }
+
+    private TransferResult executeReservedTransfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount,
+                                                   Instant expiry) {
+        if (keySharding.isCrossSlot(fromId, toId)) {
+            return executeCrossSlotTransfer(idempotencyKey, fromId, toId, amount, expiry);
+        }
+
+        TransferResult result = executeTransfer(idempotencyKey, fromId, toId, amount, expiry);
+
+        if (result.getStatus() == WalletResult.Status.NOT_FOUND && readLegacy && migrate(result.getId()) != null) {
+            return executeReservedTransfer(idempotencyKey, fromId, toId, amount, expiry);
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<Boolean> createAll(List<Wallet> wallets) {
+        List<Wallet> newWallets = readLegacy ? withoutLegacyWallets(wallets) : wallets;
+
+        List<Object> replies = clusterFanOut.execute(newWallets, Wallet::getId, part -> {
+            List<String[]> calls = part.stream()
+                    .map(wallet -> WalletScripts.createKeysAndArgs(balanceCodec, keySharding, wallet, true))
+                    .toList();
+            return RedisScripts.executePipelined(redisTemplate, WalletScripts.CREATE_WALLET, WalletScripts.CREATE_KEYS, calls);
+        });
+
+        List<Boolean> created = new ArrayList<>(wallets.size());
+        for (int i = 0, reply = 0; i < wallets.size(); i++) {
+            boolean isNew = reply < newWallets.size() && newWallets.get(reply) == wallets.get(i);
+            created.add(isNew && WalletScripts.isCreated((List<?>) replies.get(reply++)));
+        }
+
+        return created;
+    }
+
+    @Override
+    public WalletResult updateBalance(UUID id, BigDecimal amount, boolean isAddingFunds) {
+        WalletResult result = executeUpdate(id, amount, isAddingFunds);
+
+        if (result.getStatus() == WalletResult.Status.NOT_FOUND && readLegacy && migrate(id) != null) {
+            result = executeUpdate(id, amount, isAddingFunds);
+        }
+
+        return result;
+    }
+
+    @Override
+    public WalletResult create(UUID idempotencyKey, Wallet wallet, Instant expiry) {
+        Optional<WalletResult> legacyReplay = findLegacyReplay(idempotencyKey);
+        if (legacyReplay.isPresent()) {
+            return legacyReplay.get();
+        }
+        if (!reserveKey(idempotencyKey, wallet.getId(), expiry)) {
+            return new WalletResult(wallet.getId(), WalletResult.Status.KEY_REUSED, null);
+        }
+
+        String[] keysAndArgs = WalletScripts.createKeysAndArgs(balanceCodec, keySharding, idempotencyKey, wallet, expiry);
+        List<?> result = execute(WalletScripts.CREATE_WALLET_IDEMPOTENT, WalletScripts.CREATE_IDEMPOTENT_KEYS, keysAndArgs);
+
+        return WalletScripts.toResult(balanceCodec, wallet.getId(), result);
+    }
+
+    @Override
+    public WalletResult updateBalance(UUID idempotencyKey, UUID id, BigDecimal amount, boolean isAddingFunds, Instant expiry) {
+        Optional<WalletResult> legacyReplay = findLegacyReplay(idempotencyKey);
+        if (legacyReplay.isPresent()) {
+            return legacyReplay.get();
+        }
+        if (!reserveKey(idempotencyKey, id, expiry)) {
+            return new WalletResult(id, WalletResult.Status.KEY_REUSED, null);
+        }
+
+        WalletResult result = executeIdempotentUpdate(idempotencyKey, id, amount, isAddingFunds, expiry);
+
+        if (result.getStatus() == WalletResult.Status.NOT_FOUND && readLegacy && migrate(id) != null) {
+            result = executeIdempotentUpdate(idempotencyKey, id, amount, isAddingFunds, expiry);
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<WalletResult> updateBalances(List<BalanceChange> changes, Instant expiry) {
+        if (readLegacy || optimisticBalanceUpdater.isEnabled()) {
+            return changes.stream()
+                    .map(change -> updateBalance(change.getIdempotencyKey(), change.getWalletId(), change.getAmount(),
+                            change.getIsAddingFunds(), expiry))
+                    .toList();
+        }
+
+        return withReservedKeys(changes, expiry, reserved -> executeUpdates(reserved, expiry));
+    }
+
+    private List<WalletResult> executeUpdates(List<BalanceChange> changes, Instant expiry) {
+        if (changes.isEmpty()) {
+            return List.of();
+        }
+
+        List<Object> replies = clusterFanOut.execute(changes, BalanceChange::getWalletId, part -> {
+            List<String[]> calls = part.stream()
+                    .map(change -> WalletScripts.updateKeysAndArgs(balanceCodec, keySharding, change.getIdempotencyKey(),
+                            change.getWalletId(), change.getAmount(), change.getIsAddingFunds(), expiry))
+                    .toList();
+            return RedisScripts.executePipelined(redisTemplate, WalletScripts.UPDATE_BALANCE_IDEMPOTENT,
+                    WalletScripts.UPDATE_IDEMPOTENT_KEYS, calls);
+        });
+
+        List<WalletResult> results = new ArrayList<>(changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            results.add(WalletScripts.toResult(balanceCodec, changes.get(i).getWalletId(), (List<?>) replies.get(i)));
+        }
+
+        return results;
+    }
+
+    @Override
+    public List<WalletResult> commitBalanceChanges(UUID id, List<BalanceChange> changes, Instant expiry) {
+        return withReservedKeys(changes, expiry, reserved -> {
+            if (reserved.isEmpty()) {
+                return List.of();
+            }
+
+            List<WalletResult> results = executeGroupUpdate(id, reserved, expiry);
+
+            if (readLegacy && results.stream().anyMatch(result -> result.getStatus() == WalletResult.Status.NOT_FOUND)
+                    && migrate(id) != null) {
+                results = executeGroupUpdate(id, reserved, expiry);
+            }
+
+            return results;
+        });
+    }
+
+    @Override
+    public TransactionPage findTransactions(UUID id, Long before, int limit) {
+        TransactionPage page = executeReadTransactions(id, before, limit);
+
+        if (page == null && readLegacy && migrate(id) != null) {
+            page = executeReadTransactions(id, before, limit);
+        }
+
+        return page;
+    }
+
+    private TransactionPage executeReadTransactions(UUID id, Long before, int limit) {
+        String[] keysAndArgs = WalletScripts.readTransactionsKeysAndArgs(keySharding, id, before, limit);
+
+        return WalletScripts.toTransactionPage(balanceCodec,
+                execute(WalletScripts.READ_TRANSACTIONS, WalletScripts.READ_TRANSACTIONS_KEYS, keysAndArgs));
+    }
+
+    private TransferResult executeTransfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount, Instant expiry) {
+        String[] keysAndArgs = WalletScripts.transferKeysAndArgs(balanceCodec, keySharding, idempotencyKey, fromId, toId,
+                amount, expiry);
+
+        return WalletScripts.toTransferResult(balanceCodec,
+                execute(WalletScripts.TRANSFER_IDEMPOTENT, WalletScripts.TRANSFER_IDEMPOTENT_KEYS, keysAndArgs));
+    }
+
+    /**
+     * Moves funds between wallets in different cluster slots, which no single script can touch, as a saga of
+     * scripts that each run in one slot. The debit is recorded on the idempotency record in the source slot, so
+     * a retry with the same key after a failure resumes the transfer instead of debiting again, and the credit
+     * is guarded by its own record in the destination slot. The debit is refunded if the credit fails, and
+     * transfers left pending by a failure between steps are finished by {@link TransferRecovery}.
+     */
+    private TransferResult executeCrossSlotTransfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount,
+                                                    Instant expiry) {
+        List<?> debit = execute(WalletScripts.TRANSFER_DEBIT, WalletScripts.TRANSFER_DEBIT_KEYS,
+                WalletScripts.transferDebitKeysAndArgs(balanceCodec, keySharding, idempotencyKey, fromId, toId, amount, expiry));
+        if (!WalletScripts.isDebited(debit)) {
+            return WalletScripts.toTransferResult(balanceCodec, debit);
+        }
+
+        UUID creditedId = WalletScripts.debitedTo(debit);
+        WalletResult credit = WalletScripts.toResult(balanceCodec, creditedId,
+                execute(WalletScripts.UPDATE_BALANCE_IDEMPOTENT, WalletScripts.UPDATE_IDEMPOTENT_KEYS,
+                        WalletScripts.transferCreditKeysAndArgs(balanceCodec, keySharding, idempotencyKey, creditedId,
+                                WalletScripts.debitedAmount(balanceCodec, debit), expiry)));
+
+        if (credit.getStatus() != WalletResult.Status.UPDATED && credit.getStatus() != WalletResult.Status.REPLAYED) {
+            log.warn("Refunding transfer with idempotency key of ID {} after its credit failed with {}.", idempotencyKey, credit.getStatus());
+            execute(WalletScripts.TRANSFER_REFUND, WalletScripts.TRANSFER_REFUND_KEYS,
+                    WalletScripts.transferRefundKeysAndArgs(balanceCodec, keySharding, idempotencyKey, fromId));
+            return new TransferResult(credit.getStatus(), creditedId, null, null);
+        }
+
+        List<?> complete = execute(WalletScripts.TRANSFER_COMPLETE, WalletScripts.TRANSFER_COMPLETE_KEYS,
+                WalletScripts.transferCompleteKeysAndArgs(balanceCodec, keySharding, idempotencyKey, fromId, credit.getWallet(), expiry));
+
+        return WalletScripts.toCompletedTransferResult(balanceCodec, complete, debit, credit);
+    }
+
+    /**
+     * Filters out wallets that still exist in the legacy layout, so that they are not shadowed by new wallets
+     */
+    private List<Wallet> withoutLegacyWallets(List<Wallet> wallets) {
+        List<Object> exists = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            wallets.forEach(wallet -> stringConnection.exists(RedisKeys.legacyWallet(wallet.getId())));
+            return null;
+        });
+
+        List<Wallet> newWallets = new ArrayList<>(wallets.size());
+        for (int i = 0; i < wallets.size(); i++) {
+            if (!Boolean.TRUE.equals(exists.get(i))) {
+                newWallets.add(wallets.get(i));
+            }
+        }
+
+        return newWallets;
+    }
+
+    private WalletResult executeUpdate(UUID id, BigDecimal amount, boolean isAddingFunds) {
+        if (optimisticBalanceUpdater.isEnabled()) {
+            return optimisticBalanceUpdater.updateBalance(null, id, amount, isAddingFunds, null);
+        }
+
+        List<?> result = execute(WalletScripts.UPDATE_BALANCE, WalletScripts.UPDATE_KEYS,
+                WalletScripts.updateKeysAndArgs(balanceCodec, keySharding, id, amount, isAddingFunds));
+
+        WalletResult.Status status = WalletResult.Status.valueOf(RedisScripts.asString(result.get(0)));
+        Wallet wallet = result.size() > 1 ? new Wallet(id, balanceCodec.decode(RedisScripts.asString(result.get(1))),
+                result.size() > 2 ? WalletScripts.toVersion(result.get(2)) : null) : null;
+
+        return new WalletResult(id, status, wallet);
+    }
+
+    private WalletResult executeIdempotentUpdate(UUID idempotencyKey, UUID id, BigDecimal amount, boolean isAddingFunds,
+                                                 Instant expiry) {
+        if (optimisticBalanceUpdater.isEnabled()) {
+            return optimisticBalanceUpdater.updateBalance(idempotencyKey, id, amount, isAddingFunds, expiry);
+        }
+
+        String[] keysAndArgs = WalletScripts.updateKeysAndArgs(balanceCodec, keySharding, idempotencyKey, id, amount,
+                isAddingFunds, expiry);
+
+        return WalletScripts.toResult(balanceCodec, id,
+                execute(WalletScripts.UPDATE_BALANCE_IDEMPOTENT, WalletScripts.UPDATE_IDEMPOTENT_KEYS, keysAndArgs));
+    }
+
+    private List<WalletResult> executeGroupUpdate(UUID id, List<BalanceChange> changes, Instant expiry) {
+        if (optimisticBalanceUpdater.isEnabled()) {
+            return changes.stream()
+                    .map(change -> optimisticBalanceUpdater.updateBalance(change.getIdempotencyKey(), id, change.getAmount(),
+                            change.getIsAddingFunds(), expiry))
+                    .toList();
+        }
+
+        String[] keysAndArgs = WalletScripts.updateGroupKeysAndArgs(balanceCodec, keySharding, id, changes, expiry);
+
+        return WalletScripts.toResults(balanceCodec, id,
+                execute(WalletScripts.UPDATE_BALANCE_GROUP, WalletScripts.UPDATE_GROUP_KEYS + changes.size(), keysAndArgs));
+    }
+
+    private Wallet toWallet(UUID id, List<String> fields) {
+        return fields.get(0) != null ? new Wallet(id, balanceCodec.decode(fields.get(0)), WalletScripts.toVersion(fields.get(1))) : null;
+    }
+
+    private <T> T execute(RedisScript<T> script, int numKeys, String[] keysAndArgs) {
+        return commandBatcher.execute(script, numKeys, keysAndArgs);
+    }
+
+    /**
+     * Reserves an idempotency key for the wallet of a single wallet request, which is only needed with hash tags,
+     * see reserve-idempotency.lua
+     *
+     * @return false if the key was used for another wallet or by a batch request
+     */
+    private boolean reserveKey(UUID idempotencyKey, UUID walletId, Instant expiry) {
+        if (!keySharding.hasHashTags()) {
+            return true;
+        }
+
+        return IdempotencyRecords.isReserved(execute(IdempotencyRecords.RESERVE_SCRIPT, IdempotencyRecords.RESERVE_KEYS,
+                IdempotencyRecords.reserveKeysAndArgs(keySharding, idempotencyKey, walletId, expiry)));
+    }
+
+    /**
+     * Runs an update of several changes with only the changes whose idempotency keys could be reserved, see
+     * {@link #reserveKey(UUID, UUID, Instant)}, reporting the other changes as KEY_REUSED
+     */
+    private List<WalletResult> withReservedKeys(List<BalanceChange> changes, Instant expiry,
+                                                Function<List<BalanceChange>, List<WalletResult>> update) {
+        if (!keySharding.hasHashTags()) {
+            return update.apply(changes);
+        }
+
+        List<Object> replies = clusterFanOut.execute(changes, BalanceChange::getIdempotencyKey, part -> {
+            List<String[]> calls = part.stream()
+                    .map(change -> IdempotencyRecords.reserveKeysAndArgs(keySharding, change.getIdempotencyKey(),
+                            change.getWalletId(), expiry))
+                    .toList();
+            return RedisScripts.executePipelined(redisTemplate, IdempotencyRecords.RESERVE_SCRIPT,
+                    IdempotencyRecords.RESERVE_KEYS, calls);
+        });
+
+        List<BalanceChange> reserved = new ArrayList<>(changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            if (IdempotencyRecords.isReserved((List<?>) replies.get(i))) {
+                reserved.add(changes.get(i));
+            }
+        }
+
+        List<WalletResult> reservedResults = update.apply(reserved);
+        List<WalletResult> results = new ArrayList<>(changes.size());
+        for (int i = 0, result = 0; i < changes.size(); i++) {
+            boolean isReserved = result < reserved.size() && reserved.get(result) == changes.get(i);
+            results.add(isReserved ? reservedResults.get(result++)
+                    : new WalletResult(changes.get(i).getWalletId(), WalletResult.Status.KEY_REUSED, null));
+        }
+
+        return results;
+    }
+
+    private Optional<WalletResult> findLegacyReplay(UUID idempotencyKey) {
+        if (!readLegacy) {
+            return Optional.empty();
+        }
+
+        return idempotencyStore.findById(idempotencyKey)
+                .filter(idempotency -> idempotency.getResponse() != null)
+                .map(idempotency -> new WalletResult(idempotency.getResponse().getId(), WalletResult.Status.REPLAYED,
+                        idempotency.getResponse()));
+    }
+
+    private String migrate(UUID id) {
+        String balance = execute(WalletScripts.MIGRATE_WALLET, WalletScripts.MIGRATE_KEYS,
+                WalletScripts.migrateKeysAndArgs(keySharding, id));
+
+        if (balance != null) {
+            log.debug("Migrated wallet of ID {} from the legacy key layout.", id);
+        }
+
+        return balance;
+    }
+}
@@ -0,0 +1,124 @@
+package org.aknezevic.wallet.repository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.TransferResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finishes transfers between cluster slots that were debited but never completed or refunded, for example
+ * because the instance running them stopped between two steps of the saga. Every
+ * {@code wallet.transfer.recovery.interval}, the pending transfers set of each shard is scanned for transfers
+ * debited more than {@code wallet.transfer.recovery.grace} ago, and each of them is resumed as a retry with
+ * its own idempotency key would resume it: credited and completed, or refunded when the credit fails. The
+ * sweep only runs when connected to a Redis Cluster, as transfers between slots do not happen otherwise.
+ */
+@Slf4j
+@Component
+public class TransferRecovery {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private KeySharding keySharding;
+    @Autowired
+    private RedisWalletStore walletStore;
+
+    @Value("${wallet.transfer.recovery.interval:1m}")
+    private Duration interval;
+    @Value("${wallet.transfer.recovery.grace:1m}")
+    private Duration grace;
+    @Value("${wallet.idempotency.ttl:24h}")
+    private Duration idempotencyTtl;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        if (!keySharding.isClustered()) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::sweep, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Method for finishing the pending transfers debited before the given instant
+     *
+     * @param debitedBefore instant before which a pending transfer is considered abandoned
+     *
+     * @return the number of transfers that were finished
+     */
+    public int recover(Instant debitedBefore) {
+        HashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
+        int recovered = 0;
+
+        for (int shard = 0; shard < keySharding.getShards(); shard++) {
+            String pendingKey = keySharding.pendingTransfers(shard);
+            Set<String> transfers = redisTemplate.opsForZSet().rangeByScore(pendingKey, 0, debitedBefore.getEpochSecond());
+
+            for (String transfer : transfers == null ? Set.<String>of() : transfers) {
+                UUID fromId = UUID.fromString(transfer.substring(0, transfer.indexOf(':')));
+                UUID idempotencyKey = UUID.fromString(transfer.substring(transfer.indexOf(':') + 1));
+
+                List<String> pending = hashOps.multiGet(keySharding.idempotency(fromId, idempotencyKey),
+                        List.of(IdempotencyRecords.TRANSFER_TO_FIELD, IdempotencyRecords.TRANSFER_AMOUNT_FIELD));
+                if (pending.get(0) == null) {
+                    redisTemplate.opsForZSet().remove(pendingKey, transfer);
+                    continue;
+                }
+
+                try {
+                    TransferResult result = walletStore.transfer(idempotencyKey, fromId, UUID.fromString(pending.get(0)),
+                            balanceCodec.decode(pending.get(1)), Instant.now().plus(idempotencyTtl));
+                    log.warn("Recovered transfer with idempotency key of ID {} from wallet of ID {} as {}.",
+                            idempotencyKey, fromId, result.getStatus());
+                    recovered++;
+                }
+                catch (RuntimeException ex) {
+                    log.error("Recovering transfer with idempotency key of ID {} failed, retrying on the next sweep.",
+                            idempotencyKey, ex);
+                }
+            }
+        }
+
+        return recovered;
+    }
+
+    private void sweep() {
+        try {
+            recover(Instant.now().minus(grace));
+        }
+        catch (RuntimeException ex) {
+            log.error("Sweep of pending transfers failed.", ex);
+        }
+    }
+}
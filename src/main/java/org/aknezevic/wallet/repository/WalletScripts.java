@@ -0,0 +1,410 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.Transaction;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Wallet scripts together with the keys and arguments they take and the replies they return, shared by the
+ * blocking and reactive stores.
+ */
+@SuppressWarnings("rawtypes")
+final class WalletScripts {
+    static final RedisScript<List> UPDATE_BALANCE = RedisScripts.load("update-balance.lua", List.class);
+    static final RedisScript<List> UPDATE_BALANCE_IDEMPOTENT = RedisScripts.load("update-balance-idempotent.lua", List.class);
+    static final RedisScript<List> CREATE_WALLET_IDEMPOTENT = RedisScripts.load("create-wallet-idempotent.lua", List.class);
+    static final RedisScript<List> UPDATE_BALANCE_GROUP = RedisScripts.load("update-balance-group.lua", List.class);
+    static final RedisScript<List> TRANSFER_IDEMPOTENT = RedisScripts.load("transfer-idempotent.lua", List.class);
+    static final RedisScript<List> TRANSFER_DEBIT = RedisScripts.load("transfer-debit.lua", List.class);
+    static final RedisScript<List> TRANSFER_COMPLETE = RedisScripts.load("transfer-complete.lua", List.class);
+    static final RedisScript<List> TRANSFER_REFUND = RedisScripts.load("transfer-refund.lua", List.class);
+    static final RedisScript<List> CREATE_WALLET = RedisScripts.load("create-wallet.lua", List.class);
+    static final RedisScript<List> READ_TRANSACTIONS = RedisScripts.load("read-transactions.lua", List.class);
+    static final RedisScript<String> MIGRATE_WALLET = RedisScripts.load("migrate-wallet.lua", String.class);
+
+    static final int UPDATE_KEYS = 3;
+    static final int UPDATE_IDEMPOTENT_KEYS = 4;
+    static final int UPDATE_GROUP_KEYS = 3;
+    static final int CREATE_IDEMPOTENT_KEYS = 4;
+    static final int TRANSFER_IDEMPOTENT_KEYS = 7;
+    static final int TRANSFER_DEBIT_KEYS = 5;
+    static final int TRANSFER_COMPLETE_KEYS = 2;
+    static final int TRANSFER_REFUND_KEYS = 5;
+    static final int CREATE_KEYS = 3;
+    static final int READ_TRANSACTIONS_KEYS = 3;
+    static final int MIGRATE_KEYS = 5;
+
+    private WalletScripts() {
+    }
+
+    /**
+     * Builds the keys followed by the arguments of create-wallet.lua
+     */
+    static String[] createKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, Wallet wallet,
+                                      boolean onlyIfAbsent) {
+        return new String[]{
+                keySharding.wallet(wallet.getId()),
+                keySharding.ledger(wallet.getId()),
+                keySharding.transactions(wallet.getId()),
+                balanceCodec.encode(wallet.getBalance()),
+                wallet.getId().toString(),
+                onlyIfAbsent ? "1" : "0"
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of create-wallet-idempotent.lua
+     */
+    static String[] createKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID idempotencyKey,
+                                      Wallet wallet, Instant expiry) {
+        return new String[]{
+                keySharding.idempotency(wallet.getId(), idempotencyKey),
+                keySharding.wallet(wallet.getId()),
+                keySharding.ledger(wallet.getId()),
+                keySharding.transactions(wallet.getId()),
+                balanceCodec.encode(wallet.getBalance()),
+                String.valueOf(expiry.getEpochSecond()),
+                wallet.getId().toString(),
+                idempotencyKey.toString()
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of update-balance.lua
+     */
+    static String[] updateKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID id,
+                                      BigDecimal amount, boolean isAddingFunds) {
+        return new String[]{
+                keySharding.wallet(id),
+                keySharding.ledger(id),
+                keySharding.transactions(id),
+                balanceCodec.encode(amount),
+                isAddingFunds ? "1" : "0",
+                balanceCodec.isMinorUnits() ? "1" : "0",
+                id.toString()
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of update-balance-idempotent.lua
+     */
+    static String[] updateKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID idempotencyKey,
+                                      UUID id, BigDecimal amount, boolean isAddingFunds, Instant expiry) {
+        return new String[]{
+                keySharding.idempotency(id, idempotencyKey),
+                keySharding.wallet(id),
+                keySharding.ledger(id),
+                keySharding.transactions(id),
+                balanceCodec.encode(amount),
+                isAddingFunds ? "1" : "0",
+                balanceCodec.isMinorUnits() ? "1" : "0",
+                String.valueOf(expiry.getEpochSecond()),
+                id.toString(),
+                idempotencyKey.toString()
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of update-balance-group.lua, which takes UPDATE_GROUP_KEYS keys
+     * plus one idempotency key for each change
+     */
+    static String[] updateGroupKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID id,
+                                           List<BalanceChange> changes, Instant expiry) {
+        List<String> keys = new ArrayList<>(UPDATE_GROUP_KEYS + changes.size());
+        keys.add(keySharding.wallet(id));
+        keys.add(keySharding.ledger(id));
+        keys.add(keySharding.transactions(id));
+
+        List<String> args = new ArrayList<>(3 + changes.size() * 3);
+        args.add(balanceCodec.isMinorUnits() ? "1" : "0");
+        args.add(String.valueOf(expiry.getEpochSecond()));
+        args.add(id.toString());
+
+        for (BalanceChange change : changes) {
+            keys.add(keySharding.idempotency(id, change.getIdempotencyKey()));
+            args.add(balanceCodec.encode(change.getAmount()));
+            args.add(change.getIsAddingFunds() ? "1" : "0");
+            args.add(change.getIdempotencyKey().toString());
+        }
+
+        keys.addAll(args);
+
+        return keys.toArray(String[]::new);
+    }
+
+    /**
+     * Builds the keys followed by the arguments of transfer-idempotent.lua
+     */
+    static String[] transferKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID idempotencyKey,
+                                        UUID fromId, UUID toId, BigDecimal amount, Instant expiry) {
+        return new String[]{
+                keySharding.idempotency(fromId, idempotencyKey),
+                keySharding.wallet(fromId),
+                keySharding.wallet(toId),
+                keySharding.ledger(fromId),
+                keySharding.transactions(fromId),
+                keySharding.ledger(toId),
+                keySharding.transactions(toId),
+                balanceCodec.encode(amount),
+                balanceCodec.isMinorUnits() ? "1" : "0",
+                String.valueOf(expiry.getEpochSecond()),
+                fromId.toString(),
+                toId.toString(),
+                idempotencyKey.toString()
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of transfer-debit.lua
+     */
+    static String[] transferDebitKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID idempotencyKey,
+                                             UUID fromId, UUID toId, BigDecimal amount, Instant expiry) {
+        return new String[]{
+                keySharding.idempotency(fromId, idempotencyKey),
+                keySharding.wallet(fromId),
+                keySharding.ledger(fromId),
+                keySharding.transactions(fromId),
+                keySharding.pendingTransfers(fromId),
+                balanceCodec.encode(amount),
+                balanceCodec.isMinorUnits() ? "1" : "0",
+                String.valueOf(expiry.getEpochSecond()),
+                fromId.toString(),
+                toId.toString(),
+                idempotencyKey.toString(),
+                String.valueOf(Instant.now().getEpochSecond())
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of update-balance-idempotent.lua crediting the destination of a
+     * transfer between slots, guarded by the transfer's credit record instead of its idempotency record
+     */
+    static String[] transferCreditKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID idempotencyKey,
+                                              UUID toId, BigDecimal amount, Instant expiry) {
+        return new String[]{
+                keySharding.transferCredit(toId, idempotencyKey),
+                keySharding.wallet(toId),
+                keySharding.ledger(toId),
+                keySharding.transactions(toId),
+                balanceCodec.encode(amount),
+                "1",
+                balanceCodec.isMinorUnits() ? "1" : "0",
+                String.valueOf(expiry.getEpochSecond()),
+                toId.toString(),
+                idempotencyKey.toString()
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of transfer-complete.lua
+     */
+    static String[] transferCompleteKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID idempotencyKey,
+                                                UUID fromId, Wallet to, Instant expiry) {
+        return new String[]{
+                keySharding.idempotency(fromId, idempotencyKey),
+                keySharding.pendingTransfers(fromId),
+                fromId.toString(),
+                to.getId().toString(),
+                balanceCodec.encode(to.getBalance()),
+                String.valueOf(expiry.getEpochSecond()),
+                idempotencyKey.toString()
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of transfer-refund.lua
+     */
+    static String[] transferRefundKeysAndArgs(BalanceCodec balanceCodec, KeySharding keySharding, UUID idempotencyKey,
+                                              UUID fromId) {
+        return new String[]{
+                keySharding.idempotency(fromId, idempotencyKey),
+                keySharding.wallet(fromId),
+                keySharding.ledger(fromId),
+                keySharding.transactions(fromId),
+                keySharding.pendingTransfers(fromId),
+                balanceCodec.isMinorUnits() ? "1" : "0",
+                fromId.toString(),
+                idempotencyKey.toString()
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of read-transactions.lua
+     */
+    static String[] readTransactionsKeysAndArgs(KeySharding keySharding, UUID id, Long before, int limit) {
+        return new String[]{
+                keySharding.wallet(id),
+                keySharding.transactions(id),
+                keySharding.ledger(id),
+                before != null ? String.valueOf(before) : "",
+                String.valueOf(limit)
+        };
+    }
+
+    /**
+     * Builds the keys followed by the arguments of migrate-wallet.lua
+     */
+    static String[] migrateKeysAndArgs(KeySharding keySharding, UUID id) {
+        return new String[]{
+                keySharding.wallet(id),
+                RedisKeys.legacyWallet(id),
+                RedisKeys.LEGACY_WALLET_INDEX,
+                keySharding.ledger(id),
+                keySharding.transactions(id),
+                id.toString()
+        };
+    }
+
+    /**
+     * Whether a transfer-debit.lua reply is {'DEBITED', fromId, fromBalance, toId, amount, fromVersion}, in which
+     * case the transfer continues with the credit
+     */
+    static boolean isDebited(List<?> reply) {
+        return "DEBITED".equals(RedisScripts.asString(reply.get(0)));
+    }
+
+    static UUID debitedTo(List<?> reply) {
+        return UUID.fromString(RedisScripts.asString(reply.get(3)));
+    }
+
+    static BigDecimal debitedAmount(BalanceCodec balanceCodec, List<?> reply) {
+        return balanceCodec.decode(RedisScripts.asString(reply.get(4)));
+    }
+
+    static Long debitedVersion(List<?> reply) {
+        return reply.size() > 5 ? toVersion(reply.get(5)) : null;
+    }
+
+    /**
+     * Converts the {1, version} or {0} reply of create-wallet.lua
+     */
+    static boolean isCreated(List<?> reply) {
+        return "1".equals(RedisScripts.asString(reply.get(0)));
+    }
+
+    static Long createdVersion(List<?> reply) {
+        return reply.size() > 1 ? toVersion(reply.get(1)) : null;
+    }
+
+    /**
+     * Converts the version field of a wallet hash or script reply, which is absent for wallets written before
+     * versions were introduced and for replayed responses
+     */
+    static Long toVersion(Object version) {
+        String value = RedisScripts.asString(version);
+
+        return value != null && !value.isEmpty() ? Long.valueOf(value) : null;
+    }
+
+    /**
+     * Converts a {first, id, type, amount, balance, key, ...} reply of read-transactions.lua, which is empty when
+     * the wallet does not exist
+     */
+    static TransactionPage toTransactionPage(BalanceCodec balanceCodec, List<?> reply) {
+        if (reply.isEmpty()) {
+            return null;
+        }
+
+        List<Transaction> transactions = new ArrayList<>((reply.size() - 1) / 5);
+        for (int i = 1; i + 4 < reply.size(); i += 5) {
+            String id = RedisScripts.asString(reply.get(i));
+            String key = RedisScripts.asString(reply.get(i + 4));
+
+            transactions.add(new Transaction(id,
+                    Transaction.Type.valueOf(RedisScripts.asString(reply.get(i + 1))),
+                    balanceCodec.decode(RedisScripts.asString(reply.get(i + 2))),
+                    balanceCodec.decode(RedisScripts.asString(reply.get(i + 3))),
+                    key.isEmpty() ? null : UUID.fromString(key),
+                    Instant.ofEpochMilli(Long.parseLong(id.substring(0, id.indexOf('-'))))));
+        }
+
+        long first = Long.parseLong(RedisScripts.asString(reply.get(0)));
+
+        return new TransactionPage(transactions, first > 0 ? first : null);
+    }
+
+    /**
+     * Converts a {status, id, balance, version} script reply, where id and balance are absent when the wallet was
+     * not found, and version is absent when the wallet was not written
+     */
+    static WalletResult toResult(BalanceCodec balanceCodec, UUID id, List<?> reply) {
+        WalletResult.Status status = WalletResult.Status.valueOf(RedisScripts.asString(reply.get(0)));
+
+        if (reply.size() < 3) {
+            return new WalletResult(id, status, null);
+        }
+
+        Wallet wallet = toWallet(balanceCodec, reply.get(1), reply.get(2), reply.size() > 3 ? reply.get(3) : null);
+
+        return new WalletResult(wallet.getId(), status, wallet);
+    }
+
+    /**
+     * Converts a {status, id, balance, version, ...} reply of update-balance-group.lua, where id and balance are
+     * empty for updates without a wallet, and version is empty for updates that were not applied
+     */
+    static List<WalletResult> toResults(BalanceCodec balanceCodec, UUID id, List<?> reply) {
+        List<WalletResult> results = new ArrayList<>(reply.size() / 4);
+        for (int i = 0; i + 3 < reply.size(); i += 4) {
+            WalletResult.Status status = WalletResult.Status.valueOf(RedisScripts.asString(reply.get(i)));
+
+            if (RedisScripts.asString(reply.get(i + 1)).isEmpty()) {
+                results.add(new WalletResult(id, status, null));
+            }
+            else {
+                Wallet wallet = toWallet(balanceCodec, reply.get(i + 1), reply.get(i + 2), reply.get(i + 3));
+                results.add(new WalletResult(wallet.getId(), status, wallet));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Converts the reply of transfer-complete.lua, adding the versions of both wallets returned by the debit and
+     * the credit of the transfer
+     */
+    static TransferResult toCompletedTransferResult(BalanceCodec balanceCodec, List<?> reply, List<?> debit,
+                                                    WalletResult credit) {
+        TransferResult result = toTransferResult(balanceCodec, reply);
+
+        if (result.getStatus() == WalletResult.Status.UPDATED) {
+            result.getFrom().setVersion(debitedVersion(debit));
+            result.getTo().setVersion(credit.getWallet().getVersion());
+        }
+
+        return result;
+    }
+
+    /**
+     * Converts a {status, fromId, fromBalance, toId, toBalance, fromVersion, toVersion} reply of
+     * transfer-idempotent.lua, where only the ID of the wallet that caused a failure is present when the transfer
+     * was not applied, and the versions are absent when the response was replayed
+     */
+    static TransferResult toTransferResult(BalanceCodec balanceCodec, List<?> reply) {
+        WalletResult.Status status = WalletResult.Status.valueOf(RedisScripts.asString(reply.get(0)));
+        UUID id = reply.size() > 1 ? UUID.fromString(RedisScripts.asString(reply.get(1))) : null;
+        Wallet from = reply.size() > 2 ? toWallet(balanceCodec, reply.get(1), reply.get(2), reply.size() > 5 ? reply.get(5) : null) : null;
+        Wallet to = reply.size() > 4 ? toWallet(balanceCodec, reply.get(3), reply.get(4), reply.size() > 6 ? reply.get(6) : null) : null;
+
+        return switch (status) {
+            case UPDATED, REPLAYED -> new TransferResult(status, null, from, to);
+            default -> new TransferResult(status, id, from, to);
+        };
+    }
+
+    private static Wallet toWallet(BalanceCodec balanceCodec, Object id, Object balance, Object version) {
+        return new Wallet(UUID.fromString(RedisScripts.asString(id)), balanceCodec.decode(RedisScripts.asString(balance)),
+                toVersion(version));
+    }
+}
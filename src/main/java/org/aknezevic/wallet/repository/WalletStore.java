@@ -0,0 +1,155 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface WalletStore {
+
+    /**
+     * Retrieves a wallet by its ID
+     *
+     * @param id UUID of the wallet to be retrieved
+     *
+     * @return the wallet, or empty if it does not exist
+     */
+    Optional<Wallet> findById(UUID id);
+
+    /**
+     * Retrieves a wallet by its ID from a replica when replica reads are enabled. The wallet is read from the
+     * primary instead when the replica does not have it or its copy does not include the given version yet.
+     *
+     * @param id UUID of the wallet to be retrieved
+     * @param minVersion version returned by an earlier write that the wallet must include, or null for any version
+     *
+     * @return the wallet, or empty if it does not exist
+     */
+    Optional<Wallet> findById(UUID id, Long minVersion);
+
+    /**
+     * Retrieves several wallets in a single round trip
+     *
+     * @param ids UUIDs of the wallets to be retrieved
+     *
+     * @return the wallets in the order of the given IDs, with null for each wallet that does not exist
+     */
+    List<Wallet> findAllById(List<UUID> ids);
+
+    /**
+     * Saves a wallet, generating an ID when none is set
+     *
+     * @param wallet wallet object to be saved
+     *
+     * @return the saved wallet object
+     */
+    Wallet save(Wallet wallet);
+
+    /**
+     * Atomically adds or removes funds from a wallet's balance
+     *
+     * @param id UUID of the wallet to be updated
+     * @param amount positive decimal amount to add or remove
+     * @param isAddingFunds true to add funds, false to remove funds
+     *
+     * @return the outcome of the update, with the updated wallet when successful
+     */
+    WalletResult updateBalance(UUID id, BigDecimal amount, boolean isAddingFunds);
+
+    /**
+     * Saves a wallet guarded by an idempotency key in a single atomic operation. If the key was already
+     * used, its stored response is returned instead of saving the wallet.
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param wallet wallet object to be saved, which must have an ID
+     * @param expiry instant at which a new idempotency record expires
+     *
+     * @return CREATED with the saved wallet, REPLAYED with the stored response, or IN_PROGRESS
+     */
+    WalletResult create(UUID idempotencyKey, Wallet wallet, Instant expiry);
+
+    /**
+     * Adds or removes funds from a wallet's balance guarded by an idempotency key in a single atomic
+     * operation. If the key was already used, its stored response is returned instead of updating the
+     * balance, otherwise a successful update is stored as the key's response.
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param id UUID of the wallet to be updated
+     * @param amount positive decimal amount to add or remove
+     * @param isAddingFunds true to add funds, false to remove funds
+     * @param expiry instant at which a new idempotency record expires
+     *
+     * @return the outcome of the update, REPLAYED with the stored response, or IN_PROGRESS
+     */
+    WalletResult updateBalance(UUID idempotencyKey, UUID id, BigDecimal amount, boolean isAddingFunds, Instant expiry);
+
+    /**
+     * Atomically moves funds from one wallet to another guarded by an idempotency key. Checking the key,
+     * debiting, crediting and storing the response happen in a single round trip, and neither balance
+     * changes unless both wallets exist and the source wallet has sufficient funds.
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param fromId UUID of the wallet to debit
+     * @param toId UUID of the wallet to credit
+     * @param amount positive amount to move
+     * @param expiry instant at which a new idempotency record expires
+     *
+     * @return UPDATED with both updated wallets, REPLAYED with the response stored under the key, IN_PROGRESS
+     * if the key is held by a request still in progress, or NOT_FOUND, INSUFFICIENT_FUNDS or INVALID_AMOUNT
+     * with the ID of the wallet that caused it
+     */
+    TransferResult transfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount, Instant expiry);
+
+    /**
+     * Saves several wallets in a single round trip, leaving any wallet that already exists untouched
+     *
+     * @param wallets wallets with IDs to be saved
+     *
+     * @return for each wallet, in the order of the given wallets, true if it was saved or false if a
+     * wallet with its ID already exists
+     */
+    List<Boolean> createAll(List<Wallet> wallets);
+
+    /**
+     * Applies several balance changes, each guarded by its own idempotency key with the same semantics as
+     * {@link #updateBalance(UUID, UUID, BigDecimal, boolean, Instant)}, in a single round trip
+     *
+     * @param changes balance changes with positive amounts
+     * @param expiry instant at which new idempotency records expire
+     *
+     * @return the outcome of each change, in the order of the given changes
+     */
+    List<WalletResult> updateBalances(List<BalanceChange> changes, Instant expiry);
+
+    /**
+     * Applies several balance changes to the same wallet in a single atomic operation. Each change is
+     * guarded by its own idempotency key and applied in order with the same semantics as
+     * {@link #updateBalance(UUID, UUID, BigDecimal, boolean, Instant)}, so a change that would overdraw the
+     * wallet is rejected without affecting the others.
+     *
+     * @param id UUID of the wallet to be updated
+     * @param changes balance changes to the wallet with positive amounts
+     * @param expiry instant at which new idempotency records expire
+     *
+     * @return the outcome of each change, in the order of the given changes
+     */
+    List<WalletResult> commitBalanceChanges(UUID id, List<BalanceChange> changes, Instant expiry);
+
+    /**
+     * Retrieves a page of a wallet's ledger entries, newest first
+     *
+     * @param id UUID of the wallet
+     * @param before position before which to read entries, or null to read the newest entries
+     * @param limit maximum number of entries
+     *
+     * @return the entries with the position to read the next page from, or null if the wallet does not exist
+     */
+    TransactionPage findTransactions(UUID id, Long before, int limit);
+}
@@ -2,6 +2,7 @@ package org.aknezevic.wallet.security;
 
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.AuthorityUtils;
@@ -18,7 +19,14 @@ public class AuthService {
     }
 
     public static Authentication getAuth(HttpServletRequest request) {
-        String apiKey = request.getHeader(AUTH_HEADER);
+        return getAuth(request.getHeader(AUTH_HEADER));
+    }
+
+    public static Authentication getAuth(ServerHttpRequest request) {
+        return getAuth(request.getHeaders().getFirst(AUTH_HEADER));
+    }
+
+    private static Authentication getAuth(String apiKey) {
         if (apiKey == null || !apiKey.equals(AUTH_TOKEN)) {
             throw new BadCredentialsException("Invalid API Key");
         }
@@ -0,0 +1,42 @@
+package org.aknezevic.wallet.security;
+
+import org.aknezevic.wallet.service.WalletMetrics;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+
+public class ReactiveAuthFilter implements WebFilter {
+
+    private final WalletMetrics walletMetrics;
+
+    public ReactiveAuthFilter(WalletMetrics walletMetrics) {
+        this.walletMetrics = walletMetrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        Authentication auth;
+        try {
+            auth = AuthService.getAuth(exchange.getRequest());
+        }
+        catch (Exception ex) {
+            walletMetrics.authFailure();
+            ServerHttpResponse response = exchange.getResponse();
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            DataBuffer body = response.bufferFactory().wrap(ex.getMessage().getBytes(StandardCharsets.UTF_8));
+            return response.writeWith(Mono.just(body));
+        }
+
+        return chain.filter(exchange).contextWrite(ReactiveSecurityContextHolder.withAuthentication(auth));
+    }
+}
@@ -0,0 +1,188 @@
+package org.aknezevic.wallet.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.WalletStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges concurrent balance updates of the same wallet into a single atomic Redis script invocation. The
+ * first update of a wallet opens a batch and waits up to {@code wallet.coalescing.window} for other updates
+ * of that wallet to join, or until {@code wallet.coalescing.max-batch-size} updates have joined, then
+ * commits the whole batch. Every update keeps its own idempotency key, result and resulting balance, and a
+ * debit that would overdraw the wallet is rejected on its own. An update that joined another update's batch
+ * waits at most {@code wallet.coalescing.wait-timeout} for the batch to be committed, after which it is
+ * reported as IN_PROGRESS, so that the client retries it with the same idempotency key and gets the stored
+ * outcome once the batch is committed. The configured window and batch size are published as the
+ * {@code wallet.coalescing.*} gauges, together with the size of each committed batch.
+ */
+@Slf4j
+@Component
+public class BalanceCoalescer {
+
+    @Autowired
+    private WalletStore walletStore;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${wallet.coalescing.enabled:false}")
+    private boolean enabled;
+    @Value("${wallet.coalescing.window:2ms}")
+    private Duration window;
+    @Value("${wallet.coalescing.max-batch-size:50}")
+    private int maxBatchSize;
+    @Value("${wallet.coalescing.wait-timeout:5s}")
+    private Duration waitTimeout;
+
+    private final Map<UUID, Batch> openBatches = new ConcurrentHashMap<>();
+    private DistributionSummary batchSizes;
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("wallet.coalescing.window", () -> window.toNanos() / 1_000_000.0)
+                .description("Time the first update of a wallet waits for other updates to join its batch")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("wallet.coalescing.max.batch.size", () -> maxBatchSize)
+                .description("Maximum number of updates committed in a single batch")
+                .register(meterRegistry);
+        batchSizes = DistributionSummary.builder("wallet.coalescing.batch.size")
+                .description("Number of updates committed together in a single batch")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method for applying a balance change together with the other changes of the same wallet arriving within
+     * the window, blocking until the batch holding it has been committed
+     *
+     * @param change balance change with a positive amount
+     * @param expiry instant at which a new idempotency record expires
+     *
+     * @return the outcome of the change, as returned by
+     * {@link WalletStore#updateBalance(UUID, UUID, java.math.BigDecimal, boolean, Instant)}, or IN_PROGRESS when
+     * the batch it joined was not committed within the wait timeout
+     */
+    public WalletResult submit(BalanceChange change, Instant expiry) {
+        CompletableFuture<WalletResult> result = new CompletableFuture<>();
+        Batch[] joined = new Batch[1];
+
+        openBatches.compute(change.getWalletId(), (id, batch) -> {
+            if (batch == null) {
+                batch = new Batch(expiry);
+            }
+            batch.add(change, result);
+            joined[0] = batch;
+
+            return batch.size() < maxBatchSize ? batch : null;
+        });
+
+        Batch batch = joined[0];
+        if (batch.size() >= maxBatchSize) {
+            batch.full.complete(null);
+        }
+
+        WalletResult committed;
+        if (batch.isLeader(result)) {
+            batch.full.completeOnTimeout(null, window.toNanos(), TimeUnit.NANOSECONDS).join();
+            openBatches.remove(change.getWalletId(), batch);
+            commit(change.getWalletId(), batch);
+            committed = join(result);
+        }
+        else {
+            committed = join(result.copy().completeOnTimeout(null, waitTimeout.toNanos(), TimeUnit.NANOSECONDS));
+        }
+
+        if (committed == null) {
+            log.warn("Batch holding update of wallet of ID {} was not committed within {}.", change.getWalletId(), waitTimeout);
+            return new WalletResult(change.getWalletId(), WalletResult.Status.IN_PROGRESS, null);
+        }
+
+        return committed;
+    }
+
+    private static WalletResult join(CompletableFuture<WalletResult> result) {
+        try {
+            return result.join();
+        }
+        catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+        }
+    }
+
+    private void commit(UUID id, Batch batch) {
+        List<BalanceChange> changes = batch.changes();
+        List<CompletableFuture<WalletResult>> results = batch.results();
+        log.debug("Committing batch of {} balance updates to wallet of ID {}", changes.size(), id);
+        batchSizes.record(changes.size());
+
+        try {
+            List<WalletResult> committed = walletStore.commitBalanceChanges(id, changes, batch.expiry);
+            for (int i = 0; i < results.size(); i++) {
+                results.get(i).complete(committed.get(i));
+            }
+        }
+        catch (Throwable ex) {
+            log.error("Batch of {} balance updates to wallet of ID {} failed.", changes.size(), id, ex);
+            results.forEach(result -> result.completeExceptionally(ex));
+        }
+    }
+
+    /**
+     * Updates of one wallet waiting to be committed together. The batch is only modified while it is held by
+     * the map, and read by its leader once it has been removed from it.
+     */
+    private static class Batch {
+        private final Instant expiry;
+        private final List<BalanceChange> changes = new ArrayList<>();
+        private final List<CompletableFuture<WalletResult>> results = new ArrayList<>();
+        private final CompletableFuture<Void> full = new CompletableFuture<>();
+
+        private Batch(Instant expiry) {
+            this.expiry = expiry;
+        }
+
+        private synchronized void add(BalanceChange change, CompletableFuture<WalletResult> result) {
+            changes.add(change);
+            results.add(result);
+        }
+
+        private synchronized int size() {
+            return changes.size();
+        }
+
+        private synchronized boolean isLeader(CompletableFuture<WalletResult> result) {
+            return results.get(0) == result;
+        }
+
+        private synchronized List<BalanceChange> changes() {
+            return List.copyOf(changes);
+        }
+
+        private synchronized List<CompletableFuture<WalletResult>> results() {
+            return List.copyOf(results);
+        }
+    }
+}
@@ -1,28 +1,157 @@
 package org.aknezevic.wallet.service;
 
+import io.micrometer.core.annotation.Timed;
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.exception.IdempotencyException;
 import org.aknezevic.wallet.model.Idempotency;
-import org.aknezevic.wallet.repository.IdempotencyRepository;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.IdempotencyStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
+@Slf4j
 @Service
+@Timed(value = "wallet.idempotency.service", histogram = true)
 public class IdempotencyService {
 
     @Autowired
-    private IdempotencyRepository idempotencyRepo;
+    private IdempotencyStore idempotencyStore;
+
+    @Value("${wallet.idempotency.ttl:24h}")
+    private Duration ttl;
+    @Value("${wallet.idempotency.wait-timeout:5s}")
+    private Duration waitTimeout;
+    @Value("${wallet.idempotency.lease:${wallet.idempotency.wait-timeout:5s}}")
+    private Duration lease;
+    @Value("${wallet.idempotency.poll-interval:50ms}")
+    private Duration pollInterval;
 
     public Idempotency getIdempotencyById(UUID idempotencyKey) {
-        return idempotencyRepo.findById(idempotencyKey).orElse(null);
+        return idempotencyStore.findById(idempotencyKey).orElse(null);
     }
 
     public void addIdempotency(Idempotency idempotency) {
-        idempotencyRepo.save(idempotency);
+        idempotencyStore.save(idempotency);
     }
 
     public void deleteIdempotency(Idempotency idempotency) {
-        idempotencyRepo.delete(idempotency);
+        idempotencyStore.delete(idempotency);
+    }
+
+    /**
+     * Method for atomically claiming an idempotency key before running the request it guards. If another
+     * request holds the claim, waits for it to store its response. The claim is a lease that expires after
+     * {@code wallet.idempotency.lease} unless renewed or completed, so a request that dies holding it does not
+     * block its key for the full TTL. The claim records the given owner token, and only the request holding it
+     * can renew, complete or release the claim.
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param owner token identifying the claiming request
+     *
+     * @return null if the key was claimed and the request should run, otherwise the completed record
+     * whose response should be returned
+     * @throws IdempotencyException if the request holding the claim does not complete in time
+     */
+    public Idempotency claim(UUID idempotencyKey, UUID owner) {
+        Optional<Idempotency> existing = idempotencyStore.claim(idempotencyKey, owner, Instant.now().plus(lease));
+
+        if (existing.isEmpty()) {
+            return null;
+        }
+
+        if (isCompleted(existing.get())) {
+            return existing.get();
+        }
+
+        log.info("Idempotency of ID {} is held by a request in progress, waiting for its response.", idempotencyKey);
+        return awaitResponse(idempotencyKey);
+    }
+
+    /**
+     * Method for extending the lease of an idempotency key claim while its request is still running
+     *
+     * @param idempotencyKey UUID of the claimed idempotency key
+     * @param owner token of the request holding the claim
+     *
+     * @throws IdempotencyException if the claim expired, in which case a retry may already hold the key
+     */
+    public void renew(UUID idempotencyKey, UUID owner) {
+        if (!idempotencyStore.renew(idempotencyKey, owner, Instant.now().plus(lease))) {
+            log.warn("Idempotency of ID {} expired before its request completed.", idempotencyKey);
+            throw new IdempotencyException("Request with Idempotency-Key " + idempotencyKey + " took longer than its lease, retry the request.");
+        }
+    }
+
+    /**
+     * Method for storing the per-item results of a batch request holding an idempotency key claim. The
+     * results are not stored if the claim expired, as a retry may already hold the key.
+     *
+     * @param idempotencyKey UUID of the claimed idempotency key
+     * @param owner token of the request holding the claim
+     * @param results per-item results returned by the request
+     */
+    public void complete(UUID idempotencyKey, UUID owner, List<WalletResult> results) {
+        Idempotency idempotency = Idempotency.builder()
+                .key(idempotencyKey)
+                .results(results)
+                .expiry(Instant.now().plus(ttl))
+                .build();
+
+        if (!idempotencyStore.complete(idempotency, owner)) {
+            log.warn("Idempotency of ID {} expired before its request completed, results were not stored.", idempotencyKey);
+        }
+    }
+
+    /**
+     * Method for releasing an idempotency key claim when its request did not produce a response,
+     * allowing the request to be retried with the same key. A claim that expired and was taken by
+     * another request is left to that request.
+     *
+     * @param idempotencyKey UUID of the claimed idempotency key
+     * @param owner token of the request holding the claim
+     */
+    public void release(UUID idempotencyKey, UUID owner) {
+        if (!idempotencyStore.release(idempotencyKey, owner)) {
+            log.warn("Idempotency of ID {} expired before its request failed, nothing to release.", idempotencyKey);
+        }
+    }
+
+    private boolean isCompleted(Idempotency idempotency) {
+        return idempotency.getResponse() != null || idempotency.getResults() != null;
+    }
+
+    private Idempotency awaitResponse(UUID idempotencyKey) {
+        Instant deadline = Instant.now().plus(waitTimeout);
+
+        while (Instant.now().isBefore(deadline)) {
+            try {
+                Thread.sleep(pollInterval.toMillis());
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            Optional<Idempotency> current = idempotencyStore.findById(idempotencyKey);
+
+            if (current.isEmpty()) {
+                log.warn("Idempotency of ID {} was released by the request holding it.", idempotencyKey);
+                throw new IdempotencyException("Request with Idempotency-Key " + idempotencyKey + " failed, retry the request.");
+            }
+
+            if (isCompleted(current.get())) {
+                return current.get();
+            }
+        }
+
+        throw new IdempotencyException("Request with Idempotency-Key " + idempotencyKey + " is still in progress.");
     }
 
 }
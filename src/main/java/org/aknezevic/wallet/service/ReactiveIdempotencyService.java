@@ -0,0 +1,122 @@
+package org.aknezevic.wallet.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.exception.IdempotencyException;
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.ReactiveIdempotencyStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Non-blocking counterpart of {@link IdempotencyService}, waiting for a request in progress on timers rather
+ * than by sleeping the calling thread.
+ */
+@Slf4j
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveIdempotencyService {
+
+    @Autowired
+    private ReactiveIdempotencyStore idempotencyStore;
+
+    @Value("${wallet.idempotency.ttl:24h}")
+    private Duration ttl;
+    @Value("${wallet.idempotency.wait-timeout:5s}")
+    private Duration waitTimeout;
+    @Value("${wallet.idempotency.lease:${wallet.idempotency.wait-timeout:5s}}")
+    private Duration lease;
+    @Value("${wallet.idempotency.poll-interval:50ms}")
+    private Duration pollInterval;
+
+    /**
+     * Method for atomically claiming an idempotency key before running the request it guards. If another
+     * request holds the claim, waits for it to store its response. The claim is a lease that expires after
+     * {@code wallet.idempotency.lease} unless renewed or completed, so a request that dies holding it does not
+     * block its key for the full TTL. The claim records the given owner token, and only the request holding it
+     * can renew, complete or release the claim.
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param owner token identifying the claiming request
+     *
+     * @return empty if the key was claimed and the request should run, otherwise the completed record
+     * whose response should be returned, or an IdempotencyException if the request holding the claim
+     * does not complete in time
+     */
+    public Mono<Idempotency> claim(UUID idempotencyKey, UUID owner) {
+        return idempotencyStore.claim(idempotencyKey, owner, Instant.now().plus(lease))
+                .flatMap(existing -> {
+                    if (isCompleted(existing)) {
+                        return Mono.just(existing);
+                    }
+
+                    log.info("Idempotency of ID {} is held by a request in progress, waiting for its response.", idempotencyKey);
+                    return awaitResponse(idempotencyKey);
+                });
+    }
+
+    /**
+     * @see IdempotencyService#renew(UUID, UUID)
+     */
+    public Mono<Void> renew(UUID idempotencyKey, UUID owner) {
+        return idempotencyStore.renew(idempotencyKey, owner, Instant.now().plus(lease))
+                .filter(renewed -> renewed)
+                .switchIfEmpty(Mono.error(() -> {
+                    log.warn("Idempotency of ID {} expired before its request completed.", idempotencyKey);
+                    return new IdempotencyException("Request with Idempotency-Key " + idempotencyKey + " took longer than its lease, retry the request.");
+                }))
+                .then();
+    }
+
+    /**
+     * @see IdempotencyService#complete(UUID, UUID, List)
+     */
+    public Mono<Void> complete(UUID idempotencyKey, UUID owner, List<WalletResult> results) {
+        Idempotency idempotency = Idempotency.builder()
+                .key(idempotencyKey)
+                .results(results)
+                .expiry(Instant.now().plus(ttl))
+                .build();
+
+        return idempotencyStore.complete(idempotency, owner)
+                .filter(completed -> !completed)
+                .doOnNext(completed -> log.warn("Idempotency of ID {} expired before its request completed, results were not stored.", idempotencyKey))
+                .then();
+    }
+
+    /**
+     * @see IdempotencyService#release(UUID, UUID)
+     */
+    public Mono<Void> release(UUID idempotencyKey, UUID owner) {
+        return idempotencyStore.release(idempotencyKey, owner)
+                .filter(released -> !released)
+                .doOnNext(released -> log.warn("Idempotency of ID {} expired before its request failed, nothing to release.", idempotencyKey))
+                .then();
+    }
+
+    private boolean isCompleted(Idempotency idempotency) {
+        return idempotency.getResponse() != null || idempotency.getResults() != null;
+    }
+
+    private Mono<Idempotency> awaitResponse(UUID idempotencyKey) {
+        return Mono.delay(pollInterval)
+                .then(idempotencyStore.findById(idempotencyKey))
+                .switchIfEmpty(Mono.error(() -> {
+                    log.warn("Idempotency of ID {} was released by the request holding it.", idempotencyKey);
+                    return new IdempotencyException("Request with Idempotency-Key " + idempotencyKey + " failed, retry the request.");
+                }))
+                .filter(this::isCompleted)
+                .repeatWhenEmpty(repeats -> repeats)
+                .timeout(waitTimeout, Mono.error(() ->
+                        new IdempotencyException("Request with Idempotency-Key " + idempotencyKey + " is still in progress.")));
+    }
+
+}
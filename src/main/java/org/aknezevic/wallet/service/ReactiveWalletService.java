@@ -0,0 +1,199 @@
+package org.aknezevic.wallet.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.BalanceCodec;
+import org.aknezevic.wallet.repository.ReactiveWalletStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Non-blocking counterpart of {@link WalletService} backing the reactive web application. Validation,
+ * results and errors match the blocking service, with errors signalled through the returned publishers.
+ */
+@Slf4j
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletService {
+
+    @Autowired
+    private ReactiveWalletStore walletStore;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private WalletCache walletCache;
+    @Autowired
+    private ReactiveIdempotencyService idempotencyService;
+    @Autowired
+    private WalletMetrics walletMetrics;
+    @Autowired
+    private WalletRequests walletRequests;
+
+    @Value("${wallet.idempotency.ttl:24h}")
+    private Duration idempotencyTtl;
+
+    /**
+     * @see WalletService#addWallet(UUID, Wallet)
+     */
+    public Mono<WalletResult> addWallet(UUID idempotencyKey, Wallet wallet) {
+        return Mono.defer(() -> {
+            balanceCodec.validate(wallet.getBalance());
+
+            walletRequests.assignIds(idempotencyKey, List.of(wallet));
+
+            long cacheStamp = walletCache.stamp();
+            return walletStore.create(idempotencyKey, wallet, Instant.now().plus(idempotencyTtl))
+                    .map(result -> walletRequests.checkResult(idempotencyKey, result, cacheStamp));
+        });
+    }
+
+    /**
+     * @see WalletService#addWallets(UUID, List)
+     */
+    public Mono<List<WalletResult>> addWallets(UUID idempotencyKey, List<Wallet> wallets) {
+        UUID owner = UUID.randomUUID();
+
+        return Mono.defer(() -> {
+            walletRequests.validateCreateBatchSize(wallets.size());
+
+            return idempotencyService.claim(idempotencyKey, owner);
+        }).map(existing -> walletRequests.checkBatchReplay(idempotencyKey, existing)).switchIfEmpty(Mono.defer(() -> createWallets(idempotencyKey, owner, wallets)
+                .onErrorResume(ex -> idempotencyService.release(idempotencyKey, owner).then(Mono.error(ex)))
+                .flatMap(results -> idempotencyService.complete(idempotencyKey, owner, results).thenReturn(results))));
+    }
+
+    /**
+     * @see WalletService#getWalletById(UUID, Long)
+     */
+    public Mono<Wallet> getWalletById(UUID id, Long minVersion) {
+        Wallet cachedWallet = walletCache.get(id);
+        if (cachedWallet != null && cachedWallet.includesVersion(minVersion)) {
+            return Mono.just(cachedWallet);
+        }
+
+        long cacheStamp = walletCache.stamp();
+        return walletStore.findById(id, minVersion)
+                .doOnNext(wallet -> walletCache.put(wallet, cacheStamp))
+                .switchIfEmpty(Mono.fromRunnable(() -> walletMetrics.record(WalletResult.Status.NOT_FOUND)));
+    }
+
+    /**
+     * @see WalletService#getWalletsByIds(List)
+     */
+    public Mono<List<WalletResult>> getWalletsByIds(List<UUID> ids) {
+        return Mono.defer(() -> {
+            walletRequests.validateBatchSize(ids.size());
+
+            Map<UUID, Wallet> wallets = new HashMap<>();
+            List<UUID> missingIds = new ArrayList<>();
+            for (UUID id : ids) {
+                Wallet cachedWallet = walletCache.get(id);
+                if (cachedWallet != null) {
+                    wallets.put(id, cachedWallet);
+                }
+                else {
+                    missingIds.add(id);
+                }
+            }
+
+            long cacheStamp = walletCache.stamp();
+            return walletStore.findAllById(missingIds).map(fetchedWallets -> {
+                fetchedWallets.values().forEach(wallet -> walletCache.put(wallet, cacheStamp));
+                wallets.putAll(fetchedWallets);
+
+                List<WalletResult> results = new ArrayList<>(ids.size());
+                for (UUID id : ids) {
+                    Wallet wallet = wallets.get(id);
+                    WalletResult.Status status = wallet != null ? WalletResult.Status.FOUND : WalletResult.Status.NOT_FOUND;
+                    walletMetrics.record(status);
+                    results.add(new WalletResult(id, status, wallet));
+                }
+
+                return results;
+            });
+        });
+    }
+
+    /**
+     * @see WalletService#getTransactions(UUID, Long, int)
+     */
+    public Mono<TransactionPage> getTransactions(UUID id, Long before, int limit) {
+        return Mono.defer(() -> {
+            walletRequests.validateLimit(limit);
+
+            return walletStore.findTransactions(id, before, limit)
+                    .switchIfEmpty(Mono.fromRunnable(() -> walletMetrics.record(WalletResult.Status.NOT_FOUND)));
+        });
+    }
+
+    /**
+     * @see WalletService#updateBalance(UUID, UUID, boolean, BigDecimal)
+     */
+    public Mono<WalletResult> updateBalance(UUID idempotencyKey, UUID id, boolean isAddingFunds, BigDecimal amount) {
+        return Mono.defer(() -> {
+            walletRequests.validateAmount(amount);
+
+            long cacheStamp = walletCache.stamp();
+            return walletStore.updateBalance(idempotencyKey, id, amount, isAddingFunds, Instant.now().plus(idempotencyTtl))
+                    .map(result -> walletRequests.checkResult(idempotencyKey, result, cacheStamp));
+        });
+    }
+
+    /**
+     * @see WalletService#updateBalances(List)
+     */
+    public Mono<List<WalletResult>> updateBalances(List<BalanceChange> changes) {
+        return Mono.defer(() -> {
+            walletRequests.validateBatchSize(changes.size());
+
+            List<BalanceChange> validChanges = changes.stream().filter(change -> walletRequests.isValidAmount(change.getAmount())).toList();
+            long cacheStamp = walletCache.stamp();
+            Mono<List<WalletResult>> storedResults = validChanges.isEmpty() ? Mono.just(List.of())
+                    : walletStore.updateBalances(validChanges, Instant.now().plus(idempotencyTtl));
+
+            return storedResults.map(stored -> walletRequests.checkResults(changes, validChanges, stored, cacheStamp));
+        });
+    }
+
+    /**
+     * @see WalletService#transfer(UUID, UUID, UUID, BigDecimal)
+     */
+    public Mono<TransferResult> transfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount) {
+        return Mono.defer(() -> {
+            walletRequests.validateTransfer(fromId, toId, amount);
+
+            long cacheStamp = walletCache.stamp();
+            return walletStore.transfer(idempotencyKey, fromId, toId, amount, Instant.now().plus(idempotencyTtl))
+                    .map(result -> walletRequests.checkTransfer(idempotencyKey, result, cacheStamp));
+        });
+    }
+
+    private Mono<List<WalletResult>> createWallets(UUID idempotencyKey, UUID owner, List<Wallet> wallets) {
+        WalletRequests.CreateBatch batch = walletRequests.prepareCreate(idempotencyKey, wallets);
+
+        return Flux.fromIterable(batch.getChunks())
+                .concatMap(chunk -> walletStore.createAll(chunk)
+                        .flatMap(created -> idempotencyService.renew(idempotencyKey, owner).thenReturn(created))
+                        .flatMapIterable(created -> created))
+                .collectList()
+                .map(batch::toResults);
+    }
+
+}
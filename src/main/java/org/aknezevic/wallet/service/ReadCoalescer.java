@@ -0,0 +1,120 @@
+package org.aknezevic.wallet.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.repository.WalletStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses concurrent reads of the same wallet into a single Redis fetch. The first read of a wallet fetches
+ * it, and reads of that wallet arriving while the fetch is in flight wait for its result, or for its error,
+ * instead of issuing their own. A waiting read falls back to its own fetch after
+ * {@code wallet.read-coalescing.wait-timeout}, or when it asked for a version that the shared result does not
+ * include, which is also the case when the shared fetch found no wallet. Coalescing is enabled by setting
+ * {@code wallet.read-coalescing.enabled}. Reads served from another read's fetch are counted by
+ * {@code wallet.read.coalesced}, and waits that timed out by {@code wallet.read.coalescing.timeouts}.
+ */
+@Slf4j
+@Component
+public class ReadCoalescer {
+
+    @Autowired
+    private WalletStore walletStore;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${wallet.read-coalescing.enabled:false}")
+    private boolean enabled;
+    @Value("${wallet.read-coalescing.wait-timeout:1s}")
+    private Duration waitTimeout;
+
+    private final Map<UUID, CompletableFuture<Optional<Wallet>>> inFlight = new ConcurrentHashMap<>();
+    private Counter coalesced;
+    private Counter timeouts;
+
+    @PostConstruct
+    void init() {
+        coalesced = Counter.builder("wallet.read.coalesced")
+                .description("Wallet reads served from the in-flight fetch of a concurrent read of the same wallet")
+                .register(meterRegistry);
+        timeouts = Counter.builder("wallet.read.coalescing.timeouts")
+                .description("Wallet reads that fetched the wallet themselves after waiting too long for a concurrent read")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method for retrieving a wallet, sharing the fetch of a concurrent read of the same wallet if there is one
+     *
+     * @param id UUID of the wallet to be retrieved
+     * @param minVersion version returned by an earlier write to the wallet, or null for any version
+     *
+     * @return the retrieved wallet, as returned by {@link WalletStore#findById(UUID, Long)}
+     */
+    public Optional<Wallet> findById(UUID id, Long minVersion) {
+        CompletableFuture<Optional<Wallet>> fetch = new CompletableFuture<>();
+        CompletableFuture<Optional<Wallet>> existing = inFlight.putIfAbsent(id, fetch);
+        if (existing == null) {
+            return fetch(id, minVersion, fetch);
+        }
+
+        Optional<Wallet> wallet;
+        try {
+            wallet = existing.copy().completeOnTimeout(null, waitTimeout.toNanos(), TimeUnit.NANOSECONDS).join();
+        }
+        catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+        }
+
+        if (wallet == null) {
+            timeouts.increment();
+            log.warn("Read of wallet of ID {} waited longer than {} for a concurrent read.", id, waitTimeout);
+            return walletStore.findById(id, minVersion);
+        }
+
+        if (minVersion != null && !wallet.map(shared -> shared.includesVersion(minVersion)).orElse(false)) {
+            return walletStore.findById(id, minVersion);
+        }
+
+        coalesced.increment();
+        return wallet;
+    }
+
+    /**
+     * Fetches the wallet on behalf of every read waiting on fetch, removing it from the in-flight reads before
+     * it completes so that later reads start a fetch of their own
+     */
+    private Optional<Wallet> fetch(UUID id, Long minVersion, CompletableFuture<Optional<Wallet>> fetch) {
+        Optional<Wallet> wallet;
+        try {
+            wallet = walletStore.findById(id, minVersion);
+        }
+        catch (RuntimeException | Error ex) {
+            inFlight.remove(id, fetch);
+            fetch.completeExceptionally(ex);
+            throw ex;
+        }
+
+        inFlight.remove(id, fetch);
+        fetch.complete(wallet);
+
+        return wallet;
+    }
+}
@@ -0,0 +1,154 @@
+package org.aknezevic.wallet.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.model.Wallet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-process cache of wallets in front of Redis. Entries are evicted by size and age, and whenever
+ * Redis publishes a keyspace notification for the wallet's key, so writes made by other nodes evict stale
+ * entries. This requires Redis to be configured with {@code notify-keyspace-events Khg}; without it entries
+ * may be stale for up to {@code wallet.cache.ttl}. Hit, miss and eviction counts are published as the
+ * {@code cache.*} metrics of the {@code wallets} cache.
+ * <p>
+ * The cache holds its own copies of wallets, so callers modifying a wallet they put or got do not change the
+ * cached entry. A put never replaces a newer version of the wallet, and a put of a wallet read or written
+ * before the wallet's last keyspace notification is dropped, as the wallet may have changed since. Wallets
+ * without a version, such as replayed responses, are not cached.
+ */
+@Slf4j
+@Component
+public class WalletCache implements MessageListener {
+    private static final String CACHE_NAME = "wallets";
+    private static final String KEYSPACE_PATTERN = "__keyspace@*__:wallet:*";
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${wallet.cache.enabled:false}")
+    private boolean enabled;
+    @Value("${wallet.cache.maximum-size:10000}")
+    private long maximumSize;
+    @Value("${wallet.cache.ttl:5s}")
+    private Duration ttl;
+
+    private final AtomicLong evictionSequence = new AtomicLong();
+    private Cache<UUID, Wallet> cache;
+    /**
+     * Eviction sequence number of the last keyspace notification of each recently written wallet
+     */
+    private Cache<UUID, Long> evictions;
+    private RedisMessageListenerContainer listenerContainer;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        evictions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.addMessageListener(this, new PatternTopic(KEYSPACE_PATTERN));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+    }
+
+    @PreDestroy
+    void close() throws Exception {
+        if (listenerContainer != null) {
+            listenerContainer.destroy();
+        }
+    }
+
+    public Wallet get(UUID id) {
+        Wallet wallet = enabled ? cache.getIfPresent(id) : null;
+
+        return wallet != null ? copy(wallet) : null;
+    }
+
+    /**
+     * Method for marking the start of a read or write whose resulting wallets will be put in the cache
+     *
+     * @return stamp to pass to {@link #put(Wallet, long)}
+     */
+    public long stamp() {
+        return evictionSequence.get();
+    }
+
+    /**
+     * Method for caching a copy of a wallet unless the cache holds a newer version of it, or the wallet was
+     * written after the given stamp was taken
+     *
+     * @param wallet wallet returned by a read or write
+     * @param stamp stamp taken before the read or write was issued
+     */
+    public void put(Wallet wallet, long stamp) {
+        if (!enabled || wallet.getVersion() == null) {
+            return;
+        }
+
+        Wallet copy = copy(wallet);
+        cache.asMap().compute(wallet.getId(), (id, cached) -> {
+            Long evictedAt = evictions.getIfPresent(id);
+            if (evictedAt != null && evictedAt > stamp) {
+                return cached;
+            }
+
+            return cached == null || cached.getVersion() < copy.getVersion() ? copy : cached;
+        });
+    }
+
+    public void evict(UUID id) {
+        if (enabled) {
+            evictions.put(id, evictionSequence.incrementAndGet());
+            cache.invalidate(id);
+        }
+    }
+
+    private static Wallet copy(Wallet wallet) {
+        return new Wallet(wallet.getId(), wallet.getBalance(), wallet.getVersion());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+
+        try {
+            evict(UUID.fromString(channel.substring(channel.lastIndexOf(':') + 1)));
+        }
+        catch (IllegalArgumentException ex) {
+            log.debug("Ignoring keyspace notification for unexpected channel {}", channel);
+        }
+    }
+}
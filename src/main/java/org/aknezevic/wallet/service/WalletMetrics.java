@@ -0,0 +1,59 @@
+package org.aknezevic.wallet.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.aknezevic.wallet.model.WalletResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counters for the outcomes of wallet requests that do not show up as errors in the HTTP metrics, such as
+ * replayed idempotency keys and rejected balance updates.
+ */
+@Component
+public class WalletMetrics {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Counter replays;
+    private Counter insufficientFunds;
+    private Counter notFound;
+    private Counter authFailures;
+
+    @PostConstruct
+    void init() {
+        replays = Counter.builder("wallet.idempotency.replays")
+                .description("Requests answered with the response stored under their idempotency key")
+                .register(meterRegistry);
+        insufficientFunds = Counter.builder("wallet.insufficient.funds")
+                .description("Balance updates rejected because the wallet balance was too low")
+                .register(meterRegistry);
+        notFound = Counter.builder("wallet.not.found")
+                .description("Lookups and updates of wallets that do not exist")
+                .register(meterRegistry);
+        authFailures = Counter.builder("wallet.auth.failures")
+                .description("Requests rejected because of a missing or invalid API key")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Counts the outcome of a single wallet operation, ignoring outcomes without a counter
+     *
+     * @param status status of the operation's result
+     */
+    public void record(WalletResult.Status status) {
+        switch (status) {
+            case REPLAYED -> replays.increment();
+            case INSUFFICIENT_FUNDS -> insufficientFunds.increment();
+            case NOT_FOUND -> notFound.increment();
+            default -> {
+            }
+        }
+    }
+
+    public void authFailure() {
+        authFailures.increment();
+    }
+}
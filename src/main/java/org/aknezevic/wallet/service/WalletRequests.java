@@ -0,0 +1,356 @@
+package org.aknezevic.wallet.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.exception.IdempotencyException;
+import org.aknezevic.wallet.exception.WalletException;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.BalanceCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Validation of wallet requests and conversion of store results into responses and errors, shared by the
+ * blocking and reactive services so that both accept the same requests and answer them the same way.
+ */
+@Slf4j
+@Component
+public class WalletRequests {
+
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private WalletCache walletCache;
+    @Autowired
+    private WalletMetrics walletMetrics;
+
+    @Value("${wallet.batch.max-size:100}")
+    private int maxBatchSize;
+    @Value("${wallet.batch.create-max-size:10000}")
+    private int maxCreateBatchSize;
+    @Value("${wallet.batch.create-chunk-size:500}")
+    private int createChunkSize;
+
+    /**
+     * @throws WalletException if amount is not greater than 0 or cannot be stored at the configured scale
+     */
+    public void validateAmount(BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+            log.error("Provided amount is not greater than 0.");
+            throw new WalletException("Amount must be greater than 0!");
+        }
+
+        balanceCodec.validate(amount);
+    }
+
+    public boolean isValidAmount(BigDecimal amount) {
+        try {
+            validateAmount(amount);
+            return true;
+        }
+        catch (WalletException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @throws WalletException if amount is invalid or both wallets are the same
+     */
+    public void validateTransfer(UUID fromId, UUID toId, BigDecimal amount) {
+        validateAmount(amount);
+
+        if (fromId.equals(toId)) {
+            log.error("Source and destination wallets are the same.");
+            throw new WalletException("Cannot transfer funds from Wallet ID " + fromId + " to itself!");
+        }
+    }
+
+    /**
+     * @throws WalletException if limit is not greater than 0 or exceeds the configured maximum batch size
+     */
+    public void validateLimit(int limit) {
+        if (limit <= 0) {
+            log.error("Provided limit is not greater than 0.");
+            throw new WalletException("Limit must be greater than 0!");
+        }
+        validateBatchSize(limit);
+    }
+
+    /**
+     * @throws WalletException if more items are given than {@code wallet.batch.max-size}
+     */
+    public void validateBatchSize(int size) {
+        validateBatchSize(size, maxBatchSize);
+    }
+
+    /**
+     * @throws WalletException if more wallets are given than {@code wallet.batch.create-max-size}
+     */
+    public void validateCreateBatchSize(int size) {
+        validateBatchSize(size, maxCreateBatchSize);
+    }
+
+    /**
+     * Method for checking the result of a single wallet write, caching the written wallet
+     *
+     * @param idempotencyKey UUID of the idempotency key guarding the write, or null
+     * @param result result returned by the store
+     * @param cacheStamp stamp taken from the wallet cache before the write was issued
+     *
+     * @return the result if the write was applied, replayed or found nothing to write to
+     * @throws WalletException if the amount was rejected
+     * @throws IdempotencyException if the key is held by a request in progress or by a different request, the
+     * wallet kept being updated concurrently or already exists
+     */
+    public WalletResult checkResult(UUID idempotencyKey, WalletResult result, long cacheStamp) {
+        walletMetrics.record(result.getStatus());
+
+        switch (result.getStatus()) {
+            case INSUFFICIENT_FUNDS:
+                log.error("Provided amount is greater than current wallet balance.");
+                throw new WalletException("Amount to subtract from Wallet ID " + result.getId() + " is greater than wallet balance!");
+            case INVALID_AMOUNT:
+                log.error("Provided amount was rejected by Redis for wallet of ID {}.", result.getId());
+                throw new WalletException("Amount cannot be applied to Wallet ID " + result.getId() + " exactly!");
+            case IN_PROGRESS:
+                throw inProgress(idempotencyKey);
+            case KEY_REUSED:
+                throw keyReused(idempotencyKey);
+            case CONFLICT:
+                log.warn("Wallet of ID {} kept changing concurrently during the update.", result.getId());
+                throw new IdempotencyException("Wallet ID " + result.getId() + " was updated concurrently, retry the request.");
+            case ALREADY_EXISTS:
+                log.error("Wallet of ID {} already exists.", result.getId());
+                throw new IdempotencyException("Wallet ID " + result.getId() + " already exists!");
+            case CREATED:
+            case UPDATED:
+                walletCache.put(result.getWallet(), cacheStamp);
+                return result;
+            default:
+                return result;
+        }
+    }
+
+    /**
+     * Method for checking the result of a transfer, caching both wallets when it was applied
+     *
+     * @param idempotencyKey UUID of the idempotency key guarding the transfer
+     * @param result result returned by the store
+     * @param cacheStamp stamp taken from the wallet cache before the transfer was issued
+     *
+     * @return the result if the transfer was applied, replayed or a wallet was not found
+     * @throws WalletException if the amount was rejected or is greater than the source wallet's balance
+     * @throws IdempotencyException if the key is held by a request in progress or by a different request
+     */
+    public TransferResult checkTransfer(UUID idempotencyKey, TransferResult result, long cacheStamp) {
+        walletMetrics.record(result.getStatus());
+
+        switch (result.getStatus()) {
+            case INSUFFICIENT_FUNDS:
+                log.error("Provided amount is greater than current wallet balance.");
+                throw new WalletException("Amount to transfer from Wallet ID " + result.getId() + " is greater than wallet balance!");
+            case INVALID_AMOUNT:
+                log.error("Provided amount was rejected by Redis for wallet of ID {}.", result.getId());
+                throw new WalletException("Amount cannot be transferred with Wallet ID " + result.getId() + "!");
+            case IN_PROGRESS:
+                throw inProgress(idempotencyKey);
+            case KEY_REUSED:
+                throw keyReused(idempotencyKey);
+            case REPLAYED:
+                if (result.getTo() == null) {
+                    log.warn("Idempotency of ID {} was used by a single wallet request.", idempotencyKey);
+                    throw new IdempotencyException("Idempotency-Key " + idempotencyKey + " was already used by a different request.");
+                }
+                return result;
+            case UPDATED:
+                walletCache.put(result.getFrom(), cacheStamp);
+                walletCache.put(result.getTo(), cacheStamp);
+                return result;
+            default:
+                return result;
+        }
+    }
+
+    /**
+     * Method for checking the results of a batch of balance changes, of which only the valid changes were sent
+     * to the store, caching the updated wallets
+     *
+     * @param changes all changes of the request
+     * @param validChanges changes that passed {@link #isValidAmount(BigDecimal)}, in request order
+     * @param storedResults results returned by the store for the valid changes
+     * @param cacheStamp stamp taken from the wallet cache before the changes were issued
+     *
+     * @return the outcome of each change, in the order of the given changes
+     */
+    public List<WalletResult> checkResults(List<BalanceChange> changes, List<BalanceChange> validChanges,
+                                           List<WalletResult> storedResults, long cacheStamp) {
+        List<WalletResult> results = new ArrayList<>(changes.size());
+        for (int i = 0, stored = 0; i < changes.size(); i++) {
+            BalanceChange change = changes.get(i);
+
+            if (stored < validChanges.size() && validChanges.get(stored) == change) {
+                WalletResult result = storedResults.get(stored++);
+                walletMetrics.record(result.getStatus());
+                if (result.getStatus() == WalletResult.Status.UPDATED) {
+                    walletCache.put(result.getWallet(), cacheStamp);
+                }
+                results.add(result);
+            }
+            else {
+                results.add(new WalletResult(change.getWalletId(), WalletResult.Status.INVALID_AMOUNT, null));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Method for checking the record found when claiming the idempotency key of a batch create
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param existing completed record holding the key
+     *
+     * @return the results stored under the key
+     * @throws IdempotencyException if the key was used by a single wallet request
+     */
+    public List<WalletResult> checkBatchReplay(UUID idempotencyKey, Idempotency existing) {
+        if (existing.getResults() == null) {
+            log.warn("Idempotency of ID {} was used by a single wallet request.", idempotencyKey);
+            throw new IdempotencyException("Idempotency-Key " + idempotencyKey + " was already used by a different request.");
+        }
+
+        log.info("Returning cached batch results from idempotency hash.");
+        walletMetrics.record(WalletResult.Status.REPLAYED);
+        return existing.getResults();
+    }
+
+    /**
+     * Method for assigning an ID to each wallet of a create request that has none. The ID is derived from the
+     * idempotency key and the position of the wallet in the request, so a retry of the request creates, or
+     * replays, the same wallets rather than new ones, and finds its idempotency record in the same slot.
+     *
+     * @param idempotencyKey UUID of the idempotency key guarding the request
+     * @param wallets wallets of the request
+     */
+    public void assignIds(UUID idempotencyKey, List<Wallet> wallets) {
+        for (int i = 0; i < wallets.size(); i++) {
+            if (wallets.get(i).getId() == null) {
+                String name = idempotencyKey + ":" + i;
+                wallets.get(i).setId(UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    /**
+     * Method for preparing a batch create, assigning missing IDs and rejecting duplicate IDs and balances that
+     * cannot be stored
+     *
+     * @param idempotencyKey UUID of the idempotency key guarding the batch
+     * @param wallets wallets of the request
+     *
+     * @return the batch, whose valid wallets are written in chunks of {@code wallet.batch.create-chunk-size}
+     */
+    public CreateBatch prepareCreate(UUID idempotencyKey, List<Wallet> wallets) {
+        List<WalletResult> results = new ArrayList<>(wallets.size());
+        List<Wallet> validWallets = new ArrayList<>(wallets.size());
+        Set<UUID> ids = new HashSet<>();
+
+        assignIds(idempotencyKey, wallets);
+        for (Wallet wallet : wallets) {
+            if (!ids.add(wallet.getId())) {
+                results.add(new WalletResult(wallet.getId(), WalletResult.Status.DUPLICATE, null));
+            }
+            else if (!isValidBalance(wallet.getBalance())) {
+                results.add(new WalletResult(wallet.getId(), WalletResult.Status.INVALID_AMOUNT, null));
+            }
+            else {
+                results.add(null);
+                validWallets.add(wallet);
+            }
+        }
+
+        List<List<Wallet>> chunks = new ArrayList<>();
+        for (int from = 0; from < validWallets.size(); from += createChunkSize) {
+            chunks.add(validWallets.subList(from, Math.min(from + createChunkSize, validWallets.size())));
+        }
+
+        return new CreateBatch(wallets, results, chunks);
+    }
+
+    /**
+     * Wallets of a batch create, with the results of the wallets rejected before reaching the store
+     */
+    public static class CreateBatch {
+        private final List<Wallet> wallets;
+        private final List<WalletResult> results;
+        private final List<List<Wallet>> chunks;
+
+        private CreateBatch(List<Wallet> wallets, List<WalletResult> results, List<List<Wallet>> chunks) {
+            this.wallets = wallets;
+            this.results = results;
+            this.chunks = chunks;
+        }
+
+        public List<List<Wallet>> getChunks() {
+            return chunks;
+        }
+
+        /**
+         * Method for combining the outcome of the chunks written to the store with the rejected wallets
+         *
+         * @param created whether each valid wallet was created, in the order of the chunks
+         *
+         * @return the ID and status of each wallet, in the order of the request
+         */
+        public List<WalletResult> toResults(List<Boolean> created) {
+            for (int i = 0, saved = 0; i < results.size(); i++) {
+                if (results.get(i) == null) {
+                    boolean isCreated = created.get(saved++);
+                    results.set(i, new WalletResult(wallets.get(i).getId(),
+                            isCreated ? WalletResult.Status.CREATED : WalletResult.Status.ALREADY_EXISTS, null));
+                }
+            }
+
+            return results;
+        }
+    }
+
+    private boolean isValidBalance(BigDecimal balance) {
+        try {
+            balanceCodec.validate(balance);
+            return true;
+        }
+        catch (WalletException ex) {
+            return false;
+        }
+    }
+
+    private void validateBatchSize(int size, int maxSize) {
+        if (size > maxSize) {
+            log.error("Batch of {} items exceeds the maximum batch size.", size);
+            throw new WalletException("Batch cannot contain more than " + maxSize + " items!");
+        }
+    }
+
+    private IdempotencyException inProgress(UUID idempotencyKey) {
+        log.warn("Idempotency of ID {} is held by a request in progress.", idempotencyKey);
+        return new IdempotencyException("Request with Idempotency-Key " + idempotencyKey + " is still in progress.");
+    }
+
+    private IdempotencyException keyReused(UUID idempotencyKey) {
+        log.warn("Idempotency of ID {} was used by a batch request.", idempotencyKey);
+        return new IdempotencyException("Idempotency-Key " + idempotencyKey + " was already used by a different request.");
+    }
+}
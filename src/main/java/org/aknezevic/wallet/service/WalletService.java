@@ -1,22 +1,52 @@
 package org.aknezevic.wallet.service;
 
+import io.micrometer.core.annotation.Timed;
 import lombok.extern.slf4j.Slf4j;
+import org.aknezevic.wallet.exception.IdempotencyException;
 import org.aknezevic.wallet.exception.WalletException;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
 import org.aknezevic.wallet.model.Wallet;
-import org.aknezevic.wallet.repository.WalletRepository;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.BalanceCodec;
+import org.aknezevic.wallet.repository.WalletStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.util.Optional;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 @Slf4j
 @Service
+@Timed(value = "wallet.service", histogram = true)
 public class WalletService {
 
     @Autowired
-    private WalletRepository walletRepo;
+    private WalletStore walletStore;
+    @Autowired
+    private BalanceCodec balanceCodec;
+    @Autowired
+    private WalletCache walletCache;
+    @Autowired
+    private IdempotencyService idempotencyService;
+    @Autowired
+    private WalletMetrics walletMetrics;
+    @Autowired
+    private WalletRequests walletRequests;
+    @Autowired
+    private BalanceCoalescer balanceCoalescer;
+    @Autowired
+    private ReadCoalescer readCoalescer;
+
+    @Value("${wallet.idempotency.ttl:24h}")
+    private Duration idempotencyTtl;
 
     /**
      * Method for saving a wallet to Redis
@@ -24,49 +54,177 @@ public class WalletService {
      * @param wallet wallet object to be saved
      *
      * @return the saved wallet object
+     * @throws WalletException if the balance cannot be stored at the configured scale
      */
     public Wallet addWallet(Wallet wallet) {
-        return walletRepo.save(wallet);
+        balanceCodec.validate(wallet.getBalance());
+
+        long cacheStamp = walletCache.stamp();
+        Wallet savedWallet = walletStore.save(wallet);
+        walletCache.put(savedWallet, cacheStamp);
+
+        return savedWallet;
+    }
+
+    /**
+     * Method for saving a wallet to Redis guarded by an idempotency key, checking the key, saving the
+     * wallet and storing the response in a single round trip
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param wallet wallet object to be saved
+     *
+     * @return CREATED with the saved wallet, or REPLAYED with the response stored under the key
+     * @throws WalletException if the balance cannot be stored at the configured scale
+     * @throws IdempotencyException if the key is held by a request still in progress, or a wallet with the
+     * same ID already exists
+     */
+    public WalletResult addWallet(UUID idempotencyKey, Wallet wallet) {
+        balanceCodec.validate(wallet.getBalance());
+
+        walletRequests.assignIds(idempotencyKey, List.of(wallet));
+
+        long cacheStamp = walletCache.stamp();
+        WalletResult result = walletStore.create(idempotencyKey, wallet, Instant.now().plus(idempotencyTtl));
+
+        return walletRequests.checkResult(idempotencyKey, result, cacheStamp);
+    }
+
+    /**
+     * Method for saving several wallets to Redis guarded by a single idempotency key for the whole batch.
+     * Wallets are written in pipelined chunks of the configured size, and a wallet whose ID already exists
+     * is left untouched. The lease of the claim on the key is renewed after each chunk, so that a large batch
+     * is not re-run by a retry while it is still being written.
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param wallets wallet objects to be saved
+     *
+     * @return the ID and status of each wallet, in the order of the given wallets, or the results stored
+     * under the key if the batch was already processed
+     * @throws WalletException if more wallets are given than the configured maximum batch size
+     * @throws IdempotencyException if the key is held by a request still in progress or by a single wallet request
+     */
+    public List<WalletResult> addWallets(UUID idempotencyKey, List<Wallet> wallets) {
+        walletRequests.validateCreateBatchSize(wallets.size());
+
+        UUID owner = UUID.randomUUID();
+        Idempotency existing = idempotencyService.claim(idempotencyKey, owner);
+        if (existing != null) {
+            return walletRequests.checkBatchReplay(idempotencyKey, existing);
+        }
+
+        List<WalletResult> results;
+        try {
+            results = createWallets(idempotencyKey, owner, wallets);
+        }
+        catch (RuntimeException ex) {
+            idempotencyService.release(idempotencyKey, owner);
+            throw ex;
+        }
+
+        idempotencyService.complete(idempotencyKey, owner, results);
+
+        return results;
     }
 
     /**
-     * Method for retrieving a wallet from Redis
+     * Method for retrieving a wallet from Redis, reading it from a replica when replica reads are enabled and
+     * the replica has caught up to the given version, and from the primary otherwise. When read coalescing
+     * is enabled, concurrent reads of the same wallet share a single fetch.
      *
      * @param id UUID of the wallet to be retrieved
+     * @param minVersion version returned by an earlier write to the wallet, or null for any version
      *
      * @return the retrieved wallet object
      */
-    public Wallet getWalletById(UUID id) {
-        return walletRepo.findById(id).orElse(null);
+    public Wallet getWalletById(UUID id, Long minVersion) {
+        Wallet cachedWallet = walletCache.get(id);
+        if (cachedWallet != null && cachedWallet.includesVersion(minVersion)) {
+            return cachedWallet;
+        }
+
+        long cacheStamp = walletCache.stamp();
+        Wallet wallet = (readCoalescer.isEnabled() ? readCoalescer.findById(id, minVersion)
+                : walletStore.findById(id, minVersion)).orElse(null);
+        if (wallet != null) {
+            walletCache.put(wallet, cacheStamp);
+        }
+        else {
+            walletMetrics.record(WalletResult.Status.NOT_FOUND);
+        }
+
+        return wallet;
     }
 
     /**
-     * Method for adding funds to a wallet's balance
+     * Method for retrieving several wallets, fetching all wallets missing from the cache in a single
+     * round trip to Redis
      *
-     * @param id UUID of the wallet to be retrieved
-     * @param amount decimal amount to add to wallet balance
+     * @param ids UUIDs of the wallets to be retrieved
      *
-     * @return the updated wallet object
-     * @throws WalletException if amount is negative
+     * @return a FOUND or NOT_FOUND result for each ID, in the order of the given IDs
+     * @throws WalletException if more IDs are given than the configured maximum batch size
      */
-    public Wallet addFundsById(UUID id, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            log.error("Provided amount is greater than 0.");
-            throw new WalletException("Amount must be greater than 0!");
+    public List<WalletResult> getWalletsByIds(List<UUID> ids) {
+        walletRequests.validateBatchSize(ids.size());
+
+        List<Wallet> wallets = new ArrayList<>(ids.size());
+        List<UUID> missingIds = new ArrayList<>();
+        for (UUID id : ids) {
+            Wallet cachedWallet = walletCache.get(id);
+            wallets.add(cachedWallet);
+
+            if (cachedWallet == null) {
+                missingIds.add(id);
+            }
+        }
+
+        if (!missingIds.isEmpty()) {
+            long cacheStamp = walletCache.stamp();
+            List<Wallet> fetchedWallets = walletStore.findAllById(missingIds);
+
+            for (int i = 0, fetched = 0; i < ids.size(); i++) {
+                if (wallets.get(i) == null) {
+                    Wallet wallet = fetchedWallets.get(fetched++);
+                    wallets.set(i, wallet);
+
+                    if (wallet != null) {
+                        walletCache.put(wallet, cacheStamp);
+                    }
+                }
+            }
         }
 
-        Optional<Wallet> existingWallet = walletRepo.findById(id);
+        List<WalletResult> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Wallet wallet = wallets.get(i);
+            WalletResult.Status status = wallet != null ? WalletResult.Status.FOUND : WalletResult.Status.NOT_FOUND;
+            walletMetrics.record(status);
+            results.add(new WalletResult(ids.get(i), status, wallet));
+        }
 
-        if (existingWallet.isPresent()) {
-            Wallet updatedWallet = existingWallet.get();
-            BigDecimal currentBalance = updatedWallet.getBalance();
+        return results;
+    }
 
-            updatedWallet.setBalance(currentBalance.add(amount));
+    /**
+     * Method for retrieving a page of a wallet's transactions from the ledger, newest first
+     *
+     * @param id UUID of the wallet
+     * @param before position before which to read transactions, as returned in the previous page, or null to
+     * read the newest transactions
+     * @param limit maximum number of transactions to return
+     *
+     * @return the transactions with the position of the next page, or null if the wallet does not exist
+     * @throws WalletException if limit is not greater than 0 or exceeds the configured maximum batch size
+     */
+    public TransactionPage getTransactions(UUID id, Long before, int limit) {
+        walletRequests.validateLimit(limit);
 
-            return walletRepo.save(updatedWallet);
+        TransactionPage page = walletStore.findTransactions(id, before, limit);
+        if (page == null) {
+            walletMetrics.record(WalletResult.Status.NOT_FOUND);
         }
 
-        return null;
+        return page;
     }
 
     /**
@@ -76,31 +234,119 @@ public class WalletService {
      * @param amount decimal amount to add to wallet balance
      *
      * @return the updated wallet object
+     * @throws WalletException if amount is negative
+     */
+    public Wallet addFundsById(UUID id, BigDecimal amount) {
+        walletRequests.validateAmount(amount);
+
+        long cacheStamp = walletCache.stamp();
+        return walletRequests.checkResult(null, walletStore.updateBalance(id, amount, true), cacheStamp).getWallet();
+    }
+
+    /**
+     * Method for removing funds from a wallet's balance
+     *
+     * @param id UUID of the wallet to be retrieved
+     * @param amount decimal amount to subtract from wallet balance
+     *
+     * @return the updated wallet object
      * @throws WalletException if amount is negative or amount is greater than wallet's current balance
      */
     public Wallet removeFundsById(UUID id, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            log.error("Provided amount is greater than 0.");
-            throw new WalletException("Amount must be greater than 0!");
-        }
+        walletRequests.validateAmount(amount);
+
+        long cacheStamp = walletCache.stamp();
+        return walletRequests.checkResult(null, walletStore.updateBalance(id, amount, false), cacheStamp).getWallet();
+    }
 
-        Optional<Wallet> existingWallet = walletRepo.findById(id);
+    /**
+     * Method for adding or removing funds from a wallet's balance guarded by an idempotency key, checking
+     * the key, updating the balance and storing the response in a single round trip. When coalescing is
+     * enabled, the update is committed together with concurrent updates of the same wallet.
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param id UUID of the wallet to be updated
+     * @param isAddingFunds true to add funds, false to remove funds
+     * @param amount decimal amount to add or remove
+     *
+     * @return UPDATED with the updated wallet, REPLAYED with the response stored under the key, or NOT_FOUND
+     * @throws WalletException if amount is negative or amount is greater than wallet's current balance
+     * @throws IdempotencyException if the key is held by a request still in progress or the wallet kept being
+     * updated concurrently
+     */
+    public WalletResult updateBalance(UUID idempotencyKey, UUID id, boolean isAddingFunds, BigDecimal amount) {
+        walletRequests.validateAmount(amount);
+
+        long cacheStamp = walletCache.stamp();
+        Instant expiry = Instant.now().plus(idempotencyTtl);
+        WalletResult result = balanceCoalescer.isEnabled()
+                ? balanceCoalescer.submit(new BalanceChange(idempotencyKey, id, isAddingFunds, amount), expiry)
+                : walletStore.updateBalance(idempotencyKey, id, amount, isAddingFunds, expiry);
+
+        return walletRequests.checkResult(idempotencyKey, result, cacheStamp);
+    }
+
+    /**
+     * Method for moving funds from one wallet to another guarded by an idempotency key, debiting and
+     * crediting both wallets atomically in a single round trip
+     *
+     * @param idempotencyKey UUID of the idempotency key
+     * @param fromId UUID of the wallet to debit
+     * @param toId UUID of the wallet to credit
+     * @param amount decimal amount to move
+     *
+     * @return UPDATED with both updated wallets, REPLAYED with the response stored under the key, or NOT_FOUND
+     * with the ID of the missing wallet
+     * @throws WalletException if amount is negative, both wallets are the same or amount is greater than the
+     * source wallet's current balance
+     * @throws IdempotencyException if the key is held by a request still in progress or by a different request
+     */
+    public TransferResult transfer(UUID idempotencyKey, UUID fromId, UUID toId, BigDecimal amount) {
+        walletRequests.validateTransfer(fromId, toId, amount);
+
+        long cacheStamp = walletCache.stamp();
+        TransferResult result = walletStore.transfer(idempotencyKey, fromId, toId, amount, Instant.now().plus(idempotencyTtl));
+
+        return walletRequests.checkTransfer(idempotencyKey, result, cacheStamp);
+    }
 
-        if (existingWallet.isPresent()) {
-            Wallet updatedWallet = existingWallet.get();
-            BigDecimal currentBalance = updatedWallet.getBalance();
+    /**
+     * Method for applying several balance changes in a single round trip to Redis, each guarded by its own
+     * idempotency key. Items succeed or fail independently, so a failed item does not roll back the others.
+     *
+     * @param changes balance changes to be applied
+     *
+     * @return the outcome of each change, in the order of the given changes
+     * @throws WalletException if more changes are given than the configured maximum batch size
+     */
+    public List<WalletResult> updateBalances(List<BalanceChange> changes) {
+        walletRequests.validateBatchSize(changes.size());
 
-            if (amount.compareTo(currentBalance) > 0) {
-                log.error("Provided amount is greater than current wallet balance.");
-                throw new WalletException("Amount to subtract from Wallet ID " + id + " is greater than wallet balance!");
+        List<BalanceChange> validChanges = new ArrayList<>(changes.size());
+        for (BalanceChange change : changes) {
+            if (walletRequests.isValidAmount(change.getAmount())) {
+                validChanges.add(change);
             }
+        }
+
+        long cacheStamp = walletCache.stamp();
+        List<WalletResult> storedResults = validChanges.isEmpty() ? List.of()
+                : walletStore.updateBalances(validChanges, Instant.now().plus(idempotencyTtl));
+
+        return walletRequests.checkResults(changes, validChanges, storedResults, cacheStamp);
+    }
 
-            updatedWallet.setBalance(currentBalance.subtract(amount));
+    private List<WalletResult> createWallets(UUID idempotencyKey, UUID owner, List<Wallet> wallets) {
+        WalletRequests.CreateBatch batch = walletRequests.prepareCreate(idempotencyKey, wallets);
 
-            return walletRepo.save(updatedWallet);
+        List<Boolean> created = new ArrayList<>(wallets.size());
+        for (List<Wallet> chunk : batch.getChunks()) {
+            log.debug("Saving chunk of {} wallets", chunk.size());
+            created.addAll(walletStore.createAll(chunk));
+            idempotencyService.renew(idempotencyKey, owner);
         }
 
-        return null;
+        return batch.toResults(created);
     }
 
 }
@@ -0,0 +1,35 @@
+-- Atomically claims an idempotency key, creating a pending record that expires natively in Redis.
+-- The pending record is a short lease: storing the response extends the record to the full TTL, and a
+-- claim that is never completed frees the key when the lease runs out. The pending record holds the owner
+-- token of the claiming request, so that renewing, completing or releasing the claim only succeeds for the
+-- request still holding it, see renew-idempotency.lua, complete-idempotency.lua and release-idempotency.lua.
+--
+-- KEYS[1] idempotency hash key
+-- KEYS[2] key naming the wallet of a single wallet request that used the key, see reserve-idempotency.lua
+-- ARGV[1] lease expiry as epoch seconds
+-- ARGV[2] owner token of the claiming request
+--
+-- Returns an empty list when the key was claimed by the caller, otherwise the flattened field/value
+-- list of the existing record, see read_record. A record without an "id" or "results" field is still pending.
+-- A key used by a single wallet request whose record is in another slot is returned as a "wallet" field
+-- naming that wallet, with the expiry of the reservation.
+
+-- Records written before native expiry was used have no TTL. Give them one based on their stored
+-- expiry, which removes them straight away when it has already passed.
+if redis.call('TTL', KEYS[1]) == -1 then
+    redis.call('EXPIREAT', KEYS[1], redis.call('HGET', KEYS[1], 'expiry') or ARGV[1])
+end
+
+-- Completed records may not have an "expiry" field, so the key itself marks the claim.
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    local wallet = redis.call('GET', KEYS[2])
+    if wallet then
+        return {'wallet', wallet, 'expiry', tostring(redis.call('TIME')[1] + redis.call('TTL', KEYS[2]))}
+    end
+
+    redis.call('HSET', KEYS[1], 'expiry', ARGV[1], 'owner', ARGV[2])
+    redis.call('EXPIREAT', KEYS[1], ARGV[1])
+    return {}
+end
+
+return read_record(KEYS[1])
@@ -0,0 +1,19 @@
+-- Replaces a pending idempotency record with the results of the batch request holding its claim, expiring
+-- them natively at the full TTL. Results of a request whose claim expired are not stored, as a retry may
+-- already hold the key.
+--
+-- KEYS[1] idempotency hash key
+-- ARGV[1] owner token of the completing request
+-- ARGV[2] encoded batch results
+-- ARGV[3] expiry as epoch seconds
+--
+-- Returns 1 when the results were stored, or 0 when the claim expired or is held by another request.
+
+if redis.call('HGET', KEYS[1], 'owner') ~= ARGV[1] then
+    return 0
+end
+
+redis.call('DEL', KEYS[1])
+redis.call('HSET', KEYS[1], 'results', ARGV[2], 'expiry', ARGV[3])
+redis.call('EXPIREAT', KEYS[1], ARGV[3])
+return 1
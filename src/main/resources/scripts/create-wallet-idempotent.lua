@@ -0,0 +1,35 @@
+-- Checks an idempotency key, saves a wallet, records it in the ledger and stores it as the key's response,
+-- all in a single round trip.
+--
+-- KEYS[1] idempotency hash key
+-- KEYS[2] wallet hash key
+-- KEYS[3] ledger stream key of the wallet's shard
+-- KEYS[4] wallet transaction list key
+-- ARGV[1] stored balance of the wallet
+-- ARGV[2] expiry of a new idempotency record as epoch seconds
+-- ARGV[3] wallet id
+-- ARGV[4] idempotency key
+--
+-- Returns {'REPLAYED', id, balance} with the stored response when the key was already used,
+-- {'IN_PROGRESS'} when the key is held by a request still in progress, {'KEY_REUSED'} when it was used by a
+-- batch request, {'ALREADY_EXISTS'} when a wallet with the id already exists, in which case it is left
+-- untouched and the key is not used, otherwise
+-- {'CREATED', id, balance, version}.
+
+local id, stored = find_response(KEYS[1], ARGV[2])
+if id then
+    return {'REPLAYED', id, stored}
+elseif id == false then
+    return {stored}
+end
+
+if redis.call('EXISTS', KEYS[2]) == 1 then
+    return {'ALREADY_EXISTS'}
+end
+
+redis.call('HSET', KEYS[2], 'balance', ARGV[1])
+local version = bump_version(KEYS[2])
+store_response(KEYS[1], ARGV[3], ARGV[1], ARGV[2])
+append_entry(KEYS[3], KEYS[4], ARGV[3], 'CREATE', ARGV[1], ARGV[1], ARGV[4])
+
+return {'CREATED', ARGV[3], ARGV[1], version}
@@ -0,0 +1,20 @@
+-- Saves a wallet and records it in the ledger in a single round trip.
+--
+-- KEYS[1] wallet hash key
+-- KEYS[2] ledger stream key of the wallet's shard
+-- KEYS[3] wallet transaction list key
+-- ARGV[1] stored balance of the wallet
+-- ARGV[2] wallet id
+-- ARGV[3] "1" to leave an existing wallet untouched, "0" to overwrite it
+--
+-- Returns {1, version} when the wallet was saved, {0} when it already exists and was left untouched.
+
+if ARGV[3] == '1' and redis.call('EXISTS', KEYS[1]) == 1 then
+    return {0}
+end
+
+redis.call('HSET', KEYS[1], 'balance', ARGV[1])
+local version = bump_version(KEYS[1])
+append_entry(KEYS[2], KEYS[3], ARGV[2], 'CREATE', ARGV[1], ARGV[1])
+
+return {1, version}
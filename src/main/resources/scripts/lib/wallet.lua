@@ -0,0 +1,298 @@
+-- Helpers shared by the wallet scripts. RedisScripts prepends this file to each script that needs it,
+-- so everything here runs inside the same atomic script invocation.
+
+-- Decimal balances are scaled to a common number of fraction digits and handled as integers to avoid
+-- floating point rounding. Lua numbers hold integers exactly only below 2^53, so scaled values from
+-- MAX_EXACT up are rejected rather than rounded.
+local MAX_EXACT = 9007199254740992
+
+local function parse_decimal(value)
+    return string.match(value, '^(%d+)%.?(%d*)$')
+end
+
+local function scale_decimal(int, frac, scale)
+    return tonumber(int .. frac .. string.rep('0', scale - #frac))
+end
+
+local function format_decimal(value, scale)
+    local digits = string.format('%.0f', value)
+    if scale == 0 then
+        return digits
+    end
+    if #digits <= scale then
+        digits = string.rep('0', scale - #digits + 1) .. digits
+    end
+    return string.sub(digits, 1, #digits - scale) .. '.' .. string.sub(digits, -scale)
+end
+
+-- Increments the version of the wallet hash at key, which counts the writes to the wallet so that a reader
+-- can tell whether a copy of it, e.g. on a replica, already includes a given write. Wallets written before
+-- versions were introduced start from version 0.
+--
+-- Returns the new version as a string.
+local function bump_version(key)
+    return tostring(redis.call('HINCRBY', key, 'version', 1))
+end
+
+-- Adds two non-negative integer strings digit by digit, so that sums beyond 2^53 stay exact.
+local function add_digits(a, b)
+    local digits, carry = {}, 0
+    for i = 1, math.max(#a, #b) do
+        local digit = (tonumber(string.sub(a, -i, -i)) or 0) + (tonumber(string.sub(b, -i, -i)) or 0) + carry
+        table.insert(digits, 1, digit % 10)
+        carry = math.floor(digit / 10)
+    end
+    if carry > 0 then
+        table.insert(digits, 1, carry)
+    end
+    return table.concat(digits)
+end
+
+local INT64_MAX = '9223372036854775807'
+
+-- Works out whether funds can be added to or removed from a wallet holding balance, without writing.
+--
+-- amount is a positive decimal string, or a positive integer string of minor units when minor_units
+-- is true. A credit of minor units that would overflow the 64-bit range of HINCRBY is reported as
+-- INVALID_AMOUNT.
+--
+-- Otherwise the balance and amount are scaled to the larger of their numbers of fraction digits, and an
+-- update whose scaled balance, amount or result would reach 2^53 is reported as INVALID_AMOUNT, as it
+-- could not be applied without rounding.
+--
+-- Returns status, updated where status is one of UPDATED, INSUFFICIENT_FUNDS or INVALID_AMOUNT, and updated
+-- is the decimal balance to store when a decimal update can be applied.
+local function check_delta(balance, amount, adding, minor_units)
+    if minor_units then
+        if not string.match(amount, '^%d+$') or tonumber(amount) <= 0 then
+            return 'INVALID_AMOUNT'
+        end
+        if adding then
+            local sum = add_digits(balance, amount)
+            if #sum > #INT64_MAX or (#sum == #INT64_MAX and sum > INT64_MAX) then
+                return 'INVALID_AMOUNT'
+            end
+        elseif tonumber(amount) > tonumber(balance) then
+            return 'INSUFFICIENT_FUNDS'
+        end
+        return 'UPDATED'
+    end
+
+    local amountInt, amountFrac = parse_decimal(amount)
+    local balanceInt, balanceFrac = parse_decimal(balance)
+    if not amountInt or not balanceInt then
+        return 'INVALID_AMOUNT'
+    end
+
+    local scale = math.max(#amountFrac, #balanceFrac)
+    local delta = scale_decimal(amountInt, amountFrac, scale)
+    local current = scale_decimal(balanceInt, balanceFrac, scale)
+    if delta <= 0 or delta >= MAX_EXACT or current >= MAX_EXACT then
+        return 'INVALID_AMOUNT'
+    end
+
+    local updated
+    if adding then
+        updated = current + delta
+        if updated >= MAX_EXACT then
+            return 'INVALID_AMOUNT'
+        end
+    elseif delta > current then
+        return 'INSUFFICIENT_FUNDS'
+    else
+        updated = current - delta
+    end
+
+    return 'UPDATED', format_decimal(updated, scale)
+end
+
+-- Adds or removes funds from the wallet hash at key, if check_delta allows it. Balances of minor units are
+-- updated with HINCRBY. A rejected update leaves the wallet untouched.
+--
+-- Returns status, balance, version where status is one of UPDATED, NOT_FOUND, INSUFFICIENT_FUNDS or
+-- INVALID_AMOUNT, balance is the stored balance after the call when the wallet exists, and version is the
+-- wallet's new version when it was updated, see bump_version.
+local function apply_delta(key, amount, adding, minor_units)
+    local balance = redis.call('HGET', key, 'balance')
+    if not balance then
+        return 'NOT_FOUND'
+    end
+
+    local status, updated = check_delta(balance, amount, adding, minor_units)
+    if status ~= 'UPDATED' then
+        return status, balance
+    end
+
+    if minor_units then
+        local delta = adding and amount or '-' .. amount
+        updated = string.format('%.0f', redis.call('HINCRBY', key, 'balance', delta))
+    else
+        redis.call('HSET', key, 'balance', updated)
+    end
+    return 'UPDATED', updated, bump_version(key)
+end
+
+-- Appends an entry for a balance change to the ledger stream at ledger_key and indexes it in the wallet's
+-- transaction list at index_key, within the same script as the change itself. amount and balance are in
+-- their stored representation, amount being positive, and idempotency_key may be nil.
+local function append_entry(ledger_key, index_key, id, type, amount, balance, idempotency_key)
+    local entry
+    if idempotency_key then
+        entry = redis.call('XADD', ledger_key, '*', 'wallet', id, 'type', type, 'amount', amount,
+            'balance', balance, 'key', idempotency_key)
+    else
+        entry = redis.call('XADD', ledger_key, '*', 'wallet', id, 'type', type, 'amount', amount,
+            'balance', balance)
+    end
+    redis.call('RPUSH', index_key, entry)
+end
+
+-- Completed idempotency records store their response in a single binary field "r", packed big-endian as
+--   version (1 byte) | wallet id (16 bytes) | unscaled balance (8 bytes) | scale (1 byte) | expiry (8 bytes)
+-- and the credited wallet of a transfer in field "t" as
+--   version (1 byte) | wallet id (16 bytes) | unscaled balance (8 bytes) | scale (1 byte)
+-- Balances are kept in the representation of the balance codec, e.g. 12345 at scale 2 for "123.45" and
+-- scale 0 for minor units. Responses that cannot be packed exactly, and records written before this
+-- format, use the string fields id, balance, expiry, to_id and to_balance, which are read as before.
+-- Wallet hashes keep their balance as a string, as it is updated in place with HINCRBY and arithmetic on
+-- its value, so only the idempotency records are packed.
+local RECORD_VERSION = 1
+
+local function uuid_to_bytes(id)
+    local hex = string.gsub(id, '-', '')
+    return (string.gsub(hex, '%x%x', function(pair)
+        return string.char(tonumber(pair, 16))
+    end))
+end
+
+local function bytes_to_uuid(bytes)
+    local hex = string.gsub(bytes, '.', function(char)
+        return string.format('%02x', string.byte(char))
+    end)
+    return string.sub(hex, 1, 8) .. '-' .. string.sub(hex, 9, 12) .. '-' .. string.sub(hex, 13, 16) .. '-'
+        .. string.sub(hex, 17, 20) .. '-' .. string.sub(hex, 21, 32)
+end
+
+-- Returns nil when the wallet cannot be packed without losing information.
+local function pack_wallet(id, balance)
+    local int, frac = parse_decimal(balance)
+    if not int or #frac > 255 or not string.match(id, '^%x%x%x%x%x%x%x%x%-%x%x%x%x%-%x%x%x%x%-%x%x%x%x%-%x%x%x%x%x%x%x%x%x%x%x%x$') then
+        return nil
+    end
+
+    local unscaled = tonumber(int .. frac)
+    if unscaled >= MAX_EXACT then
+        return nil
+    end
+
+    return struct.pack('>Bc16i8B', RECORD_VERSION, uuid_to_bytes(id), unscaled, #frac)
+end
+
+-- Returns id, balance and the position after the packed wallet.
+local function unpack_wallet(record)
+    local version, id, unscaled, scale, next = struct.unpack('>Bc16i8B', record)
+    if version ~= RECORD_VERSION then
+        error('Unsupported idempotency record version ' .. version)
+    end
+    return bytes_to_uuid(id), format_decimal(unscaled, scale), next
+end
+
+-- Returns id, balance, expiry of a packed response.
+local function unpack_response(record)
+    local id, balance, next = unpack_wallet(record)
+    return id, balance, string.format('%.0f', struct.unpack('>i8', record, next))
+end
+
+-- Looks up the idempotency record at key. Records written before native expiry was used are given a
+-- TTL based on their stored expiry, which removes them straight away when it has already passed.
+--
+-- Returns nil when no live record exists, otherwise the stored response as id, balance. Returns false
+-- with the status to reply with when the record holds no single wallet response: 'IN_PROGRESS' while it
+-- is still pending, including a transfer between slots that has not finished, or 'KEY_REUSED' when it
+-- holds the results of a batch request. Pending transfers are left without a TTL, see transfer-debit.lua.
+local function find_response(key, expiry)
+    if redis.call('HEXISTS', key, 'transfer_to') == 1 then
+        return false, 'IN_PROGRESS'
+    end
+    if redis.call('TTL', key) == -1 then
+        redis.call('EXPIREAT', key, redis.call('HGET', key, 'expiry') or expiry)
+    end
+
+    local fields = redis.call('HMGET', key, 'r', 'id', 'balance', 'expiry', 'results')
+    if fields[1] then
+        local id, balance = unpack_response(fields[1])
+        return id, balance
+    end
+    if fields[2] then
+        return fields[2], fields[3]
+    end
+    if fields[5] then
+        return false, 'KEY_REUSED'
+    end
+    if fields[4] then
+        return false, 'IN_PROGRESS'
+    end
+    return nil
+end
+
+-- Returns the id and balance of the credited wallet stored with a transfer response, or nil.
+local function find_counterparty(key)
+    local fields = redis.call('HMGET', key, 't', 'to_id', 'to_balance')
+    if fields[1] then
+        local id, balance = unpack_wallet(fields[1])
+        return id, balance
+    end
+    return fields[2], fields[3]
+end
+
+-- Stores a response under the idempotency record at key, expiring it natively at expiry.
+local function store_response(key, id, balance, expiry)
+    local wallet = pack_wallet(id, balance)
+    if wallet then
+        redis.call('HSET', key, 'r', wallet .. struct.pack('>i8', tonumber(expiry)))
+        redis.call('HDEL', key, 'expiry')
+    else
+        redis.call('HSET', key, 'id', id, 'balance', balance, 'expiry', expiry)
+    end
+    redis.call('EXPIREAT', key, expiry)
+end
+
+-- Stores the credited wallet of a transfer next to its response.
+local function store_counterparty(key, id, balance)
+    local wallet = pack_wallet(id, balance)
+    if wallet then
+        redis.call('HSET', key, 't', wallet)
+    else
+        redis.call('HSET', key, 'to_id', id, 'to_balance', balance)
+    end
+end
+
+-- Returns the flattened field/value list of the idempotency record at key, with packed fields expanded
+-- into the string fields id, balance, expiry, to_id and to_balance.
+local function read_record(key)
+    local fields = redis.call('HGETALL', key)
+    local record = {}
+
+    for i = 1, #fields, 2 do
+        if fields[i] == 'r' then
+            local id, balance, expiry = unpack_response(fields[i + 1])
+            table.insert(record, 'id')
+            table.insert(record, id)
+            table.insert(record, 'balance')
+            table.insert(record, balance)
+            table.insert(record, 'expiry')
+            table.insert(record, expiry)
+        elseif fields[i] == 't' then
+            local id, balance = unpack_wallet(fields[i + 1])
+            table.insert(record, 'to_id')
+            table.insert(record, id)
+            table.insert(record, 'to_balance')
+            table.insert(record, balance)
+        else
+            table.insert(record, fields[i])
+            table.insert(record, fields[i + 1])
+        end
+    end
+
+    return record
+end
@@ -0,0 +1,28 @@
+-- Moves a wallet written by the former @RedisHash mapping to the current key layout, recording its balance
+-- in the ledger.
+--
+-- KEYS[1] current wallet hash key
+-- KEYS[2] legacy wallet hash key
+-- KEYS[3] legacy wallet index set
+-- KEYS[4] ledger stream key of the wallet's shard
+-- KEYS[5] wallet transaction list key
+-- ARGV[1] wallet id
+--
+-- Returns the wallet's stored balance, or nil if the wallet exists in neither layout.
+
+local balance = redis.call('HGET', KEYS[1], 'balance')
+if balance then
+    return balance
+end
+
+balance = redis.call('HGET', KEYS[2], 'balance')
+if not balance then
+    return false
+end
+
+redis.call('HSET', KEYS[1], 'balance', balance)
+bump_version(KEYS[1])
+redis.call('DEL', KEYS[2])
+redis.call('SREM', KEYS[3], ARGV[1])
+append_entry(KEYS[4], KEYS[5], ARGV[1], 'MIGRATE', balance, balance)
+return balance
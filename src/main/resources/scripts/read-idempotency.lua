@@ -0,0 +1,8 @@
+-- Reads an idempotency record.
+--
+-- KEYS[1] idempotency hash key
+--
+-- Returns the flattened field/value list of the record, see read_record, or an empty list when no record
+-- exists.
+
+return read_record(KEYS[1])
@@ -0,0 +1,43 @@
+-- Reads a page of a wallet's ledger entries, newest first. Entries are numbered by their position in the
+-- wallet's transaction list, starting from 0 for the oldest, which does not change as entries are added.
+--
+-- KEYS[1] wallet hash key
+-- KEYS[2] wallet transaction list key
+-- KEYS[3] ledger stream key of the wallet's shard
+-- ARGV[1] position before which to read, or an empty string to read the newest entries
+-- ARGV[2] maximum number of entries
+--
+-- Returns an empty list when the wallet does not exist, otherwise {first, id, type, amount, balance, key, ...}
+-- where first is the position of the oldest entry in the page, followed by five values for each entry and
+-- key is an empty string for entries without an idempotency key.
+
+if redis.call('EXISTS', KEYS[1]) == 0 then
+    return {}
+end
+
+local count = redis.call('LLEN', KEYS[2])
+local before = math.min(tonumber(ARGV[1]) or count, count)
+local first = math.max(before - tonumber(ARGV[2]), 0)
+local page = {first}
+
+if before <= first then
+    return page
+end
+
+local ids = redis.call('LRANGE', KEYS[2], first, before - 1)
+for i = #ids, 1, -1 do
+    local entry = redis.call('XRANGE', KEYS[3], ids[i], ids[i])[1]
+    if entry then
+        local fields = {}
+        for j = 1, #entry[2], 2 do
+            fields[entry[2][j]] = entry[2][j + 1]
+        end
+        table.insert(page, ids[i])
+        table.insert(page, fields['type'])
+        table.insert(page, fields['amount'])
+        table.insert(page, fields['balance'])
+        table.insert(page, fields['key'] or '')
+    end
+end
+
+return page
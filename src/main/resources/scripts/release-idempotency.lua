@@ -0,0 +1,14 @@
+-- Deletes a pending idempotency record, if the request releasing it still holds the claim, so that the
+-- request can be retried with the same key.
+--
+-- KEYS[1] idempotency hash key
+-- ARGV[1] owner token of the releasing request
+--
+-- Returns 1 when the claim was released, or 0 when it expired or is held by another request.
+
+if redis.call('HGET', KEYS[1], 'owner') ~= ARGV[1] then
+    return 0
+end
+
+redis.call('DEL', KEYS[1])
+return 1
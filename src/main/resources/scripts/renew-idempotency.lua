@@ -0,0 +1,15 @@
+-- Extends the lease of a pending idempotency record, if the request renewing it still holds the claim.
+--
+-- KEYS[1] idempotency hash key
+-- ARGV[1] owner token of the renewing request
+-- ARGV[2] new lease expiry as epoch seconds
+--
+-- Returns 1 when the lease was extended, or 0 when the claim expired or is held by another request.
+
+if redis.call('HGET', KEYS[1], 'owner') ~= ARGV[1] then
+    return 0
+end
+
+redis.call('HSET', KEYS[1], 'expiry', ARGV[2])
+redis.call('EXPIREAT', KEYS[1], ARGV[2])
+return 1
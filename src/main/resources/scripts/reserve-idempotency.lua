@@ -0,0 +1,26 @@
+-- Records which wallet a single wallet request with an idempotency key is for, in the slot of the key itself.
+-- With hash tags the record of a single wallet request lives in the slot of its wallet, so requests reusing
+-- the key for another wallet, or the key of a batch request, would not see each other's records otherwise.
+--
+-- KEYS[1] key naming the wallet the idempotency key was used for
+-- KEYS[2] idempotency hash key of batch requests using the key
+-- ARGV[1] id of the wallet of the request
+-- ARGV[2] expiry of a new reservation as epoch seconds
+--
+-- Returns {'RESERVED'} when the key is free or was used for the same wallet, otherwise {'KEY_REUSED'}.
+
+if redis.call('HEXISTS', KEYS[2], 'results') == 1 or redis.call('HEXISTS', KEYS[2], 'owner') == 1 then
+    return {'KEY_REUSED'}
+end
+
+local wallet = redis.call('GET', KEYS[1])
+if wallet and wallet ~= ARGV[1] then
+    return {'KEY_REUSED'}
+end
+
+if not wallet then
+    redis.call('SET', KEYS[1], ARGV[1])
+    redis.call('EXPIREAT', KEYS[1], ARGV[2])
+end
+
+return {'RESERVED'}
@@ -0,0 +1,12 @@
+-- Stores the response of a completed request under its idempotency key.
+--
+-- KEYS[1] idempotency hash key
+-- ARGV[1] wallet id
+-- ARGV[2] stored balance of the wallet
+-- ARGV[3] expiry as epoch seconds
+--
+-- Returns an empty list.
+
+store_response(KEYS[1], ARGV[1], ARGV[2], ARGV[3])
+
+return {}
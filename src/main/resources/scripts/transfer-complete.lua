@@ -0,0 +1,31 @@
+-- Last step of a transfer between wallets in different cluster slots, run once the destination wallet has
+-- been credited. Replaces the pending transfer on the idempotency record with the transfer's response, which
+-- expires like any other response, and removes the transfer from the pending transfers set.
+--
+-- KEYS[1] idempotency hash key in the source wallet's slot
+-- KEYS[2] pending transfers sorted set key in the source wallet's slot
+-- ARGV[1] source wallet id
+-- ARGV[2] destination wallet id
+-- ARGV[3] destination wallet balance after the credit
+-- ARGV[4] expiry of the idempotency record as epoch seconds
+-- ARGV[5] idempotency key
+--
+-- Returns {'UPDATED', fromId, fromBalance, toId, toBalance}, or the stored response as REPLAYED when another
+-- attempt with the same key already completed the transfer.
+
+local pending = redis.call('HMGET', KEYS[1], 'transfer_to', 'transfer_balance')
+if not pending[1] then
+    local id, stored = find_response(KEYS[1], ARGV[4])
+    if not id then
+        return {stored or 'IN_PROGRESS'}
+    end
+    local to_id, to_balance = find_counterparty(KEYS[1])
+    return {'REPLAYED', id, stored, to_id, to_balance}
+end
+
+redis.call('HDEL', KEYS[1], 'transfer_to', 'transfer_balance', 'transfer_amount', 'transfer_version')
+redis.call('ZREM', KEYS[2], ARGV[1] .. ':' .. ARGV[5])
+store_response(KEYS[1], ARGV[1], pending[2], ARGV[4])
+store_counterparty(KEYS[1], ARGV[2], ARGV[3])
+
+return {'UPDATED', ARGV[1], pending[2], ARGV[2], ARGV[3]}
@@ -0,0 +1,52 @@
+-- First step of a transfer between wallets in different cluster slots. Checks the idempotency key and debits
+-- the source wallet, recording the pending transfer on the idempotency record in the source wallet's slot
+-- until transfer-complete.lua or transfer-refund.lua finishes it. The pending record does not expire, so a
+-- debit is never lost before its transfer is finished, and the transfer is listed in the pending transfers
+-- set of the slot, scored by the time of the debit, for TransferRecovery to finish transfers left behind.
+--
+-- KEYS[1] idempotency hash key in the source wallet's slot
+-- KEYS[2] source wallet hash key
+-- KEYS[3] ledger stream key of the source wallet's shard
+-- KEYS[4] source wallet transaction list key
+-- KEYS[5] pending transfers sorted set key in the source wallet's slot
+-- ARGV[1] amount, see apply_delta
+-- ARGV[2] "1" when balances are stored as integer minor units
+-- ARGV[3] expiry of a new idempotency record as epoch seconds
+-- ARGV[4] source wallet id
+-- ARGV[5] destination wallet id
+-- ARGV[6] idempotency key
+-- ARGV[7] current time as epoch seconds
+--
+-- Returns {'DEBITED', fromId, fromBalance, toId, amount, fromVersion} when the source wallet was debited, now
+-- or by an earlier attempt with the same key that did not finish, in which case the destination and amount of
+-- that attempt are returned. Otherwise returns the reply of transfer-idempotent.lua for a replayed key, a key
+-- in progress or a failed debit.
+
+local pending = redis.call('HMGET', KEYS[1], 'transfer_to', 'transfer_balance', 'transfer_amount', 'transfer_version')
+if pending[1] then
+    return {'DEBITED', ARGV[4], pending[2], pending[1], pending[3], pending[4]}
+end
+
+local id, stored = find_response(KEYS[1], ARGV[3])
+if id then
+    local to_id, to_balance = find_counterparty(KEYS[1])
+    if to_id then
+        return {'REPLAYED', id, stored, to_id, to_balance}
+    end
+    return {'REPLAYED', id, stored}
+elseif id == false then
+    return {stored}
+end
+
+local status, balance, version = apply_delta(KEYS[2], ARGV[1], false, ARGV[2] == '1')
+if status ~= 'UPDATED' then
+    return {status, ARGV[4]}
+end
+
+redis.call('HSET', KEYS[1], 'transfer_to', ARGV[5], 'transfer_balance', balance, 'transfer_amount', ARGV[1],
+    'transfer_version', version)
+redis.call('PERSIST', KEYS[1])
+redis.call('ZADD', KEYS[5], ARGV[7], ARGV[4] .. ':' .. ARGV[6])
+append_entry(KEYS[3], KEYS[4], ARGV[4], 'DEBIT', ARGV[1], balance, ARGV[6])
+
+return {'DEBITED', ARGV[4], balance, ARGV[5], ARGV[1], version}
@@ -0,0 +1,65 @@
+-- Checks an idempotency key, moves funds from one wallet to another and stores the response under the
+-- key, all in a single round trip. The debit and the credit are each recorded in the ledger. Both wallets and
+-- both balance changes are checked before either wallet is written, so a transfer whose debit or credit is
+-- rejected, e.g. because the credit would overflow the destination balance, leaves both wallets untouched,
+-- and a transfer is either applied in full or not at all.
+--
+-- KEYS[1] idempotency hash key
+-- KEYS[2] hash key of the wallet to debit
+-- KEYS[3] hash key of the wallet to credit
+-- KEYS[4] ledger stream key of the debited wallet's shard
+-- KEYS[5] transaction list key of the wallet to debit
+-- KEYS[6] ledger stream key of the credited wallet's shard
+-- KEYS[7] transaction list key of the wallet to credit
+-- ARGV[1] amount, see apply_delta
+-- ARGV[2] "1" when balances are stored as integer minor units
+-- ARGV[3] expiry of a new idempotency record as epoch seconds
+-- ARGV[4] id of the wallet to debit
+-- ARGV[5] id of the wallet to credit
+-- ARGV[6] idempotency key
+--
+-- Returns {'REPLAYED', fromId, fromBalance, toId, toBalance} with the stored response when the key was
+-- already used, {'IN_PROGRESS'} when the key is held by a request still in progress, {'KEY_REUSED'} when it
+-- was used by a batch request, {'NOT_FOUND', id}
+-- when a wallet does not exist, {status, fromId, fromBalance} when the debit was rejected, see apply_delta,
+-- {status, toId} when the credit was rejected, otherwise {'UPDATED', fromId, fromBalance, toId, toBalance, fromVersion, toVersion}.
+
+local id, stored = find_response(KEYS[1], ARGV[3])
+if id then
+    local toId, toStored = find_counterparty(KEYS[1])
+    if not toId then
+        return {'REPLAYED', id, stored}
+    end
+    return {'REPLAYED', id, stored, toId, toStored}
+elseif id == false then
+    return {stored}
+end
+
+if redis.call('EXISTS', KEYS[2]) == 0 then
+    return {'NOT_FOUND', ARGV[4]}
+end
+if redis.call('EXISTS', KEYS[3]) == 0 then
+    return {'NOT_FOUND', ARGV[5]}
+end
+
+local minor_units = ARGV[2] == '1'
+local fromStored = redis.call('HGET', KEYS[2], 'balance')
+local debitStatus = check_delta(fromStored, ARGV[1], false, minor_units)
+if debitStatus ~= 'UPDATED' then
+    return {debitStatus, ARGV[4], fromStored}
+end
+
+local creditStatus = check_delta(redis.call('HGET', KEYS[3], 'balance'), ARGV[1], true, minor_units)
+if creditStatus ~= 'UPDATED' then
+    return {creditStatus, ARGV[5]}
+end
+
+local status, fromBalance, fromVersion = apply_delta(KEYS[2], ARGV[1], false, minor_units)
+local _, toBalance, toVersion = apply_delta(KEYS[3], ARGV[1], true, minor_units)
+
+store_response(KEYS[1], ARGV[4], fromBalance, ARGV[3])
+store_counterparty(KEYS[1], ARGV[5], toBalance)
+append_entry(KEYS[4], KEYS[5], ARGV[4], 'DEBIT', ARGV[1], fromBalance, ARGV[6])
+append_entry(KEYS[6], KEYS[7], ARGV[5], 'CREDIT', ARGV[1], toBalance, ARGV[6])
+
+return {status, ARGV[4], fromBalance, ARGV[5], toBalance, fromVersion, toVersion}
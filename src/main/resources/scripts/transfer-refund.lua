@@ -0,0 +1,29 @@
+-- Compensates the debit of a transfer between wallets in different cluster slots whose credit failed, and
+-- removes the idempotency record and the pending transfer so that the key can be used again.
+--
+-- KEYS[1] idempotency hash key in the source wallet's slot
+-- KEYS[2] source wallet hash key
+-- KEYS[3] ledger stream key of the source wallet's shard
+-- KEYS[4] source wallet transaction list key
+-- KEYS[5] pending transfers sorted set key in the source wallet's slot
+-- ARGV[1] "1" when balances are stored as integer minor units
+-- ARGV[2] source wallet id
+-- ARGV[3] idempotency key
+--
+-- Returns {status, id, balance} with the outcome of the refund, see apply_delta, or {'NONE'} when no
+-- transfer is pending under the key.
+
+local pending = redis.call('HMGET', KEYS[1], 'transfer_to', 'transfer_amount')
+if not pending[1] then
+    return {'NONE'}
+end
+
+redis.call('DEL', KEYS[1])
+redis.call('ZREM', KEYS[5], ARGV[2] .. ':' .. ARGV[3])
+
+local status, balance = apply_delta(KEYS[2], pending[2], true, ARGV[1] == '1')
+if status == 'UPDATED' then
+    append_entry(KEYS[3], KEYS[4], ARGV[2], 'CREDIT', pending[2], balance, ARGV[3])
+end
+
+return {status, ARGV[2], balance}
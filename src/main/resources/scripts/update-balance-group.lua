@@ -0,0 +1,47 @@
+-- Applies several balance updates to the same wallet, each guarded by its own idempotency key, in a single
+-- atomic script invocation. Updates are applied in order with the same semantics as
+-- update-balance-idempotent.lua, so a debit that would overdraw the wallet is rejected on its own without
+-- affecting the others.
+--
+-- KEYS[1] wallet hash key
+-- KEYS[2] ledger stream key of the wallet's shard
+-- KEYS[3] wallet transaction list key
+-- KEYS[4..] idempotency hash key of each update
+-- ARGV[1] "1" when balances are stored as integer minor units
+-- ARGV[2] expiry of new idempotency records as epoch seconds
+-- ARGV[3] wallet id
+-- ARGV[4..] amount, "1" when adding funds or "0" when removing funds, and idempotency key of each update
+--
+-- Returns {status, id, balance, version, ...} with the outcome of each update in order, see
+-- update-balance-idempotent.lua. Updates without a balance are returned with an empty id and balance, and
+-- updates that did not change the balance with an empty version.
+
+local minor_units = ARGV[1] == '1'
+local results = {}
+
+for i = 4, #KEYS do
+    local arg = 4 + (i - 4) * 3
+    local amount, adding, key = ARGV[arg], ARGV[arg + 1] == '1', ARGV[arg + 2]
+
+    local id, stored = find_response(KEYS[i], ARGV[2])
+    local status, balance, version
+    if id then
+        status, balance = 'REPLAYED', stored
+    elseif id == false then
+        status, id = stored, ''
+    else
+        status, balance, version = apply_delta(KEYS[1], amount, adding, minor_units)
+        id = ARGV[3]
+        if status == 'UPDATED' then
+            store_response(KEYS[i], id, balance, ARGV[2])
+            append_entry(KEYS[2], KEYS[3], id, adding and 'CREDIT' or 'DEBIT', amount, balance, key)
+        end
+    end
+
+    table.insert(results, status)
+    table.insert(results, balance and id or '')
+    table.insert(results, balance or '')
+    table.insert(results, version or '')
+end
+
+return results
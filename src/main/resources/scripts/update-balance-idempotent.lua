@@ -0,0 +1,33 @@
+-- Checks an idempotency key, applies a balance update, records it in the ledger and stores its response
+-- under the key, all in a single round trip.
+--
+-- KEYS[1] idempotency hash key
+-- KEYS[2] wallet hash key
+-- KEYS[3] ledger stream key of the wallet's shard
+-- KEYS[4] wallet transaction list key
+-- ARGV[1] amount, see apply_delta
+-- ARGV[2] "1" when adding funds, "0" when removing funds
+-- ARGV[3] "1" when balances are stored as integer minor units
+-- ARGV[4] expiry of a new idempotency record as epoch seconds
+-- ARGV[5] wallet id
+-- ARGV[6] idempotency key
+--
+-- Returns {'REPLAYED', id, balance} with the stored response when the key was already used,
+-- {'IN_PROGRESS'} when the key is held by a request still in progress, {'KEY_REUSED'} when it was used by a
+-- batch request, otherwise {status, id, balance}
+-- or {status, id, balance, version} with the outcome of the update, see apply_delta.
+
+local id, stored = find_response(KEYS[1], ARGV[4])
+if id then
+    return {'REPLAYED', id, stored}
+elseif id == false then
+    return {stored}
+end
+
+local status, balance, version = apply_delta(KEYS[2], ARGV[1], ARGV[2] == '1', ARGV[3] == '1')
+if status == 'UPDATED' then
+    store_response(KEYS[1], ARGV[5], balance, ARGV[4])
+    append_entry(KEYS[3], KEYS[4], ARGV[5], ARGV[2] == '1' and 'CREDIT' or 'DEBIT', ARGV[1], balance, ARGV[6])
+end
+
+return {status, ARGV[5], balance, version}
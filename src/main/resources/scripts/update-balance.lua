@@ -0,0 +1,19 @@
+-- Atomically adds or removes funds from a wallet hash and records the change in the ledger, in a single
+-- round trip.
+--
+-- KEYS[1] wallet hash key
+-- KEYS[2] ledger stream key of the wallet's shard
+-- KEYS[3] wallet transaction list key
+-- ARGV[1] amount, see apply_delta
+-- ARGV[2] "1" when adding funds, "0" when removing funds
+-- ARGV[3] "1" when balances are stored as integer minor units
+-- ARGV[4] wallet id
+--
+-- Returns {status}, {status, balance} or {status, balance, version}, see apply_delta.
+
+local status, balance, version = apply_delta(KEYS[1], ARGV[1], ARGV[2] == '1', ARGV[3] == '1')
+if status == 'UPDATED' then
+    append_entry(KEYS[2], KEYS[3], ARGV[4], ARGV[2] == '1' and 'CREDIT' or 'DEBIT', ARGV[1], balance)
+end
+
+return {status, balance, version}
@@ -1,8 +1,15 @@
 package org.aknezevic.wallet.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.exception.IdempotencyException;
+import org.aknezevic.wallet.exception.WalletException;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.Transaction;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.Transfer;
+import org.aknezevic.wallet.model.TransferResult;
 import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
 import org.aknezevic.wallet.service.IdempotencyService;
 import org.aknezevic.wallet.service.WalletService;
 import org.junit.jupiter.api.Test;
@@ -11,17 +18,21 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.math.BigDecimal;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.UUID;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.BDDMockito.given;
-import static org.mockito.BDDMockito.willDoNothing;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -46,7 +57,7 @@ public class ControllerTest {
         BigDecimal balance = new BigDecimal("10.11");
         Wallet wallet = new Wallet(id, balance);
 
-        given(walletService.getWalletById(id)).willReturn(wallet);
+        given(walletService.getWalletById(id, null)).willReturn(wallet);
 
         mvc.perform(get("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
@@ -54,30 +65,94 @@ public class ControllerTest {
                 .andExpect(jsonPath("$.balance").value(balance));
     }
 
+    @Test
+    public void getWalletWithMinVersion() throws Exception {
+        UUID id = UUID.randomUUID();
+        Wallet wallet = new Wallet(id, new BigDecimal("10.11"), 5L);
+
+        given(walletService.getWalletById(id, 5L)).willReturn(wallet);
+
+        mvc.perform(get("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("Min-Version", 5)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(5))
+                .andExpect(header().string("ETag", "\"5\""));
+    }
+
+    @Test
+    public void getWalletMatchingETagReturns304() throws Exception {
+        UUID id = UUID.randomUUID();
+        given(walletService.getWalletById(id, null)).willReturn(new Wallet(id, new BigDecimal("10.11"), 5L));
+
+        mvc.perform(get("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("If-None-Match", "\"5\"")
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"5\""))
+                .andExpect(content().string(""));
+    }
+
     @Test
     public void getWalletNotFoundReturns404() throws Exception {
         UUID id = UUID.randomUUID();
-        given(walletService.getWalletById(id)).willReturn(null);
+        given(walletService.getWalletById(id, null)).willReturn(null);
 
         mvc.perform(get("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    public void getTransactionsHappyPath() throws Exception {
+        UUID id = UUID.randomUUID();
+        given(walletService.getTransactions(id, 10L, 20)).willReturn(new TransactionPage(List.of(
+                new Transaction("1700000000000-0", Transaction.Type.DEBIT, new BigDecimal("1.50"), new BigDecimal("8.61"), null, Instant.ofEpochMilli(1700000000000L))), 9L));
+
+        mvc.perform(get("/api/wallet/{id}/transactions", id).header("X-API-KEY", AUTH_TOKEN).param("before", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactions[0].type").value("DEBIT"))
+                .andExpect(jsonPath("$.transactions[0].amount").value(1.5))
+                .andExpect(jsonPath("$.transactions[0].balance").value(8.61))
+                .andExpect(jsonPath("$.transactions[0].idempotencyKey").doesNotExist())
+                .andExpect(jsonPath("$.next").value(9));
+    }
+
+    @Test
+    public void getTransactionsNotFoundReturns404() throws Exception {
+        UUID id = UUID.randomUUID();
+        given(walletService.getTransactions(id, null, 20)).willReturn(null);
+
+        mvc.perform(get("/api/wallet/{id}/transactions", id).header("X-API-KEY", AUTH_TOKEN))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getWalletsHappyPath() throws Exception {
+        UUID id = UUID.randomUUID();
+        UUID missingId = UUID.randomUUID();
+        BigDecimal balance = new BigDecimal("10.11");
+        Wallet wallet = new Wallet(id, balance);
+
+        given(walletService.getWalletsByIds(List.of(id, missingId))).willReturn(List.of(
+                new WalletResult(id, WalletResult.Status.FOUND, wallet),
+                new WalletResult(missingId, WalletResult.Status.NOT_FOUND, null)));
+
+        mvc.perform(get("/api/wallet").header("X-API-KEY", AUTH_TOKEN).param("ids", id + "," + missingId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(id.toString()))
+                .andExpect(jsonPath("$[0].status").value("FOUND"))
+                .andExpect(jsonPath("$[0].wallet.balance").value(balance))
+                .andExpect(jsonPath("$[1].id").value(missingId.toString()))
+                .andExpect(jsonPath("$[1].status").value("NOT_FOUND"))
+                .andExpect(jsonPath("$[1].wallet").doesNotExist());
+    }
+
     @Test
     public void createWalletHappyPath() throws Exception {
         UUID id = UUID.randomUUID();
         UUID idem = UUID.randomUUID();
         BigDecimal balance = new BigDecimal("10.11");
         Wallet wallet = new Wallet(id, balance);
-        Idempotency idempotency = Idempotency.builder()
-                .key(idem)
-                .response(wallet)
-                .expiry(Instant.now().plus(24, ChronoUnit.HOURS))
-                .build();
 
-        given(idempotencyService.getIdempotencyById(UUID.randomUUID())).willReturn(null);
-        given(walletService.addWallet(wallet)).willReturn(wallet);
-        willDoNothing().given(idempotencyService).addIdempotency(idempotency);
+        given(walletService.addWallet(idem, wallet)).willReturn(new WalletResult(id, WalletResult.Status.CREATED, wallet));
 
         String content = mapper.writeValueAsString(wallet);
 
@@ -90,35 +165,19 @@ public class ControllerTest {
     }
 
     @Test
-    public void createWalletIdempotencyExpired() throws Exception {
-        UUID id = UUID.randomUUID();
+    public void createWalletIdempotencyInProgressReturnsConflict() throws Exception {
         UUID idem = UUID.randomUUID();
-        BigDecimal balance = new BigDecimal("10.11");
-        Wallet wallet = new Wallet(id, balance);
-        Idempotency idempotency = Idempotency.builder()
-                .key(idem)
-                .response(wallet)
-                .expiry(Instant.now().minus(48, ChronoUnit.HOURS))
-                .build();
-        Idempotency newIdempotency = Idempotency.builder()
-                .key(idem)
-                .response(wallet)
-                .expiry(Instant.now().plus(24, ChronoUnit.HOURS))
-                .build();
-
-        given(idempotencyService.getIdempotencyById(idem)).willReturn(idempotency);
-        willDoNothing().given(idempotencyService).deleteIdempotency(idempotency);
-        given(walletService.addWallet(wallet)).willReturn(wallet);
-        willDoNothing().given(idempotencyService).addIdempotency(newIdempotency);
+        Wallet wallet = new Wallet(UUID.randomUUID(), new BigDecimal("10.11"));
+
+        given(walletService.addWallet(idem, wallet))
+                .willThrow(new IdempotencyException("Request with Idempotency-Key " + idem + " is still in progress."));
 
         String content = mapper.writeValueAsString(wallet);
 
         mvc.perform(post("/api/wallet").header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idem)
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(content))
-                .andExpect(status().isCreated())
-                .andExpect(jsonPath("$.id").value(id.toString()))
-                .andExpect(jsonPath("$.balance").value(balance));
+                .andExpect(status().isConflict());
     }
 
     @Test
@@ -127,13 +186,8 @@ public class ControllerTest {
         UUID idem = UUID.randomUUID();
         BigDecimal balance = new BigDecimal("10.11");
         Wallet wallet = new Wallet(id, balance);
-        Idempotency idempotency = Idempotency.builder()
-                .key(idem)
-                .response(wallet)
-                .expiry(Instant.now().plus(10, ChronoUnit.HOURS))
-                .build();
 
-        given(idempotencyService.getIdempotencyById(idem)).willReturn(idempotency);
+        given(walletService.addWallet(idem, wallet)).willReturn(new WalletResult(id, WalletResult.Status.REPLAYED, wallet));
 
         String content = mapper.writeValueAsString(wallet);
 
@@ -151,19 +205,15 @@ public class ControllerTest {
         UUID idem = UUID.randomUUID();
         BigDecimal balance = new BigDecimal("10.11");
         BigDecimal amount = new BigDecimal("20.22");
-        Wallet wallet = new Wallet(id, balance);
         Wallet updatedWallet = new Wallet(id, balance.add(amount));
 
-        given(idempotencyService.getIdempotencyById(UUID.randomUUID())).willReturn(null);
-        given(walletService.addFundsById(id, amount)).willReturn(updatedWallet);
-
-        String content = mapper.writeValueAsString(wallet);
+        given(walletService.updateBalance(idem, id, true, amount))
+                .willReturn(new WalletResult(id, WalletResult.Status.UPDATED, updatedWallet));
 
         mvc.perform(patch("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idem)
                         .contentType(MediaType.APPLICATION_JSON)
                         .param("isAddingFunds", "true")
-                        .param("amount", amount.toString())
-                        .content(content))
+                        .param("amount", amount.toString()))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.id").value(id.toString()))
                 .andExpect(jsonPath("$.balance").value(updatedWallet.getBalance()));
@@ -173,20 +223,15 @@ public class ControllerTest {
     public void addFundsNotFoundReturns404() throws Exception {
         UUID id = UUID.randomUUID();
         UUID idem = UUID.randomUUID();
-        BigDecimal balance = new BigDecimal("10.11");
         BigDecimal amount = new BigDecimal("20.22");
-        Wallet wallet = new Wallet(id, balance);
-
-        given(idempotencyService.getIdempotencyById(UUID.randomUUID())).willReturn(null);
-        given(walletService.addFundsById(id, amount)).willReturn(null);
 
-        String content = mapper.writeValueAsString(wallet);
+        given(walletService.updateBalance(idem, id, true, amount))
+                .willReturn(new WalletResult(id, WalletResult.Status.NOT_FOUND, null));
 
         mvc.perform(patch("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idem)
                         .contentType(MediaType.APPLICATION_JSON)
                         .param("isAddingFunds", "true")
-                        .param("amount", amount.toString())
-                        .content(content))
+                        .param("amount", amount.toString()))
                 .andExpect(status().isNotFound());
     }
 
@@ -196,19 +241,15 @@ public class ControllerTest {
         UUID idem = UUID.randomUUID();
         BigDecimal balance = new BigDecimal("10.11");
         BigDecimal amount = new BigDecimal("1.02");
-        Wallet wallet = new Wallet(id, balance);
         Wallet updatedWallet = new Wallet(id, balance.subtract(amount));
 
-        given(idempotencyService.getIdempotencyById(UUID.randomUUID())).willReturn(null);
-        given(walletService.removeFundsById(id, amount)).willReturn(updatedWallet);
-
-        String content = mapper.writeValueAsString(wallet);
+        given(walletService.updateBalance(idem, id, false, amount))
+                .willReturn(new WalletResult(id, WalletResult.Status.UPDATED, updatedWallet));
 
         mvc.perform(patch("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idem)
                         .contentType(MediaType.APPLICATION_JSON)
                         .param("isAddingFunds", "false")
-                        .param("amount", amount.toString())
-                        .content(content))
+                        .param("amount", amount.toString()))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.id").value(id.toString()))
                 .andExpect(jsonPath("$.balance").value(updatedWallet.getBalance()));
@@ -218,57 +259,48 @@ public class ControllerTest {
     public void removeFundsNotFoundReturns404() throws Exception {
         UUID id = UUID.randomUUID();
         UUID idem = UUID.randomUUID();
-        BigDecimal balance = new BigDecimal("10.11");
         BigDecimal amount = new BigDecimal("20.22");
-        Wallet wallet = new Wallet(id, balance);
 
-        given(idempotencyService.getIdempotencyById(UUID.randomUUID())).willReturn(null);
-        given(walletService.removeFundsById(id, amount)).willReturn(null);
-
-        String content = mapper.writeValueAsString(wallet);
+        given(walletService.updateBalance(idem, id, false, amount))
+                .willReturn(new WalletResult(id, WalletResult.Status.NOT_FOUND, null));
 
         mvc.perform(patch("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idem)
                         .contentType(MediaType.APPLICATION_JSON)
                         .param("isAddingFunds", "false")
-                        .param("amount", amount.toString())
-                        .content(content))
+                        .param("amount", amount.toString()))
                 .andExpect(status().isNotFound());
     }
 
     @Test
-    public void updateFundsIdempotencyExpired() throws Exception {
+    public void removeFundsInsufficientBalanceReturnsBadRequest() throws Exception {
         UUID id = UUID.randomUUID();
         UUID idem = UUID.randomUUID();
-        BigDecimal balance = new BigDecimal("10.11");
         BigDecimal amount = new BigDecimal("20.22");
-        Wallet wallet = new Wallet(id, balance);
-        Wallet updatedWallet = new Wallet(id, balance.add(amount));
-        Idempotency idempotency = Idempotency.builder()
-                .key(idem)
-                .response(wallet)
-                .expiry(Instant.now().minus(48, ChronoUnit.HOURS))
-                .build();
-        Idempotency newIdempotency = Idempotency.builder()
-                .key(idem)
-                .response(wallet)
-                .expiry(Instant.now().plus(24, ChronoUnit.HOURS))
-                .build();
-
-        given(idempotencyService.getIdempotencyById(idem)).willReturn(idempotency);
-        willDoNothing().given(idempotencyService).deleteIdempotency(idempotency);
-        given(walletService.addFundsById(id, amount)).willReturn(updatedWallet);
-        willDoNothing().given(idempotencyService).addIdempotency(newIdempotency);
 
-        String content = mapper.writeValueAsString(wallet);
+        given(walletService.updateBalance(idem, id, false, amount))
+                .willThrow(new WalletException("Amount to subtract from Wallet ID " + id + " is greater than wallet balance!"));
+
+        mvc.perform(patch("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idem)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .param("isAddingFunds", "false")
+                        .param("amount", amount.toString()))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void updateFundsIdempotencyInProgressReturnsConflict() throws Exception {
+        UUID id = UUID.randomUUID();
+        UUID idem = UUID.randomUUID();
+        BigDecimal amount = new BigDecimal("20.22");
+
+        given(walletService.updateBalance(idem, id, true, amount))
+                .willThrow(new IdempotencyException("Request with Idempotency-Key " + idem + " is still in progress."));
 
         mvc.perform(patch("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idem)
                         .contentType(MediaType.APPLICATION_JSON)
                         .param("isAddingFunds", "true")
-                        .param("amount", amount.toString())
-                        .content(content))
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$.id").value(id.toString()))
-                .andExpect(jsonPath("$.balance").value(updatedWallet.getBalance()));
+                        .param("amount", amount.toString()))
+                .andExpect(status().isConflict());
     }
 
     @Test
@@ -277,23 +309,15 @@ public class ControllerTest {
         UUID idem = UUID.randomUUID();
         BigDecimal balance = new BigDecimal("10.11");
         BigDecimal amount = new BigDecimal("1.02");
-        Wallet wallet = new Wallet(id, balance);
         Wallet updatedWallet = new Wallet(id, balance.subtract(amount));
-        Idempotency idempotency = Idempotency.builder()
-                .key(idem)
-                .response(updatedWallet)
-                .expiry(Instant.now().plus(10, ChronoUnit.HOURS))
-                .build();
-
-        given(idempotencyService.getIdempotencyById(idem)).willReturn(idempotency);
 
-        String content = mapper.writeValueAsString(wallet);
+        given(walletService.updateBalance(idem, id, false, amount))
+                .willReturn(new WalletResult(id, WalletResult.Status.REPLAYED, updatedWallet));
 
         mvc.perform(patch("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idem)
                         .contentType(MediaType.APPLICATION_JSON)
                         .param("isAddingFunds", "false")
-                        .param("amount", amount.toString())
-                        .content(content))
+                        .param("amount", amount.toString()))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.id").value(id.toString()))
                 .andExpect(jsonPath("$.balance").value(updatedWallet.getBalance()));
@@ -320,4 +344,106 @@ public class ControllerTest {
                         .content(content))
                 .andExpect(status().isBadRequest());
     }
+
+    @Test
+    public void updateBalancesHappyPath() throws Exception {
+        UUID id = UUID.randomUUID();
+        UUID missingId = UUID.randomUUID();
+        Wallet updatedWallet = new Wallet(id, new BigDecimal("10.12"));
+        List<BalanceChange> changes = List.of(
+                new BalanceChange(UUID.randomUUID(), id, true, new BigDecimal("0.01")),
+                new BalanceChange(UUID.randomUUID(), missingId, false, new BigDecimal("0.01")));
+
+        given(walletService.updateBalances(anyList())).willReturn(List.of(
+                new WalletResult(id, WalletResult.Status.UPDATED, updatedWallet),
+                new WalletResult(missingId, WalletResult.Status.NOT_FOUND, null)));
+
+        mvc.perform(patch("/api/wallet/batch").header("X-API-KEY", AUTH_TOKEN)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(changes)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("UPDATED"))
+                .andExpect(jsonPath("$[0].wallet.balance").value(updatedWallet.getBalance()))
+                .andExpect(jsonPath("$[1].id").value(missingId.toString()))
+                .andExpect(jsonPath("$[1].status").value("NOT_FOUND"))
+                .andExpect(jsonPath("$[1].wallet").doesNotExist());
+    }
+
+    @Test
+    public void updateBalancesMissingIdempotencyKeyReturnsBadRequest() throws Exception {
+        List<BalanceChange> changes = List.of(new BalanceChange(null, UUID.randomUUID(), true, new BigDecimal("0.01")));
+
+        mvc.perform(patch("/api/wallet/batch").header("X-API-KEY", AUTH_TOKEN)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(changes)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void createWalletsHappyPath() throws Exception {
+        UUID idempotencyKey = UUID.randomUUID();
+        Wallet wallet = new Wallet(UUID.randomUUID(), new BigDecimal("10.11"));
+
+        given(walletService.addWallets(any(), anyList()))
+                .willReturn(List.of(new WalletResult(wallet.getId(), WalletResult.Status.CREATED, null)));
+
+        mvc.perform(post("/api/wallet/batch").header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(List.of(wallet))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(wallet.getId().toString()))
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andExpect(jsonPath("$[0].wallet").doesNotExist());
+    }
+
+    @Test
+    public void createWalletsNegativeBalanceReturnsBadRequest() throws Exception {
+        Wallet wallet = new Wallet(UUID.randomUUID(), new BigDecimal("-22.22"));
+
+        mvc.perform(post("/api/wallet/batch").header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", UUID.randomUUID())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(List.of(wallet))))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void transferHappyPath() throws Exception {
+        UUID idempotencyKey = UUID.randomUUID();
+        Wallet from = new Wallet(UUID.randomUUID(), new BigDecimal("10.10"));
+        Wallet to = new Wallet(UUID.randomUUID(), new BigDecimal("0.01"));
+        Transfer transfer = new Transfer(from.getId(), to.getId(), new BigDecimal("0.01"));
+
+        given(walletService.transfer(idempotencyKey, from.getId(), to.getId(), transfer.getAmount()))
+                .willReturn(new TransferResult(WalletResult.Status.UPDATED, null, from, to));
+
+        mvc.perform(post("/api/wallet/transfer").header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(transfer)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.from.balance").value(from.getBalance()))
+                .andExpect(jsonPath("$.to.balance").value(to.getBalance()));
+    }
+
+    @Test
+    public void transferWalletNotFoundReturns404() throws Exception {
+        UUID idempotencyKey = UUID.randomUUID();
+        Transfer transfer = new Transfer(UUID.randomUUID(), UUID.randomUUID(), new BigDecimal("0.01"));
+
+        given(walletService.transfer(idempotencyKey, transfer.getFromWalletId(), transfer.getToWalletId(), transfer.getAmount()))
+                .willReturn(new TransferResult(WalletResult.Status.NOT_FOUND, transfer.getToWalletId(), null, null));
+
+        mvc.perform(post("/api/wallet/transfer").header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(transfer)))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void redisUnavailableReturns503() throws Exception {
+        UUID id = UUID.randomUUID();
+        given(walletService.getWalletById(id, null)).willThrow(new RedisConnectionFailureException("Could not get a resource from the pool"));
+
+        mvc.perform(get("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable());
+    }
 }
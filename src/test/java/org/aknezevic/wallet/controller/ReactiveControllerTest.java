@@ -0,0 +1,121 @@
+package org.aknezevic.wallet.controller;
+
+import org.aknezevic.wallet.exception.IdempotencyException;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.service.ReactiveWalletService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.mockito.BDDMockito.given;
+
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+public class ReactiveControllerTest {
+    @Autowired
+    private WebTestClient client;
+    @MockBean
+    ReactiveWalletService walletService;
+
+    @Value("${auth.token}")
+    private String AUTH_TOKEN;
+
+    @Test
+    public void getWalletHappyPath() {
+        UUID id = UUID.randomUUID();
+        BigDecimal balance = new BigDecimal("10.11");
+
+        given(walletService.getWalletById(id, null)).willReturn(Mono.just(new Wallet(id, balance)));
+
+        client.get().uri("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(id.toString())
+                .jsonPath("$.balance").isEqualTo(balance);
+    }
+
+    @Test
+    public void getWalletMatchingETagReturns304() {
+        UUID id = UUID.randomUUID();
+
+        given(walletService.getWalletById(id, null)).willReturn(Mono.just(new Wallet(id, new BigDecimal("10.11"), 5L)));
+
+        client.get().uri("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN).header("If-None-Match", "\"5\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals("ETag", "\"5\"")
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    public void getWalletNotFoundReturns404() {
+        UUID id = UUID.randomUUID();
+
+        given(walletService.getWalletById(id, null)).willReturn(Mono.empty());
+
+        client.get().uri("/api/wallet/{id}", id).header("X-API-KEY", AUTH_TOKEN)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void missingApiKeyReturns401() {
+        client.get().uri("/api/wallet/{id}", UUID.randomUUID())
+                .exchange()
+                .expectStatus().isUnauthorized();
+    }
+
+    @Test
+    public void createWalletHappyPath() {
+        UUID idempotencyKey = UUID.randomUUID();
+        Wallet wallet = new Wallet(UUID.randomUUID(), new BigDecimal("10.11"));
+
+        given(walletService.addWallet(idempotencyKey, wallet))
+                .willReturn(Mono.just(new WalletResult(wallet.getId(), WalletResult.Status.CREATED, wallet)));
+
+        client.post().uri("/api/wallet").header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idempotencyKey.toString())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(wallet)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(wallet.getId().toString());
+    }
+
+    @Test
+    public void negativeBalanceReturnsBadRequest() {
+        Wallet wallet = new Wallet(UUID.randomUUID(), new BigDecimal("-22.22"));
+
+        client.post().uri("/api/wallet").header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", UUID.randomUUID().toString())
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(wallet)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void updateBalanceInProgressReturns409() {
+        UUID idempotencyKey = UUID.randomUUID();
+        UUID id = UUID.randomUUID();
+        BigDecimal amount = new BigDecimal("0.01");
+
+        given(walletService.updateBalance(idempotencyKey, id, true, amount))
+                .willReturn(Mono.error(new IdempotencyException("Request with Idempotency-Key " + idempotencyKey + " is still in progress.")));
+
+        client.patch().uri("/api/wallet/{id}?isAddingFunds=true&amount=0.01", id)
+                .header("X-API-KEY", AUTH_TOKEN).header("Idempotency-Key", idempotencyKey.toString())
+                .exchange()
+                .expectStatus().isEqualTo(409);
+    }
+}
@@ -0,0 +1,79 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.exception.WalletException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+
+public class BalanceCodecTest {
+
+    @Test
+    public void decimalStorageRoundTripsPlainStrings() {
+        BalanceCodec codec = codec("decimal", 2);
+
+        Assertions.assertEquals("10.11", codec.encode(new BigDecimal("10.11")));
+        Assertions.assertEquals("100", codec.encode(new BigDecimal("1E+2")));
+        Assertions.assertEquals(new BigDecimal("10.110"), codec.decode(codec.encode(new BigDecimal("10.110"))));
+    }
+
+    @Test
+    public void decimalStorageAcceptsAnyScale() {
+        BalanceCodec codec = codec("decimal", 2);
+
+        Assertions.assertDoesNotThrow(() -> codec.validate(new BigDecimal("0.001")));
+        Assertions.assertEquals("0.001", codec.encode(new BigDecimal("0.001")));
+    }
+
+    @Test
+    public void minorUnitsRoundTrip() {
+        BalanceCodec codec = codec("minor-units", 2);
+
+        Assertions.assertEquals("1011", codec.encode(new BigDecimal("10.11")));
+        Assertions.assertEquals("1000", codec.encode(new BigDecimal("10")));
+        Assertions.assertEquals("0", codec.encode(BigDecimal.ZERO));
+        Assertions.assertEquals(new BigDecimal("10.11"), codec.decode("1011"));
+        Assertions.assertEquals(new BigDecimal("10.00"), codec.decode(codec.encode(new BigDecimal("10"))));
+    }
+
+    @Test
+    public void minorUnitsAtScaleZero() {
+        BalanceCodec codec = codec("minor-units", 0);
+
+        Assertions.assertEquals("42", codec.encode(new BigDecimal("42")));
+        Assertions.assertEquals(new BigDecimal("42"), codec.decode("42"));
+        Assertions.assertThrows(WalletException.class, () -> codec.validate(new BigDecimal("0.5")));
+    }
+
+    @Test
+    public void minorUnitsAcceptTrailingZerosBeyondScale() {
+        BalanceCodec codec = codec("minor-units", 2);
+
+        Assertions.assertDoesNotThrow(() -> codec.validate(new BigDecimal("1.2300")));
+        Assertions.assertEquals("123", codec.encode(new BigDecimal("1.2300")));
+    }
+
+    @Test
+    public void minorUnitsRejectExcessPrecision() {
+        BalanceCodec codec = codec("minor-units", 2);
+
+        Assertions.assertThrows(WalletException.class, () -> codec.validate(new BigDecimal("0.001")));
+        Assertions.assertThrows(WalletException.class, () -> codec.encode(new BigDecimal("10.111")));
+    }
+
+    @Test
+    public void minorUnitsRejectValuesBeyondLongRange() {
+        BalanceCodec codec = codec("minor-units", 2);
+
+        Assertions.assertThrows(WalletException.class, () -> codec.validate(new BigDecimal("92233720368547758.08")));
+        Assertions.assertDoesNotThrow(() -> codec.validate(new BigDecimal("92233720368547758.07")));
+    }
+
+    private static BalanceCodec codec(String storage, int scale) {
+        BalanceCodec codec = new BalanceCodec();
+        ReflectionTestUtils.setField(codec, "storage", storage);
+        ReflectionTestUtils.setField(codec, "scale", scale);
+        return codec;
+    }
+}
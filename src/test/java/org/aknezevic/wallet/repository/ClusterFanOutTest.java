@@ -0,0 +1,101 @@
+package org.aknezevic.wallet.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+public class ClusterFanOutTest {
+
+    private static final List<String> CLUSTER_NODES = List.of("localhost:7001", "localhost:7002", "localhost:7003");
+
+    private final ClusterFanOut clusterFanOut = new ClusterFanOut();
+
+    @AfterEach
+    public void tearDown() {
+        clusterFanOut.close();
+    }
+
+    @Test
+    public void singleInstanceRunsOnePipeline() {
+        init(List.of());
+        List<UUID> ids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        List<List<UUID>> parts = Collections.synchronizedList(new ArrayList<>());
+
+        List<String> results = clusterFanOut.execute(ids, id -> id, recording(parts));
+
+        Assertions.assertEquals(List.of(ids), parts);
+        Assertions.assertEquals(ids.stream().map(UUID::toString).toList(), results);
+    }
+
+    @Test
+    public void clusterSplitsItemsByShardAndKeepsTheirOrder() {
+        KeySharding keySharding = init(CLUSTER_NODES);
+        UUID first = UUID.randomUUID();
+        UUID second = KeyShardingTest.walletInOtherShard(keySharding, first);
+        UUID third = UUID.randomUUID();
+        while (keySharding.shard(third) != keySharding.shard(first)) {
+            third = UUID.randomUUID();
+        }
+        List<UUID> ids = List.of(first, second, third);
+        List<List<UUID>> parts = Collections.synchronizedList(new ArrayList<>());
+
+        List<String> results = clusterFanOut.execute(ids, id -> id, recording(parts));
+
+        Assertions.assertEquals(2, parts.size());
+        Assertions.assertTrue(parts.contains(List.of(first, third)));
+        Assertions.assertTrue(parts.contains(List.of(second)));
+        Assertions.assertEquals(ids.stream().map(UUID::toString).toList(), results);
+    }
+
+    @Test
+    public void clusterRunsItemsOfOneShardAsOnePipeline() {
+        KeySharding keySharding = init(CLUSTER_NODES);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        while (keySharding.shard(second) != keySharding.shard(first)) {
+            second = UUID.randomUUID();
+        }
+        List<List<UUID>> parts = Collections.synchronizedList(new ArrayList<>());
+
+        clusterFanOut.execute(List.of(first, second), id -> id, recording(parts));
+
+        Assertions.assertEquals(List.of(List.of(first, second)), parts);
+    }
+
+    @Test
+    public void failedPartFailsTheOperation() {
+        KeySharding keySharding = init(CLUSTER_NODES);
+        UUID first = UUID.randomUUID();
+        List<UUID> ids = List.of(first, KeyShardingTest.walletInOtherShard(keySharding, first));
+
+        Assertions.assertThrows(QueryTimeoutException.class, () -> clusterFanOut.execute(ids, id -> id, part -> {
+            if (part.contains(first)) {
+                throw new QueryTimeoutException("Redis command timed out");
+            }
+            return part.stream().map(UUID::toString).toList();
+        }));
+    }
+
+    private KeySharding init(List<String> clusterNodes) {
+        KeySharding keySharding = KeyShardingTest.keySharding(true, clusterNodes);
+        ReflectionTestUtils.setField(clusterFanOut, "keySharding", keySharding);
+        ReflectionTestUtils.setField(clusterFanOut, "threads", 4);
+        clusterFanOut.init();
+        return keySharding;
+    }
+
+    private static Function<List<UUID>, List<String>> recording(List<List<UUID>> parts) {
+        return part -> {
+            parts.add(part);
+            return part.stream().map(UUID::toString).toList();
+        };
+    }
+}
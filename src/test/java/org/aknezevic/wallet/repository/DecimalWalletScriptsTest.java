@@ -0,0 +1,112 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+public class DecimalWalletScriptsTest extends RedisScriptTest {
+
+    private static final Instant EXPIRY = Instant.now().plus(24, ChronoUnit.HOURS);
+
+    private UUID id;
+
+    @BeforeEach
+    public void setUp() {
+        useCodec("decimal", 2);
+
+        id = UUID.randomUUID();
+        create(new Wallet(id, new BigDecimal("10.11")));
+    }
+
+    @Test
+    public void creditKeepsEveryFractionDigit() {
+        WalletResult result = update(id, new BigDecimal("0.005"), true);
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, result.getStatus());
+        Assertions.assertEquals(new BigDecimal("10.115"), result.getWallet().getBalance());
+        Assertions.assertEquals("10.115", balance(id));
+    }
+
+    @Test
+    public void debitOfWholeBalanceLeavesZero() {
+        WalletResult result = update(id, new BigDecimal("10.11"), false);
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, result.getStatus());
+        Assertions.assertEquals("0.00", balance(id));
+    }
+
+    @Test
+    public void debitAboveBalanceIsInsufficientFunds() {
+        WalletResult result = update(id, new BigDecimal("10.111"), false);
+
+        Assertions.assertEquals(WalletResult.Status.INSUFFICIENT_FUNDS, result.getStatus());
+        Assertions.assertEquals("10.11", balance(id));
+    }
+
+    @Test
+    public void amountThatCannotBeScaledExactlyIsRejected() {
+        UUID large = UUID.randomUUID();
+        create(new Wallet(large, new BigDecimal("1234567890.12")));
+
+        WalletResult result = update(large, new BigDecimal("0.0000001"), true);
+
+        Assertions.assertEquals(WalletResult.Status.INVALID_AMOUNT, result.getStatus());
+        Assertions.assertEquals("1234567890.12", balance(large));
+        Assertions.assertEquals("1", redisTemplate.opsForHash().get(keySharding.wallet(large), "version"));
+    }
+
+    @Test
+    public void resultFromTwoToThePowerOf53IsRejected() {
+        UUID large = UUID.randomUUID();
+        create(new Wallet(large, new BigDecimal("90071992547409.90")));
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, update(large, new BigDecimal("0.01"), true).getStatus());
+        WalletResult result = update(large, new BigDecimal("0.01"), true);
+
+        Assertions.assertEquals(WalletResult.Status.INVALID_AMOUNT, result.getStatus());
+        Assertions.assertEquals("90071992547409.91", balance(large));
+    }
+
+    @Test
+    public void transferMovesFundsAtomically() {
+        UUID toId = UUID.randomUUID();
+        create(new Wallet(toId, new BigDecimal("0.5")));
+
+        List<?> reply = execute(WalletScripts.TRANSFER_IDEMPOTENT, WalletScripts.TRANSFER_IDEMPOTENT_KEYS,
+                WalletScripts.transferKeysAndArgs(balanceCodec, keySharding, UUID.randomUUID(), id, toId,
+                        new BigDecimal("1.015"), EXPIRY));
+        TransferResult result = WalletScripts.toTransferResult(balanceCodec, reply);
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, result.getStatus());
+        Assertions.assertEquals(new BigDecimal("9.095"), result.getFrom().getBalance());
+        Assertions.assertEquals(new BigDecimal("1.515"), result.getTo().getBalance());
+        Assertions.assertEquals("9.095", balance(id));
+        Assertions.assertEquals("1.515", balance(toId));
+    }
+
+    private void create(Wallet wallet) {
+        execute(WalletScripts.CREATE_WALLET_IDEMPOTENT, WalletScripts.CREATE_IDEMPOTENT_KEYS,
+                WalletScripts.createKeysAndArgs(balanceCodec, keySharding, UUID.randomUUID(), wallet, EXPIRY));
+    }
+
+    private WalletResult update(UUID walletId, BigDecimal amount, boolean isAddingFunds) {
+        List<?> reply = execute(WalletScripts.UPDATE_BALANCE_IDEMPOTENT, WalletScripts.UPDATE_IDEMPOTENT_KEYS,
+                WalletScripts.updateKeysAndArgs(balanceCodec, keySharding, UUID.randomUUID(), walletId, amount,
+                        isAddingFunds, EXPIRY));
+
+        return WalletScripts.toResult(balanceCodec, walletId, reply);
+    }
+
+    private String balance(UUID walletId) {
+        return (String) redisTemplate.opsForHash().get(keySharding.wallet(walletId), "balance");
+    }
+}
@@ -0,0 +1,273 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class IdempotencyRecordsTest extends RedisScriptTest {
+
+    private static final Instant EXPIRY = Instant.now().plus(24, ChronoUnit.HOURS).truncatedTo(ChronoUnit.SECONDS);
+
+    @Test
+    public void minorUnitsAtScaleTwoRoundTripPacked() {
+        assertPackedRoundTrip(new BigDecimal("10.11"));
+    }
+
+    @Test
+    public void minorUnitsAtScaleZeroRoundTripPacked() {
+        useCodec("minor-units", 0);
+
+        assertPackedRoundTrip(new BigDecimal("42"));
+    }
+
+    @Test
+    public void decimalAtScaleTwoRoundTripsPacked() {
+        useCodec("decimal", 2);
+
+        assertPackedRoundTrip(new BigDecimal("10.11"));
+    }
+
+    @Test
+    public void zeroBalanceRoundTripsPacked() {
+        assertPackedRoundTrip(new BigDecimal("0.00"));
+
+        useCodec("decimal", 2);
+        assertPackedRoundTrip(new BigDecimal("0.00"));
+    }
+
+    @Test
+    public void largestExactBalanceRoundTripsPacked() {
+        useCodec("minor-units", 0);
+
+        assertPackedRoundTrip(new BigDecimal("9007199254740991"));
+    }
+
+    @Test
+    public void balanceFromTwoToThePowerOf53IsStoredAsString() {
+        useCodec("minor-units", 0);
+        assertStringRoundTrip(new BigDecimal("9007199254740992"));
+
+        useCodec("decimal", 2);
+        assertStringRoundTrip(new BigDecimal("90071992547409.93"));
+    }
+
+    @Test
+    public void legacyStringRecordIsRead() {
+        UUID key = UUID.randomUUID();
+        UUID id = UUID.randomUUID();
+        redisTemplate.opsForHash().putAll(keySharding.idempotency(key), Map.of(
+                IdempotencyRecords.ID_FIELD, id.toString(),
+                IdempotencyRecords.BALANCE_FIELD, "1011",
+                IdempotencyRecords.EXPIRY_FIELD, String.valueOf(EXPIRY.getEpochSecond())));
+
+        Idempotency record = read(key);
+
+        Assertions.assertEquals(new Wallet(id, new BigDecimal("10.11")), record.getResponse());
+        Assertions.assertEquals(EXPIRY, record.getExpiry());
+    }
+
+    @Test
+    public void legacyStringRecordIsReplayedByUpdate() {
+        UUID key = UUID.randomUUID();
+        UUID id = UUID.randomUUID();
+        redisTemplate.opsForHash().putAll(keySharding.wallet(id), Map.of("balance", "2000", "version", "3"));
+        redisTemplate.opsForHash().putAll(keySharding.idempotency(id, key), Map.of(
+                IdempotencyRecords.ID_FIELD, id.toString(),
+                IdempotencyRecords.BALANCE_FIELD, "1011",
+                IdempotencyRecords.EXPIRY_FIELD, String.valueOf(EXPIRY.getEpochSecond())));
+
+        List<?> reply = execute(WalletScripts.UPDATE_BALANCE_IDEMPOTENT, WalletScripts.UPDATE_IDEMPOTENT_KEYS,
+                WalletScripts.updateKeysAndArgs(balanceCodec, keySharding, key, id, new BigDecimal("1.00"), true, EXPIRY));
+        WalletResult result = WalletScripts.toResult(balanceCodec, id, reply);
+
+        Assertions.assertEquals(WalletResult.Status.REPLAYED, result.getStatus());
+        Assertions.assertEquals(new BigDecimal("10.11"), result.getWallet().getBalance());
+        Assertions.assertEquals("2000", redisTemplate.opsForHash().get(keySharding.wallet(id), "balance"));
+        Assertions.assertTrue(redisTemplate.getExpire(keySharding.idempotency(id, key)) > 0);
+    }
+
+    @Test
+    public void transferCounterpartyRoundTripsPacked() {
+        UUID fromId = UUID.randomUUID();
+        UUID toId = UUID.randomUUID();
+        redisTemplate.opsForHash().putAll(keySharding.wallet(fromId), Map.of("balance", "1011", "version", "1"));
+        redisTemplate.opsForHash().putAll(keySharding.wallet(toId), Map.of("balance", "0", "version", "1"));
+        UUID key = UUID.randomUUID();
+
+        execute(WalletScripts.TRANSFER_IDEMPOTENT, WalletScripts.TRANSFER_IDEMPOTENT_KEYS, WalletScripts.transferKeysAndArgs(
+                balanceCodec, keySharding, key, fromId, toId, new BigDecimal("1.00"), EXPIRY));
+        List<?> reply = execute(WalletScripts.TRANSFER_IDEMPOTENT, WalletScripts.TRANSFER_IDEMPOTENT_KEYS, WalletScripts.transferKeysAndArgs(
+                balanceCodec, keySharding, key, fromId, toId, new BigDecimal("1.00"), EXPIRY));
+        TransferResult result = WalletScripts.toTransferResult(balanceCodec, reply);
+
+        Assertions.assertEquals(WalletResult.Status.REPLAYED, result.getStatus());
+        Assertions.assertEquals(new Wallet(fromId, new BigDecimal("9.11")), result.getFrom());
+        Assertions.assertEquals(new Wallet(toId, new BigDecimal("1.00")), result.getTo());
+        Assertions.assertFalse(redisTemplate.opsForHash().hasKey(keySharding.idempotency(fromId, key), "to_balance"));
+    }
+
+    @Test
+    public void expiredLeaseLeavesClaimOfRetryAlone() {
+        UUID key = UUID.randomUUID();
+        UUID expired = UUID.randomUUID();
+        UUID retry = UUID.randomUUID();
+        List<WalletResult> results = List.of(new WalletResult(UUID.randomUUID(), WalletResult.Status.CREATED, null));
+
+        Assertions.assertTrue(claim(key, expired).isEmpty());
+        redisTemplate.delete(keySharding.idempotency(key));
+        Assertions.assertTrue(claim(key, retry).isEmpty());
+
+        Assertions.assertEquals(0L, execute(IdempotencyRecords.RENEW_SCRIPT, 1, new String[]{
+                keySharding.idempotency(key), expired.toString(), String.valueOf(EXPIRY.getEpochSecond())}));
+        Assertions.assertEquals(0L, execute(IdempotencyRecords.COMPLETE_SCRIPT, 1, completeKeysAndArgs(key, expired, results)));
+        Assertions.assertEquals(0L, execute(IdempotencyRecords.RELEASE_SCRIPT, 1, new String[]{
+                keySharding.idempotency(key), expired.toString()}));
+        Assertions.assertEquals(retry.toString(),
+                redisTemplate.opsForHash().get(keySharding.idempotency(key), IdempotencyRecords.OWNER_FIELD));
+        Assertions.assertNull(read(key).getResults());
+
+        Assertions.assertEquals(1L, execute(IdempotencyRecords.COMPLETE_SCRIPT, 1, completeKeysAndArgs(key, retry, results)));
+        Assertions.assertEquals(results, read(key).getResults());
+        Assertions.assertFalse(redisTemplate.opsForHash().hasKey(keySharding.idempotency(key), IdempotencyRecords.OWNER_FIELD));
+        Assertions.assertTrue(redisTemplate.getExpire(keySharding.idempotency(key)) > 3600);
+    }
+
+    @Test
+    public void renewExtendsLeaseOfOwner() {
+        UUID key = UUID.randomUUID();
+        UUID owner = UUID.randomUUID();
+        claim(key, owner);
+
+        Assertions.assertEquals(1L, execute(IdempotencyRecords.RENEW_SCRIPT, 1, new String[]{
+                keySharding.idempotency(key), owner.toString(), String.valueOf(EXPIRY.getEpochSecond())}));
+        Assertions.assertTrue(redisTemplate.getExpire(keySharding.idempotency(key)) > 3600);
+        Assertions.assertEquals(1L, execute(IdempotencyRecords.RELEASE_SCRIPT, 1, new String[]{
+                keySharding.idempotency(key), owner.toString()}));
+        Assertions.assertFalse(redisTemplate.hasKey(keySharding.idempotency(key)));
+    }
+
+    @Test
+    public void keyIsReservedForOneWalletOnly() {
+        ReflectionTestUtils.setField(keySharding, "hashTags", true);
+        UUID key = UUID.randomUUID();
+        UUID id = UUID.randomUUID();
+
+        Assertions.assertTrue(reserve(key, id));
+        Assertions.assertTrue(reserve(key, id));
+        Assertions.assertFalse(reserve(key, UUID.randomUUID()));
+        Assertions.assertTrue(redisTemplate.getExpire(keySharding.idempotencyWallet(key)) > 3600);
+    }
+
+    @Test
+    public void keyOfBatchCannotBeReserved() {
+        ReflectionTestUtils.setField(keySharding, "hashTags", true);
+        UUID pending = UUID.randomUUID();
+        UUID completed = UUID.randomUUID();
+        UUID owner = UUID.randomUUID();
+
+        claim(pending, owner);
+        claim(completed, owner);
+        execute(IdempotencyRecords.COMPLETE_SCRIPT, 1, completeKeysAndArgs(completed, owner,
+                List.of(new WalletResult(UUID.randomUUID(), WalletResult.Status.CREATED, null))));
+
+        Assertions.assertFalse(reserve(pending, UUID.randomUUID()));
+        Assertions.assertFalse(reserve(completed, UUID.randomUUID()));
+    }
+
+    @Test
+    public void batchClaimOfReservedKeyReturnsItsWallet() {
+        ReflectionTestUtils.setField(keySharding, "hashTags", true);
+        UUID key = UUID.randomUUID();
+        UUID id = UUID.randomUUID();
+        reserve(key, id);
+
+        Idempotency record = IdempotencyRecords.fromReply(balanceCodec, key, claim(key, UUID.randomUUID()));
+
+        Assertions.assertEquals(id, record.getResponse().getId());
+        Assertions.assertNull(record.getResults());
+        Assertions.assertFalse(redisTemplate.hasKey(keySharding.idempotency(key)));
+    }
+
+    private void assertPackedRoundTrip(BigDecimal balance) {
+        UUID key = UUID.randomUUID();
+        Wallet response = new Wallet(UUID.randomUUID(), balance);
+
+        store(key, response);
+
+        Assertions.assertFalse(redisTemplate.opsForHash().hasKey(keySharding.idempotency(key), IdempotencyRecords.ID_FIELD));
+        Assertions.assertEquals(response, IdempotencyRecords.unpackResponse(balanceCodec, readPacked(key)));
+        Idempotency record = read(key);
+        Assertions.assertEquals(response, record.getResponse());
+        Assertions.assertEquals(EXPIRY, record.getExpiry());
+    }
+
+    private void assertStringRoundTrip(BigDecimal balance) {
+        UUID key = UUID.randomUUID();
+        Wallet response = new Wallet(UUID.randomUUID(), balance);
+
+        store(key, response);
+
+        Assertions.assertFalse(redisTemplate.opsForHash().hasKey(keySharding.idempotency(key), IdempotencyRecords.PACKED_RESPONSE_FIELD));
+        Assertions.assertEquals(balanceCodec.encode(balance),
+                redisTemplate.opsForHash().get(keySharding.idempotency(key), IdempotencyRecords.BALANCE_FIELD));
+        Idempotency record = read(key);
+        Assertions.assertEquals(response, record.getResponse());
+        Assertions.assertEquals(EXPIRY, record.getExpiry());
+    }
+
+    private void store(UUID key, Wallet response) {
+        Idempotency idempotency = Idempotency.builder()
+                .key(key)
+                .response(response)
+                .expiry(EXPIRY)
+                .build();
+
+        execute(IdempotencyRecords.STORE_SCRIPT, 1, IdempotencyRecords.storeKeysAndArgs(balanceCodec, keySharding, idempotency));
+    }
+
+    private List<?> claim(UUID key, UUID owner) {
+        return execute(IdempotencyRecords.CLAIM_SCRIPT, IdempotencyRecords.CLAIM_KEYS,
+                IdempotencyRecords.claimKeysAndArgs(keySharding, key, owner, Instant.now().plusSeconds(5)));
+    }
+
+    private boolean reserve(UUID key, UUID walletId) {
+        return IdempotencyRecords.isReserved(execute(IdempotencyRecords.RESERVE_SCRIPT, IdempotencyRecords.RESERVE_KEYS,
+                IdempotencyRecords.reserveKeysAndArgs(keySharding, key, walletId, EXPIRY)));
+    }
+
+    private String[] completeKeysAndArgs(UUID key, UUID owner, List<WalletResult> results) {
+        Idempotency idempotency = Idempotency.builder()
+                .key(key)
+                .results(results)
+                .expiry(EXPIRY)
+                .build();
+
+        return IdempotencyRecords.completeKeysAndArgs(keySharding, idempotency, owner);
+    }
+
+    private Idempotency read(UUID key) {
+        List<?> reply = execute(IdempotencyRecords.READ_SCRIPT, 1, new String[]{keySharding.idempotency(key)});
+
+        return IdempotencyRecords.fromReply(balanceCodec, key, reply);
+    }
+
+    private byte[] readPacked(UUID key) {
+        byte[] hashKey = keySharding.idempotency(key).getBytes(StandardCharsets.UTF_8);
+        byte[] field = IdempotencyRecords.PACKED_RESPONSE_FIELD.getBytes(StandardCharsets.UTF_8);
+
+        return redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.hashCommands().hGet(hashKey, field));
+    }
+}
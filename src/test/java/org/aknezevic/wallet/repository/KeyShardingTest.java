@@ -0,0 +1,108 @@
+package org.aknezevic.wallet.repository;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.UUID;
+
+public class KeyShardingTest {
+
+    private static final List<String> CLUSTER_NODES = List.of("localhost:7001", "localhost:7002", "localhost:7003");
+
+    @Test
+    public void keysAreUntaggedWithoutHashTags() {
+        KeySharding keySharding = keySharding(false, List.of());
+        UUID id = UUID.randomUUID();
+        UUID key = UUID.randomUUID();
+
+        Assertions.assertEquals("wallet:" + id, keySharding.wallet(id));
+        Assertions.assertEquals("transactions:" + id, keySharding.transactions(id));
+        Assertions.assertEquals("ledger:" + keySharding.shard(id), keySharding.ledger(id));
+        Assertions.assertEquals("idempotency:" + key, keySharding.idempotency(id, key));
+        Assertions.assertFalse(keySharding.isClustered());
+    }
+
+    @Test
+    public void keysOfWalletShareItsHashTag() {
+        KeySharding keySharding = keySharding(true, List.of());
+        UUID id = UUID.randomUUID();
+        String tag = "{" + keySharding.shard(id) + "}";
+
+        Assertions.assertEquals("wallet:" + tag + ":" + id, keySharding.wallet(id));
+        Assertions.assertTrue(keySharding.transactions(id).contains(tag));
+        Assertions.assertTrue(keySharding.ledger(id).contains(tag));
+        Assertions.assertTrue(keySharding.idempotency(id, UUID.randomUUID()).contains(tag));
+        Assertions.assertTrue(keySharding.transferCredit(id, UUID.randomUUID()).contains(tag));
+        Assertions.assertTrue(keySharding.pendingTransfers(id).contains(tag));
+    }
+
+    @Test
+    public void batchKeyIsTaggedWithItsOwnShard() {
+        KeySharding keySharding = keySharding(true, List.of());
+        UUID key = UUID.randomUUID();
+
+        Assertions.assertEquals("idempotency:{" + keySharding.shard(key) + "}:" + key, keySharding.idempotency(key));
+        Assertions.assertEquals("idempotency:{" + keySharding.shard(key) + "}:" + key + ":wallet",
+                keySharding.idempotencyWallet(key));
+        Assertions.assertEquals("idempotency:" + key + ":wallet", keySharding(false, List.of()).idempotencyWallet(key));
+    }
+
+    @Test
+    public void shardIsStableAndInRange() {
+        KeySharding keySharding = keySharding(true, List.of());
+
+        for (int i = 0; i < 100; i++) {
+            UUID id = UUID.randomUUID();
+            Assertions.assertEquals(keySharding.shard(id), keySharding.shard(UUID.fromString(id.toString())));
+            Assertions.assertTrue(keySharding.shard(id) >= 0 && keySharding.shard(id) < 16);
+        }
+    }
+
+    @Test
+    public void walletsOfDifferentShardsAreCrossSlotOnlyInCluster() {
+        UUID id = UUID.randomUUID();
+        UUID otherId = walletInOtherShard(keySharding(true, List.of()), id);
+
+        Assertions.assertFalse(keySharding(true, List.of()).isCrossSlot(id, otherId));
+        Assertions.assertTrue(keySharding(true, CLUSTER_NODES).isCrossSlot(id, otherId));
+        Assertions.assertFalse(keySharding(true, CLUSTER_NODES).isCrossSlot(id, id));
+    }
+
+    @Test
+    public void clusterRequiresHashTags() {
+        Assertions.assertThrows(IllegalStateException.class, () -> keySharding(false, CLUSTER_NODES).checkClusterMode());
+        Assertions.assertDoesNotThrow(() -> keySharding(true, CLUSTER_NODES).checkClusterMode());
+    }
+
+    @Test
+    public void clusterRejectsLegacyReads() {
+        KeySharding keySharding = keySharding(true, CLUSTER_NODES);
+        ReflectionTestUtils.setField(keySharding, "readLegacy", true);
+
+        Assertions.assertThrows(IllegalStateException.class, keySharding::checkClusterMode);
+    }
+
+    @Test
+    public void blankClusterNodesAreNotACluster() {
+        Assertions.assertFalse(keySharding(true, List.of("")).isClustered());
+    }
+
+    static KeySharding keySharding(boolean hashTags, List<String> clusterNodes) {
+        KeySharding keySharding = new KeySharding();
+        ReflectionTestUtils.setField(keySharding, "shards", 16);
+        ReflectionTestUtils.setField(keySharding, "hashTags", hashTags);
+        ReflectionTestUtils.setField(keySharding, "readLegacy", false);
+        ReflectionTestUtils.setField(keySharding, "clusterNodes", clusterNodes);
+        return keySharding;
+    }
+
+    static UUID walletInOtherShard(KeySharding keySharding, UUID id) {
+        UUID otherId = UUID.randomUUID();
+        while (keySharding.shard(otherId) == keySharding.shard(id)) {
+            otherId = UUID.randomUUID();
+        }
+        return otherId;
+    }
+}
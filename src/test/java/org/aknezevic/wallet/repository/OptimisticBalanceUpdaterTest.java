@@ -0,0 +1,158 @@
+package org.aknezevic.wallet.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+public class OptimisticBalanceUpdaterTest extends RedisScriptTest {
+
+    private static final Instant EXPIRY = Instant.now().plus(24, ChronoUnit.HOURS);
+    private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+    private final OptimisticBalanceUpdater updater = new OptimisticBalanceUpdater();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger concurrentWrites = new AtomicInteger();
+    private UUID id;
+
+    @BeforeEach
+    public void setUp() {
+        // Every transaction queues its ledger entry between WATCH and EXEC, which is where another client's write
+        // to the wallet is injected, from another connection, for as many attempts as concurrentWrites allows.
+        KeySharding conflictingSharding = Mockito.spy(keySharding);
+        doAnswer(invocation -> {
+            if (concurrentWrites.getAndDecrement() > 0) {
+                CompletableFuture.runAsync(() -> redisTemplate.opsForHash().put(keySharding.wallet(id), "touched", "1")).join();
+            }
+            return invocation.callRealMethod();
+        }).when(conflictingSharding).ledger(any(UUID.class));
+
+        ReflectionTestUtils.setField(updater, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(updater, "balanceCodec", balanceCodec);
+        ReflectionTestUtils.setField(updater, "keySharding", conflictingSharding);
+        ReflectionTestUtils.setField(updater, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(updater, "enabled", true);
+        ReflectionTestUtils.setField(updater, "maxAttempts", 3);
+        ReflectionTestUtils.setField(updater, "baseBackoff", Duration.ofMillis(1));
+        ReflectionTestUtils.setField(updater, "maxBackoff", Duration.ofMillis(2));
+        updater.init();
+
+        id = UUID.randomUUID();
+        execute(WalletScripts.CREATE_WALLET, WalletScripts.CREATE_KEYS,
+                WalletScripts.createKeysAndArgs(balanceCodec, keySharding, new Wallet(id, new BigDecimal("10.11")), false));
+    }
+
+    @Test
+    public void updateIsAppliedOnce() {
+        UUID key = UUID.randomUUID();
+
+        WalletResult result = updater.updateBalance(key, id, AMOUNT, true, EXPIRY);
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, result.getStatus());
+        Assertions.assertEquals(new Wallet(id, new BigDecimal("11.11"), 2L), result.getWallet());
+        assertWallet("1111", "2", 2L);
+        Assertions.assertEquals(0.0, count("wallet.optimistic.conflicts"));
+    }
+
+    @Test
+    public void conflictingWriteIsRetried() {
+        concurrentWrites.set(1);
+        UUID key = UUID.randomUUID();
+
+        WalletResult result = updater.updateBalance(key, id, AMOUNT, true, EXPIRY);
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, result.getStatus());
+        Assertions.assertEquals(1.0, count("wallet.optimistic.conflicts"));
+        Assertions.assertEquals(1.0, count("wallet.optimistic.retries"));
+        assertWallet("1111", "2", 2L);
+        Assertions.assertTrue(redisTemplate.hasKey(keySharding.idempotency(id, key)));
+    }
+
+    @Test
+    public void conflictOnEveryAttemptIsReported() {
+        concurrentWrites.set(Integer.MAX_VALUE);
+        UUID key = UUID.randomUUID();
+
+        WalletResult result = updater.updateBalance(key, id, AMOUNT, true, EXPIRY);
+
+        Assertions.assertEquals(WalletResult.Status.CONFLICT, result.getStatus());
+        Assertions.assertEquals(3.0, count("wallet.optimistic.conflicts"));
+        Assertions.assertEquals(2.0, count("wallet.optimistic.retries"));
+        assertWallet("1011", "1", 1L);
+        Assertions.assertFalse(redisTemplate.hasKey(keySharding.idempotency(id, key)));
+    }
+
+    @Test
+    public void retriedKeyIsReplayedWithoutWriting() {
+        concurrentWrites.set(1);
+        UUID key = UUID.randomUUID();
+        updater.updateBalance(key, id, AMOUNT, true, EXPIRY);
+
+        WalletResult result = updater.updateBalance(key, id, AMOUNT, true, EXPIRY);
+
+        Assertions.assertEquals(WalletResult.Status.REPLAYED, result.getStatus());
+        Assertions.assertEquals(new BigDecimal("11.11"), result.getWallet().getBalance());
+        assertWallet("1111", "2", 2L);
+    }
+
+    @Test
+    public void ledgerEntryIsIndexedWithinTransaction() {
+        RecordId later = RecordId.of(System.currentTimeMillis() + 60_000, 5);
+        redisTemplate.opsForStream().add(StreamRecords.string(Map.of("wallet", UUID.randomUUID().toString()))
+                .withStreamKey(keySharding.ledger(id))
+                .withId(later));
+
+        updater.updateBalance(UUID.randomUUID(), id, AMOUNT, true, EXPIRY);
+
+        String entryId = redisTemplate.opsForList().index(keySharding.transactions(id), -1);
+        Assertions.assertEquals(RecordId.of(later.getTimestamp(), 6).getValue(), entryId);
+        Assertions.assertEquals(id.toString(), redisTemplate.opsForStream()
+                .range(keySharding.ledger(id), Range.closed(entryId, entryId)).get(0).getValue().get("wallet"));
+    }
+
+    @Test
+    public void keyOfPendingTransferIsInProgress() {
+        UUID key = UUID.randomUUID();
+        execute(WalletScripts.TRANSFER_DEBIT, WalletScripts.TRANSFER_DEBIT_KEYS, WalletScripts.transferDebitKeysAndArgs(
+                balanceCodec, keySharding, key, id, UUID.randomUUID(), AMOUNT, EXPIRY));
+
+        WalletResult result = updater.updateBalance(key, id, AMOUNT, true, EXPIRY);
+
+        Assertions.assertEquals(WalletResult.Status.IN_PROGRESS, result.getStatus());
+        Assertions.assertEquals("911", redisTemplate.opsForHash().get(keySharding.wallet(id), "balance"));
+    }
+
+    /**
+     * Checks the stored wallet and that its ledger stream and transaction list hold the given number of entries
+     */
+    private void assertWallet(String balance, String version, long entries) {
+        Assertions.assertEquals(balance, redisTemplate.opsForHash().get(keySharding.wallet(id), "balance"));
+        Assertions.assertEquals(version, redisTemplate.opsForHash().get(keySharding.wallet(id), "version"));
+        Assertions.assertEquals(entries, redisTemplate.opsForStream().size(keySharding.ledger(id)));
+        Assertions.assertEquals(entries, redisTemplate.opsForList().size(keySharding.transactions(id)));
+    }
+
+    private double count(String name) {
+        return meterRegistry.get(name).counter().count();
+    }
+}
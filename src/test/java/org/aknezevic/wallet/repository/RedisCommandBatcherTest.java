@@ -0,0 +1,103 @@
+package org.aknezevic.wallet.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class RedisCommandBatcherTest extends RedisScriptTest {
+
+    private static final RedisScript<String> GET_FIELD = RedisScript.of("return redis.call('HGET', KEYS[1], ARGV[1])", String.class);
+
+    private final RedisCommandBatcher batcher = new RedisCommandBatcher();
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(batcher, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(batcher, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(batcher, "enabled", true);
+        ReflectionTestUtils.setField(batcher, "maxSize", 8);
+        ReflectionTestUtils.setField(batcher, "maxDelay", Duration.ofMillis(200));
+        ReflectionTestUtils.setField(batcher, "flushers", 1);
+        ReflectionTestUtils.setField(batcher, "replyTimeout", Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        batcher.close();
+        executor.shutdown();
+    }
+
+    @Test
+    public void eachCallerGetsItsOwnReply() {
+        batcher.init();
+        for (int i = 0; i < 8; i++) {
+            redisTemplate.opsForHash().put("wallet:" + i, "balance", String.valueOf(i));
+        }
+
+        List<CompletableFuture<List<String>>> replies = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String key = "wallet:" + i;
+            replies.add(CompletableFuture.supplyAsync(() -> batcher.hMGet(key, List.of("balance", "missing")), executor));
+        }
+
+        for (int i = 0; i < 8; i++) {
+            Assertions.assertEquals(Arrays.asList(String.valueOf(i), null), replies.get(i).orTimeout(5, TimeUnit.SECONDS).join());
+        }
+    }
+
+    @Test
+    public void failedCommandFailsOnlyItsCaller() {
+        ReflectionTestUtils.setField(batcher, "maxSize", 2);
+        batcher.init();
+        redisTemplate.opsForHash().put("wallet:1", "balance", "10");
+        redisTemplate.opsForValue().set("not-a-hash", "value");
+
+        CompletableFuture<List<String>> failed = CompletableFuture.supplyAsync(
+                () -> batcher.hMGet("not-a-hash", List.of("balance")), executor);
+        CompletableFuture<List<String>> succeeded = CompletableFuture.supplyAsync(
+                () -> batcher.hMGet("wallet:1", List.of("balance")), executor);
+
+        Assertions.assertEquals(List.of("10"), succeeded.orTimeout(5, TimeUnit.SECONDS).join());
+        CompletionException ex = Assertions.assertThrows(CompletionException.class, () -> failed.orTimeout(5, TimeUnit.SECONDS).join());
+        Assertions.assertInstanceOf(RuntimeException.class, ex.getCause());
+    }
+
+    @Test
+    public void scriptMissingFromCacheIsLoadedAndRetried() {
+        batcher.init();
+        redisTemplate.opsForHash().put("wallet:1", "balance", "10");
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        Assertions.assertEquals("10", batcher.execute(GET_FIELD, 1, new String[]{"wallet:1", "balance"}));
+        Assertions.assertEquals("10", batcher.execute(GET_FIELD, 1, new String[]{"wallet:1", "balance"}));
+    }
+
+    @Test
+    public void callerStopsWaitingAfterReplyTimeout() {
+        ReflectionTestUtils.setField(batcher, "flushers", 0);
+        ReflectionTestUtils.setField(batcher, "replyTimeout", Duration.ofMillis(50));
+        batcher.init();
+
+        Assertions.assertThrows(RedisConnectionFailureException.class, () -> batcher.hMGet("wallet:1", List.of("balance")));
+    }
+}
@@ -0,0 +1,85 @@
+package org.aknezevic.wallet.repository;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Base class of tests running the Lua scripts of the store against an embedded Redis server, with the keys
+ * and arguments built the same way as by the stores. The database is flushed before each test.
+ */
+public abstract class RedisScriptTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    protected static StringRedisTemplate redisTemplate;
+
+    protected final KeySharding keySharding = new KeySharding();
+    protected final BalanceCodec balanceCodec = new BalanceCodec();
+
+    @BeforeAll
+    public static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        redisServer = new RedisServer(port);
+        redisServer.start();
+
+        connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    public static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    public void setUpRedis() {
+        ReflectionTestUtils.setField(keySharding, "shards", 16);
+        ReflectionTestUtils.setField(keySharding, "hashTags", false);
+        ReflectionTestUtils.setField(keySharding, "readLegacy", false);
+        ReflectionTestUtils.setField(keySharding, "clusterNodes", List.of());
+        ReflectionTestUtils.setField(balanceCodec, "storage", "minor-units");
+        ReflectionTestUtils.setField(balanceCodec, "scale", 2);
+
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    /**
+     * Switches the balance codec, which stores minor units at scale 2 unless a test changes it
+     */
+    protected void useCodec(String storage, int scale) {
+        ReflectionTestUtils.setField(balanceCodec, "storage", storage);
+        ReflectionTestUtils.setField(balanceCodec, "scale", scale);
+    }
+
+    /**
+     * Runs a script with the keys followed by the arguments, as built by {@link WalletScripts}
+     */
+    protected <T> T execute(RedisScript<T> script, int numKeys, String[] keysAndArgs) {
+        List<String> keys = Arrays.asList(keysAndArgs).subList(0, numKeys);
+        Object[] args = Arrays.copyOfRange(keysAndArgs, numKeys, keysAndArgs.length);
+
+        return redisTemplate.execute(script, keys, args);
+    }
+}
@@ -0,0 +1,84 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+public class TransferRecoveryTest extends RedisScriptTest {
+
+    private static final Instant EXPIRY = Instant.now().plus(24, ChronoUnit.HOURS);
+
+    private final TransferRecovery transferRecovery = new TransferRecovery();
+
+    @Mock
+    RedisWalletStore walletStore;
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(transferRecovery, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(transferRecovery, "balanceCodec", balanceCodec);
+        ReflectionTestUtils.setField(transferRecovery, "keySharding", keySharding);
+        ReflectionTestUtils.setField(transferRecovery, "walletStore", walletStore);
+        ReflectionTestUtils.setField(transferRecovery, "idempotencyTtl", Duration.ofHours(24));
+
+        lenient().when(walletStore.transfer(any(), any(), any(), any(), any()))
+                .thenReturn(new TransferResult(WalletResult.Status.UPDATED, null, null, null));
+    }
+
+    @Test
+    public void abandonedTransferIsResumed() {
+        UUID fromId = UUID.randomUUID();
+        UUID toId = UUID.randomUUID();
+        UUID key = UUID.randomUUID();
+        debit(key, fromId, toId);
+
+        Assertions.assertEquals(1, transferRecovery.recover(Instant.now().plus(1, ChronoUnit.MINUTES)));
+        verify(walletStore).transfer(eq(key), eq(fromId), eq(toId), eq(new BigDecimal("1.00")), any());
+    }
+
+    @Test
+    public void recentTransferIsLeftToItsRequest() {
+        debit(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+
+        Assertions.assertEquals(0, transferRecovery.recover(Instant.now().minus(1, ChronoUnit.MINUTES)));
+        verifyNoInteractions(walletStore);
+    }
+
+    @Test
+    public void finishedTransferIsDroppedFromPendingSet() {
+        UUID fromId = UUID.randomUUID();
+        UUID key = UUID.randomUUID();
+        redisTemplate.opsForZSet().add(keySharding.pendingTransfers(fromId), fromId + ":" + key, 0);
+
+        Assertions.assertEquals(0, transferRecovery.recover(Instant.now()));
+        Assertions.assertEquals(0L, redisTemplate.opsForZSet().zCard(keySharding.pendingTransfers(fromId)));
+        verifyNoInteractions(walletStore);
+    }
+
+    private void debit(UUID key, UUID fromId, UUID toId) {
+        execute(WalletScripts.CREATE_WALLET, WalletScripts.CREATE_KEYS,
+                WalletScripts.createKeysAndArgs(balanceCodec, keySharding, new Wallet(fromId, new BigDecimal("10.11")), false));
+        execute(WalletScripts.TRANSFER_DEBIT, WalletScripts.TRANSFER_DEBIT_KEYS, WalletScripts.transferDebitKeysAndArgs(
+                balanceCodec, keySharding, key, fromId, toId, new BigDecimal("1.00"), EXPIRY));
+    }
+}
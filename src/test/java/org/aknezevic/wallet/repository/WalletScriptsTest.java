@@ -0,0 +1,260 @@
+package org.aknezevic.wallet.repository;
+
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.TransferResult;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+public class WalletScriptsTest extends RedisScriptTest {
+
+    private static final Instant EXPIRY = Instant.now().plus(24, ChronoUnit.HOURS);
+
+    @Test
+    public void createIdempotentSavesWallet() {
+        UUID id = UUID.randomUUID();
+
+        WalletResult result = create(UUID.randomUUID(), new Wallet(id, new BigDecimal("10.11")));
+
+        Assertions.assertEquals(WalletResult.Status.CREATED, result.getStatus());
+        Assertions.assertEquals("1011", redisTemplate.opsForHash().get(keySharding.wallet(id), "balance"));
+        Assertions.assertEquals(1L, redisTemplate.opsForList().size(keySharding.transactions(id)));
+    }
+
+    @Test
+    public void createIdempotentReplaysStoredResponse() {
+        UUID key = UUID.randomUUID();
+        UUID id = UUID.randomUUID();
+        create(key, new Wallet(id, new BigDecimal("10.11")));
+
+        WalletResult result = create(key, new Wallet(id, new BigDecimal("10.11")));
+
+        Assertions.assertEquals(WalletResult.Status.REPLAYED, result.getStatus());
+        Assertions.assertEquals(new BigDecimal("10.11"), result.getWallet().getBalance());
+        Assertions.assertEquals(1L, redisTemplate.opsForList().size(keySharding.transactions(id)));
+    }
+
+    @Test
+    public void createIdempotentLeavesExistingWalletUntouched() {
+        UUID id = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(id, new BigDecimal("10.11")));
+        UUID key = UUID.randomUUID();
+
+        WalletResult result = create(key, new Wallet(id, BigDecimal.ZERO));
+
+        Assertions.assertEquals(WalletResult.Status.ALREADY_EXISTS, result.getStatus());
+        Assertions.assertEquals("1011", redisTemplate.opsForHash().get(keySharding.wallet(id), "balance"));
+        Assertions.assertEquals("1", redisTemplate.opsForHash().get(keySharding.wallet(id), "version"));
+        Assertions.assertEquals(1L, redisTemplate.opsForList().size(keySharding.transactions(id)));
+        Assertions.assertFalse(redisTemplate.hasKey(keySharding.idempotency(id, key)));
+    }
+
+    @Test
+    public void updateIdempotentRejectsKeyOfBatchRequest() {
+        UUID id = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(id, new BigDecimal("10.11")));
+        UUID key = UUID.randomUUID();
+        storeBatchResults(key);
+
+        WalletResult result = update(key, id, new BigDecimal("1.00"));
+
+        Assertions.assertEquals(WalletResult.Status.KEY_REUSED, result.getStatus());
+        Assertions.assertEquals("1011", redisTemplate.opsForHash().get(keySharding.wallet(id), "balance"));
+    }
+
+    @Test
+    public void updateIdempotentReportsPendingKeyInProgress() {
+        UUID id = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(id, new BigDecimal("10.11")));
+        UUID key = UUID.randomUUID();
+        redisTemplate.opsForHash().put(keySharding.idempotency(id, key), IdempotencyRecords.EXPIRY_FIELD,
+                String.valueOf(EXPIRY.getEpochSecond()));
+
+        Assertions.assertEquals(WalletResult.Status.IN_PROGRESS, update(key, id, new BigDecimal("1.00")).getStatus());
+    }
+
+    @Test
+    public void transferRejectsKeyOfBatchRequest() {
+        UUID fromId = UUID.randomUUID();
+        UUID toId = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(fromId, new BigDecimal("10.11")));
+        create(UUID.randomUUID(), new Wallet(toId, BigDecimal.ZERO));
+        UUID key = UUID.randomUUID();
+        storeBatchResults(key);
+
+        Assertions.assertEquals(WalletResult.Status.KEY_REUSED, transfer(key, fromId, toId, new BigDecimal("1.00")).getStatus());
+    }
+
+    @Test
+    public void transferMovesFundsAtomically() {
+        UUID fromId = UUID.randomUUID();
+        UUID toId = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(fromId, new BigDecimal("10.11")));
+        create(UUID.randomUUID(), new Wallet(toId, BigDecimal.ZERO));
+
+        TransferResult result = transfer(UUID.randomUUID(), fromId, toId, new BigDecimal("1.00"));
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, result.getStatus());
+        Assertions.assertEquals(new BigDecimal("9.11"), result.getFrom().getBalance());
+        Assertions.assertEquals(new BigDecimal("1.00"), result.getTo().getBalance());
+    }
+
+    @Test
+    public void transferLeavesSourceUntouchedWhenCreditOverflows() {
+        UUID fromId = UUID.randomUUID();
+        UUID toId = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(fromId, new BigDecimal("10.11")));
+        create(UUID.randomUUID(), new Wallet(toId, BigDecimal.ZERO));
+        redisTemplate.opsForHash().put(keySharding.wallet(toId), "balance", String.valueOf(Long.MAX_VALUE - 50));
+        UUID key = UUID.randomUUID();
+
+        TransferResult result = transfer(key, fromId, toId, new BigDecimal("1.00"));
+
+        Assertions.assertEquals(WalletResult.Status.INVALID_AMOUNT, result.getStatus());
+        Assertions.assertEquals(toId, result.getId());
+        Assertions.assertEquals("1011", redisTemplate.opsForHash().get(keySharding.wallet(fromId), "balance"));
+        Assertions.assertEquals("1", redisTemplate.opsForHash().get(keySharding.wallet(fromId), "version"));
+        Assertions.assertEquals(String.valueOf(Long.MAX_VALUE - 50), redisTemplate.opsForHash().get(keySharding.wallet(toId), "balance"));
+        Assertions.assertEquals(1L, redisTemplate.opsForStream().size(keySharding.ledger(fromId)));
+        Assertions.assertEquals(1L, redisTemplate.opsForList().size(keySharding.transactions(fromId)));
+        Assertions.assertEquals(1L, redisTemplate.opsForList().size(keySharding.transactions(toId)));
+        Assertions.assertFalse(redisTemplate.hasKey(keySharding.idempotency(fromId, key)));
+    }
+
+    @Test
+    public void transferLeavesWalletsUntouchedWhenFundsAreInsufficient() {
+        UUID fromId = UUID.randomUUID();
+        UUID toId = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(fromId, new BigDecimal("10.11")));
+        create(UUID.randomUUID(), new Wallet(toId, BigDecimal.ZERO));
+
+        TransferResult result = transfer(UUID.randomUUID(), fromId, toId, new BigDecimal("10.12"));
+
+        Assertions.assertEquals(WalletResult.Status.INSUFFICIENT_FUNDS, result.getStatus());
+        Assertions.assertEquals("1", redisTemplate.opsForHash().get(keySharding.wallet(fromId), "version"));
+        Assertions.assertEquals("1", redisTemplate.opsForHash().get(keySharding.wallet(toId), "version"));
+        Assertions.assertEquals(1L, redisTemplate.opsForList().size(keySharding.transactions(toId)));
+    }
+
+    @Test
+    public void updateIdempotentRejectsCreditThatOverflows() {
+        UUID id = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(id, BigDecimal.ZERO));
+        redisTemplate.opsForHash().put(keySharding.wallet(id), "balance", String.valueOf(Long.MAX_VALUE - 50));
+
+        WalletResult result = update(UUID.randomUUID(), id, new BigDecimal("1.00"));
+
+        Assertions.assertEquals(WalletResult.Status.INVALID_AMOUNT, result.getStatus());
+        Assertions.assertEquals(String.valueOf(Long.MAX_VALUE - 50), redisTemplate.opsForHash().get(keySharding.wallet(id), "balance"));
+    }
+
+    @Test
+    public void crossSlotDebitIsResumedAfterCrash() {
+        UUID fromId = UUID.randomUUID();
+        UUID toId = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(fromId, new BigDecimal("10.11")));
+        create(UUID.randomUUID(), new Wallet(toId, BigDecimal.ZERO));
+        UUID key = UUID.randomUUID();
+
+        Assertions.assertTrue(WalletScripts.isDebited(debit(key, fromId, toId, new BigDecimal("1.00"))));
+        Assertions.assertEquals(-1L, redisTemplate.getExpire(keySharding.idempotency(fromId, key)));
+        Assertions.assertNotNull(redisTemplate.opsForZSet().score(keySharding.pendingTransfers(fromId), fromId + ":" + key));
+
+        List<?> retried = debit(key, fromId, toId, new BigDecimal("1.00"));
+        Assertions.assertTrue(WalletScripts.isDebited(retried));
+        Assertions.assertEquals("911", redisTemplate.opsForHash().get(keySharding.wallet(fromId), "balance"));
+
+        WalletResult credit = credit(key, WalletScripts.debitedTo(retried), WalletScripts.debitedAmount(balanceCodec, retried));
+        TransferResult result = WalletScripts.toTransferResult(balanceCodec, execute(WalletScripts.TRANSFER_COMPLETE,
+                WalletScripts.TRANSFER_COMPLETE_KEYS, WalletScripts.transferCompleteKeysAndArgs(balanceCodec, keySharding,
+                        key, fromId, credit.getWallet(), EXPIRY)));
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, result.getStatus());
+        Assertions.assertEquals(new BigDecimal("9.11"), result.getFrom().getBalance());
+        Assertions.assertEquals(new BigDecimal("1.00"), result.getTo().getBalance());
+        Assertions.assertTrue(redisTemplate.getExpire(keySharding.idempotency(fromId, key)) > 0);
+        Assertions.assertEquals(0L, redisTemplate.opsForZSet().zCard(keySharding.pendingTransfers(fromId)));
+    }
+
+    @Test
+    public void crossSlotDebitIsRefundedWhenCreditFails() {
+        UUID fromId = UUID.randomUUID();
+        UUID toId = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(fromId, new BigDecimal("10.11")));
+        UUID key = UUID.randomUUID();
+
+        List<?> debit = debit(key, fromId, toId, new BigDecimal("1.00"));
+        WalletResult credit = credit(key, toId, WalletScripts.debitedAmount(balanceCodec, debit));
+        List<?> refund = execute(WalletScripts.TRANSFER_REFUND, WalletScripts.TRANSFER_REFUND_KEYS,
+                WalletScripts.transferRefundKeysAndArgs(balanceCodec, keySharding, key, fromId));
+
+        Assertions.assertEquals(WalletResult.Status.NOT_FOUND, credit.getStatus());
+        Assertions.assertEquals("UPDATED", RedisScripts.asString(refund.get(0)));
+        Assertions.assertEquals("1011", redisTemplate.opsForHash().get(keySharding.wallet(fromId), "balance"));
+        Assertions.assertEquals(3L, redisTemplate.opsForList().size(keySharding.transactions(fromId)));
+        Assertions.assertFalse(redisTemplate.hasKey(keySharding.idempotency(fromId, key)));
+        Assertions.assertEquals(0L, redisTemplate.opsForZSet().zCard(keySharding.pendingTransfers(fromId)));
+    }
+
+    @Test
+    public void updateReportsKeyOfPendingTransferInProgress() {
+        UUID fromId = UUID.randomUUID();
+        create(UUID.randomUUID(), new Wallet(fromId, new BigDecimal("10.11")));
+        UUID key = UUID.randomUUID();
+        debit(key, fromId, UUID.randomUUID(), new BigDecimal("1.00"));
+
+        Assertions.assertEquals(WalletResult.Status.IN_PROGRESS, update(key, fromId, new BigDecimal("1.00")).getStatus());
+        Assertions.assertEquals(-1L, redisTemplate.getExpire(keySharding.idempotency(fromId, key)));
+        Assertions.assertEquals("911", redisTemplate.opsForHash().get(keySharding.wallet(fromId), "balance"));
+    }
+
+    private WalletResult create(UUID key, Wallet wallet) {
+        List<?> reply = execute(WalletScripts.CREATE_WALLET_IDEMPOTENT, WalletScripts.CREATE_IDEMPOTENT_KEYS,
+                WalletScripts.createKeysAndArgs(balanceCodec, keySharding, key, wallet, EXPIRY));
+
+        return WalletScripts.toResult(balanceCodec, wallet.getId(), reply);
+    }
+
+    private WalletResult update(UUID key, UUID id, BigDecimal amount) {
+        List<?> reply = execute(WalletScripts.UPDATE_BALANCE_IDEMPOTENT, WalletScripts.UPDATE_IDEMPOTENT_KEYS,
+                WalletScripts.updateKeysAndArgs(balanceCodec, keySharding, key, id, amount, true, EXPIRY));
+
+        return WalletScripts.toResult(balanceCodec, id, reply);
+    }
+
+    private TransferResult transfer(UUID key, UUID fromId, UUID toId, BigDecimal amount) {
+        List<?> reply = execute(WalletScripts.TRANSFER_IDEMPOTENT, WalletScripts.TRANSFER_IDEMPOTENT_KEYS,
+                WalletScripts.transferKeysAndArgs(balanceCodec, keySharding, key, fromId, toId, amount, EXPIRY));
+
+        return WalletScripts.toTransferResult(balanceCodec, reply);
+    }
+
+    private List<?> debit(UUID key, UUID fromId, UUID toId, BigDecimal amount) {
+        return execute(WalletScripts.TRANSFER_DEBIT, WalletScripts.TRANSFER_DEBIT_KEYS,
+                WalletScripts.transferDebitKeysAndArgs(balanceCodec, keySharding, key, fromId, toId, amount, EXPIRY));
+    }
+
+    private WalletResult credit(UUID key, UUID toId, BigDecimal amount) {
+        List<?> reply = execute(WalletScripts.UPDATE_BALANCE_IDEMPOTENT, WalletScripts.UPDATE_IDEMPOTENT_KEYS,
+                WalletScripts.transferCreditKeysAndArgs(balanceCodec, keySharding, key, toId, amount, EXPIRY));
+
+        return WalletScripts.toResult(balanceCodec, toId, reply);
+    }
+
+    private void storeBatchResults(UUID key) {
+        Idempotency batch = Idempotency.builder()
+                .key(key)
+                .results(List.of(new WalletResult(UUID.randomUUID(), WalletResult.Status.CREATED, null)))
+                .expiry(EXPIRY)
+                .build();
+        redisTemplate.opsForHash().putAll(keySharding.idempotency(key), IdempotencyRecords.toFields(batch));
+        redisTemplate.expireAt(keySharding.idempotency(key), EXPIRY);
+    }
+}
@@ -0,0 +1,163 @@
+package org.aknezevic.wallet.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.WalletStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class BalanceCoalescerTest {
+
+    @InjectMocks
+    BalanceCoalescer coalescer;
+
+    @Mock
+    WalletStore repo;
+
+    private static final UUID ID = UUID.randomUUID();
+    private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(coalescer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(coalescer, "enabled", true);
+        ReflectionTestUtils.setField(coalescer, "window", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(coalescer, "maxBatchSize", 3);
+        ReflectionTestUtils.setField(coalescer, "waitTimeout", Duration.ofSeconds(5));
+        coalescer.init();
+
+        lenient().when(repo.commitBalanceChanges(eq(ID), anyList(), any())).thenAnswer(invocation -> {
+            List<BalanceChange> changes = invocation.getArgument(1);
+            List<WalletResult> results = new ArrayList<>();
+            BigDecimal balance = BigDecimal.ZERO;
+            for (BalanceChange change : changes) {
+                balance = balance.add(change.getAmount());
+                results.add(new WalletResult(ID, WalletResult.Status.UPDATED, new Wallet(ID, balance)));
+            }
+            return results;
+        });
+    }
+
+    @Test
+    public void concurrentUpdatesAreCommittedTogether() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<CompletableFuture<WalletResult>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            BalanceChange change = new BalanceChange(UUID.randomUUID(), ID, true, AMOUNT);
+            results.add(CompletableFuture.supplyAsync(() -> coalescer.submit(change, Instant.now()), executor));
+        }
+
+        List<BigDecimal> balances = results.stream().map(result -> result.join().getWallet().getBalance()).sorted().toList();
+
+        Assertions.assertEquals(List.of(new BigDecimal("1.00"), new BigDecimal("2.00"), new BigDecimal("3.00")), balances);
+        verify(repo, times(1)).commitBalanceChanges(eq(ID), anyList(), any());
+        executor.shutdown();
+    }
+
+    @Test
+    public void updateIsCommittedAfterWindow() {
+        ReflectionTestUtils.setField(coalescer, "window", Duration.ofMillis(1));
+
+        WalletResult result = coalescer.submit(new BalanceChange(UUID.randomUUID(), ID, true, AMOUNT), Instant.now());
+
+        Assertions.assertEquals(AMOUNT, result.getWallet().getBalance());
+    }
+
+    @Test
+    public void failedCommitFailsEveryUpdate() {
+        ReflectionTestUtils.setField(coalescer, "window", Duration.ofMillis(1));
+        lenient().when(repo.commitBalanceChanges(eq(ID), anyList(), any()))
+                .thenThrow(new RedisConnectionFailureException("Connection refused"));
+
+        Assertions.assertThrows(RedisConnectionFailureException.class,
+                () -> coalescer.submit(new BalanceChange(UUID.randomUUID(), ID, true, AMOUNT), Instant.now()));
+    }
+
+    @Test
+    public void errorDuringCommitFailsEveryUpdate() {
+        ReflectionTestUtils.setField(coalescer, "maxBatchSize", 2);
+        lenient().when(repo.commitBalanceChanges(eq(ID), anyList(), any())).thenThrow(new StackOverflowError());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        List<CompletableFuture<WalletResult>> results = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            BalanceChange change = new BalanceChange(UUID.randomUUID(), ID, true, AMOUNT);
+            results.add(CompletableFuture.supplyAsync(() -> coalescer.submit(change, Instant.now()), executor));
+        }
+
+        for (CompletableFuture<WalletResult> result : results) {
+            CompletionException ex = Assertions.assertThrows(CompletionException.class,
+                    () -> result.orTimeout(5, TimeUnit.SECONDS).join());
+            Assertions.assertInstanceOf(StackOverflowError.class, rootCause(ex));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void updateWaitingForHungCommitIsInProgress() throws InterruptedException {
+        ReflectionTestUtils.setField(coalescer, "maxBatchSize", 2);
+        ReflectionTestUtils.setField(coalescer, "waitTimeout", Duration.ofMillis(50));
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        lenient().when(repo.commitBalanceChanges(eq(ID), anyList(), any())).thenAnswer(invocation -> {
+            committing.countDown();
+            release.await();
+            List<BalanceChange> changes = invocation.getArgument(1);
+            return changes.stream().map(change -> new WalletResult(ID, WalletResult.Status.UPDATED, new Wallet(ID, AMOUNT))).toList();
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        CompletableFuture<WalletResult> leader = CompletableFuture.supplyAsync(
+                () -> coalescer.submit(new BalanceChange(UUID.randomUUID(), ID, true, AMOUNT), Instant.now()), executor);
+        Map<?, ?> openBatches = (Map<?, ?>) ReflectionTestUtils.getField(coalescer, "openBatches");
+        while (!openBatches.containsKey(ID)) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<WalletResult> follower = CompletableFuture.supplyAsync(
+                () -> coalescer.submit(new BalanceChange(UUID.randomUUID(), ID, true, AMOUNT), Instant.now()));
+
+        Assertions.assertEquals(WalletResult.Status.IN_PROGRESS, follower.orTimeout(5, TimeUnit.SECONDS).join().getStatus());
+        Assertions.assertTrue(committing.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        Assertions.assertEquals(WalletResult.Status.UPDATED, leader.orTimeout(5, TimeUnit.SECONDS).join().getStatus());
+        executor.shutdown();
+    }
+
+    private static Throwable rootCause(Throwable ex) {
+        while (ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+}
@@ -1,24 +1,34 @@
 package org.aknezevic.wallet.service;
 
+import org.aknezevic.wallet.exception.IdempotencyException;
 import org.aknezevic.wallet.model.Idempotency;
 import org.aknezevic.wallet.model.Wallet;
-import org.aknezevic.wallet.repository.IdempotencyRepository;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.IdempotencyStore;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 public class IdempotencyServiceTest {
@@ -27,7 +37,7 @@ public class IdempotencyServiceTest {
     IdempotencyService service;
 
     @Mock
-    IdempotencyRepository repo;
+    IdempotencyStore repo;
 
     private static final UUID IDEMPOTENCY_ID = UUID.randomUUID();
     private static final UUID WALLET_ID = UUID.randomUUID();
@@ -37,6 +47,11 @@ public class IdempotencyServiceTest {
 
     @BeforeEach
     public void setUp() {
+        ReflectionTestUtils.setField(service, "ttl", Duration.ofHours(24));
+        ReflectionTestUtils.setField(service, "waitTimeout", Duration.ofMillis(200));
+        ReflectionTestUtils.setField(service, "lease", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(service, "pollInterval", Duration.ofMillis(10));
+
         idempotency = Idempotency.builder()
                 .key(IDEMPOTENCY_ID)
                 .response(WALLET)
@@ -74,4 +89,112 @@ public class IdempotencyServiceTest {
 
         lenient().doNothing().when(mockedService).deleteIdempotency(idempotency);
     }
+
+    @Test
+    public void claimNewKeyReturnsNull() {
+        UUID key = UUID.randomUUID();
+        lenient().when(repo.claim(eq(key), any(), any())).thenReturn(Optional.empty());
+
+        Assertions.assertNull(service.claim(key, UUID.randomUUID()));
+    }
+
+    @Test
+    public void claimLeasesKeyUntilCompleted() {
+        UUID key = UUID.randomUUID();
+        lenient().when(repo.claim(eq(key), any(), any())).thenReturn(Optional.empty());
+
+        UUID owner = UUID.randomUUID();
+        Instant before = Instant.now();
+        service.claim(key, owner);
+
+        ArgumentCaptor<Instant> expiry = ArgumentCaptor.forClass(Instant.class);
+        verify(repo).claim(eq(key), eq(owner), expiry.capture());
+        Assertions.assertFalse(expiry.getValue().isBefore(before.plusSeconds(5)));
+        Assertions.assertTrue(expiry.getValue().isBefore(before.plus(1, ChronoUnit.HOURS)));
+    }
+
+    @Test
+    public void completeExtendsRecordToTtl() {
+        UUID owner = UUID.randomUUID();
+        List<WalletResult> results = List.of(new WalletResult(WALLET_ID, WalletResult.Status.CREATED, null));
+        lenient().when(repo.complete(any(), eq(owner))).thenReturn(true);
+
+        Instant before = Instant.now();
+        service.complete(IDEMPOTENCY_ID, owner, results);
+
+        ArgumentCaptor<Idempotency> completed = ArgumentCaptor.forClass(Idempotency.class);
+        verify(repo).complete(completed.capture(), eq(owner));
+        Assertions.assertEquals(results, completed.getValue().getResults());
+        Assertions.assertFalse(completed.getValue().getExpiry().isBefore(before.plus(24, ChronoUnit.HOURS)));
+    }
+
+    @Test
+    public void renewExtendsLease() {
+        UUID owner = UUID.randomUUID();
+        lenient().when(repo.renew(eq(IDEMPOTENCY_ID), eq(owner), any())).thenReturn(true);
+
+        Instant before = Instant.now();
+        service.renew(IDEMPOTENCY_ID, owner);
+
+        ArgumentCaptor<Instant> expiry = ArgumentCaptor.forClass(Instant.class);
+        verify(repo).renew(eq(IDEMPOTENCY_ID), eq(owner), expiry.capture());
+        Assertions.assertFalse(expiry.getValue().isBefore(before.plusSeconds(5)));
+    }
+
+    @Test
+    public void renewExpiredLeaseThrows() {
+        lenient().when(repo.renew(eq(IDEMPOTENCY_ID), any(), any())).thenReturn(false);
+
+        Assertions.assertThrows(IdempotencyException.class, () -> service.renew(IDEMPOTENCY_ID, UUID.randomUUID()));
+    }
+
+    @Test
+    public void releasePassesOwnerToStore() {
+        UUID owner = UUID.randomUUID();
+        lenient().when(repo.release(IDEMPOTENCY_ID, owner)).thenReturn(false);
+
+        service.release(IDEMPOTENCY_ID, owner);
+
+        verify(repo).release(IDEMPOTENCY_ID, owner);
+        verify(repo, never()).delete(any());
+    }
+
+    @Test
+    public void claimCompletedKeyReturnsRecord() {
+        lenient().when(repo.claim(eq(IDEMPOTENCY_ID), any(), any())).thenReturn(Optional.of(idempotency));
+
+        Assertions.assertEquals(idempotency, service.claim(IDEMPOTENCY_ID, UUID.randomUUID()));
+    }
+
+    @Test
+    public void claimPendingKeyWaitsForResponse() {
+        UUID key = UUID.randomUUID();
+        Idempotency pending = Idempotency.builder().key(key).expiry(idempotency.getExpiry()).build();
+        Idempotency completed = Idempotency.builder().key(key).response(WALLET).expiry(idempotency.getExpiry()).build();
+        lenient().when(repo.claim(eq(key), any(), any())).thenReturn(Optional.of(pending));
+        lenient().when(repo.findById(key)).thenReturn(Optional.of(pending), Optional.of(completed));
+
+        Assertions.assertEquals(completed, service.claim(key, UUID.randomUUID()));
+    }
+
+    @Test
+    public void claimPendingKeyTimesOut() {
+        UUID key = UUID.randomUUID();
+        Idempotency pending = Idempotency.builder().key(key).expiry(idempotency.getExpiry()).build();
+        lenient().when(repo.claim(eq(key), any(), any())).thenReturn(Optional.of(pending));
+        lenient().when(repo.findById(key)).thenReturn(Optional.of(pending));
+
+        Assertions.assertThrows(IdempotencyException.class, () -> service.claim(key, UUID.randomUUID()));
+    }
+
+    @Test
+    public void claimCompletedBatchReturnsResults() {
+        List<WalletResult> results = List.of(new WalletResult(WALLET_ID, WalletResult.Status.CREATED, null));
+        Idempotency completed = Idempotency.builder().key(IDEMPOTENCY_ID).results(results).expiry(Instant.now()).build();
+        lenient().when(repo.claim(eq(IDEMPOTENCY_ID), any(), any())).thenReturn(Optional.of(completed));
+
+        Idempotency claimed = service.claim(IDEMPOTENCY_ID, UUID.randomUUID());
+
+        Assertions.assertEquals(results, claimed.getResults());
+    }
 }
@@ -0,0 +1,133 @@
+package org.aknezevic.wallet.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aknezevic.wallet.model.Wallet;
+import org.aknezevic.wallet.repository.WalletStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class ReadCoalescerTest {
+
+    @InjectMocks
+    ReadCoalescer coalescer;
+
+    @Mock
+    WalletStore repo;
+
+    private static final UUID ID = UUID.randomUUID();
+    private static final Wallet WALLET = new Wallet(ID, new BigDecimal("10.11"), 3L);
+
+    @BeforeEach
+    public void setUp() {
+        ReflectionTestUtils.setField(coalescer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(coalescer, "enabled", true);
+        ReflectionTestUtils.setField(coalescer, "waitTimeout", Duration.ofSeconds(5));
+        coalescer.init();
+    }
+
+    @Test
+    public void concurrentReadsShareFetch() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        lenient().when(repo.findById(ID, null)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(WALLET);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<CompletableFuture<Optional<Wallet>>> results = new ArrayList<>();
+        results.add(CompletableFuture.supplyAsync(() -> coalescer.findById(ID, null), executor));
+        started.await(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 2; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> coalescer.findById(ID, null), executor));
+        }
+        Thread.sleep(200);
+        release.countDown();
+
+        results.forEach(result -> Assertions.assertEquals(Optional.of(WALLET), result.join()));
+        verify(repo, times(1)).findById(ID, null);
+        executor.shutdown();
+    }
+
+    @Test
+    public void failedFetchIsNotShared() {
+        lenient().when(repo.findById(ID, null))
+                .thenThrow(new RedisConnectionFailureException("Connection refused"))
+                .thenReturn(Optional.of(WALLET));
+
+        Assertions.assertThrows(RedisConnectionFailureException.class, () -> coalescer.findById(ID, null));
+        Assertions.assertEquals(Optional.of(WALLET), coalescer.findById(ID, null));
+    }
+
+    @Test
+    public void waitingReadPropagatesFailedFetch() {
+        inFlight().put(ID, CompletableFuture.failedFuture(new RedisConnectionFailureException("Connection refused")));
+
+        Assertions.assertThrows(RedisConnectionFailureException.class, () -> coalescer.findById(ID, null));
+    }
+
+    @Test
+    public void waitingReadFetchesAfterTimeout() {
+        ReflectionTestUtils.setField(coalescer, "waitTimeout", Duration.ofMillis(1));
+        inFlight().put(ID, new CompletableFuture<>());
+        lenient().when(repo.findById(ID, null)).thenReturn(Optional.of(WALLET));
+
+        Assertions.assertEquals(Optional.of(WALLET), coalescer.findById(ID, null));
+    }
+
+    @Test
+    public void waitingReadFetchesWhenSharedResultIsOlderThanMinVersion() {
+        Wallet current = new Wallet(ID, new BigDecimal("10.12"), 4L);
+        inFlight().put(ID, CompletableFuture.completedFuture(Optional.of(WALLET)));
+        lenient().when(repo.findById(ID, 4L)).thenReturn(Optional.of(current));
+
+        Assertions.assertEquals(Optional.of(current), coalescer.findById(ID, 4L));
+    }
+
+    @Test
+    public void waitingReadFetchesWhenSharedResultIsEmptyAndMinVersionIsGiven() {
+        inFlight().put(ID, CompletableFuture.completedFuture(Optional.empty()));
+        lenient().when(repo.findById(ID, 3L)).thenReturn(Optional.of(WALLET));
+
+        Assertions.assertEquals(Optional.of(WALLET), coalescer.findById(ID, 3L));
+    }
+
+    @Test
+    public void waitingReadSharesEmptyResultWithoutMinVersion() {
+        inFlight().put(ID, CompletableFuture.completedFuture(Optional.empty()));
+
+        Assertions.assertEquals(Optional.empty(), coalescer.findById(ID, null));
+        verify(repo, times(0)).findById(ID, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<UUID, CompletableFuture<Optional<Wallet>>> inFlight() {
+        return (Map<UUID, CompletableFuture<Optional<Wallet>>>) ReflectionTestUtils.getField(coalescer, "inFlight");
+    }
+}
@@ -0,0 +1,77 @@
+package org.aknezevic.wallet.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.aknezevic.wallet.model.Wallet;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+public class WalletCacheTest {
+
+    private static final UUID ID = UUID.randomUUID();
+
+    private WalletCache walletCache;
+
+    @BeforeEach
+    public void setUp() {
+        walletCache = new WalletCache();
+        ReflectionTestUtils.setField(walletCache, "enabled", true);
+        ReflectionTestUtils.setField(walletCache, "cache", Caffeine.newBuilder().build());
+        ReflectionTestUtils.setField(walletCache, "evictions", Caffeine.newBuilder().build());
+    }
+
+    @Test
+    public void cachedWalletIsACopy() {
+        Wallet wallet = new Wallet(ID, new BigDecimal("10.11"), 3L);
+        walletCache.put(wallet, walletCache.stamp());
+
+        wallet.setBalance(BigDecimal.ZERO);
+        walletCache.get(ID).setBalance(BigDecimal.ONE);
+
+        Assertions.assertEquals(new Wallet(ID, new BigDecimal("10.11"), 3L), walletCache.get(ID));
+    }
+
+    @Test
+    public void olderVersionDoesNotReplaceNewer() {
+        long stamp = walletCache.stamp();
+        walletCache.put(new Wallet(ID, new BigDecimal("10.12"), 4L), stamp);
+        walletCache.put(new Wallet(ID, new BigDecimal("10.11"), 3L), stamp);
+
+        Assertions.assertEquals(4L, walletCache.get(ID).getVersion());
+
+        walletCache.put(new Wallet(ID, new BigDecimal("10.13"), 5L), stamp);
+
+        Assertions.assertEquals(5L, walletCache.get(ID).getVersion());
+    }
+
+    @Test
+    public void putOfReadStartedBeforeEvictionIsDropped() {
+        long stamp = walletCache.stamp();
+        walletCache.evict(ID);
+
+        walletCache.put(new Wallet(ID, new BigDecimal("10.11"), 3L), stamp);
+        Assertions.assertNull(walletCache.get(ID));
+
+        walletCache.put(new Wallet(ID, new BigDecimal("10.12"), 4L), walletCache.stamp());
+        Assertions.assertEquals(4L, walletCache.get(ID).getVersion());
+    }
+
+    @Test
+    public void walletWithoutVersionIsNotCached() {
+        walletCache.put(new Wallet(ID, new BigDecimal("10.11")), walletCache.stamp());
+
+        Assertions.assertNull(walletCache.get(ID));
+    }
+
+    @Test
+    public void disabledCacheHoldsNothing() {
+        ReflectionTestUtils.setField(walletCache, "enabled", false);
+        walletCache.put(new Wallet(ID, new BigDecimal("10.11"), 3L), walletCache.stamp());
+
+        Assertions.assertNull(walletCache.get(ID));
+    }
+}
@@ -1,21 +1,46 @@
 package org.aknezevic.wallet.service;
 
+import org.aknezevic.wallet.exception.IdempotencyException;
 import org.aknezevic.wallet.exception.WalletException;
+import org.aknezevic.wallet.model.BalanceChange;
+import org.aknezevic.wallet.model.Idempotency;
+import org.aknezevic.wallet.model.Transaction;
+import org.aknezevic.wallet.model.TransactionPage;
+import org.aknezevic.wallet.model.TransferResult;
 import org.aknezevic.wallet.model.Wallet;
-import org.aknezevic.wallet.repository.WalletRepository;
+import org.aknezevic.wallet.model.WalletResult;
+import org.aknezevic.wallet.repository.BalanceCodec;
+import org.aknezevic.wallet.repository.WalletStore;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 public class WalletServiceTest {
@@ -24,31 +49,158 @@ public class WalletServiceTest {
     WalletService service;
 
     @Mock
-    WalletRepository repo;
+    WalletStore repo;
+
+    @Spy
+    BalanceCodec balanceCodec = new BalanceCodec();
+
+    @Mock
+    WalletCache walletCache;
+
+    @Mock
+    IdempotencyService idempotencyService;
+
+    @Mock
+    WalletMetrics walletMetrics;
+
+    @Mock
+    BalanceCoalescer balanceCoalescer;
+
+    @Mock
+    ReadCoalescer readCoalescer;
 
     private static final UUID ID = UUID.randomUUID();
     private static final BigDecimal BALANCE = new BigDecimal("10.11");
     private static final Wallet WALLET = new Wallet(ID, BALANCE);
+    private static final UUID IDEMPOTENCY_KEY = UUID.randomUUID();
 
     @BeforeEach
     public void setUp() {
-        lenient().when(repo.findById(ID)).thenReturn(Optional.of(WALLET));
+        ReflectionTestUtils.setField(service, "idempotencyTtl", Duration.ofHours(24));
+        ReflectionTestUtils.setField(balanceCodec, "storage", "minor-units");
+        ReflectionTestUtils.setField(balanceCodec, "scale", 2);
+
+        WalletRequests walletRequests = new WalletRequests();
+        ReflectionTestUtils.setField(walletRequests, "balanceCodec", balanceCodec);
+        ReflectionTestUtils.setField(walletRequests, "walletCache", walletCache);
+        ReflectionTestUtils.setField(walletRequests, "walletMetrics", walletMetrics);
+        ReflectionTestUtils.setField(walletRequests, "maxBatchSize", 2);
+        ReflectionTestUtils.setField(walletRequests, "maxCreateBatchSize", 4);
+        ReflectionTestUtils.setField(walletRequests, "createChunkSize", 2);
+        ReflectionTestUtils.setField(service, "walletRequests", walletRequests);
+
+        lenient().when(repo.findById(ID, null)).thenReturn(Optional.of(WALLET));
         lenient().when(repo.save(WALLET)).thenReturn(WALLET);
+        lenient().when(repo.updateBalance(any(), any(), anyBoolean()))
+                .thenAnswer(invocation -> new WalletResult(invocation.getArgument(0), WalletResult.Status.NOT_FOUND, null));
     }
 
     @Test
     public void getWalletHappyPath() {
-        Wallet wallet = service.getWalletById(ID);
+        Wallet wallet = service.getWalletById(ID, null);
 
         Assertions.assertEquals(ID, wallet.getId());
         Assertions.assertEquals(new BigDecimal("10.11"), wallet.getBalance());
     }
 
+    @Test
+    public void getWalletFromCache() {
+        lenient().when(walletCache.get(ID)).thenReturn(WALLET);
+
+        Wallet wallet = service.getWalletById(ID, null);
+
+        Assertions.assertEquals(WALLET, wallet);
+        verify(repo, never()).findById(ID, null);
+    }
+
+    @Test
+    public void getWalletSkipsCacheOlderThanMinVersion() {
+        Wallet current = new Wallet(ID, new BigDecimal("10.12"), 3L);
+        lenient().when(walletCache.get(ID)).thenReturn(new Wallet(ID, BALANCE, 2L));
+        lenient().when(repo.findById(ID, 3L)).thenReturn(Optional.of(current));
+
+        Wallet wallet = service.getWalletById(ID, 3L);
+
+        Assertions.assertEquals(current, wallet);
+        verify(walletCache).put(eq(current), anyLong());
+    }
+
+    @Test
+    public void getWalletCoalescedReadsShareFetch() {
+        Wallet current = new Wallet(ID, new BigDecimal("10.12"), 3L);
+        lenient().when(readCoalescer.isEnabled()).thenReturn(true);
+        lenient().when(readCoalescer.findById(ID, null)).thenReturn(Optional.of(current));
+
+        Wallet wallet = service.getWalletById(ID, null);
+
+        Assertions.assertEquals(current, wallet);
+        verify(repo, never()).findById(any(), any());
+        verify(walletCache).put(eq(current), anyLong());
+    }
+
     @Test
     public void getWalletNotFoundReturnsNull() {
-        Wallet wallet = service.getWalletById(UUID.randomUUID());
+        Wallet wallet = service.getWalletById(UUID.randomUUID(), null);
 
         Assertions.assertNull(wallet);
+        verify(walletMetrics).record(WalletResult.Status.NOT_FOUND);
+    }
+
+    @Test
+    public void getTransactionsHappyPath() {
+        TransactionPage page = new TransactionPage(List.of(new Transaction("1-0", Transaction.Type.CREDIT, BigDecimal.ONE,
+                BALANCE, IDEMPOTENCY_KEY, Instant.ofEpochMilli(1))), 3L);
+        lenient().when(repo.findTransactions(ID, 5L, 2)).thenReturn(page);
+
+        Assertions.assertEquals(page, service.getTransactions(ID, 5L, 2));
+    }
+
+    @Test
+    public void getTransactionsNotFoundReturnsNull() {
+        Assertions.assertNull(service.getTransactions(UUID.randomUUID(), null, 2));
+        verify(walletMetrics).record(WalletResult.Status.NOT_FOUND);
+    }
+
+    @Test
+    public void getTransactionsInvalidLimitThrowsException() {
+        Assertions.assertThrows(WalletException.class, () -> service.getTransactions(ID, null, 0));
+        Assertions.assertThrows(WalletException.class, () -> service.getTransactions(ID, null, 3));
+        verify(repo, never()).findTransactions(any(), any(), anyInt());
+    }
+
+    @Test
+    public void getWalletsPreservesOrderAndMarksMissing() {
+        UUID missingId = UUID.randomUUID();
+        lenient().when(repo.findAllById(List.of(missingId, ID))).thenReturn(Arrays.asList(null, WALLET));
+
+        List<WalletResult> results = service.getWalletsByIds(List.of(missingId, ID));
+
+        Assertions.assertEquals(missingId, results.get(0).getId());
+        Assertions.assertEquals(WalletResult.Status.NOT_FOUND, results.get(0).getStatus());
+        Assertions.assertNull(results.get(0).getWallet());
+        Assertions.assertEquals(ID, results.get(1).getId());
+        Assertions.assertEquals(WalletResult.Status.FOUND, results.get(1).getStatus());
+        Assertions.assertEquals(WALLET, results.get(1).getWallet());
+    }
+
+    @Test
+    public void getWalletsOnlyFetchesUncachedWallets() {
+        UUID cachedId = UUID.randomUUID();
+        Wallet cachedWallet = new Wallet(cachedId, BALANCE);
+        lenient().when(walletCache.get(cachedId)).thenReturn(cachedWallet);
+        lenient().when(repo.findAllById(List.of(ID))).thenReturn(List.of(WALLET));
+
+        List<WalletResult> results = service.getWalletsByIds(List.of(cachedId, ID));
+
+        Assertions.assertEquals(cachedWallet, results.get(0).getWallet());
+        Assertions.assertEquals(WALLET, results.get(1).getWallet());
+    }
+
+    @Test
+    public void getWalletsExceedingBatchSizeThrows() {
+        List<UUID> ids = List.of(ID, UUID.randomUUID(), UUID.randomUUID());
+
+        Assertions.assertThrows(WalletException.class, () -> service.getWalletsByIds(ids));
     }
 
     @Test
@@ -60,8 +212,10 @@ public class WalletServiceTest {
 
     @Test
     public void addFundsHappyPath() {
-        lenient().when(repo.save(WALLET)).thenReturn(new Wallet(ID, new BigDecimal("10.12")));
-        Wallet updatedWallet = service.addFundsById(ID, new BigDecimal("0.01"));
+        BigDecimal amount = new BigDecimal("0.01");
+        lenient().when(repo.updateBalance(ID, amount, true))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.UPDATED, new Wallet(ID, new BigDecimal("10.12"))));
+        Wallet updatedWallet = service.addFundsById(ID, amount);
 
         Assertions.assertEquals(new BigDecimal("10.12"), updatedWallet.getBalance());
     }
@@ -75,8 +229,10 @@ public class WalletServiceTest {
 
     @Test
     public void removeFundsHappyPath() {
-        lenient().when(repo.save(WALLET)).thenReturn(new Wallet(ID, new BigDecimal("10.10")));
-        Wallet updatedWallet = service.removeFundsById(ID, new BigDecimal("0.01"));
+        BigDecimal amount = new BigDecimal("0.01");
+        lenient().when(repo.updateBalance(ID, amount, false))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.UPDATED, new Wallet(ID, new BigDecimal("10.10"))));
+        Wallet updatedWallet = service.removeFundsById(ID, amount);
 
         Assertions.assertEquals(new BigDecimal("10.10"), updatedWallet.getBalance());
     }
@@ -90,11 +246,282 @@ public class WalletServiceTest {
 
     @Test
     public void removeFundsNegativeValue() {
-        Assertions.assertThrows(WalletException.class, () -> service.removeFundsById(ID, new BigDecimal("20.20")));
+        BigDecimal amount = new BigDecimal("20.20");
+        lenient().when(repo.updateBalance(ID, amount, false))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.INSUFFICIENT_FUNDS, WALLET));
+
+        Assertions.assertThrows(WalletException.class, () -> service.removeFundsById(ID, amount));
     }
 
     @Test
     public void updateFundsNegativeAmount() {
         Assertions.assertThrows(WalletException.class, () -> service.addFundsById(ID, new BigDecimal("-22.22")));
     }
+
+    @Test
+    public void updateFundsExcessPrecisionAmount() {
+        BigDecimal amount = new BigDecimal("0.001");
+
+        Assertions.assertThrows(WalletException.class, () -> service.updateBalance(IDEMPOTENCY_KEY, ID, true, amount));
+        verify(repo, never()).updateBalance(any(), any(), any(), anyBoolean(), any());
+    }
+
+    @Test
+    public void addWalletIdempotentHappyPath() {
+        lenient().when(repo.create(eq(IDEMPOTENCY_KEY), eq(WALLET), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.CREATED, WALLET));
+
+        WalletResult result = service.addWallet(IDEMPOTENCY_KEY, WALLET);
+
+        Assertions.assertEquals(WalletResult.Status.CREATED, result.getStatus());
+        Assertions.assertEquals(WALLET, result.getWallet());
+    }
+
+    @Test
+    public void addWalletIdempotentAlreadyExists() {
+        lenient().when(repo.create(eq(IDEMPOTENCY_KEY), eq(WALLET), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.ALREADY_EXISTS, null));
+
+        Assertions.assertThrows(IdempotencyException.class, () -> service.addWallet(IDEMPOTENCY_KEY, WALLET));
+        verify(walletCache, never()).put(any(), anyLong());
+    }
+
+    @Test
+    public void retriedAddWalletWithoutIdCreatesSameWallet() {
+        lenient().when(repo.create(eq(IDEMPOTENCY_KEY), any(), any()))
+                .thenAnswer(invocation -> new WalletResult(invocation.<Wallet>getArgument(1).getId(),
+                        WalletResult.Status.CREATED, invocation.getArgument(1)));
+
+        WalletResult first = service.addWallet(IDEMPOTENCY_KEY, new Wallet(null, BALANCE));
+        WalletResult retry = service.addWallet(IDEMPOTENCY_KEY, new Wallet(null, BALANCE));
+        WalletResult other = service.addWallet(UUID.randomUUID(), new Wallet(null, BALANCE));
+
+        ArgumentCaptor<Wallet> captor = ArgumentCaptor.forClass(Wallet.class);
+        verify(repo, times(2)).create(eq(IDEMPOTENCY_KEY), captor.capture(), any());
+        Assertions.assertNotNull(first.getWallet().getId());
+        Assertions.assertEquals(captor.getAllValues().get(0).getId(), captor.getAllValues().get(1).getId());
+        Assertions.assertEquals(first.getWallet().getId(), retry.getWallet().getId());
+        Assertions.assertNotEquals(first.getWallet().getId(), other.getWallet().getId());
+    }
+
+    @Test
+    public void updateBalanceIdempotentHappyPath() {
+        BigDecimal amount = new BigDecimal("0.01");
+        Wallet updatedWallet = new Wallet(ID, new BigDecimal("10.12"));
+        lenient().when(repo.updateBalance(eq(IDEMPOTENCY_KEY), eq(ID), eq(amount), eq(true), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.UPDATED, updatedWallet));
+
+        WalletResult result = service.updateBalance(IDEMPOTENCY_KEY, ID, true, amount);
+
+        Assertions.assertEquals(WalletResult.Status.UPDATED, result.getStatus());
+        Assertions.assertEquals(updatedWallet, result.getWallet());
+    }
+
+    @Test
+    public void updateBalanceIdempotentReplayed() {
+        BigDecimal amount = new BigDecimal("0.01");
+        lenient().when(repo.updateBalance(eq(IDEMPOTENCY_KEY), eq(ID), eq(amount), eq(false), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.REPLAYED, WALLET));
+
+        WalletResult result = service.updateBalance(IDEMPOTENCY_KEY, ID, false, amount);
+
+        Assertions.assertEquals(WalletResult.Status.REPLAYED, result.getStatus());
+        Assertions.assertEquals(WALLET, result.getWallet());
+        verify(walletMetrics).record(WalletResult.Status.REPLAYED);
+    }
+
+    @Test
+    public void updateBalanceIdempotentInsufficientFunds() {
+        BigDecimal amount = new BigDecimal("20.20");
+        lenient().when(repo.updateBalance(eq(IDEMPOTENCY_KEY), eq(ID), eq(amount), eq(false), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.INSUFFICIENT_FUNDS, WALLET));
+
+        Assertions.assertThrows(WalletException.class, () -> service.updateBalance(IDEMPOTENCY_KEY, ID, false, amount));
+        verify(walletMetrics).record(WalletResult.Status.INSUFFICIENT_FUNDS);
+    }
+
+    @Test
+    public void updateBalanceIdempotentCoalesced() {
+        BigDecimal amount = new BigDecimal("0.01");
+        Wallet updatedWallet = new Wallet(ID, new BigDecimal("10.12"));
+        lenient().when(balanceCoalescer.isEnabled()).thenReturn(true);
+        lenient().when(balanceCoalescer.submit(eq(new BalanceChange(IDEMPOTENCY_KEY, ID, true, amount)), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.UPDATED, updatedWallet));
+
+        WalletResult result = service.updateBalance(IDEMPOTENCY_KEY, ID, true, amount);
+
+        Assertions.assertEquals(updatedWallet, result.getWallet());
+        verify(repo, never()).updateBalance(any(), any(), any(), anyBoolean(), any());
+        verify(walletCache).put(eq(updatedWallet), anyLong());
+    }
+
+    @Test
+    public void updateBalanceIdempotentInProgress() {
+        BigDecimal amount = new BigDecimal("0.01");
+        lenient().when(repo.updateBalance(eq(IDEMPOTENCY_KEY), eq(ID), eq(amount), eq(true), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.IN_PROGRESS, null));
+
+        Assertions.assertThrows(IdempotencyException.class, () -> service.updateBalance(IDEMPOTENCY_KEY, ID, true, amount));
+    }
+
+    @Test
+    public void updateBalanceIdempotentKeyOfBatchRequest() {
+        BigDecimal amount = new BigDecimal("0.01");
+        lenient().when(repo.updateBalance(eq(IDEMPOTENCY_KEY), eq(ID), eq(amount), eq(true), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.KEY_REUSED, null));
+
+        Assertions.assertThrows(IdempotencyException.class, () -> service.updateBalance(IDEMPOTENCY_KEY, ID, true, amount));
+    }
+
+    @Test
+    public void updateBalanceIdempotentConflict() {
+        BigDecimal amount = new BigDecimal("0.01");
+        lenient().when(repo.updateBalance(eq(IDEMPOTENCY_KEY), eq(ID), eq(amount), eq(true), any()))
+                .thenReturn(new WalletResult(ID, WalletResult.Status.CONFLICT, null));
+
+        Assertions.assertThrows(IdempotencyException.class, () -> service.updateBalance(IDEMPOTENCY_KEY, ID, true, amount));
+        verify(walletCache, never()).put(any(), anyLong());
+    }
+
+    @Test
+    public void updateBalancesPreservesOrderAndSkipsInvalidAmounts() {
+        BigDecimal amount = new BigDecimal("0.01");
+        UUID missingId = UUID.randomUUID();
+        Wallet updatedWallet = new Wallet(ID, new BigDecimal("10.12"));
+        BalanceChange invalidChange = new BalanceChange(UUID.randomUUID(), ID, true, new BigDecimal("-1.00"));
+        BalanceChange validChange = new BalanceChange(IDEMPOTENCY_KEY, ID, true, amount);
+        BalanceChange missingChange = new BalanceChange(UUID.randomUUID(), missingId, false, amount);
+        lenient().when(repo.updateBalances(eq(List.of(validChange, missingChange)), any()))
+                .thenReturn(List.of(new WalletResult(ID, WalletResult.Status.UPDATED, updatedWallet),
+                        new WalletResult(missingId, WalletResult.Status.NOT_FOUND, null)));
+
+        List<WalletResult> results = service.updateBalances(List.of(invalidChange, validChange, missingChange));
+
+        Assertions.assertEquals(WalletResult.Status.INVALID_AMOUNT, results.get(0).getStatus());
+        Assertions.assertEquals(WalletResult.Status.UPDATED, results.get(1).getStatus());
+        Assertions.assertEquals(updatedWallet, results.get(1).getWallet());
+        Assertions.assertEquals(WalletResult.Status.NOT_FOUND, results.get(2).getStatus());
+        verify(walletCache).put(eq(updatedWallet), anyLong());
+    }
+
+    @Test
+    public void updateBalancesAllInvalidSkipsRedis() {
+        BalanceChange invalidChange = new BalanceChange(IDEMPOTENCY_KEY, ID, false, BigDecimal.ZERO);
+
+        List<WalletResult> results = service.updateBalances(List.of(invalidChange));
+
+        Assertions.assertEquals(WalletResult.Status.INVALID_AMOUNT, results.get(0).getStatus());
+        verify(repo, never()).updateBalances(anyList(), any());
+    }
+
+    @Test
+    public void updateBalancesExceedingBatchSizeThrows() {
+        BigDecimal amount = new BigDecimal("0.01");
+        List<BalanceChange> changes = List.of(new BalanceChange(UUID.randomUUID(), ID, true, amount),
+                new BalanceChange(UUID.randomUUID(), ID, true, amount),
+                new BalanceChange(UUID.randomUUID(), ID, true, amount));
+
+        Assertions.assertThrows(WalletException.class, () -> service.updateBalances(changes));
+    }
+
+    @Test
+    public void addWalletsWritesInChunksAndReportsStatuses() {
+        Wallet first = new Wallet(UUID.randomUUID(), BALANCE);
+        Wallet existing = new Wallet(UUID.randomUUID(), BALANCE);
+        Wallet duplicate = new Wallet(first.getId(), BALANCE);
+        Wallet last = new Wallet(UUID.randomUUID(), BALANCE);
+        lenient().when(repo.createAll(List.of(first, existing))).thenReturn(List.of(true, false));
+        lenient().when(repo.createAll(List.of(last))).thenReturn(List.of(true));
+
+        List<WalletResult> results = service.addWallets(IDEMPOTENCY_KEY, List.of(first, existing, duplicate, last));
+
+        Assertions.assertEquals(WalletResult.Status.CREATED, results.get(0).getStatus());
+        Assertions.assertEquals(WalletResult.Status.ALREADY_EXISTS, results.get(1).getStatus());
+        Assertions.assertEquals(WalletResult.Status.DUPLICATE, results.get(2).getStatus());
+        Assertions.assertEquals(WalletResult.Status.CREATED, results.get(3).getStatus());
+        Assertions.assertEquals(last.getId(), results.get(3).getId());
+        verify(repo, times(2)).createAll(anyList());
+        verify(idempotencyService, times(2)).renew(eq(IDEMPOTENCY_KEY), any());
+        verify(idempotencyService).complete(eq(IDEMPOTENCY_KEY), any(), eq(results));
+    }
+
+    @Test
+    public void addWalletsReplaysStoredResults() {
+        List<WalletResult> storedResults = List.of(new WalletResult(ID, WalletResult.Status.CREATED, null));
+        lenient().when(idempotencyService.claim(eq(IDEMPOTENCY_KEY), any())).thenReturn(
+                Idempotency.builder().key(IDEMPOTENCY_KEY).results(storedResults).expiry(Instant.now()).build());
+
+        List<WalletResult> results = service.addWallets(IDEMPOTENCY_KEY, List.of(WALLET));
+
+        Assertions.assertEquals(storedResults, results);
+        verify(repo, never()).createAll(anyList());
+        verify(walletMetrics).record(WalletResult.Status.REPLAYED);
+    }
+
+    @Test
+    public void addWalletsReleasesKeyOnFailure() {
+        lenient().when(repo.createAll(anyList())).thenThrow(new IllegalStateException("Redis unavailable"));
+
+        Assertions.assertThrows(IllegalStateException.class, () -> service.addWallets(IDEMPOTENCY_KEY, List.of(WALLET)));
+        verify(idempotencyService).release(eq(IDEMPOTENCY_KEY), any());
+    }
+
+    @Test
+    public void addWalletsStopsWhenLeaseExpires() {
+        Wallet first = new Wallet(UUID.randomUUID(), BALANCE);
+        Wallet second = new Wallet(UUID.randomUUID(), BALANCE);
+        Wallet last = new Wallet(UUID.randomUUID(), BALANCE);
+        lenient().when(repo.createAll(anyList())).thenReturn(List.of(true, true));
+        doThrow(new IdempotencyException("Lease expired")).when(idempotencyService).renew(eq(IDEMPOTENCY_KEY), any());
+
+        Assertions.assertThrows(IdempotencyException.class,
+                () -> service.addWallets(IDEMPOTENCY_KEY, List.of(first, second, last)));
+        ArgumentCaptor<UUID> owner = ArgumentCaptor.forClass(UUID.class);
+        verify(idempotencyService).claim(eq(IDEMPOTENCY_KEY), owner.capture());
+        verify(repo, times(1)).createAll(anyList());
+        verify(idempotencyService).release(IDEMPOTENCY_KEY, owner.getValue());
+        verify(idempotencyService, never()).complete(any(), any(), anyList());
+    }
+
+    @Test
+    public void transferHappyPath() {
+        UUID toId = UUID.randomUUID();
+        BigDecimal amount = new BigDecimal("0.01");
+        Wallet from = new Wallet(ID, new BigDecimal("10.10"));
+        Wallet to = new Wallet(toId, new BigDecimal("0.01"));
+        lenient().when(repo.transfer(eq(IDEMPOTENCY_KEY), eq(ID), eq(toId), eq(amount), any()))
+                .thenReturn(new TransferResult(WalletResult.Status.UPDATED, null, from, to));
+
+        TransferResult result = service.transfer(IDEMPOTENCY_KEY, ID, toId, amount);
+
+        Assertions.assertEquals(from, result.getFrom());
+        Assertions.assertEquals(to, result.getTo());
+        verify(walletCache).put(eq(from), anyLong());
+        verify(walletCache).put(eq(to), anyLong());
+    }
+
+    @Test
+    public void transferInsufficientFunds() {
+        UUID toId = UUID.randomUUID();
+        BigDecimal amount = new BigDecimal("20.20");
+        lenient().when(repo.transfer(eq(IDEMPOTENCY_KEY), eq(ID), eq(toId), eq(amount), any()))
+                .thenReturn(new TransferResult(WalletResult.Status.INSUFFICIENT_FUNDS, ID, WALLET, null));
+
+        Assertions.assertThrows(WalletException.class, () -> service.transfer(IDEMPOTENCY_KEY, ID, toId, amount));
+    }
+
+    @Test
+    public void transferToSameWalletThrows() {
+        Assertions.assertThrows(WalletException.class, () -> service.transfer(IDEMPOTENCY_KEY, ID, ID, new BigDecimal("0.01")));
+    }
+
+    @Test
+    public void transferKeyUsedBySingleRequestThrows() {
+        UUID toId = UUID.randomUUID();
+        BigDecimal amount = new BigDecimal("0.01");
+        lenient().when(repo.transfer(eq(IDEMPOTENCY_KEY), eq(ID), eq(toId), eq(amount), any()))
+                .thenReturn(new TransferResult(WalletResult.Status.REPLAYED, null, WALLET, null));
+
+        Assertions.assertThrows(IdempotencyException.class, () -> service.transfer(IDEMPOTENCY_KEY, ID, toId, amount));
+    }
 }